@@ -0,0 +1,99 @@
+package com.salvavita.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.salvavita.model.ProtocolliSospesi;
+import com.salvavita.model.ProtocolliSospesiCompatti;
+import com.salvavita.service.DatiBenchmark;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serializzazione JSON della risposta di GET /api/protocolli-sospesi (envelope success/data/version...)
+ * con l'ObjectMapper configurato come quello di Spring Boot
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+@State(Scope.Thread)
+public class RispostaJsonBenchmark {
+
+    @Param({"1000", "10000"})
+    private int righe;
+
+    // Lista dello snapshot compatto (come in SnapshotService) o ArrayList di oggetti
+    @Param({"true", "false"})
+    private boolean compatta;
+
+    private ObjectMapper objectMapper;
+    private Map<String, Object> response;
+
+    @Setup
+    public void setup() {
+        objectMapper = Jackson2ObjectMapperBuilder.json()
+                .featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+                .build();
+
+        List<ProtocolliSospesi> data = DatiBenchmark.protocolli(righe);
+        if (compatta) {
+            data = ProtocolliSospesiCompatti.da(data);
+        }
+        Map<String, Long> tempi = new TreeMap<>();
+        tempi.put("ENTRATE", 850L);
+        tempi.put("SOGEI", 120L);
+
+        response = new HashMap<>();
+        response.put("success", true);
+        response.put("totalRecords", data.size());
+        response.put("data", data);
+        response.put("version", 42L);
+        response.put("snapshotTime", LocalDateTime.of(2025, 11, 29, 15, 30));
+        response.put("snapshotAgeMs", 1500L);
+        response.put("timingsMs", tempi);
+    }
+
+    @Benchmark
+    public long serializza() throws IOException {
+        ContaByte out = new ContaByte();
+        objectMapper.writeValue(out, response);
+        return out.byte_;
+    }
+
+    /**
+     * Scarta l'output contando i byte, per non misurare la crescita di un buffer
+     */
+    private static final class ContaByte extends OutputStream {
+        long byte_;
+
+        @Override
+        public void write(int b) {
+            byte_++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            byte_ += len;
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package com.salvavita.service;
+
+import com.salvavita.config.EntiProperties;
+import com.salvavita.model.Ente;
+import com.salvavita.model.ProtocolliSospesi;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Dati e oggetti di supporto dei benchmark JMH: righe sintetiche ma deterministiche
+ * (seme fisso), un ResultSet in memoria e l'iniezione dei campi senza contesto Spring
+ */
+public final class DatiBenchmark {
+
+    // Stessa configurazione di application.properties
+    private static final String[][] DATE_INIZIO = {
+            {"AAMS", "2025-07-11T00:00:00"},
+            {"ACN", "2025-04-20T00:00:00"},
+            {"CONSIP", "2025-04-20T00:00:00"},
+            {"DEMANIO", "2025-07-10T00:00:00"},
+            {"ENTRATE", "2025-02-27T00:00:00"},
+            {"EQUI", "2025-06-25T00:00:00"},
+            {"SOGEI", "2025-05-06T00:00:00"}
+    };
+
+    // Colonne lette da OracleService.mapProtocolloSospeso
+    public static final String[] COLONNE_PROTOCOLLI = {
+            "ENTE", "SEQU_LONG_ID", "COUNT_RECUPERI_EJB", "PRESA_VISIONE", "IDTRANSIZIONEPRESENTE",
+            "CODICE_UFFICIO", "UTENTE_CREATORE", "DATA_INSERIMENTO", "STATO_DOCUMENTO", "ESITO_DOCUMENTO",
+            "ID_ATMOS", "ERRORE", "NOME_DOCUMENTO", "SEQU_LONG_ID_DOC"
+    };
+
+    private static final long SEME = 20250101L;
+    private static final int UFFICI_PER_ENTE = 50;
+    private static final int UTENTI = 200;
+
+    private DatiBenchmark() {
+    }
+
+    public static EntiProperties entiProperties() {
+        Map<Ente, String> dataInizio = new HashMap<>();
+        for (String[] d : DATE_INIZIO) {
+            dataInizio.put(Ente.fromNome(d[0]), d[1]);
+        }
+        EntiProperties props = new EntiProperties();
+        props.setDataInizio(dataInizio);
+        props.setOuterJoinDocumenti(EnumSet.of(Ente.ACN, Ente.EQUI, Ente.AAMS, Ente.ENTRATE));
+        return props;
+    }
+
+    /**
+     * AooUfficioService con i dizionari gia' caricati per tutti i codici usati da righeProtocolli
+     */
+    public static AooUfficioService aooUfficioService() {
+        AooUfficioService service = new AooUfficioService();
+        Map<Ente, Map<String, String>> dizionari = leggi(service, "dizionari");
+        for (Ente ente : entiProperties().getAbilitati()) {
+            Map<String, String> dizionario = new HashMap<>();
+            for (int i = 0; i < UFFICI_PER_ENTE; i++) {
+                dizionario.put(codiceUfficio(i), "AOO_" + ente.getNome() + " - Ufficio " + i);
+            }
+            dizionari.put(ente, dizionario);
+        }
+        return service;
+    }
+
+    /**
+     * Righe del ResultSet PROTOCOLLI_SOSPESI nell'ordine di COLONNE_PROTOCOLLI, ordinate per ente
+     */
+    public static Object[][] righeProtocolli(int n) {
+        List<Ente> enti = entiProperties().getAbilitati();
+        Random random = new Random(SEME);
+        LocalDateTime base = LocalDateTime.of(2025, 6, 1, 8, 0);
+        Object[][] righe = new Object[n][];
+        for (int i = 0; i < n; i++) {
+            Ente ente = enti.get(i * enti.size() / n);
+            boolean errore = random.nextInt(10) == 0;
+            righe[i] = new Object[]{
+                    ente.getNome(),
+                    1_000_000L + i,
+                    random.nextInt(4),
+                    0,
+                    random.nextInt(2),
+                    codiceUfficio(random.nextInt(UFFICI_PER_ENTE)),
+                    "UTENTE" + random.nextInt(UTENTI),
+                    Timestamp.valueOf(base.plusMinutes(random.nextInt(200_000))),
+                    random.nextInt(5),
+                    errore ? 2 : 1,
+                    random.nextInt(3) == 0 ? null : "ATMOS-" + Long.toHexString(random.nextLong()),
+                    errore ? "Timeout nella risposta A2D" : null,
+                    "documento_" + i + ".pdf",
+                    5_000_000L + i
+            };
+        }
+        return righe;
+    }
+
+    /**
+     * Protocolli gia' mappati, come nello snapshot
+     */
+    public static List<ProtocolliSospesi> protocolli(int n) {
+        Object[][] righe = righeProtocolli(n);
+        List<ProtocolliSospesi> result = new ArrayList<>(n);
+        for (Object[] r : righe) {
+            Timestamp ts = (Timestamp) r[7];
+            result.add(new ProtocolliSospesi((String) r[0], (Long) r[1], (Integer) r[2], (Integer) r[3],
+                    (Integer) r[4], "AOO_" + r[0] + " - Ufficio " + r[5], (String) r[6], ts.toLocalDateTime(),
+                    (Integer) r[8], (Integer) r[9], (String) r[10], null, (String) r[11], (String) r[12],
+                    (Long) r[13]));
+        }
+        return result;
+    }
+
+    /**
+     * ResultSet forward-only in memoria: supporta next, wasNull, close e i getter per nome colonna.
+     * Il costo del proxy e' uguale per ogni commit, quindi i risultati restano confrontabili
+     */
+    public static ResultSet resultSet(String[] colonne, Object[][] righe) {
+        Map<String, Integer> indici = new HashMap<>();
+        for (int i = 0; i < colonne.length; i++) {
+            indici.put(colonne[i].toUpperCase(), i);
+        }
+        int[] corrente = {-1};
+        boolean[] nullo = {false};
+        return (ResultSet) Proxy.newProxyInstance(DatiBenchmark.class.getClassLoader(), new Class<?>[]{ResultSet.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "next":
+                            return ++corrente[0] < righe.length;
+                        case "wasNull":
+                            return nullo[0];
+                        case "close":
+                            return null;
+                        case "isClosed":
+                            return false;
+                        case "getString":
+                        case "getLong":
+                        case "getInt":
+                        case "getTimestamp":
+                        case "getObject":
+                            Integer indice = args[0] instanceof String
+                                    ? indici.get(((String) args[0]).toUpperCase())
+                                    : (Integer) args[0] - 1;
+                            if (indice == null) {
+                                throw new java.sql.SQLException("Colonna non trovata: " + args[0]);
+                            }
+                            Object valore = righe[corrente[0]][indice];
+                            nullo[0] = valore == null;
+                            return converti(valore, method.getReturnType());
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    /**
+     * Connessione fittizia per registrare transazioni in TransactionService
+     */
+    public static Connection connessione() {
+        return (Connection) Proxy.newProxyInstance(DatiBenchmark.class.getClassLoader(), new Class<?>[]{Connection.class},
+                (proxy, method, args) -> {
+                    Class<?> tipo = method.getReturnType();
+                    if (tipo == boolean.class) {
+                        return false;
+                    }
+                    if (tipo == int.class) {
+                        return 0;
+                    }
+                    return null;
+                });
+    }
+
+    /**
+     * Imposta un campo (anche privato) come farebbe l'iniezione di Spring
+     */
+    public static void imposta(Object target, String campo, Object valore) {
+        try {
+            Field field = target.getClass().getDeclaredField(campo);
+            field.setAccessible(true);
+            field.set(target, valore);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Campo " + campo + " non impostabile", e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T leggi(Object target, String campo) {
+        try {
+            Field field = target.getClass().getDeclaredField(campo);
+            field.setAccessible(true);
+            return (T) field.get(target);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Campo " + campo + " non leggibile", e);
+        }
+    }
+
+    private static Object converti(Object valore, Class<?> tipo) {
+        if (valore == null) {
+            if (tipo == long.class) {
+                return 0L;
+            }
+            if (tipo == int.class) {
+                return 0;
+            }
+            return null;
+        }
+        if (tipo == long.class) {
+            return ((Number) valore).longValue();
+        }
+        if (tipo == int.class) {
+            return ((Number) valore).intValue();
+        }
+        if (tipo == String.class) {
+            return valore.toString();
+        }
+        return valore;
+    }
+
+    private static String codiceUfficio(int i) {
+        return String.format("U%04d", i);
+    }
+}
@@ -0,0 +1,65 @@
+package com.salvavita.service;
+
+import com.salvavita.model.ProtocolliSospesi;
+import com.salvavita.model.ProtocolliSospesiCompatti;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Conversione del ResultSet PROTOCOLLI_SOSPESI in ProtocolliSospesi (OracleService.mapProtocolloSospeso),
+ * con risoluzione AOO/ufficio dal dizionario, e compattazione dello snapshot
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+@State(Scope.Thread)
+public class MappaturaProtocolliBenchmark {
+
+    @Param({"1000", "10000"})
+    private int righe;
+
+    private OracleService oracleService;
+    private Object[][] dati;
+
+    @Setup
+    public void setup() {
+        oracleService = new OracleService();
+        DatiBenchmark.imposta(oracleService, "aooUfficioService", DatiBenchmark.aooUfficioService());
+        dati = DatiBenchmark.righeProtocolli(righe);
+    }
+
+    @Benchmark
+    public List<ProtocolliSospesi> mappa() throws Exception {
+        return leggi();
+    }
+
+    @Benchmark
+    public ProtocolliSospesiCompatti mappaECompatta() throws Exception {
+        return ProtocolliSospesiCompatti.da(leggi());
+    }
+
+    private List<ProtocolliSospesi> leggi() throws Exception {
+        ResultSet rs = DatiBenchmark.resultSet(DatiBenchmark.COLONNE_PROTOCOLLI, dati);
+        List<ProtocolliSospesi> result = new ArrayList<>();
+        while (rs.next()) {
+            result.add(oracleService.mapProtocolloSospeso(rs));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,64 @@
+package com.salvavita.service;
+
+import com.salvavita.model.Ente;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Costruzione delle query PROTOCOLLI_SOSPESI: il testo completo generato da zero
+ * (come avveniva a ogni aggiornamento) e quello precalcolato da QueryProtocolliSospesi
+ * con i soli parametri da creare a ogni esecuzione
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+@State(Scope.Thread)
+public class QueryProtocolliSospesiBenchmark {
+
+    private QueryProtocolliSospesi query;
+
+    @Setup
+    public void setup() {
+        query = new QueryProtocolliSospesi();
+        DatiBenchmark.imposta(query, "entiProperties", DatiBenchmark.entiProperties());
+        query.init();
+    }
+
+    @Benchmark
+    public String costruisciUnion() {
+        StringBuilder union = new StringBuilder();
+        for (Ente ente : query.getEnti()) {
+            if (union.length() > 0) {
+                union.append(" UNION ALL ");
+            }
+            union.append(query.buildQueryDettaglio(ente));
+        }
+        return union.append(" ORDER BY 1, 2").toString();
+    }
+
+    @Benchmark
+    public void costruisciQueryId(Blackhole bh) {
+        for (Ente ente : query.getEnti()) {
+            bh.consume(query.buildQueryId(ente));
+        }
+    }
+
+    @Benchmark
+    public void queryPrecalcolata(Blackhole bh) {
+        bh.consume(query.getQueryUnion());
+        bh.consume(query.getParametriUnion());
+    }
+}
@@ -0,0 +1,110 @@
+package com.salvavita.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Accesso concorrente al registro delle transazioni in sospeso: ogni thread del benchmark
+ * e' una "sessione" (fuori da una richiesta HTTP il Session ID e' l'ID del thread) con la propria
+ * transazione, mentre altre transazioniAperte restano registrate da sessioni ferme
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+@Threads(TransactionServiceBenchmark.THREAD)
+public class TransactionServiceBenchmark {
+
+    static final int THREAD = 4;
+
+    @State(Scope.Benchmark)
+    public static class Registro {
+
+        @Param({"0", "1000"})
+        private int transazioniAperte;
+
+        TransactionService service;
+
+        @Setup
+        public void setup() throws InterruptedException {
+            service = new TransactionService();
+            DatiBenchmark.imposta(service, "leaseMs", TimeUnit.HOURS.toMillis(1));
+            // Posti per le sessioni ferme e per quelle dei thread del benchmark, come farebbe init()
+            // (senza metriche ne' reaper)
+            int maxInSospeso = transazioniAperte + THREAD;
+            DatiBenchmark.imposta(service, "maxInSospeso", maxInSospeso);
+            DatiBenchmark.imposta(service, "posti", new Semaphore(maxInSospeso));
+            // Ogni thread registra una transazione con il proprio Session ID
+            Throwable[] errore = new Throwable[1];
+            for (int i = 0; i < transazioniAperte && errore[0] == null; i++) {
+                Thread t = new Thread(this::registra);
+                t.setUncaughtExceptionHandler((thread, e) -> errore[0] = e);
+                t.start();
+                t.join();
+            }
+            if (errore[0] != null) {
+                throw new IllegalStateException("Setup del registro non riuscito", errore[0]);
+            }
+        }
+
+        void registra() {
+            try {
+                service.registra(null, DatiBenchmark.connessione(), "DELETE benchmark", null,
+                        Collections.singletonList("p2_proto_temporaneo"));
+            } catch (Exception e) {
+                throw new IllegalStateException("Transazione del benchmark non registrata", e);
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Sessione {
+
+        @Setup(Level.Iteration)
+        public void setup(Registro registro) {
+            if (registro.service.getTransazione() == null) {
+                registro.registra();
+            }
+        }
+    }
+
+    @Benchmark
+    public TransazioneInSospeso getTransazione(Registro registro, Sessione sessione) {
+        return registro.service.getTransazione();
+    }
+
+    @Benchmark
+    public TransazioneInSospeso riprendiERilascia(Registro registro, Sessione sessione) {
+        TransazioneInSospeso tx = registro.service.riprendi();
+        registro.service.rilascia(tx);
+        return tx;
+    }
+
+    @Benchmark
+    public TransazioneInSospeso rinnova(Registro registro, Sessione sessione) {
+        return registro.service.rinnova();
+    }
+
+    @Benchmark
+    public List<Map<String, Object>> elenco(Registro registro, Sessione sessione) {
+        return registro.service.getTransazioni();
+    }
+}
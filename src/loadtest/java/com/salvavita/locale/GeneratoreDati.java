@@ -0,0 +1,320 @@
+package com.salvavita.locale;
+
+import com.salvavita.model.Ente;
+
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * Crea nel database H2 in modalita' Oracle i nove schemi Ente e lo schema dello scheduler
+ * e li popola con dati sintetici alla scala richiesta.
+ *
+ * <pre>
+ * mvn -B -Ploadtest compile exec:java@genera -Dexec.args="--righe=100000"
+ * </pre>
+ *
+ * Opzioni (--nome=valore):
+ * <ul>
+ *   <li>url: URL JDBC (default il database del profilo Spring locale)</li>
+ *   <li>righe: protocolli temporanei in totale, divisi tra gli enti (default 10000)</li>
+ *   <li>documenti: documenti medi per protocollo (default 1.5)</li>
+ *   <li>sospesi: quota di protocolli sospesi (default 0.05)</li>
+ *   <li>task: task dello scheduler (default 15)</li>
+ *   <li>seme: seme dei numeri casuali, per rigenerare gli stessi dati (default 42)</li>
+ * </ul>
+ * Al termine stampa per ogni ente il numero di protocolli sospesi attesi, da confrontare
+ * con totalRecords di GET /api/protocolli-sospesi (ADER e DPF non sono interrogati).
+ */
+public class GeneratoreDati {
+
+    static final String URL_LOCALE = "jdbc:h2:file:./target/h2/salvavita;MODE=Oracle;DEFAULT_NULL_ORDERING=HIGH;AUTO_SERVER=TRUE";
+
+    private static final int RIGHE_PER_COMMIT = 5000;
+    private static final int AOO_PER_ENTE = 5;
+    private static final int UFFICI_PER_AOO = 10;
+    private static final int UTENTI = 500;
+
+    // Prima data di inizio monitoraggio configurata (AAMS): tutti i protocolli generati sono successivi
+    private static final LocalDateTime PRIMO_INSERIMENTO = LocalDateTime.of(2025, 7, 11, 0, 0);
+
+    private final Random random;
+    private final int righe;
+    private final double documentiMedi;
+    private final double quotaSospesi;
+    private final LocalDateTime ora = LocalDateTime.now().truncatedTo(ChronoUnit.SECONDS);
+    private final long secondiIntervallo = ChronoUnit.SECONDS.between(PRIMO_INSERIMENTO, ora);
+
+    GeneratoreDati(int righe, double documentiMedi, double quotaSospesi, long seme) {
+        this.righe = righe;
+        this.documentiMedi = documentiMedi;
+        this.quotaSospesi = quotaSospesi;
+        this.random = new Random(seme);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> opzioni = leggiOpzioni(args);
+        String url = opzioni.getOrDefault("url", URL_LOCALE);
+        int righe = Integer.parseInt(opzioni.getOrDefault("righe", "10000"));
+        int task = Integer.parseInt(opzioni.getOrDefault("task", "15"));
+        GeneratoreDati generatore = new GeneratoreDati(righe,
+                Double.parseDouble(opzioni.getOrDefault("documenti", "1.5")),
+                Double.parseDouble(opzioni.getOrDefault("sospesi", "0.05")),
+                Long.parseLong(opzioni.getOrDefault("seme", "42")));
+
+        long start = System.currentTimeMillis();
+        try (Connection conn = DriverManager.getConnection(url, "sa", "")) {
+            conn.setAutoCommit(false);
+            Map<Ente, Integer> sospesi = generatore.genera(conn, task);
+
+            System.out.printf("Generati %d protocolli temporanei in %d s%n", righe, (System.currentTimeMillis() - start) / 1000);
+            System.out.println("Protocolli sospesi attesi per ente:");
+            for (Map.Entry<Ente, Integer> entry : sospesi.entrySet()) {
+                System.out.printf("  %-8s %d%n", entry.getKey().getNome(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Ricrea gli schemi e li popola
+     *
+     * @return protocolli sospesi generati per ente
+     */
+    Map<Ente, Integer> genera(Connection conn, int task) throws Exception {
+        Map<Ente, Integer> sospesi = new TreeMap<>((a, b) -> a.getNome().compareTo(b.getNome()));
+        String ddlEnte = leggiRisorsa("/locale/schema-ente.sql");
+        Ente[] enti = Ente.values();
+
+        for (int i = 0; i < enti.length; i++) {
+            Ente ente = enti[i];
+            eseguiScript(conn, ddlEnte.replace("{schema}", ente.getSchema()));
+            generaUffici(conn, ente);
+            // Resto della divisione ai primi enti
+            int righeEnte = righe / enti.length + (i < righe % enti.length ? 1 : 0);
+            sospesi.put(ente, generaProtocolli(conn, ente, righeEnte));
+            System.out.printf("Schema %s: %d protocolli%n", ente.getSchema(), righeEnte);
+        }
+
+        eseguiScript(conn, leggiRisorsa("/locale/schema-scheduler.sql"));
+        generaScheduler(conn, task);
+        return sospesi;
+    }
+
+    private void generaUffici(Connection conn, Ente ente) throws SQLException {
+        String s = ente.getSchema();
+        try (PreparedStatement aoo = conn.prepareStatement("INSERT INTO " + s + ".d_aree_organizzative VALUES (?, ?, ?)");
+             PreparedStatement uff = conn.prepareStatement("INSERT INTO " + s + ".d_uffici VALUES (?, ?, ?)")) {
+            for (int a = 1; a <= AOO_PER_ENTE; a++) {
+                aoo.setLong(1, a);
+                aoo.setString(2, "AOO" + a);
+                aoo.setString(3, "AOO " + ente.getNome() + " " + a);
+                aoo.addBatch();
+                for (int u = 0; u < UFFICI_PER_AOO; u++) {
+                    uff.setString(1, codiceUfficio((a - 1) * UFFICI_PER_AOO + u));
+                    uff.setString(2, "Ufficio " + ((a - 1) * UFFICI_PER_AOO + u));
+                    uff.setLong(3, a);
+                    uff.addBatch();
+                }
+            }
+            aoo.executeBatch();
+            uff.executeBatch();
+        }
+        conn.commit();
+    }
+
+    /**
+     * Protocolli temporanei con documenti, callback A2D, protocolli definitivi e tabelle figlie.
+     * Un protocollo non sospeso lo e' per uno dei motivi della query PROTOCOLLI_SOSPESI:
+     * protocollato, tipo diverso da 3, presa visione, documento con esito 2
+     */
+    private int generaProtocolli(Connection conn, Ente ente, int n) throws SQLException {
+        String s = ente.getSchema();
+        int sospesi = 0;
+        long idDocumento = 0;
+        long idProtocollo = 0;
+
+        try (PreparedStatement pt = conn.prepareStatement("INSERT INTO " + s + ".p2_proto_temporaneo VALUES (?, ?, ?, ?, ?, ?, ?)");
+             PreparedStatement doc = conn.prepareStatement("INSERT INTO " + s + ".p2_proto_tmp_documenti VALUES (?, ?, ?, ?, ?, ?, ?)");
+             PreparedStatement a2d = conn.prepareStatement("INSERT INTO " + s + ".p2_callback_a2d VALUES (?, ?)");
+             PreparedStatement p = conn.prepareStatement("INSERT INTO " + s + ".p2_protocollo VALUES (?, ?, ?, ?)");
+             PreparedStatement dettagli = conn.prepareStatement("INSERT INTO " + s + ".p2_proto_tmp_dettagli VALUES (?, ?)");
+             PreparedStatement mittdest = conn.prepareStatement("INSERT INTO " + s + ".p2_proto_tmp_mittdest VALUES (?, ?)");
+             PreparedStatement classif = conn.prepareStatement("INSERT INTO " + s + ".p2_proto_tmp_classificazione VALUES (?)")) {
+
+            List<PreparedStatement> batch = new ArrayList<>();
+            batch.add(pt);
+            batch.add(doc);
+            batch.add(a2d);
+            batch.add(p);
+            batch.add(dettagli);
+            batch.add(mittdest);
+            batch.add(classif);
+
+            for (long id = 1; id <= n; id++) {
+                boolean sospeso = random.nextDouble() < quotaSospesi;
+                int motivo = sospeso ? -1 : random.nextInt(100);
+                if (sospeso) {
+                    sospesi++;
+                }
+
+                pt.setLong(1, id);
+                pt.setInt(2, motivo >= 50 && motivo < 70 ? 1 + random.nextInt(2) : 3);
+                pt.setInt(3, motivo >= 70 && motivo < 85 ? 1 : 0);
+                pt.setInt(4, random.nextInt(10) == 0 ? 1 + random.nextInt(5) : 0);
+                pt.setString(5, codiceUfficio(random.nextInt(AOO_PER_ENTE * UFFICI_PER_AOO)));
+                pt.setString(6, "UTENTE" + random.nextInt(UTENTI));
+                pt.setTimestamp(7, Timestamp.valueOf(PRIMO_INSERIMENTO.plusSeconds(1 + (long) (random.nextDouble() * (secondiIntervallo - 1)))));
+                pt.addBatch();
+
+                // Almeno un documento per i protocolli con esito 2 (motivo 85-99)
+                int documenti = (int) documentiMedi + (random.nextDouble() < documentiMedi % 1 ? 1 : 0);
+                if (motivo >= 85) {
+                    documenti = Math.max(1, documenti);
+                }
+                for (int d = 0; d < documenti; d++) {
+                    idDocumento++;
+                    boolean conA2d = random.nextInt(3) == 0;
+                    doc.setLong(1, idDocumento);
+                    doc.setLong(2, id);
+                    doc.setInt(3, random.nextInt(5));
+                    doc.setInt(4, motivo >= 85 && d == 0 ? 2 : random.nextInt(2));
+                    doc.setString(5, random.nextInt(4) == 0 ? null : "ATMOS-" + Long.toHexString(random.nextLong()));
+                    doc.setString(6, "documento_" + id + "_" + d + ".pdf");
+                    if (conA2d) {
+                        doc.setLong(7, idDocumento);
+                        a2d.setLong(1, idDocumento);
+                        a2d.setString(2, random.nextInt(4) == 0 ? "Errore A2D " + random.nextInt(20) : null);
+                        a2d.addBatch();
+                    } else {
+                        doc.setNull(7, java.sql.Types.NUMERIC);
+                    }
+                    doc.addBatch();
+                }
+
+                // Protocollo definitivo: con numero (non sospeso) o ancora senza numero (in transizione)
+                if (motivo >= 0 && motivo < 50 || sospeso && random.nextInt(5) == 0) {
+                    idProtocollo++;
+                    p.setLong(1, idProtocollo);
+                    p.setString(2, Long.toString(id));
+                    if (sospeso) {
+                        p.setNull(3, java.sql.Types.NUMERIC);
+                    } else {
+                        p.setLong(3, idProtocollo);
+                    }
+                    p.setTimestamp(4, Timestamp.valueOf(ora.minusDays(random.nextInt(30))));
+                    p.addBatch();
+                }
+
+                dettagli.setLong(1, id);
+                dettagli.setString(2, "Dettaglio " + id);
+                dettagli.addBatch();
+                mittdest.setLong(1, id);
+                mittdest.setString(2, "Mittente " + random.nextInt(1000));
+                mittdest.addBatch();
+                if (random.nextBoolean()) {
+                    classif.setLong(1, id);
+                    classif.addBatch();
+                }
+
+                if (id % RIGHE_PER_COMMIT == 0) {
+                    eseguiBatch(batch);
+                    conn.commit();
+                }
+            }
+            eseguiBatch(batch);
+            conn.commit();
+        }
+        return sospesi;
+    }
+
+    private void generaScheduler(Connection conn, int task) throws SQLException {
+        long adesso = System.currentTimeMillis();
+        try (PreparedStatement ps = conn.prepareStatement("INSERT INTO EJBSCHED_ENTR.sched_arcipelago_task VALUES (?, ?)");
+             Statement stmt = conn.createStatement()) {
+            for (int i = 0; i < task; i++) {
+                ps.setString(1, String.format("TASK_LOCALE_%02d", i));
+                ps.setLong(2, adesso + (i + 1) * 60_000L);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+            for (String tabella : new String[]{"lmgr", "lmpr", "treg"}) {
+                stmt.executeUpdate("INSERT INTO EJBSCHED_ENTR.sched_arcipelago_" + tabella
+                        + " SELECT name, nextfiretime FROM EJBSCHED_ENTR.sched_arcipelago_task");
+            }
+        }
+        conn.commit();
+    }
+
+    private static void eseguiBatch(List<PreparedStatement> batch) throws SQLException {
+        for (PreparedStatement ps : batch) {
+            ps.executeBatch();
+        }
+    }
+
+    private static void eseguiScript(Connection conn, String script) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            StringBuilder istruzione = new StringBuilder();
+            for (String riga : script.split("\n")) {
+                String r = riga.trim();
+                if (r.isEmpty() || r.startsWith("--")) {
+                    continue;
+                }
+                istruzione.append(r).append(' ');
+                if (r.endsWith(";")) {
+                    stmt.execute(istruzione.substring(0, istruzione.lastIndexOf(";")));
+                    istruzione.setLength(0);
+                }
+            }
+        }
+        conn.commit();
+    }
+
+    static String leggiRisorsa(String nome) throws Exception {
+        InputStream in = GeneratoreDati.class.getResourceAsStream(nome);
+        if (in == null) {
+            throw new IllegalStateException("Risorsa non trovata: " + nome);
+        }
+        StringBuilder sb = new StringBuilder();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String riga;
+            while ((riga = reader.readLine()) != null) {
+                sb.append(riga).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Opzioni --nome=valore della riga di comando
+     */
+    static Map<String, String> leggiOpzioni(String[] args) {
+        Map<String, String> opzioni = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Opzione non valida (atteso --nome=valore): " + arg);
+            }
+            int uguale = arg.indexOf('=');
+            opzioni.put(arg.substring(2, uguale), arg.substring(uguale + 1));
+        }
+        return opzioni;
+    }
+
+    private static String codiceUfficio(int i) {
+        return String.format("U%04d", i);
+    }
+}
@@ -0,0 +1,308 @@
+package com.salvavita.locale;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Test di carico degli endpoint REST: N thread chiamano a ciclo chiuso gli endpoint configurati
+ * (scelti a caso a ogni richiesta) per la durata indicata, dopo un riscaldamento non misurato.
+ * Stampa per endpoint richieste, errori, throughput e percentili di latenza e, durante la misura,
+ * campiona ogni secondo da /actuator/metrics heap, thread e CPU dell'applicazione
+ * (per confrontare ad esempio thread di piattaforma e thread virtuali a parita' di carico).
+ *
+ * <pre>
+ * mvn -B -Ploadtest compile exec:java@carico -Dexec.args="--thread=16 --durata-s=60"
+ * </pre>
+ *
+ * Opzioni (--nome=valore):
+ * <ul>
+ *   <li>url: base dell'applicazione (default http://localhost:8080/salvavita)</li>
+ *   <li>thread: client concorrenti (default 8)</li>
+ *   <li>durata-s: durata della misura (default 30)</li>
+ *   <li>riscaldamento-s: durata del riscaldamento (default 10)</li>
+ *   <li>endpoint: percorsi separati da virgola, relativi a url</li>
+ *   <li>output: file CSV dei risultati (facoltativo); se esiste le righe vengono aggiunte</li>
+ *   <li>etichetta: nome della prova riportato nel CSV (es. piattaforma, virtuali)</li>
+ *   <li>metriche: false per non campionare le metriche dell'applicazione (default true)</li>
+ * </ul>
+ */
+public class TestCarico {
+
+    private static final String[] ENDPOINT_DEFAULT = {
+            "/api/protocolli-sospesi",
+            "/api/protocolli-sospesi?ente=ENTRATE&pageSize=100",
+            "/api/protocolli-sospesi/delta?since=0",
+            "/api/scheduled-tasks",
+            "/api/health"
+    };
+
+    private static final double[] PERCENTILI = {50, 90, 99, 99.9};
+
+    private static final int TIMEOUT_MS = 60_000;
+
+    private static final Pattern VALORE = Pattern.compile("\"statistic\":\"VALUE\",\"value\":([-0-9.Ee+]+)");
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> opzioni = GeneratoreDati.leggiOpzioni(args);
+        String base = opzioni.getOrDefault("url", "http://localhost:8080/salvavita");
+        int thread = Integer.parseInt(opzioni.getOrDefault("thread", "8"));
+        int durataS = Integer.parseInt(opzioni.getOrDefault("durata-s", "30"));
+        int riscaldamentoS = Integer.parseInt(opzioni.getOrDefault("riscaldamento-s", "10"));
+        List<String> percorsi = opzioni.containsKey("endpoint")
+                ? Arrays.asList(opzioni.get("endpoint").split(","))
+                : Arrays.asList(ENDPOINT_DEFAULT);
+
+        List<Endpoint> endpoints = new ArrayList<>();
+        for (String percorso : percorsi) {
+            endpoints.add(new Endpoint(percorso.trim(), new URL(base + percorso.trim())));
+        }
+
+        System.out.printf("Test di carico su %s: %d thread, riscaldamento %d s, misura %d s%n",
+                base, thread, riscaldamentoS, durataS);
+
+        long inizioMisura = System.nanoTime() + TimeUnit.SECONDS.toNanos(riscaldamentoS);
+        long fine = inizioMisura + TimeUnit.SECONDS.toNanos(durataS);
+        CountDownLatch terminati = new CountDownLatch(thread);
+
+        for (int i = 0; i < thread; i++) {
+            Thread t = new Thread(() -> {
+                try {
+                    esegui(endpoints, inizioMisura, fine);
+                } finally {
+                    terminati.countDown();
+                }
+            }, "carico-" + i);
+            t.setDaemon(true);
+            t.start();
+        }
+        Risorse risorse = new Risorse(base);
+        if (Boolean.parseBoolean(opzioni.getOrDefault("metriche", "true"))) {
+            Thread campionatore = new Thread(() -> risorse.campiona(inizioMisura, fine), "carico-metriche");
+            campionatore.setDaemon(true);
+            campionatore.start();
+        }
+        terminati.await();
+
+        stampa(endpoints, durataS);
+        risorse.stampa();
+        if (opzioni.containsKey("output")) {
+            scriviCsv(endpoints, durataS, thread, opzioni.getOrDefault("etichetta", ""), risorse, opzioni.get("output"));
+            System.out.println("Risultati scritti in " + opzioni.get("output"));
+        }
+    }
+
+    private static void esegui(List<Endpoint> endpoints, long inizioMisura, long fine) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        byte[] buffer = new byte[16 * 1024];
+        long ora;
+        while ((ora = System.nanoTime()) < fine) {
+            Endpoint endpoint = endpoints.get(random.nextInt(endpoints.size()));
+            boolean misurata = ora >= inizioMisura;
+            long byteLetti = 0;
+            boolean errore = false;
+            long inizio = System.nanoTime();
+            try {
+                HttpURLConnection conn = (HttpURLConnection) endpoint.url.openConnection();
+                conn.setConnectTimeout(TIMEOUT_MS);
+                conn.setReadTimeout(TIMEOUT_MS);
+                int codice = conn.getResponseCode();
+                errore = codice >= 400;
+                try (InputStream in = errore ? conn.getErrorStream() : conn.getInputStream()) {
+                    if (in != null) {
+                        int n;
+                        while ((n = in.read(buffer)) > 0) {
+                            byteLetti += n;
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                errore = true;
+            }
+            if (misurata) {
+                endpoint.registra(System.nanoTime() - inizio, byteLetti, errore);
+            }
+        }
+    }
+
+    private static void stampa(List<Endpoint> endpoints, int durataS) {
+        System.out.printf("%n%-55s %8s %7s %9s %9s %9s %9s %9s %9s %12s%n",
+                "endpoint", "richieste", "errori", "req/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms", "byte medi");
+        for (Endpoint e : endpoints) {
+            double[] p = e.percentili();
+            long richieste = e.latenze.size();
+            System.out.printf("%-55s %8d %7d %9.1f %9.2f %9.2f %9.2f %9.2f %9.2f %12d%n",
+                    e.percorso, richieste, e.errori.get(), (double) richieste / durataS,
+                    p[0], p[1], p[2], p[3], e.massimo(), richieste > 0 ? e.byteTotali.get() / richieste : 0);
+        }
+    }
+
+    private static void scriviCsv(List<Endpoint> endpoints, int durataS, int thread, String etichetta,
+                                  Risorse risorse, String file) throws IOException {
+        boolean nuovo = !new File(file).exists();
+        try (PrintWriter out = new PrintWriter(new FileWriter(file, true))) {
+            if (nuovo) {
+                out.println("etichetta,endpoint,thread,durata_s,richieste,errori,req_s,p50_ms,p90_ms,p99_ms,p999_ms,max_ms,byte_medi,"
+                        + "heap_medio_mb,heap_max_mb,thread_jvm_max,cpu_media");
+            }
+            for (Endpoint e : endpoints) {
+                double[] p = e.percentili();
+                long richieste = e.latenze.size();
+                out.printf(java.util.Locale.ROOT, "\"%s\",\"%s\",%d,%d,%d,%d,%.1f,%.2f,%.2f,%.2f,%.2f,%.2f,%d,%.1f,%.1f,%.0f,%.3f%n",
+                        etichetta, e.percorso, thread, durataS, richieste, e.errori.get(), (double) richieste / durataS,
+                        p[0], p[1], p[2], p[3], e.massimo(), richieste > 0 ? e.byteTotali.get() / richieste : 0,
+                        risorse.heap.media() / 1_048_576, risorse.heap.massimo / 1_048_576,
+                        risorse.threadJvm.massimo, risorse.cpu.media());
+            }
+        }
+    }
+
+    /**
+     * Campioni delle metriche dell'applicazione presi durante la misura (NaN se non disponibili)
+     */
+    private static class Risorse {
+        final String base;
+        final Campioni heap = new Campioni();
+        final Campioni threadJvm = new Campioni();
+        final Campioni cpu = new Campioni();
+
+        Risorse(String base) {
+            this.base = base;
+        }
+
+        void campiona(long inizioMisura, long fine) {
+            try {
+                long attesa = inizioMisura - System.nanoTime();
+                if (attesa > 0) {
+                    TimeUnit.NANOSECONDS.sleep(attesa);
+                }
+                while (System.nanoTime() < fine) {
+                    heap.aggiungi(leggi("jvm.memory.used?tag=area:heap"));
+                    threadJvm.aggiungi(leggi("jvm.threads.live"));
+                    cpu.aggiungi(leggi("process.cpu.usage"));
+                    TimeUnit.SECONDS.sleep(1);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private double leggi(String metrica) {
+            try {
+                HttpURLConnection conn = (HttpURLConnection) new URL(base + "/actuator/metrics/" + metrica).openConnection();
+                conn.setConnectTimeout(TIMEOUT_MS);
+                conn.setReadTimeout(TIMEOUT_MS);
+                if (conn.getResponseCode() != 200) {
+                    return Double.NaN;
+                }
+                try (InputStream in = conn.getInputStream()) {
+                    byte[] corpo = new byte[8 * 1024];
+                    int letti = 0;
+                    int n;
+                    while (letti < corpo.length && (n = in.read(corpo, letti, corpo.length - letti)) > 0) {
+                        letti += n;
+                    }
+                    Matcher m = VALORE.matcher(new String(corpo, 0, letti, StandardCharsets.UTF_8));
+                    return m.find() ? Double.parseDouble(m.group(1)) : Double.NaN;
+                }
+            } catch (IOException | NumberFormatException e) {
+                return Double.NaN;
+            }
+        }
+
+        void stampa() {
+            if (heap.numero == 0) {
+                return;
+            }
+            System.out.printf("%nApplicazione (%d campioni): heap usato medio %.1f MB, max %.1f MB; thread JVM max %.0f; CPU media %.1f%%%n",
+                    heap.numero, heap.media() / 1_048_576, heap.massimo / 1_048_576, threadJvm.massimo, cpu.media() * 100);
+        }
+    }
+
+    private static class Campioni {
+        int numero;
+        double somma;
+        double massimo = Double.NaN;
+
+        void aggiungi(double valore) {
+            if (Double.isNaN(valore)) {
+                return;
+            }
+            numero++;
+            somma += valore;
+            massimo = Double.isNaN(massimo) ? valore : Math.max(massimo, valore);
+        }
+
+        double media() {
+            return numero > 0 ? somma / numero : Double.NaN;
+        }
+    }
+
+    /**
+     * Latenze misurate di un endpoint (in nanosecondi, tutte conservate: i percentili sono esatti)
+     */
+    private static class Endpoint {
+        final String percorso;
+        final URL url;
+        final List<Long> latenze = new ArrayList<>();
+        final AtomicLong errori = new AtomicLong();
+        final AtomicLong byteTotali = new AtomicLong();
+
+        Endpoint(String percorso, URL url) {
+            this.percorso = percorso;
+            this.url = url;
+        }
+
+        void registra(long nanos, long byteLetti, boolean errore) {
+            synchronized (latenze) {
+                latenze.add(nanos);
+            }
+            byteTotali.addAndGet(byteLetti);
+            if (errore) {
+                errori.incrementAndGet();
+            }
+        }
+
+        double[] percentili() {
+            long[] ordinate = ordinate();
+            double[] risultato = new double[PERCENTILI.length];
+            for (int i = 0; i < PERCENTILI.length && ordinate.length > 0; i++) {
+                int indice = (int) Math.ceil(PERCENTILI[i] / 100 * ordinate.length) - 1;
+                risultato[i] = ordinate[Math.max(0, indice)] / 1_000_000.0;
+            }
+            return risultato;
+        }
+
+        double massimo() {
+            long[] ordinate = ordinate();
+            return ordinate.length > 0 ? ordinate[ordinate.length - 1] / 1_000_000.0 : 0;
+        }
+
+        private long[] ordinate() {
+            long[] valori;
+            synchronized (latenze) {
+                valori = new long[latenze.size()];
+                for (int i = 0; i < valori.length; i++) {
+                    valori[i] = latenze.get(i);
+                }
+            }
+            Arrays.sort(valori);
+            return valori;
+        }
+    }
+}
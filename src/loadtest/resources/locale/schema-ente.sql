@@ -0,0 +1,66 @@
+-- Tabelle di uno schema ente ({schema}) lette o cancellate da OracleService e AooUfficioService.
+-- Solo le colonne usate dall'applicazione; tipi Oracle (NUMBER, VARCHAR2, DATE) accettati da H2 in MODE=Oracle
+DROP SCHEMA IF EXISTS {schema} CASCADE;
+CREATE SCHEMA {schema};
+
+CREATE TABLE {schema}.p2_proto_temporaneo (
+    sequ_long_id NUMBER(19) PRIMARY KEY,
+    flag_tipo_protocollo NUMBER(2),
+    presa_visione NUMBER(2),
+    count_recuperi_ejb NUMBER(5),
+    codice_ufficio VARCHAR2(20),
+    utente_creatore VARCHAR2(50),
+    data_inserimento DATE
+);
+CREATE INDEX {schema}.ix_pt_data ON {schema}.p2_proto_temporaneo (data_inserimento);
+
+CREATE TABLE {schema}.p2_proto_tmp_documenti (
+    sequ_long_id NUMBER(19) PRIMARY KEY,
+    fk_protocollo_temporaneo NUMBER(19),
+    stato_documento NUMBER(2),
+    esito_documento NUMBER(2),
+    id_atmos VARCHAR2(100),
+    nome_documento VARCHAR2(255),
+    id_richiesta_a2d NUMBER(19)
+);
+CREATE INDEX {schema}.ix_doc_pt ON {schema}.p2_proto_tmp_documenti (fk_protocollo_temporaneo);
+
+CREATE TABLE {schema}.p2_callback_a2d (
+    id_richiesta NUMBER(19) PRIMARY KEY,
+    errore VARCHAR2(4000)
+);
+
+CREATE TABLE {schema}.p2_protocollo (
+    sequ_long_id NUMBER(19) PRIMARY KEY,
+    id_transizione VARCHAR2(50),
+    numero_protocollo NUMBER(19),
+    data_ins DATE
+);
+CREATE INDEX {schema}.ix_p_transizione ON {schema}.p2_protocollo (id_transizione);
+
+CREATE TABLE {schema}.p2_proto_tmp_classif_all (fk_protocollo_temporaneo NUMBER(19));
+CREATE INDEX {schema}.ix_classif_all_pt ON {schema}.p2_proto_tmp_classif_all (fk_protocollo_temporaneo);
+CREATE TABLE {schema}.p2_proto_tmp_classificazione (fk_protocollo_temporaneo NUMBER(19));
+CREATE INDEX {schema}.ix_classif_pt ON {schema}.p2_proto_tmp_classificazione (fk_protocollo_temporaneo);
+CREATE TABLE {schema}.p2_proto_tmp_collegati (fk_proto_tmp NUMBER(19));
+CREATE INDEX {schema}.ix_collegati_pt ON {schema}.p2_proto_tmp_collegati (fk_proto_tmp);
+CREATE TABLE {schema}.p2_proto_tmp_dettagli (fk_proto_tmp NUMBER(19), note VARCHAR2(255));
+CREATE INDEX {schema}.ix_dettagli_pt ON {schema}.p2_proto_tmp_dettagli (fk_proto_tmp);
+CREATE TABLE {schema}.p2_proto_tmp_mittdest (fk_proto_tmp NUMBER(19), denominazione VARCHAR2(255));
+CREATE INDEX {schema}.ix_mittdest_pt ON {schema}.p2_proto_tmp_mittdest (fk_proto_tmp);
+
+CREATE TABLE {schema}.p2_protocollo_collegati (fk_protocollo NUMBER(19));
+CREATE TABLE {schema}.p2_protocollo_documenti (fk_protocollo NUMBER(19));
+CREATE TABLE {schema}.p2_protocollo_mitt_dest (fk_protocollo NUMBER(19));
+CREATE TABLE {schema}.p2_chiusura_attivita_risposta (fk_p2_proto NUMBER(19));
+
+CREATE TABLE {schema}.d_aree_organizzative (
+    sequ_long_id NUMBER(19) PRIMARY KEY,
+    codi_codice VARCHAR2(20),
+    desc_nome VARCHAR2(255)
+);
+CREATE TABLE {schema}.d_uffici (
+    codi_ufficio VARCHAR2(20),
+    desc_descrizione VARCHAR2(255),
+    fk_aoo NUMBER(19)
+);
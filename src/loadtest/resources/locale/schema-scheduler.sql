@@ -0,0 +1,11 @@
+-- Tabelle dello scheduler (ejbsched_entr) lette da getScheduledTasks e svuotate da deleteSchedulingData
+DROP SCHEMA IF EXISTS EJBSCHED_ENTR CASCADE;
+CREATE SCHEMA EJBSCHED_ENTR;
+
+CREATE TABLE EJBSCHED_ENTR.sched_arcipelago_task (
+    name VARCHAR2(100) PRIMARY KEY,
+    nextfiretime NUMBER(19)
+);
+CREATE TABLE EJBSCHED_ENTR.sched_arcipelago_lmgr (name VARCHAR2(100), id NUMBER(19));
+CREATE TABLE EJBSCHED_ENTR.sched_arcipelago_lmpr (name VARCHAR2(100), id NUMBER(19));
+CREATE TABLE EJBSCHED_ENTR.sched_arcipelago_treg (name VARCHAR2(100), id NUMBER(19));
@@ -0,0 +1,104 @@
+package com.salvavita.config;
+
+import com.salvavita.model.Ente;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Configurazione degli enti interrogati dalla query PROTOCOLLI_SOSPESI (salvavita.enti.*).
+ * Un ente e' interrogato se ha una data di inizio monitoraggio e non e' tra i disabilitati,
+ * quindi cambiare una data o aggiungere un ente richiede solo di modificare la configurazione
+ */
+@Component
+@ConfigurationProperties(prefix = "salvavita.enti")
+public class EntiProperties {
+
+    // Data di inizio monitoraggio per ente (formato 2025-05-06T00:00:00 oppure 2025-05-06)
+    private Map<Ente, String> dataInizio = new HashMap<>();
+
+    // Enti in cui i protocolli senza documenti vengono mostrati comunque (outer join sui documenti)
+    private Set<Ente> outerJoinDocumenti = EnumSet.noneOf(Ente.class);
+
+    // Enti esclusi anche se hanno una data di inizio
+    private Set<Ente> disabilitati = EnumSet.noneOf(Ente.class);
+
+    public Map<Ente, String> getDataInizio() {
+        return dataInizio;
+    }
+
+    public void setDataInizio(Map<Ente, String> dataInizio) {
+        this.dataInizio = dataInizio;
+    }
+
+    /**
+     * Data di inizio monitoraggio dell'ente, null se non configurata
+     *
+     * @throws IllegalStateException se il valore non e' una data ISO
+     */
+    public LocalDateTime getDataInizio(Ente ente) {
+        String valore = dataInizio.get(ente);
+        if (valore == null || valore.trim().isEmpty()) {
+            return null;
+        }
+        try {
+            valore = valore.trim();
+            return valore.length() == 10 ? LocalDate.parse(valore).atStartOfDay() : LocalDateTime.parse(valore);
+        } catch (DateTimeParseException e) {
+            throw new IllegalStateException("salvavita.enti.data-inizio." + ente.getNome() + " non valida: " + valore, e);
+        }
+    }
+
+    public Set<Ente> getOuterJoinDocumenti() {
+        return outerJoinDocumenti;
+    }
+
+    public void setOuterJoinDocumenti(Set<Ente> outerJoinDocumenti) {
+        this.outerJoinDocumenti = outerJoinDocumenti;
+    }
+
+    public Set<Ente> getDisabilitati() {
+        return disabilitati;
+    }
+
+    public void setDisabilitati(Set<Ente> disabilitati) {
+        this.disabilitati = disabilitati;
+    }
+
+    /**
+     * Enti da interrogare, nell'ordine della UNION (ORDER BY ente)
+     */
+    public List<Ente> getAbilitati() {
+        List<Ente> abilitati = new ArrayList<>();
+        for (Ente ente : Ente.values()) {
+            if (getDataInizio(ente) != null && !disabilitati.contains(ente)) {
+                abilitati.add(ente);
+            }
+        }
+        abilitati.sort(Comparator.comparing(Ente::getNome));
+        return abilitati;
+    }
+
+    /**
+     * Enti definiti nell'enum ma non interrogati
+     */
+    public List<Ente> getNonAbilitati() {
+        List<Ente> nonAbilitati = new ArrayList<>();
+        for (Ente ente : Ente.values()) {
+            if (!getAbilitati().contains(ente)) {
+                nonAbilitati.add(ente);
+            }
+        }
+        return nonAbilitati;
+    }
+}
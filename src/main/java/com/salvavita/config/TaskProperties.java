@@ -0,0 +1,79 @@
+package com.salvavita.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Configurazione del lancio dei task dello scheduler dopo il commit (salvavita.tasks.*)
+ */
+@Component
+@ConfigurationProperties(prefix = "salvavita.tasks")
+public class TaskProperties {
+
+    // URL dei task da lanciare (GestioneTaskSchedulati?op=START&taskName=...)
+    private List<String> urls = new ArrayList<>();
+
+    // Chiamate contemporanee al massimo
+    private int maxConcurrent = 4;
+
+    // Timeout di connessione e di lettura di ogni chiamata
+    private int timeoutMs = 5000;
+
+    // Tentativi ulteriori dopo il primo, con attesa backoffMs, 2*backoffMs, 4*backoffMs...
+    private int maxRetries = 3;
+    private long backoffMs = 1000;
+
+    // Esiti conservati per GET /api/task-lanciati
+    private int historySize = 200;
+
+    public List<String> getUrls() {
+        return urls;
+    }
+
+    public void setUrls(List<String> urls) {
+        this.urls = urls;
+    }
+
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    public void setMaxConcurrent(int maxConcurrent) {
+        this.maxConcurrent = maxConcurrent;
+    }
+
+    public int getTimeoutMs() {
+        return timeoutMs;
+    }
+
+    public void setTimeoutMs(int timeoutMs) {
+        this.timeoutMs = timeoutMs;
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    public void setMaxRetries(int maxRetries) {
+        this.maxRetries = maxRetries;
+    }
+
+    public long getBackoffMs() {
+        return backoffMs;
+    }
+
+    public void setBackoffMs(long backoffMs) {
+        this.backoffMs = backoffMs;
+    }
+
+    public int getHistorySize() {
+        return historySize;
+    }
+
+    public void setHistorySize(int historySize) {
+        this.historySize = historySize;
+    }
+}
@@ -0,0 +1,116 @@
+package com.salvavita.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread dei worker che eseguono JDBC e HTTP bloccante: virtuali con salvavita.virtual-threads.enabled=true
+ * su Java 21, altrimenti thread di piattaforma daemon come sempre.
+ * Le API di Java 21 sono chiamate per riflessione, cosi' il codice resta compilabile per Java 8;
+ * su una JVM precedente l'opzione viene ignorata con un avviso.
+ */
+@Component
+public class ThreadVirtuali {
+
+    private static final Logger logger = LoggerFactory.getLogger(ThreadVirtuali.class);
+
+    @Value("${salvavita.virtual-threads.enabled:false}")
+    private boolean richiesti;
+
+    private boolean attivi;
+
+    // Thread.ofVirtual(), Thread.Builder.name(String, long), Thread.Builder.factory()
+    private Method ofVirtual;
+    private Method name;
+    private Method factory;
+    private Method newThreadPerTaskExecutor;
+
+    private final List<ExecutorService> esecutori = new CopyOnWriteArrayList<>();
+
+    @PostConstruct
+    public void init() {
+        if (!richiesti) {
+            return;
+        }
+        try {
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            name = builder.getMethod("name", String.class, long.class);
+            factory = builder.getMethod("factory");
+            newThreadPerTaskExecutor = java.util.concurrent.Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            // Verifica che i thread virtuali siano utilizzabili (su Java 19-20 sono preview)
+            fabbricaVirtuale("verifica-").newThread(() -> { }).start();
+            attivi = true;
+            logger.info("Thread virtuali attivi per richieste HTTP, query per ente, snapshot e lancio dei task");
+        } catch (Throwable t) {
+            logger.warn("Thread virtuali richiesti ma non disponibili su Java {} (serve Java 21): in uso thread di piattaforma",
+                    System.getProperty("java.version"));
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        for (ExecutorService esecutore : esecutori) {
+            esecutore.shutdownNow();
+        }
+    }
+
+    public boolean isAttivi() {
+        return attivi;
+    }
+
+    /**
+     * Fabbrica dei thread di un pool: virtuali se attivi, altrimenti di piattaforma daemon.
+     * I nomi sono prefisso + numero progressivo (es. query-ente-1)
+     */
+    public ThreadFactory fabbrica(String prefisso) {
+        if (attivi) {
+            return fabbricaVirtuale(prefisso);
+        }
+        AtomicInteger contatore = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, prefisso + contatore.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    /**
+     * Executor con un nuovo thread virtuale per ogni attivita', chiuso allo spegnimento
+     *
+     * @return null se i thread virtuali non sono attivi
+     */
+    public ExecutorService perAttivita(String prefisso) {
+        if (!attivi) {
+            return null;
+        }
+        try {
+            ExecutorService esecutore = (ExecutorService) newThreadPerTaskExecutor.invoke(null, fabbricaVirtuale(prefisso));
+            esecutori.add(esecutore);
+            return esecutore;
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Creazione dell'executor a thread virtuali non riuscita", e);
+        }
+    }
+
+    private ThreadFactory fabbricaVirtuale(String prefisso) {
+        try {
+            Object builder = ofVirtual.invoke(null);
+            builder = name.invoke(builder, prefisso, 1L);
+            return (ThreadFactory) factory.invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Creazione della fabbrica di thread virtuali non riuscita", e);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.salvavita.config;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Con i thread virtuali attivi (ThreadVirtuali) ogni richiesta HTTP e ogni risposta in streaming
+ * (StreamingResponseBody) gira su un proprio thread virtuale invece che sui pool di piattaforma
+ * di Tomcat (server.tomcat.threads.max) e di Spring MVC. Il limite alle query contemporanee resta
+ * quello del pool di connessioni.
+ */
+@Configuration
+public class ThreadVirtualiConfig implements WebMvcConfigurer {
+
+    @Autowired
+    private ThreadVirtuali threadVirtuali;
+
+    @Bean
+    public TomcatProtocolHandlerCustomizer<?> threadVirtualiTomcat() {
+        return protocolHandler -> {
+            ExecutorService esecutore = threadVirtuali.perAttivita("http-");
+            if (esecutore != null) {
+                protocolHandler.setExecutor(esecutore);
+            }
+        };
+    }
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        ExecutorService esecutore = threadVirtuali.perAttivita("mvc-async-");
+        if (esecutore != null) {
+            configurer.setTaskExecutor(new TaskExecutorAdapter(esecutore));
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.salvavita.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.salvavita.service.ElezioneLeaderService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Su un'istanza follower inoltra al leader le richieste che dipendono dallo stato del leader:
+ * cancellazioni e transazioni in sospeso (la connessione Oracle non committata vive nel processo del leader),
+ * commit e rollback, task lanciati, monitor dello scheduler e serie storiche.
+ * Il cookie di sessione passa invariato, quindi la transazione di un browser resta la stessa
+ * anche se il bilanciatore alterna le istanze. Le altre richieste sono servite localmente.
+ * Le richieste che modificano dati (tutto tranne GET e HEAD) attendono il leader fino a
+ * salvavita.leader.forward-timeout-ms; se la risposta non arriva dopo l'invio l'esito e' incerto
+ * e la risposta (504) non invita a riprovare. Una richiesta gia' inoltrata da un'altra istanza
+ * non viene mai eseguita da un follower, qualunque cosa dica il client.
+ */
+@Component
+public class InoltroLeaderFilter extends OncePerRequestFilter {
+
+    private static final Logger logger = LoggerFactory.getLogger(InoltroLeaderFilter.class);
+
+    // Header gestiti dalla connessione HTTP, da non copiare
+    private static final Set<String> HEADER_ESCLUSI = new HashSet<>(Arrays.asList(
+            "host", "connection", "content-length", "transfer-encoding", "keep-alive", "upgrade"));
+
+    @Autowired
+    private ElezioneLeaderService elezioneLeader;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${salvavita.leader.forward-paths:/api/avvia-processi,/api/delete-protocolli,/api/delete-proto-temporaneo,"
+            + "/api/delete-proto-temporanei,/api/commit-transaction,/api/rollback-transaction,/api/transazioni,"
+            + "/api/task-lanciati,/api/scheduled-tasks/overdue,/api/serie-storiche}")
+    private List<String> percorsi;
+
+    // Deve superare la durata massima di un'operazione sul leader (es. le 5 DELETE dei protocolli
+    // in transizione, ciascuna fino a oracle.jdbc.ReadTimeout)
+    @Value("${salvavita.leader.forward-timeout-ms:180000}")
+    private int timeoutModificheMs;
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        if (elezioneLeader.isLeader()) {
+            return true;
+        }
+        String percorso = request.getServletPath();
+        for (String p : percorsi) {
+            if (percorso.equals(p) || percorso.startsWith(p + "/")) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        String leader = elezioneLeader.getUrlLeader();
+        String percorso = request.getServletPath() + (request.getQueryString() != null ? "?" + request.getQueryString() : "");
+        if (request.getHeader(ElezioneLeaderService.HEADER_INOLTRO) != null) {
+            // Inoltrata da un'istanza che ci crede leader (o header impostato dal client): non si esegue qui
+            // e non si inoltra di nuovo, il client riprova quando le istanze concordano sul leader
+            errore(response, "Leader non disponibile", "Questa istanza non e' il leader: " + request.getServletPath());
+            return;
+        }
+        if (leader == null) {
+            errore(response, "Leader non disponibile", "Nessuna istanza leader a cui inoltrare " + request.getServletPath());
+            return;
+        }
+        boolean modifica = !"GET".equals(request.getMethod()) && !"HEAD".equals(request.getMethod());
+
+        HttpURLConnection conn;
+        try {
+            conn = (HttpURLConnection) new URL(leader + percorso).openConnection();
+            conn.setRequestMethod(request.getMethod());
+            conn.setConnectTimeout(elezioneLeader.getTimeoutMs());
+            conn.setReadTimeout(modifica ? timeoutModificheMs : elezioneLeader.getTimeoutMs());
+            conn.setInstanceFollowRedirects(false);
+            for (String nome : Collections.list(request.getHeaderNames())) {
+                if (!HEADER_ESCLUSI.contains(nome.toLowerCase())) {
+                    for (String valore : Collections.list(request.getHeaders(nome))) {
+                        conn.addRequestProperty(nome, valore);
+                    }
+                }
+            }
+            conn.setRequestProperty(ElezioneLeaderService.HEADER_INOLTRO, request.getRequestURL().toString());
+            conn.connect();
+        } catch (IOException e) {
+            // La richiesta non e' arrivata al leader: si puo' riprovare
+            logger.error("Inoltro di {} {} al leader {} non riuscito: {}", request.getMethod(), percorso, leader, e.getMessage());
+            errore(response, "Leader non raggiungibile", e.getMessage());
+            return;
+        }
+
+        try {
+            if (request.getContentLengthLong() > 0 || request.getHeader(HttpHeaders.TRANSFER_ENCODING) != null) {
+                conn.setDoOutput(true);
+                try (OutputStream out = conn.getOutputStream()) {
+                    StreamUtils.copy(request.getInputStream(), out);
+                }
+            }
+
+            int status = conn.getResponseCode();
+            response.setStatus(status);
+            for (Map.Entry<String, List<String>> header : conn.getHeaderFields().entrySet()) {
+                String nome = header.getKey();
+                if (nome != null && !HEADER_ESCLUSI.contains(nome.toLowerCase())) {
+                    for (String valore : header.getValue()) {
+                        response.addHeader(nome, valore);
+                    }
+                }
+            }
+            try (InputStream in = status < 400 ? conn.getInputStream() : conn.getErrorStream()) {
+                if (in != null) {
+                    StreamUtils.copy(in, response.getOutputStream());
+                }
+            }
+            logger.debug("{} {} inoltrata al leader {}: HTTP {}", request.getMethod(), percorso, leader, status);
+        } catch (IOException e) {
+            conn.disconnect();
+            // Il leader puo' aver gia' eseguito l'operazione (es. aperto la transazione): niente Retry-After
+            boolean timeout = e instanceof SocketTimeoutException;
+            logger.error("Inoltro di {} {} al leader {} interrotto{}: {}", request.getMethod(), percorso, leader,
+                    timeout ? " per timeout" : "", e.getMessage());
+            if (!response.isCommitted()) {
+                response.reset();
+                response.setStatus(HttpStatus.GATEWAY_TIMEOUT.value());
+                response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+                objectMapper.writeValue(response.getOutputStream(), new QueryController.ErrorResponse("Esito incerto",
+                        "Il leader non ha risposto a " + request.getMethod() + " " + request.getServletPath()
+                                + ": l'operazione potrebbe essere stata eseguita, verificare prima di ripeterla ("
+                                + e.getMessage() + ")"));
+            }
+        }
+    }
+
+    private void errore(HttpServletResponse response, String errore, String messaggio) throws IOException {
+        response.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+        response.setHeader(HttpHeaders.RETRY_AFTER, "5");
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        objectMapper.writeValue(response.getOutputStream(), new QueryController.ErrorResponse(errore, messaggio));
+    }
+}
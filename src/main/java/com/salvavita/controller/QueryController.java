@@ -1,17 +1,61 @@
 package com.salvavita.controller;
 
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.salvavita.model.FiltroProtocolli;
+import com.salvavita.model.EsitoTask;
 import com.salvavita.model.ProtocolliSospesi;
+import com.salvavita.model.ProtocolliSospesiCompatti;
+import com.salvavita.model.ProtocolliSospesiDelta;
+import com.salvavita.model.ProtocolloTemporaneoRef;
+import com.salvavita.model.Snapshot;
+import com.salvavita.service.AggiornamentoSnapshotService;
+import com.salvavita.service.AooUfficioService;
+import com.salvavita.service.ContestoQuery;
+import com.salvavita.service.DatabaseHealthService;
+import com.salvavita.service.DatabaseNonDisponibileException;
+import com.salvavita.service.DashboardEventService;
+import com.salvavita.service.ElezioneLeaderService;
+import com.salvavita.service.Esportazione;
+import com.salvavita.service.MonitorSchedulerService;
 import com.salvavita.service.OracleService;
+import com.salvavita.service.SerieStoricheService;
+import com.salvavita.service.SnapshotService;
+import com.salvavita.service.TaskDispatcherService;
+import com.salvavita.service.TransactionService;
+import com.salvavita.service.TransazioneInSospeso;
+import com.salvavita.service.TransazioneInUsoException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
 
 @RestController
 @RequestMapping("/api")
@@ -23,29 +67,373 @@ public class QueryController {
     @Autowired
     private OracleService oracleService;
 
+    @Autowired
+    private SnapshotService snapshotService;
+
+    @Autowired
+    private DashboardEventService dashboardEventService;
+
+    @Autowired
+    private AooUfficioService aooUfficioService;
+
+    @Autowired
+    private TransactionService transactionService;
+
+    @Autowired
+    private TaskDispatcherService taskDispatcherService;
+
+    @Autowired
+    private DatabaseHealthService databaseHealth;
+
+    @Autowired
+    private SerieStoricheService serieStoricheService;
+
+    @Autowired
+    private MonitorSchedulerService monitorScheduler;
+
+    @Autowired
+    private AggiornamentoSnapshotService aggiornamentoSnapshot;
+
+    @Autowired
+    private ElezioneLeaderService elezioneLeader;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${salvavita.page.default-size:100}")
+    private int defaultPageSize;
+
+    @Value("${salvavita.page.max-size:1000}")
+    private int maxPageSize;
+
+    @Value("${salvavita.api.deadline-ms:20000}")
+    private long deadlineMs;
+
+    @Value("${salvavita.api.max-deadline-ms:60000}")
+    private long maxDeadlineMs;
+
+    @Value("${salvavita.stream.deadline-ms:600000}")
+    private long streamDeadlineMs;
+
+    private static final List<String> COLONNE_PROTOCOLLI = Arrays.asList("ente", "sequLongId", "countRecuperiEjb",
+            "presaVisione", "idTransizionePresente", "aooUfficio", "utenteCreatore", "dataInserimento",
+            "statoDocumento", "esitoDocumento", "idAtmos", "errore", "nomeDocumento", "seqDocumento");
+
+    private static final List<String> COLONNE_TASK = Arrays.asList("name", "prossimoRun");
+
+    // Tempo in millisecondi entro cui il client vuole la risposta
+    private static final String HEADER_SCADENZA = "X-Deadline-Ms";
+
+    private static final DateTimeFormatter FORMATO_NOME_FILE = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
     /**
      * GET /api/protocolli-sospesi
-     * Restituisce lista di protocolli sospesi
+     * Restituisce lista di protocolli sospesi.
+     * Con almeno un parametro tra ente, dal, al, statoDocumento, esitoDocumento, conErrore,
+     * pageSize e after esegue una pagina filtrata direttamente sul database
      */
     @GetMapping("/protocolli-sospesi")
-    public ResponseEntity<?> getProtocolliSospesi() {
-        try {
-            logger.info("Richiesta GET /protocolli-sospesi");
-            List<ProtocolliSospesi> data = oracleService.getProtocolliSospesi();
-            
+    public DeferredResult<ResponseEntity<?>> getProtocolliSospesi(FiltroProtocolli filtro,
+                                                                  @RequestHeader(value = HEADER_SCADENZA, required = false) Long scadenzaMs) {
+        if (!filtro.isVuoto()) {
+            return getProtocolliSospesiPagina(filtro, scadenza(scadenzaMs));
+        }
+        logger.info("Richiesta GET /protocolli-sospesi");
+        return conScadenza("GET /protocolli-sospesi", scadenza(scadenzaMs), null, snapshotService.getProtocolliSospesiAsync().thenApply(snapshot -> {
+            List<ProtocolliSospesi> data = snapshot.getDati();
+
             Map<String, Object> response = new HashMap<>();
             response.put("success", true);
             response.put("totalRecords", data.size());
             response.put("data", data);
-            
+            response.put("version", snapshot.getVersione());
+            response.put("epoch", snapshot.getEpoca());
+            response.put("snapshotTime", snapshot.getDataOra());
+            response.put("snapshotAgeMs", snapshot.getEtaMs());
+            if (!snapshot.getTempiPerEnte().isEmpty()) {
+                response.put("timingsMs", snapshot.getTempiPerEnte());
+            }
+            if (!snapshot.getEntiNonDisponibili().isEmpty()) {
+                response.put("entiNonDisponibili", snapshot.getEntiNonDisponibili());
+            }
+
             logger.info("Risposta: {} record trovati", data.size());
             return ResponseEntity.ok(response);
-            
+        }));
+    }
+
+    /**
+     * Pagina filtrata di protocolli sospesi con cursore keyset (ente, sequLongId).
+     * Le query hanno come timeout il tempo rimasto alla richiesta e sono annullate
+     * sul database se il client si disconnette o la scadenza passa
+     */
+    private DeferredResult<ResponseEntity<?>> getProtocolliSospesiPagina(FiltroProtocolli filtro, long scadenzaMs) {
+        logger.info("Richiesta GET /protocolli-sospesi con {}", filtro);
+        int pageSize = Math.max(1, Math.min(filtro.getPageSize() != null ? filtro.getPageSize() : defaultPageSize, maxPageSize));
+        Map<String, String> nonDisponibili = new ConcurrentSkipListMap<>();
+        ContestoQuery contesto = ContestoQuery.conScadenza(scadenzaMs);
+        CompletableFuture<List<ProtocolliSospesi>> pagina;
+        try {
+            pagina = oracleService.getProtocolliSospesiPagina(filtro, pageSize, nonDisponibili, contesto);
+        } catch (IllegalArgumentException e) {
+            logger.warn("Parametri non validi: {}", e.getMessage());
+            return risultato(ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .body(new ErrorResponse("Parametri non validi", e.getMessage())));
         } catch (Exception e) {
             logger.error("Errore nella richiesta: {}", e.getMessage(), e);
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                    .body(new ErrorResponse("Errore nell'esecuzione della query", e.getMessage()));
+            return risultato(ResponseEntity.status(statoErrore(e))
+                    .body(new ErrorResponse("Errore nell'esecuzione della query", e.getMessage())));
+        }
+
+        return conScadenza("GET /protocolli-sospesi con " + filtro, scadenzaMs, contesto, pagina.thenApply(righe -> {
+            List<ProtocolliSospesi> data = righe;
+            boolean hasMore = data.size() > pageSize;
+            if (hasMore) {
+                data = data.subList(0, pageSize);
+            }
+            ProtocolliSospesi ultimo = data.isEmpty() ? null : data.get(data.size() - 1);
+
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", true);
+            response.put("totalRecords", data.size());
+            response.put("data", data);
+            response.put("pageSize", pageSize);
+            response.put("hasMore", hasMore);
+            response.put("nextCursor", hasMore
+                    ? ultimo.getEnte() + ":" + ultimo.getSequLongId() + ":" + ultimo.getSeqDocumento()
+                    : null);
+            if (!nonDisponibili.isEmpty()) {
+                response.put("entiNonDisponibili", nonDisponibili);
+            }
+
+            logger.info("Risposta: {} record trovati (altre pagine: {})", data.size(), hasMore);
+            return ResponseEntity.ok(response);
+        }));
+    }
+
+    /**
+     * GET /api/protocolli-sospesi/delta?since={version}&epoch={epoch}
+     * Restituisce solo le variazioni rispetto alla versione che il client ha gia':
+     * righe aggiunte (data) e sequLongId per ente dei protocolli non piu' sospesi (removed).
+     * Se la versione e' troppo vecchia, o l'epoca non e' quella corrente (il leader e' ripartito),
+     * restituisce tutto con full=true
+     */
+    @GetMapping("/protocolli-sospesi/delta")
+    public DeferredResult<ResponseEntity<?>> getProtocolliSospesiDelta(@RequestParam long since,
+                                                                       @RequestParam(required = false) String epoch,
+                                                                       @RequestHeader(value = HEADER_SCADENZA, required = false) Long scadenzaMs) {
+        logger.info("Richiesta GET /protocolli-sospesi/delta dalla versione {}", since);
+        return conScadenza("GET /protocolli-sospesi/delta", scadenza(scadenzaMs), null, snapshotService.getProtocolliSospesiAsync().thenApply(snapshot -> {
+            ProtocolliSospesiDelta delta = snapshotService.getProtocolliSospesiDelta(snapshot, since, epoch);
+
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", true);
+            response.put("fromVersion", delta.getVersioneDa());
+            response.put("version", delta.getVersione());
+            response.put("epoch", snapshot.getEpoca());
+            response.put("full", delta.isCompleto());
+            response.put("data", delta.getAggiunti());
+            response.put("removed", delta.getRimossi());
+            response.put("totalRecords", snapshot.getDati().size());
+            response.put("snapshotTime", snapshot.getDataOra());
+            response.put("snapshotAgeMs", snapshot.getEtaMs());
+            if (!snapshot.getEntiNonDisponibili().isEmpty()) {
+                response.put("entiNonDisponibili", snapshot.getEntiNonDisponibili());
+            }
+
+            logger.info("Risposta delta: {}", delta);
+            return ResponseEntity.ok(response);
+        }));
+    }
+
+    /**
+     * GET /api/protocolli-sospesi/versioni
+     * Elenco delle versioni dello snapshot dei protocolli sospesi ancora in memoria
+     */
+    @GetMapping("/protocolli-sospesi/versioni")
+    public ResponseEntity<?> getVersioniProtocolliSospesi() {
+        logger.info("Richiesta GET /protocolli-sospesi/versioni");
+        List<Map<String, Object>> versioni = new ArrayList<>();
+        for (Snapshot<List<ProtocolliSospesi>> snapshot : snapshotService.getStoricoProtocolli()) {
+            Map<String, Object> versione = new LinkedHashMap<>();
+            versione.put("version", snapshot.getVersione());
+            versione.put("snapshotTime", snapshot.getDataOra());
+            versione.put("totalRecords", snapshot.getDati().size());
+            if (snapshot.getDati() instanceof ProtocolliSospesiCompatti) {
+                versione.put("estimatedBytes", ((ProtocolliSospesiCompatti) snapshot.getDati()).getByteStimati());
+            }
+            versioni.add(versione);
+        }
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("data", versioni);
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * GET /api/protocolli-sospesi/versioni/{versione}
+     * Protocolli sospesi come erano nella versione indicata dello snapshot
+     */
+    @GetMapping("/protocolli-sospesi/versioni/{versione}")
+    public ResponseEntity<?> getVersioneProtocolliSospesi(@PathVariable long versione) {
+        logger.info("Richiesta GET /protocolli-sospesi/versioni/{}", versione);
+        Snapshot<List<ProtocolliSospesi>> snapshot = snapshotService.getProtocolliSospesi(versione);
+        if (snapshot == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                    .body(new ErrorResponse("Versione non disponibile", "La versione " + versione + " non e' piu' in memoria"));
+        }
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("data", snapshot.getDati());
+        response.put("totalRecords", snapshot.getDati().size());
+        response.put("version", snapshot.getVersione());
+        response.put("snapshotTime", snapshot.getDataOra());
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * GET /api/protocolli-sospesi/stream?format=json|ndjson
+     * Restituisce i protocolli sospesi in streaming, scrivendo ogni riga appena letta dal database.
+     * - json: {"data":[...],"totalRecords":N,"success":true} con totalRecords in coda
+     * - ndjson: un oggetto JSON per riga
+     * La scadenza (salvavita.stream.deadline-ms o X-Deadline-Ms) vale per tutta la risposta
+     */
+    @GetMapping("/protocolli-sospesi/stream")
+    public ResponseEntity<StreamingResponseBody> streamProtocolliSospesi(
+            @RequestParam(defaultValue = "json") String format,
+            @RequestHeader(value = HEADER_SCADENZA, required = false) Long scadenzaMs) {
+        logger.info("Richiesta GET /protocolli-sospesi/stream (formato {})", format);
+        boolean ndjson = "ndjson".equalsIgnoreCase(format);
+        ContestoQuery contesto = ContestoQuery.conScadenza(scadenzaStream(scadenzaMs));
+
+        StreamingResponseBody body = out -> {
+            JsonGenerator json = objectMapper.createGenerator(out, JsonEncoding.UTF8);
+            json.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            if (ndjson) {
+                json.setRootValueSeparator(null);
+            } else {
+                json.writeStartObject();
+                json.writeArrayFieldStart("data");
+            }
+
+            try {
+                int totale = oracleService.streamProtocolliSospesi(null, riga -> {
+                    json.writeObject(riga);
+                    if (ndjson) {
+                        json.writeRaw('\n');
+                    }
+                }, contesto);
+
+                if (!ndjson) {
+                    json.writeEndArray();
+                    json.writeNumberField("totalRecords", totale);
+                    json.writeBooleanField("success", true);
+                    json.writeEndObject();
+                }
+                logger.info("Risposta in streaming: {} record inviati", totale);
+
+            } catch (Exception e) {
+                logger.error("Errore nella richiesta in streaming: {}", e.getMessage(), e);
+                if (ndjson) {
+                    json.writeObject(new ErrorResponse("Errore nell'esecuzione della query", e.getMessage()));
+                    json.writeRaw('\n');
+                } else {
+                    json.writeEndArray();
+                    json.writeBooleanField("success", false);
+                    json.writeStringField("error", "Errore nell'esecuzione della query");
+                    json.writeStringField("message", e.getMessage());
+                    json.writeEndObject();
+                }
+            } finally {
+                json.close();
+            }
+        };
+
+        return ResponseEntity.ok()
+                .contentType(ndjson ? MediaType.parseMediaType("application/x-ndjson") : MediaType.APPLICATION_JSON)
+                .body(body);
+    }
+
+    /**
+     * GET /api/protocolli-sospesi/export?format=csv|xlsx&gzip=true&ente=...&dal=...
+     * Esportazione completa dei protocolli sospesi con gli stessi filtri della lista paginata
+     * (pageSize e after sono ignorati). Le righe vanno dal ResultSet al file senza essere
+     * accumulate: la memoria usata non dipende dal numero di righe
+     */
+    @GetMapping("/protocolli-sospesi/export")
+    public ResponseEntity<StreamingResponseBody> esportaProtocolliSospesi(FiltroProtocolli filtro,
+                                                                          @RequestParam(defaultValue = "csv") String format,
+                                                                          @RequestParam(defaultValue = "false") boolean gzip,
+                                                                          @RequestParam(defaultValue = ",") char separatore,
+                                                                          @RequestHeader(value = HEADER_SCADENZA, required = false) Long scadenzaMs) {
+        logger.info("Richiesta GET /protocolli-sospesi/export (formato {}, gzip {}) con {}", format, gzip, filtro);
+        return esporta("protocolli-sospesi", format, gzip, separatore, COLONNE_PROTOCOLLI, scadenzaMs,
+                (esportazione, contesto) -> oracleService.streamProtocolliSospesi(filtro, ps -> esportazione.riga(new Object[]{
+                        ps.getEnte(), ps.getSequLongId(), ps.getCountRecuperiEjb(), ps.getPresaVisione(),
+                        ps.getIdTransizionePresente(), ps.getAooUfficio(), ps.getUtenteCreatore(), ps.getDataInserimento(),
+                        ps.getStatoDocumento(), ps.getEsitoDocumento(), ps.getIdAtmos(), ps.getErrore(),
+                        ps.getNomeDocumento(), ps.getSeqDocumento()}), contesto));
+    }
+
+    /**
+     * GET /api/scheduled-tasks/export?format=csv|xlsx&gzip=true
+     * Esportazione dei task schedulati letti direttamente dal database
+     */
+    @GetMapping("/scheduled-tasks/export")
+    public ResponseEntity<StreamingResponseBody> esportaScheduledTasks(@RequestParam(defaultValue = "csv") String format,
+                                                                       @RequestParam(defaultValue = "false") boolean gzip,
+                                                                       @RequestParam(defaultValue = ",") char separatore,
+                                                                       @RequestHeader(value = HEADER_SCADENZA, required = false) Long scadenzaMs) {
+        logger.info("Richiesta GET /scheduled-tasks/export (formato {}, gzip {})", format, gzip);
+        return esporta("scheduled-tasks", format, gzip, separatore, COLONNE_TASK, scadenzaMs,
+                (esportazione, contesto) -> oracleService.streamScheduledTasks(task -> esportazione.riga(new Object[]{
+                        task.get("name"), task.get("prossimoRun")}), contesto));
+    }
+
+    /**
+     * Risposta in streaming con il file di esportazione. Se la query fallisce a meta' la risposta
+     * viene interrotta senza chiudere il formato, cosi' il client non riceve un file apparentemente completo.
+     * Le query hanno la scadenza dello streaming e sono annullate se la scrittura verso il client fallisce
+     */
+    private ResponseEntity<StreamingResponseBody> esporta(String nome, String format, boolean gzip, char separatore,
+                                                          List<String> colonne, Long scadenzaMs, SorgenteEsportazione sorgente) {
+        boolean xlsx = "xlsx".equalsIgnoreCase(format);
+        if (!xlsx && !"csv".equalsIgnoreCase(format)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Formato non valido: " + format + " (csv, xlsx)");
         }
+        String file = nome + "-" + FORMATO_NOME_FILE.format(LocalDateTime.now()) + (xlsx ? ".xlsx" : gzip ? ".csv.gz" : ".csv");
+        ContestoQuery contesto = ContestoQuery.conScadenza(scadenzaStream(scadenzaMs));
+
+        StreamingResponseBody body = out -> {
+            long inizio = System.currentTimeMillis();
+            Esportazione esportazione = Esportazione.crea(format, gzip, separatore, out);
+            try {
+                esportazione.intestazione(colonne);
+                int righe = sorgente.scrivi(esportazione, contesto);
+                esportazione.close();
+                logger.info("Esportazione {} completata: {} righe in {} ms", file, righe, System.currentTimeMillis() - inizio);
+            } catch (Exception e) {
+                logger.error("Esportazione {} interrotta: {}", file, e.getMessage(), e);
+                throw new IOException("Esportazione interrotta: " + e.getMessage(), e);
+            }
+        };
+
+        MediaType tipo = xlsx ? MediaType.parseMediaType("application/vnd.openxmlformats-officedocument.spreadsheetml.sheet")
+                : gzip ? MediaType.parseMediaType("application/gzip")
+                : MediaType.parseMediaType("text/csv;charset=UTF-8");
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + file + "\"")
+                .contentType(tipo)
+                .body(body);
+    }
+
+    /**
+     * Scrive le righe di un'esportazione, restituendone il numero
+     */
+    private interface SorgenteEsportazione {
+        int scrivi(Esportazione esportazione, ContestoQuery contesto) throws Exception;
     }
 
     /**
@@ -53,49 +441,204 @@ public class QueryController {
      * Restituisce lista di task schedulati con prossimo run
      */
     @GetMapping("/scheduled-tasks")
-    public ResponseEntity<?> getScheduledTasks() {
-        try {
-            logger.info("Richiesta GET /scheduled-tasks");
-            List<Map<String, Object>> data = oracleService.getScheduledTasks();
-            
+    public DeferredResult<ResponseEntity<?>> getScheduledTasks(@RequestHeader(value = HEADER_SCADENZA, required = false) Long scadenzaMs) {
+        logger.info("Richiesta GET /scheduled-tasks");
+        return conScadenza("GET /scheduled-tasks", scadenza(scadenzaMs), null, snapshotService.getScheduledTasksAsync().thenApply(snapshot -> {
+            List<Map<String, Object>> data = snapshot.getDati();
+
             Map<String, Object> response = new HashMap<>();
             response.put("success", true);
             response.put("totalRecords", data.size());
             response.put("data", data);
-            
+            response.put("snapshotTime", snapshot.getDataOra());
+            response.put("snapshotAgeMs", snapshot.getEtaMs());
+
             logger.info("Risposta: {} record trovati", data.size());
             return ResponseEntity.ok(response);
-            
+        }));
+    }
+
+    /**
+     * GET /api/scheduled-tasks/overdue?all=false
+     * Task dello scheduler in ritardo (o tutti con all=true) con ritardo, periodo ed esecuzioni per ora,
+     * calcolati dal monitor in background: risposta dalla memoria, senza query sul database
+     */
+    @GetMapping("/scheduled-tasks/overdue")
+    public ResponseEntity<?> getScheduledTasksInRitardo(@RequestParam(defaultValue = "false") boolean all) {
+        logger.info("Richiesta GET /scheduled-tasks/overdue");
+        Map<String, Object> stato = monitorScheduler.getStato(all);
+        if (stato == null) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, "30")
+                    .body(new ErrorResponse("Monitor non disponibile", "Nessun campione dello scheduler ancora disponibile"));
+        }
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("success", true);
+        response.putAll(stato);
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * GET /api/serie-storiche?nome=protocolli&ente=ENTRATE&dal=2025-11-01T00:00:00&al=...&risoluzione=auto
+     * Andamento nel tempo dei conteggi registrati a ogni aggiornamento degli snapshot, letto dal disco.
+     * Di default le ultime 24 ore; risoluzione raw, 5m, 1h o auto (la piu' fine che copre l'intervallo)
+     */
+    @GetMapping("/serie-storiche")
+    public ResponseEntity<?> getSerieStoriche(
+            @RequestParam(required = false) String nome,
+            @RequestParam(required = false) String ente,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime dal,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime al,
+            @RequestParam(required = false) String risoluzione) {
+        try {
+            logger.info("Richiesta GET /serie-storiche (nome: {}, ente: {}, dal: {}, al: {})", nome, ente, dal, al);
+            long fine = al != null ? toMillis(al) : System.currentTimeMillis();
+            long inizio = dal != null ? toMillis(dal) : fine - 24 * 3_600_000L;
+
+            Map<String, Object> response = new LinkedHashMap<>();
+            response.put("success", true);
+            response.putAll(serieStoricheService.getSerie(nome, ente, inizio, fine, risoluzione));
+            return ResponseEntity.ok(response);
+
+        } catch (IllegalArgumentException e) {
+            logger.warn("Parametri non validi: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .body(new ErrorResponse("Parametri non validi", e.getMessage()));
         } catch (Exception e) {
-            logger.error("Errore nella richiesta: {}", e.getMessage(), e);
+            logger.error("Errore nella lettura delle serie storiche: {}", e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(new ErrorResponse("Errore nella lettura delle serie storiche", e.getMessage()));
+        }
+    }
+
+    /**
+     * GET /api/serie-storiche/elenco
+     * Serie registrate e occupazione su disco per risoluzione
+     */
+    @GetMapping("/serie-storiche/elenco")
+    public ResponseEntity<?> getElencoSerieStoriche() {
+        try {
+            logger.info("Richiesta GET /serie-storiche/elenco");
+            Map<String, Object> response = new LinkedHashMap<>();
+            response.put("success", true);
+            response.putAll(serieStoricheService.getElenco());
+            return ResponseEntity.ok(response);
+
+        } catch (Exception e) {
+            logger.error("Errore nella lettura delle serie storiche: {}", e.getMessage(), e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                    .body(new ErrorResponse("Errore nell'esecuzione della query", e.getMessage()));
+                    .body(new ErrorResponse("Errore nella lettura delle serie storiche", e.getMessage()));
+        }
+    }
+
+    /**
+     * GET /api/eventi
+     * Canale Server-Sent Events con le variazioni di protocolli sospesi e task schedulati.
+     * Alla riconnessione il browser invia Last-Event-ID e riceve solo gli eventi persi
+     */
+    @GetMapping(value = "/eventi", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter eventi(@RequestHeader(value = "Last-Event-ID", required = false) String lastEventId) throws IOException {
+        logger.info("Richiesta GET /eventi (Last-Event-ID: {})", lastEventId);
+        try {
+            return dashboardEventService.subscribe(lastEventId);
+        } catch (IllegalStateException e) {
+            logger.warn("Connessione SSE rifiutata: {}", e.getMessage());
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, e.getMessage());
         }
     }
 
     /**
      * GET /api/health
-     * Verifica la connessione al database
+     * Stato del database dall'ultimo controllo periodico (nessuna connessione aperta dalla richiesta).
+     * 503 se il database non risponde o il circuit breaker e' aperto
      */
     @GetMapping("/health")
     public ResponseEntity<?> health() {
+        logger.debug("Richiesta GET /health");
+        Map<String, Object> response = databaseHealth.getStato();
+        String status = (String) response.get("status");
+        if ("DOWN".equals(status)) {
+            response.put("message", "Database non disponibile");
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(response);
+        }
+        response.put("message", "UP".equals(status) ? "Connessione al database attiva" : "Verifica in corso");
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * GET /api/pool-stats
+     * Statistiche del connection pool (attive, inattive, in attesa, latenza di acquisizione)
+     */
+    @GetMapping("/pool-stats")
+    public ResponseEntity<?> poolStats() {
         try {
-            logger.info("Richiesta GET /health");
-            oracleService.getConnection().close();
-            
-            Map<String, String> response = new HashMap<>();
-            response.put("status", "OK");
-            response.put("message", "Connessione al database attiva");
-            
+            logger.debug("Richiesta GET /pool-stats");
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", true);
+            response.put("data", oracleService.getPoolStatistics());
             return ResponseEntity.ok(response);
-            
+
         } catch (Exception e) {
-            logger.error("Errore di connessione: {}", e.getMessage(), e);
-            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
-                    .body(new ErrorResponse("Database non disponibile", e.getMessage()));
+            logger.error("Errore nella lettura delle statistiche del pool: {}", e.getMessage(), e);
+            return ResponseEntity.status(statoErrore(e))
+                    .body(new ErrorResponse("Errore nella lettura delle statistiche", e.getMessage()));
         }
     }
 
+    /**
+     * GET /api/aggiornamenti-snapshot
+     * Stato dell'aggiornamento pianificato degli snapshot: intervallo corrente, durata dell'ultima query,
+     * giri senza variazioni, errori consecutivi e prossima esecuzione
+     */
+    @GetMapping("/aggiornamenti-snapshot")
+    public ResponseEntity<?> getAggiornamentiSnapshot() {
+        logger.debug("Richiesta GET /aggiornamenti-snapshot");
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("data", aggiornamentoSnapshot.getStatistiche());
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * GET /api/leader
+     * Ruolo di questa istanza (leader o follower), indirizzo del leader e file di lock dell'elezione
+     */
+    @GetMapping("/leader")
+    public ResponseEntity<?> getLeader() {
+        logger.debug("Richiesta GET /leader");
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("data", elezioneLeader.getStato());
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * GET /api/aoo-uffici
+     * Stato dei dizionari AOO/uffici in memoria (numero di uffici e data di caricamento per ente)
+     */
+    @GetMapping("/aoo-uffici")
+    public ResponseEntity<?> getAooUffici() {
+        logger.debug("Richiesta GET /aoo-uffici");
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("data", aooUfficioService.getStatistiche());
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * POST /api/aoo-uffici/aggiorna
+     * Rilegge subito i dizionari AOO/uffici di tutti gli enti
+     */
+    @PostMapping("/aoo-uffici/aggiorna")
+    public ResponseEntity<?> aggiornaAooUffici() {
+        logger.info("Richiesta POST /aoo-uffici/aggiorna");
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("message", "Dizionari AOO/uffici aggiornati");
+        response.put("data", aooUfficioService.aggiorna());
+        return ResponseEntity.ok(response);
+    }
+
     /**
      * POST /api/avvia-processi
      * Cancella i dati di scheduling (SENZA AUTO-COMMIT)
@@ -125,7 +668,7 @@ public class QueryController {
             
         } catch (Exception e) {
             logger.error("Errore nell'avvio dei processi: {}", e.getMessage(), e);
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+            return ResponseEntity.status(statoErrore(e))
                     .body(new ErrorResponse("Errore nell'avvio dei processi", e.getMessage()));
         }
     }
@@ -148,7 +691,7 @@ public class QueryController {
             
         } catch (Exception e) {
             logger.error("Errore nell'eliminazione dei protocolli: {}", e.getMessage(), e);
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+            return ResponseEntity.status(statoErrore(e))
                     .body(new ErrorResponse("Errore nell'eliminazione", e.getMessage()));
         }
     }
@@ -165,11 +708,104 @@ public class QueryController {
             return ResponseEntity.ok(result);
         } catch (Exception e) {
             logger.error("Errore nell'eliminazione del protocollo temporaneo: {}", e.getMessage(), e);
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+            return ResponseEntity.status(statoErrore(e))
                     .body(new ErrorResponse("Errore nell'eliminazione", e.getMessage()));
         }
     }
 
+    /**
+     * POST /api/delete-proto-temporanei
+     * Cancella piu' protocolli temporanei e i loro dati correlati (SENZA AUTO-COMMIT).
+     * Body: [{"ente": "SOGEI", "sequLongId": 123}, ...]
+     */
+    @PostMapping("/delete-proto-temporanei")
+    public ResponseEntity<?> deleteProtiTemporanei(@RequestBody List<ProtocolloTemporaneoRef> protocolli) {
+        try {
+            logger.info("Richiesta POST /delete-proto-temporanei per {} protocolli", protocolli.size());
+            Map<String, Object> result = oracleService.deleteProtiTemporanei(protocolli);
+            return ResponseEntity.ok(result);
+        } catch (Exception e) {
+            logger.error("Errore nell'eliminazione dei protocolli temporanei: {}", e.getMessage(), e);
+            return ResponseEntity.status(statoErrore(e))
+                    .body(new ErrorResponse("Errore nell'eliminazione", e.getMessage()));
+        }
+    }
+
+    /**
+     * GET /api/transazioni
+     * Transazioni in attesa di Commit/Rollback con eta', scadenza del lease e tabelle bloccate
+     */
+    @GetMapping("/transazioni")
+    public ResponseEntity<?> getTransazioni() {
+        logger.debug("Richiesta GET /transazioni");
+        List<Map<String, Object>> transazioni = transactionService.getTransazioni();
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("totalRecords", transazioni.size());
+        response.put("data", transazioni);
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * POST /api/transazioni/rinnova
+     * Rinnova il lease della transazione in sospeso della sessione corrente
+     */
+    @PostMapping("/transazioni/rinnova")
+    public ResponseEntity<?> rinnovaTransazione() {
+        TransazioneInSospeso tx = transactionService.rinnova();
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", tx != null);
+        if (tx != null) {
+            response.put("transactionId", tx.getId());
+            response.put("leaseExpiresMs", tx.getScadenza());
+        } else {
+            response.put("message", "Nessuna transazione in sospeso (o annullata per lease scaduto)");
+        }
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * DELETE /api/transazioni/{id}
+     * Rollback di una transazione in sospeso, anche di un'altra sessione (es. browser chiuso)
+     */
+    @DeleteMapping("/transazioni/{id}")
+    public ResponseEntity<?> rollbackTransazione(@PathVariable String id) {
+        logger.info("Richiesta DELETE /transazioni/{}", id);
+        try {
+            if (!transactionService.rollback(id)) {
+                return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                        .body(new ErrorResponse("Transazione non trovata", "La transazione " + id + " non e' piu' in sospeso"));
+            }
+        } catch (TransazioneInUsoException e) {
+            logger.warn("Rollback della transazione {} rifiutato: {}", id, e.getMessage());
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                    .body(new ErrorResponse("Transazione in uso", e.getMessage()));
+        }
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("message", "ROLLBACK eseguito con successo");
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * GET /api/task-lanciati
+     * Esito dei task dello scheduler lanciati dopo il commit: stato, codice HTTP, latenza e tentativi.
+     * Senza parametri restituisce l'ultimo esito di ogni task, con lancio=ID quelli di un lancio.
+     */
+    @GetMapping("/task-lanciati")
+    public ResponseEntity<?> getTaskLanciati(@RequestParam(required = false) String lancio) {
+        logger.debug("Richiesta GET /task-lanciati");
+        List<EsitoTask> esiti = lancio != null
+                ? taskDispatcherService.getStorico(lancio)
+                : taskDispatcherService.getUltimiEsiti();
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("totalRecords", esiti.size());
+        response.put("data", esiti);
+        response.put("dispatcher", taskDispatcherService.getStatistiche());
+        return ResponseEntity.ok(response);
+    }
+
     /**
      * POST /api/commit-transaction
      * Esegui il commit di tutte le operazioni in sospeso
@@ -182,7 +818,7 @@ public class QueryController {
             return ResponseEntity.ok(result);
         } catch (Exception e) {
             logger.error("Errore nel commit: {}", e.getMessage(), e);
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+            return ResponseEntity.status(statoErrore(e))
                     .body(new ErrorResponse("Errore nel commit", e.getMessage()));
         }
     }
@@ -199,11 +835,98 @@ public class QueryController {
             return ResponseEntity.ok(result);
         } catch (Exception e) {
             logger.error("Errore nel rollback: {}", e.getMessage(), e);
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+            return ResponseEntity.status(statoErrore(e))
                     .body(new ErrorResponse("Errore nel rollback", e.getMessage()));
         }
     }
 
+    /**
+     * Risposta asincrona con scadenza: il thread della richiesta torna subito al pool e la risposta
+     * viene scritta al completamento di risposta, oppure con 503 allo scadere di salvavita.api.deadline-ms
+     * (il caricamento in corso prosegue e servira' le richieste successive)
+     */
+    private DeferredResult<ResponseEntity<?>> conScadenza(String richiesta, long scadenzaMs, ContestoQuery contesto,
+                                                          CompletableFuture<ResponseEntity<?>> risposta) {
+        DeferredResult<ResponseEntity<?>> result = new DeferredResult<>(scadenzaMs);
+        result.onTimeout(() -> {
+            logger.warn("Richiesta {} non completata entro {} ms", richiesta, scadenzaMs);
+            if (contesto != null) {
+                contesto.annulla(ContestoQuery.SCADENZA);
+            }
+            result.setResult(ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, Long.toString(Math.max(1, scadenzaMs / 1000)))
+                    .body(new ErrorResponse("Tempo scaduto", "Risposta non pronta entro " + scadenzaMs + " ms, riprovare")));
+        });
+        if (contesto != null) {
+            // Errore sulla connessione durante l'attesa, tipicamente il client che si e' disconnesso
+            result.onError(e -> {
+                logger.warn("Richiesta {} interrotta dal client: annullo le query in corso", richiesta);
+                contesto.annulla(ContestoQuery.CLIENT);
+            });
+        }
+        risposta.whenComplete((response, e) -> {
+            if (e == null) {
+                result.setResult(response);
+                return;
+            }
+            Throwable causa = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            logger.error("Errore nella richiesta {}: {}", richiesta, causa.getMessage(), causa);
+            result.setResult(ResponseEntity.status(statoErrore(causa))
+                    .body(new ErrorResponse("Errore nell'esecuzione della query", causa.getMessage())));
+        });
+        return result;
+    }
+
+    /**
+     * Scadenza della richiesta: quella chiesta dal client con l'header X-Deadline-Ms
+     * (limitata a salvavita.api.max-deadline-ms) o salvavita.api.deadline-ms
+     */
+    private long scadenza(Long richiestaMs) {
+        if (richiestaMs == null || richiestaMs <= 0) {
+            return deadlineMs;
+        }
+        return Math.min(richiestaMs, maxDeadlineMs);
+    }
+
+    /**
+     * Scadenza di streaming ed esportazioni: X-Deadline-Ms (limitata a salvavita.stream.deadline-ms)
+     * o salvavita.stream.deadline-ms
+     */
+    private long scadenzaStream(Long richiestaMs) {
+        if (richiestaMs == null || richiestaMs <= 0) {
+            return streamDeadlineMs;
+        }
+        return Math.min(richiestaMs, streamDeadlineMs);
+    }
+
+    private static DeferredResult<ResponseEntity<?>> risultato(ResponseEntity<?> response) {
+        DeferredResult<ResponseEntity<?>> result = new DeferredResult<>();
+        result.setResult(response);
+        return result;
+    }
+
+    /**
+     * 503 se la richiesta e' fallita perche' il circuit breaker del database e' aperto
+     * o perche' gli schemi non hanno risposto in tempo (bulkhead scaduto o saturo),
+     * 409 se Commit/Rollback trova la transazione ancora in uso da un'operazione, altrimenti 500
+     */
+    private static HttpStatus statoErrore(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof DatabaseNonDisponibileException || t instanceof TimeoutException
+                    || t instanceof RejectedExecutionException) {
+                return HttpStatus.SERVICE_UNAVAILABLE;
+            }
+            if (t instanceof TransazioneInUsoException) {
+                return HttpStatus.CONFLICT;
+            }
+        }
+        return HttpStatus.INTERNAL_SERVER_ERROR;
+    }
+
+    private static long toMillis(LocalDateTime dataOra) {
+        return dataOra.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
     /**
      * Classe per le risposte di errore - SENZA LOMBOK
      */
@@ -0,0 +1,50 @@
+package com.salvavita.model;
+
+import java.util.Map;
+
+/**
+ * Evento inviato ai browser sul canale SSE della dashboard
+ */
+public class DashboardEvent {
+    public static final String PROTOCOLLO_NUOVO = "protocollo-nuovo";
+    public static final String PROTOCOLLO_RISOLTO = "protocollo-risolto";
+    public static final String TASK_RIPROGRAMMATO = "task-riprogrammato";
+    public static final String RESYNC = "resync";
+
+    private final long id;
+    private final String tipo;
+    private final long timestamp;
+    private final Map<String, Object> dati;
+
+    public DashboardEvent(long id, String tipo, long timestamp, Map<String, Object> dati) {
+        this.id = id;
+        this.tipo = tipo;
+        this.timestamp = timestamp;
+        this.dati = dati;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getTipo() {
+        return tipo;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public Map<String, Object> getDati() {
+        return dati;
+    }
+
+    @Override
+    public String toString() {
+        return "DashboardEvent{" +
+                "id=" + id +
+                ", tipo='" + tipo + '\'' +
+                ", dati=" + dati +
+                '}';
+    }
+}
@@ -0,0 +1,112 @@
+package com.salvavita.model;
+
+import java.time.LocalDateTime;
+
+/**
+ * Esito del lancio di un task dello scheduler (una chiamata HTTP con i suoi tentativi)
+ */
+public class EsitoTask {
+
+    public static final String IN_CODA = "IN_CODA";
+    public static final String IN_CORSO = "IN_CORSO";
+    public static final String IN_ATTESA_RIPROVA = "IN_ATTESA_RIPROVA";
+    public static final String OK = "OK";
+    public static final String ERRORE = "ERRORE";
+    // Richiesta inviata senza risposta (es. timeout di lettura): il task potrebbe essere partito
+    public static final String INCERTO = "INCERTO";
+
+    private final String lancio;
+    private final String taskName;
+    private final String url;
+    private final LocalDateTime richiesto;
+
+    private volatile String stato = IN_CODA;
+    private volatile int tentativi;
+    private volatile Integer httpCode;
+    private volatile Long latenzaMs;
+    private volatile String errore;
+    private volatile LocalDateTime completato;
+
+    public EsitoTask(String lancio, String taskName, String url) {
+        this.lancio = lancio;
+        this.taskName = taskName;
+        this.url = url;
+        this.richiesto = LocalDateTime.now();
+    }
+
+    public String getLancio() {
+        return lancio;
+    }
+
+    public String getTaskName() {
+        return taskName;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public LocalDateTime getRichiesto() {
+        return richiesto;
+    }
+
+    public String getStato() {
+        return stato;
+    }
+
+    public void setStato(String stato) {
+        this.stato = stato;
+    }
+
+    public int getTentativi() {
+        return tentativi;
+    }
+
+    public void setTentativi(int tentativi) {
+        this.tentativi = tentativi;
+    }
+
+    public Integer getHttpCode() {
+        return httpCode;
+    }
+
+    public void setHttpCode(Integer httpCode) {
+        this.httpCode = httpCode;
+    }
+
+    public Long getLatenzaMs() {
+        return latenzaMs;
+    }
+
+    public void setLatenzaMs(Long latenzaMs) {
+        this.latenzaMs = latenzaMs;
+    }
+
+    public String getErrore() {
+        return errore;
+    }
+
+    public void setErrore(String errore) {
+        this.errore = errore;
+    }
+
+    public LocalDateTime getCompletato() {
+        return completato;
+    }
+
+    public void setCompletato(LocalDateTime completato) {
+        this.completato = completato;
+    }
+
+    @Override
+    public String toString() {
+        return "EsitoTask{" +
+                "taskName='" + taskName + '\'' +
+                ", stato='" + stato + '\'' +
+                ", tentativi=" + tentativi +
+                ", httpCode=" + httpCode +
+                ", latenzaMs=" + latenzaMs +
+                ", errore='" + errore + '\'' +
+                '}';
+    }
+}
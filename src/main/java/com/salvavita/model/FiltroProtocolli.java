@@ -0,0 +1,115 @@
+package com.salvavita.model;
+
+import org.springframework.format.annotation.DateTimeFormat;
+
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Filtri e cursore di paginazione per la query PROTOCOLLI_SOSPESI,
+ * valorizzati dai parametri della richiesta GET /api/protocolli-sospesi
+ */
+public class FiltroProtocolli {
+    private List<String> ente;
+
+    @DateTimeFormat(iso = DateTimeFormat.ISO.DATE)
+    private LocalDate dal;
+
+    @DateTimeFormat(iso = DateTimeFormat.ISO.DATE)
+    private LocalDate al;
+
+    private Integer statoDocumento;
+    private Integer esitoDocumento;
+    private Boolean conErrore;
+    private Integer pageSize;
+
+    // Cursore "ENTE:sequLongId:seqDocumento" dell'ultima riga della pagina precedente
+    private String after;
+
+    /**
+     * True se la richiesta non contiene ne' filtri ne' paginazione
+     */
+    public boolean isVuoto() {
+        return (ente == null || ente.isEmpty()) && dal == null && al == null
+                && statoDocumento == null && esitoDocumento == null && conErrore == null
+                && pageSize == null && (after == null || after.isEmpty());
+    }
+
+    public List<String> getEnte() {
+        return ente;
+    }
+
+    public void setEnte(List<String> ente) {
+        this.ente = ente;
+    }
+
+    public LocalDate getDal() {
+        return dal;
+    }
+
+    public void setDal(LocalDate dal) {
+        this.dal = dal;
+    }
+
+    public LocalDate getAl() {
+        return al;
+    }
+
+    public void setAl(LocalDate al) {
+        this.al = al;
+    }
+
+    public Integer getStatoDocumento() {
+        return statoDocumento;
+    }
+
+    public void setStatoDocumento(Integer statoDocumento) {
+        this.statoDocumento = statoDocumento;
+    }
+
+    public Integer getEsitoDocumento() {
+        return esitoDocumento;
+    }
+
+    public void setEsitoDocumento(Integer esitoDocumento) {
+        this.esitoDocumento = esitoDocumento;
+    }
+
+    public Boolean getConErrore() {
+        return conErrore;
+    }
+
+    public void setConErrore(Boolean conErrore) {
+        this.conErrore = conErrore;
+    }
+
+    public Integer getPageSize() {
+        return pageSize;
+    }
+
+    public void setPageSize(Integer pageSize) {
+        this.pageSize = pageSize;
+    }
+
+    public String getAfter() {
+        return after;
+    }
+
+    public void setAfter(String after) {
+        this.after = after;
+    }
+
+    @Override
+    public String toString() {
+        return "FiltroProtocolli{" +
+                "ente=" + ente +
+                ", dal=" + dal +
+                ", al=" + al +
+                ", statoDocumento=" + statoDocumento +
+                ", esitoDocumento=" + esitoDocumento +
+                ", conErrore=" + conErrore +
+                ", pageSize=" + pageSize +
+                ", after='" + after + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,322 @@
+package com.salvavita.model;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * Elenco immutabile di ProtocolliSospesi memorizzato per colonne, per tenere in heap
+ * snapshot da centinaia di migliaia di righe:
+ * - colonne numeriche in array di primitivi, con una bitmap dei valori null per colonna
+ * - stringhe molto ripetute (ente, AOO/ufficio, utente, errore) codificate con un dizionario
+ * - data inserimento come epoch millis
+ * get(i) ricostruisce al volo un ProtocolliSospesi, quindi la lista si serializza
+ * in JSON esattamente come una List<ProtocolliSospesi>
+ */
+public class ProtocolliSospesiCompatti extends AbstractList<ProtocolliSospesi> implements RandomAccess {
+
+    // Indici delle colonne nullable nelle bitmap dei null
+    private static final int SEQU_LONG_ID = 0;
+    private static final int COUNT_RECUPERI_EJB = 1;
+    private static final int PRESA_VISIONE = 2;
+    private static final int ID_TRANSIZIONE_PRESENTE = 3;
+    private static final int DATA_INSERIMENTO = 4;
+    private static final int STATO_DOCUMENTO = 5;
+    private static final int ESITO_DOCUMENTO = 6;
+    private static final int SEQ_DOCUMENTO = 7;
+    private static final int COLONNE_NULLABLE = 8;
+
+    private final int size;
+
+    private final long[] sequLongId;
+    private final long[] seqDocumento;
+    private final long[] dataInserimento;
+    private final int[] countRecuperiEjb;
+    private final int[] presaVisione;
+    private final int[] idTransizionePresente;
+    private final int[] statoDocumento;
+    private final int[] esitoDocumento;
+    private final BitSet[] nulli;
+
+    private final Dizionario ente;
+    private final Dizionario aooUfficio;
+    private final Dizionario utenteCreatore;
+    private final Dizionario errore;
+
+    private final String[] idAtmos;
+    private final String[] iChronicleId;
+    private final String[] nomeDocumento;
+
+    private ProtocolliSospesiCompatti(Builder b) {
+        this.size = b.size;
+        this.sequLongId = Arrays.copyOf(b.sequLongId, size);
+        this.seqDocumento = Arrays.copyOf(b.seqDocumento, size);
+        this.dataInserimento = Arrays.copyOf(b.dataInserimento, size);
+        this.countRecuperiEjb = Arrays.copyOf(b.countRecuperiEjb, size);
+        this.presaVisione = Arrays.copyOf(b.presaVisione, size);
+        this.idTransizionePresente = Arrays.copyOf(b.idTransizionePresente, size);
+        this.statoDocumento = Arrays.copyOf(b.statoDocumento, size);
+        this.esitoDocumento = Arrays.copyOf(b.esitoDocumento, size);
+        this.nulli = b.nulli;
+        this.ente = b.ente.compatta(size);
+        this.aooUfficio = b.aooUfficio.compatta(size);
+        this.utenteCreatore = b.utenteCreatore.compatta(size);
+        this.errore = b.errore.compatta(size);
+        this.idAtmos = Arrays.copyOf(b.idAtmos, size);
+        this.iChronicleId = Arrays.copyOf(b.iChronicleId, size);
+        this.nomeDocumento = Arrays.copyOf(b.nomeDocumento, size);
+    }
+
+    /**
+     * Converte un elenco di ProtocolliSospesi nella rappresentazione compatta
+     */
+    public static ProtocolliSospesiCompatti da(Collection<ProtocolliSospesi> righe) {
+        if (righe instanceof ProtocolliSospesiCompatti) {
+            return (ProtocolliSospesiCompatti) righe;
+        }
+        Builder builder = new Builder(righe.size());
+        for (ProtocolliSospesi ps : righe) {
+            builder.add(ps);
+        }
+        return builder.build();
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public ProtocolliSospesi get(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Indice " + i + ", dimensione " + size);
+        }
+        return new ProtocolliSospesi(
+                ente.get(i),
+                nullo(SEQU_LONG_ID, i) ? null : sequLongId[i],
+                nullo(COUNT_RECUPERI_EJB, i) ? null : countRecuperiEjb[i],
+                nullo(PRESA_VISIONE, i) ? null : presaVisione[i],
+                nullo(ID_TRANSIZIONE_PRESENTE, i) ? null : idTransizionePresente[i],
+                aooUfficio.get(i),
+                utenteCreatore.get(i),
+                nullo(DATA_INSERIMENTO, i) ? null : daEpochMillis(dataInserimento[i]),
+                nullo(STATO_DOCUMENTO, i) ? null : statoDocumento[i],
+                nullo(ESITO_DOCUMENTO, i) ? null : esitoDocumento[i],
+                idAtmos[i],
+                iChronicleId[i],
+                errore.get(i),
+                nomeDocumento[i],
+                nullo(SEQ_DOCUMENTO, i) ? null : seqDocumento[i]);
+    }
+
+    /**
+     * Stima dell'occupazione in heap (array e stringhe distinte), utile per dimensionare lo storico
+     */
+    public long getByteStimati() {
+        long byteArray = size * (3L * 8 + 5L * 4 + 3L * 4);
+        long byteNulli = COLONNE_NULLABLE * (size / 8L + 16);
+        long byteDizionari = ente.getByteStimati() + aooUfficio.getByteStimati()
+                + utenteCreatore.getByteStimati() + errore.getByteStimati();
+        long byteStringhe = byteStringhe(idAtmos) + byteStringhe(iChronicleId) + byteStringhe(nomeDocumento);
+        return byteArray + byteNulli + byteDizionari + byteStringhe;
+    }
+
+    private boolean nullo(int colonna, int i) {
+        return nulli[colonna].get(i);
+    }
+
+    private static long epochMillis(LocalDateTime data) {
+        return data.toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
+
+    private static LocalDateTime daEpochMillis(long millis) {
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(millis, 1000L),
+                (int) Math.floorMod(millis, 1000L) * 1_000_000, ZoneOffset.UTC);
+    }
+
+    private static long byteStringhe(String[] valori) {
+        long totale = 0;
+        for (String valore : valori) {
+            if (valore != null) {
+                totale += 40 + valore.length();
+            }
+        }
+        return totale;
+    }
+
+    /**
+     * Costruisce la rappresentazione compatta aggiungendo una riga alla volta
+     */
+    public static class Builder {
+        private int size;
+        private long[] sequLongId;
+        private long[] seqDocumento;
+        private long[] dataInserimento;
+        private int[] countRecuperiEjb;
+        private int[] presaVisione;
+        private int[] idTransizionePresente;
+        private int[] statoDocumento;
+        private int[] esitoDocumento;
+        private final BitSet[] nulli = new BitSet[COLONNE_NULLABLE];
+        private final Dizionario ente;
+        private final Dizionario aooUfficio;
+        private final Dizionario utenteCreatore;
+        private final Dizionario errore;
+        private String[] idAtmos;
+        private String[] iChronicleId;
+        private String[] nomeDocumento;
+
+        public Builder(int capacita) {
+            int c = Math.max(16, capacita);
+            sequLongId = new long[c];
+            seqDocumento = new long[c];
+            dataInserimento = new long[c];
+            countRecuperiEjb = new int[c];
+            presaVisione = new int[c];
+            idTransizionePresente = new int[c];
+            statoDocumento = new int[c];
+            esitoDocumento = new int[c];
+            idAtmos = new String[c];
+            iChronicleId = new String[c];
+            nomeDocumento = new String[c];
+            ente = new Dizionario(c);
+            aooUfficio = new Dizionario(c);
+            utenteCreatore = new Dizionario(c);
+            errore = new Dizionario(c);
+            for (int i = 0; i < COLONNE_NULLABLE; i++) {
+                nulli[i] = new BitSet();
+            }
+        }
+
+        public Builder add(ProtocolliSospesi ps) {
+            if (size == sequLongId.length) {
+                cresci();
+            }
+            int i = size++;
+
+            ente.add(i, ps.getEnte());
+            aooUfficio.add(i, ps.getAooUfficio());
+            utenteCreatore.add(i, ps.getUtenteCreatore());
+            errore.add(i, ps.getErrore());
+            idAtmos[i] = ps.getIdAtmos();
+            iChronicleId[i] = ps.getIChronicleId();
+            nomeDocumento[i] = ps.getNomeDocumento();
+
+            sequLongId[i] = valore(SEQU_LONG_ID, i, ps.getSequLongId());
+            seqDocumento[i] = valore(SEQ_DOCUMENTO, i, ps.getSeqDocumento());
+            countRecuperiEjb[i] = valore(COUNT_RECUPERI_EJB, i, ps.getCountRecuperiEjb());
+            presaVisione[i] = valore(PRESA_VISIONE, i, ps.getPresaVisione());
+            idTransizionePresente[i] = valore(ID_TRANSIZIONE_PRESENTE, i, ps.getIdTransizionePresente());
+            statoDocumento[i] = valore(STATO_DOCUMENTO, i, ps.getStatoDocumento());
+            esitoDocumento[i] = valore(ESITO_DOCUMENTO, i, ps.getEsitoDocumento());
+            if (ps.getDataInserimento() == null) {
+                nulli[DATA_INSERIMENTO].set(i);
+            } else {
+                dataInserimento[i] = epochMillis(ps.getDataInserimento());
+            }
+            return this;
+        }
+
+        public ProtocolliSospesiCompatti build() {
+            return new ProtocolliSospesiCompatti(this);
+        }
+
+        private long valore(int colonna, int i, Long valore) {
+            if (valore == null) {
+                nulli[colonna].set(i);
+                return 0L;
+            }
+            return valore;
+        }
+
+        private int valore(int colonna, int i, Integer valore) {
+            if (valore == null) {
+                nulli[colonna].set(i);
+                return 0;
+            }
+            return valore;
+        }
+
+        private void cresci() {
+            int c = sequLongId.length * 2;
+            sequLongId = Arrays.copyOf(sequLongId, c);
+            seqDocumento = Arrays.copyOf(seqDocumento, c);
+            dataInserimento = Arrays.copyOf(dataInserimento, c);
+            countRecuperiEjb = Arrays.copyOf(countRecuperiEjb, c);
+            presaVisione = Arrays.copyOf(presaVisione, c);
+            idTransizionePresente = Arrays.copyOf(idTransizionePresente, c);
+            statoDocumento = Arrays.copyOf(statoDocumento, c);
+            esitoDocumento = Arrays.copyOf(esitoDocumento, c);
+            idAtmos = Arrays.copyOf(idAtmos, c);
+            iChronicleId = Arrays.copyOf(iChronicleId, c);
+            nomeDocumento = Arrays.copyOf(nomeDocumento, c);
+        }
+    }
+
+    /**
+     * Colonna di stringhe codificata a dizionario: ogni riga contiene l'indice del valore
+     * distinto (-1 per null), ogni valore distinto e' memorizzato una sola volta
+     */
+    private static class Dizionario {
+        private final Map<String, Integer> indici;
+        private final List<String> valori;
+        private int[] codici;
+
+        Dizionario(int capacita) {
+            this.indici = new HashMap<>();
+            this.valori = new ArrayList<>();
+            this.codici = new int[capacita];
+        }
+
+        private Dizionario(List<String> valori, int[] codici) {
+            this.indici = null;
+            this.valori = valori;
+            this.codici = codici;
+        }
+
+        void add(int i, String valore) {
+            if (i == codici.length) {
+                codici = Arrays.copyOf(codici, codici.length * 2);
+            }
+            if (valore == null) {
+                codici[i] = -1;
+                return;
+            }
+            Integer codice = indici.get(valore);
+            if (codice == null) {
+                codice = valori.size();
+                indici.put(valore, codice);
+                valori.add(valore);
+            }
+            codici[i] = codice;
+        }
+
+        String get(int i) {
+            int codice = codici[i];
+            return codice < 0 ? null : valori.get(codice);
+        }
+
+        /**
+         * Versione in sola lettura, senza la mappa di costruzione
+         */
+        Dizionario compatta(int size) {
+            return new Dizionario(new ArrayList<>(valori), Arrays.copyOf(codici, size));
+        }
+
+        long getByteStimati() {
+            long totale = codici.length * 4L;
+            for (String valore : valori) {
+                totale += 40 + valore.length();
+            }
+            return totale;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.salvavita.model;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Variazione dei protocolli sospesi tra due versioni dello snapshot:
+ * righe aggiunte e identificativi (per ente) dei protocolli usciti dall'insieme dei sospesi.
+ * Se completo e' true, aggiunti contiene l'intero insieme e il client deve sostituire i suoi dati
+ */
+public class ProtocolliSospesiDelta {
+    private final long versioneDa;
+    private final long versione;
+    private final boolean completo;
+    private final List<ProtocolliSospesi> aggiunti;
+    private final Map<String, Set<Long>> rimossi;
+
+    public ProtocolliSospesiDelta(long versioneDa, long versione, boolean completo,
+                                  List<ProtocolliSospesi> aggiunti, Map<String, Set<Long>> rimossi) {
+        this.versioneDa = versioneDa;
+        this.versione = versione;
+        this.completo = completo;
+        this.aggiunti = aggiunti != null ? aggiunti : Collections.<ProtocolliSospesi>emptyList();
+        this.rimossi = rimossi != null ? rimossi : Collections.<String, Set<Long>>emptyMap();
+    }
+
+    public long getVersioneDa() {
+        return versioneDa;
+    }
+
+    public long getVersione() {
+        return versione;
+    }
+
+    public boolean isCompleto() {
+        return completo;
+    }
+
+    public List<ProtocolliSospesi> getAggiunti() {
+        return aggiunti;
+    }
+
+    public Map<String, Set<Long>> getRimossi() {
+        return rimossi;
+    }
+
+    public boolean isVuoto() {
+        return !completo && aggiunti.isEmpty() && rimossi.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "ProtocolliSospesiDelta{" +
+                "versioneDa=" + versioneDa +
+                ", versione=" + versione +
+                ", completo=" + completo +
+                ", aggiunti=" + aggiunti.size() +
+                ", rimossi=" + rimossi +
+                '}';
+    }
+}
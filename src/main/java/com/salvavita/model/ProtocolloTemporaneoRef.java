@@ -0,0 +1,39 @@
+package com.salvavita.model;
+
+/**
+ * Riferimento a un protocollo temporaneo (ente + sequ_long_id),
+ * usato dalla cancellazione multipla POST /api/delete-proto-temporanei
+ */
+public class ProtocolloTemporaneoRef {
+    private String ente;
+    private Long sequLongId;
+
+    public ProtocolloTemporaneoRef() {
+    }
+
+    public ProtocolloTemporaneoRef(String ente, Long sequLongId) {
+        this.ente = ente;
+        this.sequLongId = sequLongId;
+    }
+
+    public String getEnte() {
+        return ente;
+    }
+
+    public void setEnte(String ente) {
+        this.ente = ente;
+    }
+
+    public Long getSequLongId() {
+        return sequLongId;
+    }
+
+    public void setSequLongId(Long sequLongId) {
+        this.sequLongId = sequLongId;
+    }
+
+    @Override
+    public String toString() {
+        return ente + ":" + sequLongId;
+    }
+}
@@ -0,0 +1,106 @@
+package com.salvavita.model;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Fotografia immutabile del risultato di una query, con l'istante in cui e' stata scattata
+ */
+public class Snapshot<T> {
+    private final T dati;
+    private final long timestamp;
+    private final long durataMs;
+    private final Map<String, Long> tempiPerEnte;
+    private final long versione;
+    private final Map<String, String> entiNonDisponibili;
+    private final String epoca;
+
+    public Snapshot(T dati, long timestamp, long durataMs, Map<String, Long> tempiPerEnte) {
+        this(dati, timestamp, durataMs, tempiPerEnte, 0);
+    }
+
+    public Snapshot(T dati, long timestamp, long durataMs, Map<String, Long> tempiPerEnte, long versione) {
+        this(dati, timestamp, durataMs, tempiPerEnte, versione, null);
+    }
+
+    public Snapshot(T dati, long timestamp, long durataMs, Map<String, Long> tempiPerEnte, long versione,
+                    Map<String, String> entiNonDisponibili) {
+        this(dati, timestamp, durataMs, tempiPerEnte, versione, entiNonDisponibili, null);
+    }
+
+    public Snapshot(T dati, long timestamp, long durataMs, Map<String, Long> tempiPerEnte, long versione,
+                    Map<String, String> entiNonDisponibili, String epoca) {
+        this.dati = dati;
+        this.timestamp = timestamp;
+        this.durataMs = durataMs;
+        this.tempiPerEnte = tempiPerEnte != null ? tempiPerEnte : Collections.<String, Long>emptyMap();
+        this.versione = versione;
+        this.entiNonDisponibili = entiNonDisponibili != null ? entiNonDisponibili : Collections.<String, String>emptyMap();
+        this.epoca = epoca;
+    }
+
+    public T getDati() {
+        return dati;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public LocalDateTime getDataOra() {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(timestamp), ZoneId.systemDefault());
+    }
+
+    /**
+     * Millisecondi trascorsi da quando la query e' stata eseguita
+     */
+    public long getEtaMs() {
+        return System.currentTimeMillis() - timestamp;
+    }
+
+    public long getDurataMs() {
+        return durataMs;
+    }
+
+    public Map<String, Long> getTempiPerEnte() {
+        return tempiPerEnte;
+    }
+
+    /**
+     * Versione dei dati: cambia solo quando il contenuto cambia
+     */
+    public long getVersione() {
+        return versione;
+    }
+
+    /**
+     * Enti che non hanno risposto in tempo o sono falliti, con il motivo:
+     * per questi enti i dati sono quelli dello snapshot precedente (o mancano)
+     */
+    public Map<String, String> getEntiNonDisponibili() {
+        return entiNonDisponibili;
+    }
+
+    /**
+     * Epoca delle versioni: le versioni sono confrontabili solo a parita' di epoca
+     * (cambia quando il leader riparte o un'altra istanza diventa leader)
+     */
+    public String getEpoca() {
+        return epoca;
+    }
+
+    @Override
+    public String toString() {
+        return "Snapshot{" +
+                "timestamp=" + timestamp +
+                ", durataMs=" + durataMs +
+                ", tempiPerEnte=" + tempiPerEnte +
+                ", versione=" + versione +
+                ", entiNonDisponibili=" + entiNonDisponibili +
+                ", epoca=" + epoca +
+                '}';
+    }
+}
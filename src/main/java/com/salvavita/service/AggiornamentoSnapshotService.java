@@ -0,0 +1,220 @@
+package com.salvavita.service;
+
+import com.salvavita.model.Snapshot;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Aggiornamento pianificato degli snapshot della dashboard: le query dei protocolli sospesi e dei task
+ * schedulati girano in background con una cadenza propria e il risultato e' servito a tutti i client,
+ * che non eseguono mai la query (SnapshotService). Il carico sul database non dipende dal numero di utenti.
+ * L'intervallo di ogni snapshot si adatta:
+ * - almeno salvavita.snapshot.scheduler.load-factor volte la durata dell'ultima query (database lento, meno query)
+ * - raddoppia a ogni aggiornamento senza variazioni e a ogni errore, fino a max-interval-ms
+ * - torna al minimo appena i dati cambiano
+ * - per i protocolli sospesi non supera il tempo che manca alla prossima query completa
+ * Su un follower (ElezioneLeaderService) l'aggiornamento scarica lo snapshot del leader, che non costa
+ * query: l'intervallo resta al minimo e cresce solo se il leader non risponde.
+ */
+@Service
+public class AggiornamentoSnapshotService {
+
+    private static final Logger logger = LoggerFactory.getLogger(AggiornamentoSnapshotService.class);
+
+    // Raddoppi massimi dell'intervallo (oltre si e' comunque a max-interval-ms)
+    private static final int MAX_RADDOPPI = 16;
+
+    @Autowired
+    private SnapshotService snapshotService;
+
+    @Autowired
+    private MetricheService metriche;
+
+    @Autowired
+    private ElezioneLeaderService elezioneLeader;
+
+    @Value("${salvavita.snapshot.scheduler.min-interval-ms:15000}")
+    private long intervalloMinimoMs;
+
+    @Value("${salvavita.snapshot.scheduler.max-interval-ms:300000}")
+    private long intervalloMassimoMs;
+
+    @Value("${salvavita.snapshot.scheduler.load-factor:10}")
+    private int fattoreCarico;
+
+    private final Map<String, Pianificazione> pianificazioni = new LinkedHashMap<>();
+
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Stato della pianificazione di uno snapshot (aggiornato solo al termine di un caricamento,
+     * che per ogni chiave e' al massimo uno alla volta)
+     */
+    private static final class Pianificazione {
+        final String chiave;
+        // Valore che cambia quando cambiano i dati dello snapshot
+        final Function<Snapshot<?>, Object> firma;
+        volatile long intervalloMs;
+        volatile long ultimaDurataMs;
+        volatile int invariati;
+        volatile int errori;
+        volatile long prossimo;
+        volatile String ultimoErrore;
+        Object ultimaFirma;
+
+        Pianificazione(String chiave, Function<Snapshot<?>, Object> firma, long intervalloMs) {
+            this.chiave = chiave;
+            this.firma = firma;
+            this.intervalloMs = intervalloMs;
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        pianificazioni.put(SnapshotService.PROTOCOLLI_SOSPESI,
+                new Pianificazione(SnapshotService.PROTOCOLLI_SOSPESI, Snapshot::getVersione, intervalloMinimoMs));
+        pianificazioni.put(SnapshotService.SCHEDULED_TASKS,
+                new Pianificazione(SnapshotService.SCHEDULED_TASKS, Snapshot::getDati, intervalloMinimoMs));
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "snapshot-scheduler");
+            t.setDaemon(true);
+            return t;
+        });
+        for (String chiave : pianificazioni.keySet()) {
+            metriche.registraIntervalloAggiornamento(this, chiave);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void avvia() {
+        if (!snapshotService.isPianificato()) {
+            logger.info("Aggiornamento pianificato degli snapshot disabilitato: query eseguite su richiesta (TTL)");
+            return;
+        }
+        for (Pianificazione p : pianificazioni.values()) {
+            programma(p, 0);
+        }
+        logger.info("Aggiornamento pianificato degli snapshot: intervallo da {} a {} ms, fattore di carico {}",
+                intervalloMinimoMs, intervalloMassimoMs, fattoreCarico);
+    }
+
+    /**
+     * Intervallo corrente tra due aggiornamenti dello snapshot, in ms
+     */
+    public long getIntervalloMs(String chiave) {
+        return pianificazioni.get(chiave).intervalloMs;
+    }
+
+    /**
+     * Intervallo, durata dell'ultima query, aggiornamenti senza variazioni, errori consecutivi
+     * e prossima esecuzione di ogni snapshot
+     */
+    public Map<String, Object> getStatistiche() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        for (Pianificazione p : pianificazioni.values()) {
+            Map<String, Object> stato = new LinkedHashMap<>();
+            stato.put("intervalMs", p.intervalloMs);
+            stato.put("lastDurationMs", p.ultimaDurataMs);
+            stato.put("unchangedRuns", p.invariati);
+            stato.put("consecutiveErrors", p.errori);
+            stato.put("nextRun", p.prossimo > 0
+                    ? LocalDateTime.ofInstant(Instant.ofEpochMilli(p.prossimo), ZoneId.systemDefault()) : null);
+            if (p.ultimoErrore != null) {
+                stato.put("lastError", p.ultimoErrore);
+            }
+            stats.put(p.chiave, stato);
+        }
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("enabled", snapshotService.isPianificato());
+        result.put("snapshots", stats);
+        return result;
+    }
+
+    private void programma(Pianificazione p, long ritardoMs) {
+        p.prossimo = System.currentTimeMillis() + ritardoMs;
+        scheduler.schedule(() -> esegui(p), ritardoMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Aggiorna lo snapshot (o si aggancia al caricamento gia' in corso, es. dopo un commit)
+     * e programma il giro successivo con l'intervallo ricalcolato
+     */
+    private void esegui(Pianificazione p) {
+        CompletableFuture<Snapshot<?>> aggiornamento;
+        try {
+            aggiornamento = snapshotService.aggiorna(p.chiave);
+        } catch (RuntimeException e) {
+            aggiornamento = new CompletableFuture<>();
+            aggiornamento.completeExceptionally(e);
+        }
+        aggiornamento.whenComplete((snapshot, e) -> {
+            long intervallo;
+            if (e != null) {
+                p.errori++;
+                p.ultimoErrore = e.getMessage();
+                intervallo = raddoppia(intervalloMinimoMs, p.errori);
+                logger.warn("Aggiornamento pianificato di {} non riuscito ({} di seguito), nuovo tentativo tra {} ms",
+                        p.chiave, p.errori, intervallo);
+            } else {
+                p.errori = 0;
+                p.ultimoErrore = null;
+                p.ultimaDurataMs = snapshot.getDurataMs();
+                Object firma = p.firma.apply(snapshot);
+                boolean cambiato = !Objects.equals(firma, p.ultimaFirma);
+                p.ultimaFirma = firma;
+                p.invariati = cambiato ? 0 : p.invariati + 1;
+                if (elezioneLeader.isLeader()) {
+                    long base = Math.max(intervalloMinimoMs, p.ultimaDurataMs * fattoreCarico);
+                    intervallo = raddoppia(base, p.invariati);
+                    if (SnapshotService.PROTOCOLLI_SOSPESI.equals(p.chiave)) {
+                        // Un giro incrementale senza variazioni non vede le modifiche alle righe gia' caricate:
+                        // anche con l'intervallo al massimo la query completa parte entro full-refresh-max-age-ms
+                        intervallo = Math.min(intervallo, Math.max(intervalloMinimoMs, snapshotService.getAttesaCompletoMs()));
+                    }
+                } else {
+                    intervallo = intervalloMinimoMs;
+                }
+            }
+            if (intervallo != p.intervalloMs) {
+                logger.info("Intervallo di aggiornamento di {}: {} ms (ultima query {} ms, {} giri senza variazioni)",
+                        p.chiave, intervallo, p.ultimaDurataMs, p.invariati);
+            }
+            p.intervalloMs = intervallo;
+            try {
+                programma(p, intervallo);
+            } catch (RuntimeException ex) {
+                logger.debug("Aggiornamento di {} non programmato: {}", p.chiave, ex.getMessage());
+            }
+        });
+    }
+
+    private long raddoppia(long base, int volte) {
+        long intervallo = base;
+        for (int i = 0; i < Math.min(volte, MAX_RADDOPPI) && intervallo < intervalloMassimoMs; i++) {
+            intervallo *= 2;
+        }
+        return Math.min(intervallo, intervalloMassimoMs);
+    }
+}
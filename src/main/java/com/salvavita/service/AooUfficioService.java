@@ -0,0 +1,243 @@
+package com.salvavita.service;
+
+import com.salvavita.config.EntiProperties;
+import com.salvavita.model.Ente;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dizionario in memoria, per schema, dei codici ufficio con la descrizione AOO/ufficio
+ * mostrata nella dashboard (d_aree_organizzative + d_uffici).
+ * Le tabelle sono dati di riferimento quasi statici: vengono lette all'avvio e poi
+ * periodicamente, cosi' la query dei protocolli sospesi non ha piu' la sottoquery
+ * scalare per riga e la descrizione viene risolta in Java dal codice_ufficio.
+ */
+@Service
+public class AooUfficioService {
+
+    private static final Logger logger = LoggerFactory.getLogger(AooUfficioService.class);
+
+    @Autowired
+    private DatabaseHealthService databaseHealth;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Autowired
+    private EntiProperties entiProperties;
+
+    @Value("${salvavita.aoo.refresh-ms:3600000}")
+    private long refreshMs;
+
+    @Value("${salvavita.aoo.miss-refresh-ms:60000}")
+    private long refreshMancantiMs;
+
+    private final Map<Ente, Map<String, String>> dizionari = new ConcurrentHashMap<>();
+    private final Map<Ente, LocalDateTime> caricamenti = new ConcurrentHashMap<>();
+    private final Map<Ente, Long> ultimoRefreshMancanti = new ConcurrentHashMap<>();
+    private final Set<Ente> enti = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private volatile long ultimoErroreCaricamento;
+
+    private ScheduledExecutorService scheduler;
+
+    @PostConstruct
+    public void init() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "aoo-uffici-refresh");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Carica in background i dizionari degli enti abilitati e ne programma l'aggiornamento periodico
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void avvia() {
+        enti.addAll(entiProperties.getAbilitati());
+        scheduler.scheduleWithFixedDelay(() -> aggiorna(), 0, refreshMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Carica subito i dizionari non ancora presenti; da chiamare prima di eseguire
+     * le query dei protocolli sospesi. Un errore lascia il dizionario vuoto (AOO/ufficio null)
+     * senza far fallire la query principale
+     */
+    public void assicuraCaricati(Collection<Ente> richiesti) {
+        enti.addAll(richiesti);
+        long ora = System.currentTimeMillis();
+        if (ora - ultimoErroreCaricamento < refreshMancantiMs) {
+            // Database appena risultato non raggiungibile: non si ritarda la query principale
+            return;
+        }
+        for (Ente ente : richiesti) {
+            if (!dizionari.containsKey(ente)) {
+                synchronized (this) {
+                    if (!dizionari.containsKey(ente)) {
+                        try {
+                            carica(ente);
+                        } catch (Exception e) {
+                            ultimoErroreCaricamento = System.currentTimeMillis();
+                            logger.warn("Dizionario AOO/uffici {} non disponibile: {}", ente.getSchema(), e.getMessage());
+                            return;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Descrizione AOO/ufficio del codice ufficio nello schema dell'ente, null se sconosciuto.
+     * Un codice non presente in un dizionario gia' caricato (ufficio creato dopo l'ultimo
+     * aggiornamento) provoca la ricarica in background del dizionario di quell'ente
+     */
+    public String risolvi(Ente ente, String codiceUfficio) {
+        if (ente == null || codiceUfficio == null) {
+            return null;
+        }
+        Map<String, String> dizionario = dizionari.get(ente);
+        if (dizionario == null) {
+            return null;
+        }
+        String descrizione = dizionario.get(codiceUfficio);
+        if (descrizione == null) {
+            ricaricaPerMancante(ente, codiceUfficio);
+        }
+        return descrizione;
+    }
+
+    /**
+     * Rilegge i dizionari di tutti gli enti registrati
+     *
+     * @return numero di uffici per ente, o il messaggio di errore
+     */
+    public synchronized Map<String, Object> aggiorna() {
+        Map<String, Object> result = new TreeMap<>();
+        for (Ente ente : enti) {
+            try {
+                result.put(ente.getNome(), carica(ente));
+            } catch (Exception e) {
+                logger.error("Errore nel caricamento del dizionario AOO/uffici {}: {}", ente.getSchema(), e.getMessage());
+                result.put(ente.getNome(), "Errore: " + e.getMessage());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Dimensione e data di caricamento del dizionario di ogni ente
+     */
+    public Map<String, Object> getStatistiche() {
+        Map<String, Object> stats = new TreeMap<>();
+        for (Ente ente : enti) {
+            Map<String, Object> enteStats = new LinkedHashMap<>();
+            Map<String, String> dizionario = dizionari.get(ente);
+            enteStats.put("uffici", dizionario != null ? dizionario.size() : null);
+            enteStats.put("caricato", caricamenti.get(ente));
+            stats.put(ente.getNome(), enteStats);
+        }
+        return stats;
+    }
+
+    private void ricaricaPerMancante(Ente ente, String codiceUfficio) {
+        long ora = System.currentTimeMillis();
+        Long ultimo = ultimoRefreshMancanti.get(ente);
+        if (ultimo != null && ora - ultimo < refreshMancantiMs) {
+            return;
+        }
+        ultimoRefreshMancanti.put(ente, ora);
+        logger.info("Codice ufficio {} non presente nel dizionario {}: ricarica in background", codiceUfficio, ente.getSchema());
+        try {
+            scheduler.execute(() -> {
+                synchronized (this) {
+                    try {
+                        carica(ente);
+                    } catch (Exception e) {
+                        logger.error("Errore nel caricamento del dizionario AOO/uffici {}: {}", ente.getSchema(), e.getMessage());
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            logger.debug("Ricarica dizionario {} non programmata: {}", ente.getSchema(), e.getMessage());
+        }
+    }
+
+    /**
+     * Legge il dizionario di un ente e lo sostituisce a quello corrente.
+     * Se il contenuto cambia invalida lo snapshot dei protocolli sospesi
+     */
+    private int carica(Ente ente) throws Exception {
+        String s = ente.getSchema().toLowerCase();
+        String query = "SELECT duf.codi_ufficio, " +
+                "dao.sequ_long_id||'-'||dao.codi_codice||'-'||dao.desc_nome||'-----'||duf.codi_ufficio||'-'||duf.desc_descrizione AOO_UFFICIO " +
+                "FROM " + s + ".d_aree_organizzative dao, " + s + ".d_uffici duf " +
+                "WHERE dao.sequ_long_id=duf.fk_aoo";
+
+        Map<String, String> dizionario = new HashMap<>();
+        Connection conn = null;
+        Statement stmt = null;
+        ResultSet rs = null;
+        long start = System.currentTimeMillis();
+
+        try {
+            conn = databaseHealth.getConnection();
+            stmt = conn.createStatement();
+            stmt.setFetchSize(1000);
+            rs = stmt.executeQuery(query);
+            while (rs.next()) {
+                String codice = rs.getString(1);
+                if (codice != null && dizionario.putIfAbsent(codice, rs.getString(2)) != null) {
+                    logger.warn("Codice ufficio {} duplicato nello schema {}: si usa la prima AOO", codice, ente.getSchema());
+                }
+            }
+        } finally {
+            closeResources(rs, stmt, conn);
+        }
+
+        Map<String, String> precedente = dizionari.put(ente, Collections.unmodifiableMap(dizionario));
+        caricamenti.put(ente, LocalDateTime.now());
+        logger.info("Dizionario AOO/uffici {} caricato: {} uffici in {} ms",
+                ente.getSchema(), dizionario.size(), System.currentTimeMillis() - start);
+
+        if (precedente != null && !precedente.equals(dizionario)) {
+            eventPublisher.publishEvent(new DatiModificatiEvent(SnapshotService.PROTOCOLLI_SOSPESI));
+        }
+        return dizionario.size();
+    }
+
+    private void closeResources(ResultSet rs, Statement stmt, Connection conn) {
+        try {
+            if (rs != null) rs.close();
+            if (stmt != null) stmt.close();
+            if (conn != null) conn.close();
+        } catch (SQLException e) {
+            logger.error("Errore nella chiusura delle risorse: {}", e.getMessage());
+        }
+    }
+}
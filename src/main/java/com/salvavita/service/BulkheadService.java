@@ -0,0 +1,164 @@
+package com.salvavita.service;
+
+import com.salvavita.config.ThreadVirtuali;
+import com.salvavita.model.Ente;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bulkhead per ente: le query di ogni schema girano su un executor dedicato con thread e coda limitati,
+ * cosi' uno schema bloccato (lock, rete) esaurisce solo i propri thread e non quelli degli altri enti
+ * ne' quelli delle richieste HTTP. Con la coda piena il lavoro per quell'ente e' rifiutato subito;
+ * allo scadere del timeout il risultato fallisce con TimeoutException, il lavoro ancora in coda viene
+ * scartato e le query gia' partite sono annullate sul database con Statement.cancel() (ContestoQuery).
+ * Il thread non viene interrotto: un interrupt dentro il driver JDBC chiude il canale della connessione.
+ */
+@Service
+public class BulkheadService {
+
+    private static final Logger logger = LoggerFactory.getLogger(BulkheadService.class);
+
+    @Autowired
+    private ThreadVirtuali threadVirtuali;
+
+    @Autowired
+    private MetricheService metriche;
+
+    @Value("${salvavita.bulkhead.threads-per-ente:1}")
+    private int threadPerEnte;
+
+    @Value("${salvavita.bulkhead.queue-per-ente:4}")
+    private int codaPerEnte;
+
+    @Value("${salvavita.bulkhead.timeout-ms:15000}")
+    private long timeoutMs;
+
+    private final Map<Ente, ThreadPoolExecutor> esecutori = new EnumMap<>(Ente.class);
+    private final Map<Ente, AtomicLong> rifiuti = new EnumMap<>(Ente.class);
+    private final Map<Ente, AtomicLong> scaduti = new EnumMap<>(Ente.class);
+    private ScheduledExecutorService scadenze;
+
+    @PostConstruct
+    public void init() {
+        int thread = Math.max(1, threadPerEnte);
+        for (Ente ente : Ente.values()) {
+            ThreadPoolExecutor esecutore = new ThreadPoolExecutor(thread, thread, 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(Math.max(1, codaPerEnte)),
+                    threadVirtuali.fabbrica("query-" + ente.getNome().toLowerCase() + "-"));
+            esecutore.allowCoreThreadTimeOut(true);
+            esecutori.put(ente, esecutore);
+            rifiuti.put(ente, new AtomicLong());
+            scaduti.put(ente, new AtomicLong());
+            metriche.registraBulkhead(ente, esecutore);
+        }
+        scadenze = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "bulkhead-scadenze");
+            t.setDaemon(true);
+            return t;
+        });
+        logger.info("Bulkhead per ente: {} thread, coda {}, timeout {} ms", thread, codaPerEnte, timeoutMs);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scadenze.shutdownNow();
+        for (ThreadPoolExecutor esecutore : esecutori.values()) {
+            esecutore.shutdownNow();
+        }
+    }
+
+    /**
+     * Thread (e quindi connessioni contemporanee) del bulkhead di ogni ente
+     */
+    public int getThreadPerEnte() {
+        return Math.max(1, threadPerEnte);
+    }
+
+    /**
+     * Lavoro su un ente, con il contesto da usare per le sue query
+     */
+    public interface Lavoro<T> {
+        T esegui(ContestoQuery contesto) throws Exception;
+    }
+
+    /**
+     * Esegue il lavoro sul bulkhead dell'ente, entro salvavita.bulkhead.timeout-ms e comunque
+     * entro la scadenza della richiesta (richiesta null per il lavoro in background).
+     * Il risultato fallisce con RejectedExecutionException se il bulkhead e' saturo
+     * e con TimeoutException se il lavoro non termina in tempo
+     */
+    public <T> CompletableFuture<T> esegui(Ente ente, Lavoro<T> lavoro, ContestoQuery richiesta) {
+        CompletableFuture<T> risultato = new CompletableFuture<>();
+        ContestoQuery contesto = richiesta != null ? richiesta.figlio(timeoutMs) : ContestoQuery.conScadenza(timeoutMs);
+        long attesa = Math.max(0, contesto.getRimanenteMs());
+        Future<?> task;
+        try {
+            task = esecutori.get(ente).submit(() -> {
+                try {
+                    risultato.complete(lavoro.esegui(contesto));
+                } catch (Throwable t) {
+                    risultato.completeExceptionally(t);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            contesto.chiudi();
+            rifiuti.get(ente).incrementAndGet();
+            metriche.registraScartoBulkhead(ente, "rejected");
+            risultato.completeExceptionally(new RejectedExecutionException(
+                    "Schema " + ente.getSchema() + " saturo: " + threadPerEnte + " query in corso e " + codaPerEnte + " in coda"));
+            return risultato;
+        }
+
+        ScheduledFuture<?> scadenza = scadenze.schedule(() -> {
+            if (risultato.completeExceptionally(new TimeoutException(
+                    "Schema " + ente.getSchema() + " non ha risposto entro " + attesa + " ms"))) {
+                scaduti.get(ente).incrementAndGet();
+                metriche.registraScartoBulkhead(ente, "timeout");
+                task.cancel(false);
+                contesto.annulla(ContestoQuery.SCADENZA);
+            }
+        }, attesa, TimeUnit.MILLISECONDS);
+        risultato.whenComplete((r, e) -> {
+            scadenza.cancel(false);
+            contesto.chiudi();
+        });
+        return risultato;
+    }
+
+    /**
+     * Stato dei bulkhead per ente: query in corso, in coda, rifiutate e scadute dall'avvio
+     */
+    public Map<String, Object> getStatistiche() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        for (Map.Entry<Ente, ThreadPoolExecutor> entry : esecutori.entrySet()) {
+            Ente ente = entry.getKey();
+            Map<String, Object> statoEnte = new LinkedHashMap<>();
+            statoEnte.put("active", entry.getValue().getActiveCount());
+            statoEnte.put("queued", entry.getValue().getQueue().size());
+            statoEnte.put("rejected", rifiuti.get(ente).get());
+            statoEnte.put("timedOut", scaduti.get(ente).get());
+            stats.put(ente.getNome(), statoEnte);
+        }
+        return stats;
+    }
+}
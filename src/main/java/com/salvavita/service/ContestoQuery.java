@@ -0,0 +1,145 @@
+package com.salvavita.service;
+
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scadenza e annullamento delle query eseguite per conto di una richiesta.
+ * Il tempo rimasto diventa il query timeout di ogni statement (Statement.setQueryTimeout) e
+ * annulla() interrompe sul database gli statement in corso con Statement.cancel(), ad esempio
+ * quando il client si disconnette. Un contesto figlio (uno per ente) ha una scadenza non
+ * successiva a quella del padre ed e' annullato insieme al padre, ma non viceversa.
+ */
+public class ContestoQuery {
+
+    // Motivi di annullamento (tag reason della metrica salvavita.query.cancelled):
+    // scadenza della richiesta o del bulkhead dell'ente, disconnessione del client
+    public static final String SCADENZA = "deadline";
+    public static final String CLIENT = "client";
+
+    private final ContestoQuery padre;
+    private final long scadenzaNanos;
+    // Protetto dal lock del contesto: uno statement rilasciato non viene piu' annullato
+    private final Set<Statement> inCorso = new HashSet<>();
+    private final Set<ContestoQuery> figli = ConcurrentHashMap.newKeySet();
+    private volatile String motivo;
+
+    private ContestoQuery(ContestoQuery padre, long scadenzaNanos) {
+        this.padre = padre;
+        this.scadenzaNanos = scadenzaNanos;
+    }
+
+    /**
+     * Contesto che scade tra millis millisecondi
+     */
+    public static ContestoQuery conScadenza(long millis) {
+        return new ContestoQuery(null, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    /**
+     * Contesto figlio che scade tra millis millisecondi o alla scadenza di questo, se prima.
+     * Va chiuso con chiudi() al termine del lavoro
+     */
+    public ContestoQuery figlio(long millis) {
+        long scadenza = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        ContestoQuery figlio = new ContestoQuery(this, scadenza - scadenzaNanos < 0 ? scadenza : scadenzaNanos);
+        figli.add(figlio);
+        if (motivo != null) {
+            figlio.annulla(motivo);
+        }
+        return figlio;
+    }
+
+    /**
+     * Stacca il contesto figlio dal padre
+     */
+    public void chiudi() {
+        if (padre != null) {
+            padre.figli.remove(this);
+        }
+    }
+
+    /**
+     * Millisecondi che mancano alla scadenza (negativo se scaduto)
+     */
+    public long getRimanenteMs() {
+        return TimeUnit.NANOSECONDS.toMillis(scadenzaNanos - System.nanoTime());
+    }
+
+    public boolean isScaduto() {
+        return scadenzaNanos - System.nanoTime() <= 0;
+    }
+
+    /**
+     * Motivo dell'annullamento; SCADENZA anche se il query timeout e' scattato sul database, null altrimenti
+     */
+    public String getMotivo() {
+        return motivo != null ? motivo : isScaduto() ? SCADENZA : null;
+    }
+
+    /**
+     * Imposta il tempo rimasto come query timeout (in secondi, per eccesso) e registra lo statement
+     * per l'annullamento. Fallisce subito se il contesto e' gia' annullato o scaduto
+     */
+    public void registra(Statement stmt) throws SQLException {
+        if (motivo != null) {
+            throw new SQLException("Query annullata (" + motivo + ")");
+        }
+        long rimanente = getRimanenteMs();
+        if (rimanente <= 0) {
+            throw new SQLTimeoutException("Scadenza della richiesta superata prima dell'esecuzione della query");
+        }
+        stmt.setQueryTimeout((int) Math.max(1, (rimanente + 999) / 1000));
+        synchronized (this) {
+            inCorso.add(stmt);
+            if (motivo != null) {
+                annullaStatement(stmt);
+            }
+        }
+    }
+
+    /**
+     * Lo statement e' terminato: va tolto prima di chiuderlo, perche' con la cache implicita
+     * degli statement lo stesso oggetto puo' essere riusato da un'altra query
+     */
+    public void rilascia(Statement stmt) {
+        if (stmt != null) {
+            synchronized (this) {
+                inCorso.remove(stmt);
+            }
+        }
+    }
+
+    /**
+     * Annulla sul database gli statement in corso di questo contesto e dei figli;
+     * le query successive falliscono subito
+     */
+    public void annulla(String motivo) {
+        synchronized (this) {
+            if (this.motivo == null) {
+                this.motivo = motivo;
+            }
+        }
+        for (ContestoQuery figlio : figli) {
+            figlio.annulla(motivo);
+        }
+        synchronized (this) {
+            for (Statement stmt : inCorso) {
+                annullaStatement(stmt);
+            }
+        }
+    }
+
+    private void annullaStatement(Statement stmt) {
+        try {
+            stmt.cancel();
+        } catch (SQLException e) {
+            // Statement gia' terminato o chiuso
+        }
+    }
+}
@@ -0,0 +1,346 @@
+package com.salvavita.service;
+
+import com.salvavita.model.DashboardEvent;
+import com.salvavita.model.ProtocolliSospesi;
+import com.salvavita.model.Snapshot;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Canale Server-Sent Events della dashboard.
+ * Un solo poller lato server legge gli snapshot (una query condivisa da tutti i browser),
+ * confronta il risultato con il giro precedente e invia gli eventi di variazione.
+ * Il confronto parte a ogni nuovo snapshot pubblicato (SnapshotAggiornatoEvent), anche senza browser
+ * connessi, cosi' il primo browser dopo un periodo senza connessioni non riceve variazioni gia' vecchie;
+ * senza aggiornamento pianificato c'e' anche un polling a intervallo fisso, solo con browser connessi.
+ * Gli ultimi eventi restano in un buffer circolare: un browser che si riconnette
+ * con Last-Event-ID riceve solo quelli persi. Gli invii avvengono fuori dal lock del buffer,
+ * quindi un browser lento non blocca le nuove connessioni.
+ */
+@Service
+public class DashboardEventService {
+
+    private static final Logger logger = LoggerFactory.getLogger(DashboardEventService.class);
+
+    @Autowired
+    private SnapshotService snapshotService;
+
+    @Value("${salvavita.sse.poll-interval-ms:30000}")
+    private long pollIntervalMs;
+
+    @Value("${salvavita.sse.heartbeat-ms:15000}")
+    private long heartbeatMs;
+
+    @Value("${salvavita.sse.max-connections:50}")
+    private int maxConnessioni;
+
+    @Value("${salvavita.sse.buffer-size:1000}")
+    private int dimensioneBuffer;
+
+    @Value("${salvavita.sse.max-events-per-poll:500}")
+    private int maxEventiPerGiro;
+
+    @Value("${salvavita.sse.timeout-ms:1800000}")
+    private long timeoutMs;
+
+    @Value("${salvavita.sse.retry-ms:5000}")
+    private long retryMs;
+
+    private final List<SseEmitter> emitters = new CopyOnWriteArrayList<>();
+
+    // Buffer circolare degli ultimi eventi (protetto da lock)
+    private final Object lock = new Object();
+    private DashboardEvent[] buffer;
+    private long ultimoId;
+
+    // Stato del giro di polling precedente (usato solo dal thread del poller)
+    private List<ProtocolliSospesi> protocolliPrecedenti;
+    private Set<String> chiaviPrecedenti;
+    private long versioneProtocolliPrecedente = -1;
+    private Map<String, Object> prossimiRunPrecedenti;
+
+    private ScheduledExecutorService scheduler;
+
+    @PostConstruct
+    public void init() {
+        buffer = new DashboardEvent[dimensioneBuffer];
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "sse-poller");
+            t.setDaemon(true);
+            return t;
+        });
+        if (!snapshotService.isPianificato()) {
+            scheduler.scheduleWithFixedDelay(this::poll, pollIntervalMs, pollIntervalMs, TimeUnit.MILLISECONDS);
+        }
+        scheduler.scheduleWithFixedDelay(this::heartbeat, heartbeatMs, heartbeatMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+        for (SseEmitter emitter : emitters) {
+            emitter.complete();
+        }
+    }
+
+    /**
+     * Registra un nuovo browser; se lastEventId e' valorizzato gli reinvia gli eventi persi
+     *
+     * @throws IllegalStateException se e' stato raggiunto il numero massimo di connessioni
+     */
+    public SseEmitter subscribe(String lastEventId) throws IOException {
+        SseEmitter emitter = new SseEmitter(timeoutMs);
+        emitter.onCompletion(() -> emitters.remove(emitter));
+        emitter.onTimeout(() -> emitters.remove(emitter));
+        emitter.onError(e -> emitters.remove(emitter));
+
+        // Il lock dell'emitter ordina gli invii: pubblica attende la fine del replay
+        synchronized (emitter) {
+            List<DashboardEvent> persi;
+            synchronized (lock) {
+                if (emitters.size() >= maxConnessioni) {
+                    throw new IllegalStateException("Raggiunto il numero massimo di connessioni (" + maxConnessioni + ")");
+                }
+                persi = lastEventId != null && !lastEventId.isEmpty() ? replay(lastEventId) : Collections.emptyList();
+                emitters.add(emitter);
+            }
+            try {
+                emitter.send(SseEmitter.event().reconnectTime(retryMs).comment("connesso"));
+                for (DashboardEvent evento : persi) {
+                    send(emitter, evento);
+                }
+            } catch (IOException e) {
+                emitters.remove(emitter);
+                throw e;
+            }
+        }
+
+        logger.info("Nuova connessione SSE (Last-Event-ID: {}), connessioni attive: {}", lastEventId, emitters.size());
+        return emitter;
+    }
+
+    public int getConnessioniAttive() {
+        return emitters.size();
+    }
+
+    /**
+     * Eventi successivi a lastEventId, o un resync se sono gia' usciti dal buffer (chiamato con il lock)
+     */
+    private List<DashboardEvent> replay(String lastEventId) {
+        long daId;
+        try {
+            daId = Long.parseLong(lastEventId);
+        } catch (NumberFormatException e) {
+            daId = -1;
+        }
+
+        long primoDisponibile = Math.max(1, ultimoId - buffer.length + 1);
+        if (daId < 0 || daId > ultimoId || daId + 1 < primoDisponibile) {
+            return Collections.singletonList(new DashboardEvent(ultimoId, DashboardEvent.RESYNC, System.currentTimeMillis(),
+                    Collections.<String, Object>singletonMap("motivo", "eventi non piu' disponibili")));
+        }
+        List<DashboardEvent> persi = new ArrayList<>();
+        for (long id = daId + 1; id <= ultimoId; id++) {
+            persi.add(buffer[(int) (id % buffer.length)]);
+        }
+        return persi;
+    }
+
+    /**
+     * Nuovo snapshot pubblicato: il confronto avviene sul thread del poller, senza trattenere
+     * il thread che ha caricato lo snapshot. Avviene anche senza browser connessi, per tenere
+     * aggiornato il giro precedente
+     */
+    @EventListener
+    public void onSnapshotAggiornato(SnapshotAggiornatoEvent event) {
+        try {
+            scheduler.execute(() -> poll(event.getChiave()));
+        } catch (RejectedExecutionException e) {
+            logger.debug("Confronto SSE di {} non programmato: {}", event.getChiave(), e.getMessage());
+        }
+    }
+
+    /**
+     * Confronta lo snapshot indicato, appena aggiornato, con quello del giro precedente
+     * (lo legge dalla cache, senza query)
+     */
+    private void poll(String chiave) {
+        try {
+            if (SnapshotService.PROTOCOLLI_SOSPESI.equals(chiave)) {
+                confrontaProtocolli(snapshotService.getProtocolliSospesi());
+            } else if (SnapshotService.SCHEDULED_TASKS.equals(chiave)) {
+                confrontaTask(snapshotService.getScheduledTasks());
+            }
+        } catch (Exception e) {
+            logger.warn("Confronto SSE di {} non riuscito: {}", chiave, e.getMessage());
+        }
+    }
+
+    /**
+     * Giro di polling (senza aggiornamento pianificato): legge gli snapshot, caricandoli se scaduti,
+     * e pubblica le variazioni rispetto al giro precedente. Senza browser connessi non carica nulla:
+     * il giro precedente segue comunque ogni nuovo snapshot tramite onSnapshotAggiornato
+     */
+    private void poll() {
+        if (emitters.isEmpty()) {
+            return;
+        }
+        try {
+            confrontaProtocolli(snapshotService.getProtocolliSospesi());
+        } catch (Exception e) {
+            logger.warn("Polling SSE protocolli sospesi non riuscito: {}", e.getMessage());
+        }
+        try {
+            confrontaTask(snapshotService.getScheduledTasks());
+        } catch (Exception e) {
+            logger.warn("Polling SSE task schedulati non riuscito: {}", e.getMessage());
+        }
+    }
+
+    private void confrontaProtocolli(Snapshot<List<ProtocolliSospesi>> snapshot) {
+        if (snapshot.getVersione() == versioneProtocolliPrecedente) {
+            return;
+        }
+
+        // Si tengono solo le chiavi e il riferimento allo snapshot (compatto), non le righe materializzate
+        List<ProtocolliSospesi> righe = snapshot.getDati();
+        Set<String> correnti = new HashSet<>();
+        for (ProtocolliSospesi ps : righe) {
+            correnti.add(chiave(ps));
+        }
+
+        if (chiaviPrecedenti != null) {
+            List<DashboardEvent> eventi = new ArrayList<>();
+            Set<String> notificati = new HashSet<>();
+            for (ProtocolliSospesi ps : righe) {
+                String chiave = chiave(ps);
+                if (!chiaviPrecedenti.contains(chiave) && notificati.add(chiave)) {
+                    Map<String, Object> dati = new LinkedHashMap<>();
+                    dati.put("ente", ps.getEnte());
+                    dati.put("sequLongId", ps.getSequLongId());
+                    dati.put("dataInserimento", ps.getDataInserimento());
+                    dati.put("errore", ps.getErrore());
+                    eventi.add(new DashboardEvent(0, DashboardEvent.PROTOCOLLO_NUOVO, 0, dati));
+                }
+            }
+            for (ProtocolliSospesi ps : protocolliPrecedenti) {
+                String chiave = chiave(ps);
+                if (!correnti.contains(chiave) && notificati.add(chiave)) {
+                    Map<String, Object> dati = new LinkedHashMap<>();
+                    dati.put("ente", ps.getEnte());
+                    dati.put("sequLongId", ps.getSequLongId());
+                    eventi.add(new DashboardEvent(0, DashboardEvent.PROTOCOLLO_RISOLTO, 0, dati));
+                }
+            }
+            pubblica(eventi, "protocolli-sospesi");
+        }
+
+        protocolliPrecedenti = righe;
+        chiaviPrecedenti = correnti;
+        versioneProtocolliPrecedente = snapshot.getVersione();
+    }
+
+    private static String chiave(ProtocolliSospesi ps) {
+        return ps.getEnte() + ':' + ps.getSequLongId();
+    }
+
+    private void confrontaTask(Snapshot<List<Map<String, Object>>> snapshot) {
+        Map<String, Object> correnti = new LinkedHashMap<>();
+        for (Map<String, Object> task : snapshot.getDati()) {
+            correnti.put((String) task.get("name"), task.get("prossimoRun"));
+        }
+
+        if (prossimiRunPrecedenti != null) {
+            List<DashboardEvent> eventi = new ArrayList<>();
+            for (Map.Entry<String, Object> entry : correnti.entrySet()) {
+                Object precedente = prossimiRunPrecedenti.get(entry.getKey());
+                if (!Objects.equals(precedente, entry.getValue())) {
+                    Map<String, Object> dati = new LinkedHashMap<>();
+                    dati.put("name", entry.getKey());
+                    dati.put("prossimoRun", entry.getValue());
+                    dati.put("prossimoRunPrecedente", precedente);
+                    eventi.add(new DashboardEvent(0, DashboardEvent.TASK_RIPROGRAMMATO, 0, dati));
+                }
+            }
+            pubblica(eventi, "scheduled-tasks");
+        }
+
+        prossimiRunPrecedenti = correnti;
+    }
+
+    /**
+     * Assegna gli id, salva nel buffer e invia gli eventi a tutti i browser (anche senza browser
+     * gli eventi restano nel buffer, per il replay con Last-Event-ID).
+     * Oltre maxEventiPerGiro variazioni si invia un solo resync: il client ricarica i dati
+     */
+    private void pubblica(List<DashboardEvent> eventi, String sorgente) {
+        if (eventi.isEmpty()) {
+            return;
+        }
+        if (eventi.size() > maxEventiPerGiro) {
+            eventi = Collections.singletonList(new DashboardEvent(0, DashboardEvent.RESYNC, 0,
+                    Collections.<String, Object>singletonMap("sorgente", sorgente)));
+        }
+
+        // Sotto il lock solo numerazione e buffer; i browser connessi dopo ricevono gli eventi dal replay
+        List<DashboardEvent> numerati = new ArrayList<>(eventi.size());
+        List<SseEmitter> destinatari;
+        synchronized (lock) {
+            long ora = System.currentTimeMillis();
+            for (DashboardEvent evento : eventi) {
+                DashboardEvent numerato = new DashboardEvent(++ultimoId, evento.getTipo(), ora, evento.getDati());
+                buffer[(int) (numerato.getId() % buffer.length)] = numerato;
+                numerati.add(numerato);
+            }
+            destinatari = new ArrayList<>(emitters);
+        }
+        for (SseEmitter emitter : destinatari) {
+            synchronized (emitter) {
+                try {
+                    for (DashboardEvent numerato : numerati) {
+                        send(emitter, numerato);
+                    }
+                } catch (Exception e) {
+                    emitters.remove(emitter);
+                }
+            }
+        }
+        logger.info("Pubblicati {} eventi SSE ({}) a {} connessioni", numerati.size(), sorgente, destinatari.size());
+    }
+
+    private void send(SseEmitter emitter, DashboardEvent evento) throws IOException {
+        emitter.send(SseEmitter.event()
+                .id(String.valueOf(evento.getId()))
+                .name(evento.getTipo())
+                .data(evento.getDati(), MediaType.APPLICATION_JSON));
+    }
+
+    /**
+     * Commento periodico: mantiene aperte le connessioni attraverso i proxy e rimuove quelle cadute
+     */
+    private void heartbeat() {
+        for (SseEmitter emitter : emitters) {
+            try {
+                emitter.send(SseEmitter.event().comment("heartbeat"));
+            } catch (Exception e) {
+                emitters.remove(emitter);
+            }
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package com.salvavita.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLTransientConnectionException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stato del database e circuit breaker sulle connessioni.
+ * Un thread in background valida a intervalli fissi una connessione del pool (isValid con timeout breve)
+ * e GET /api/health restituisce l'ultimo esito senza toccare il database.
+ * Tutte le connessioni passano da getConnection(): dopo failure-threshold errori consecutivi il circuito
+ * si apre e le richieste falliscono subito invece di attendere il connection-timeout del pool;
+ * trascorso open-ms il circuito e' semiaperto e un solo tentativo (controllo periodico o richiesta)
+ * verifica il ripristino: se riesce il circuito si chiude, altrimenti resta aperto per altri open-ms.
+ */
+@Service
+public class DatabaseHealthService {
+
+    private static final Logger logger = LoggerFactory.getLogger(DatabaseHealthService.class);
+
+    public static final String CHIUSO = "CLOSED";
+    public static final String APERTO = "OPEN";
+    public static final String SEMIAPERTO = "HALF_OPEN";
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private MetricheService metriche;
+
+    @Value("${salvavita.health.interval-ms:15000}")
+    private long intervalMs;
+
+    @Value("${salvavita.health.validation-timeout-s:2}")
+    private int validationTimeoutS;
+
+    @Value("${salvavita.health.failure-threshold:3}")
+    private int failureThreshold;
+
+    @Value("${salvavita.health.open-ms:30000}")
+    private long openMs;
+
+    // Stato del circuito, protetto dal lock dell'istanza; letto senza lock nel percorso veloce
+    private volatile String circuito = CHIUSO;
+    private volatile int fallimentiConsecutivi;
+    private long apertoDal;
+    private boolean tentativoInCorso;
+    private String ultimoErrore;
+
+    // Ultimo controllo periodico (0 = non ancora eseguito)
+    private volatile long ultimoControllo;
+    private volatile long ultimoSuccesso;
+    private volatile boolean ultimoControlloRiuscito;
+    private volatile long latenzaMs;
+
+    private ScheduledExecutorService monitor;
+
+    @PostConstruct
+    public void init() {
+        monitor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "db-health");
+            t.setDaemon(true);
+            return t;
+        });
+        metriche.registraCircuitoDatabase(this);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        monitor.shutdownNow();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void avvia() {
+        monitor.scheduleWithFixedDelay(this::controlla, 0, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Connessione dal pool attraverso il circuit breaker
+     *
+     * @throws DatabaseNonDisponibileException se il circuito e' aperto (nessun tentativo di connessione)
+     */
+    public Connection getConnection() throws Exception {
+        boolean tentativo = autorizza();
+        try {
+            Connection conn = dataSource.getConnection();
+            registraSuccesso();
+            return conn;
+        } catch (Exception e) {
+            registraFallimento(e, tentativo);
+            throw e;
+        }
+    }
+
+    /**
+     * Stato del database dall'ultimo controllo periodico, per GET /api/health
+     */
+    public Map<String, Object> getStato() {
+        long ora = System.currentTimeMillis();
+        Map<String, Object> stato = new LinkedHashMap<>();
+        stato.put("status", getStatus());
+        synchronized (this) {
+            stato.put("circuit", circuito);
+            stato.put("consecutiveFailures", fallimentiConsecutivi);
+            if (!CHIUSO.equals(circuito)) {
+                stato.put("openSince", toLocalDateTime(apertoDal));
+            }
+            stato.put("lastError", ultimoErrore);
+        }
+        if (ultimoControllo > 0) {
+            stato.put("lastCheck", toLocalDateTime(ultimoControllo));
+            stato.put("lastCheckAgeMs", ora - ultimoControllo);
+            stato.put("latencyMs", latenzaMs);
+        }
+        if (ultimoSuccesso > 0) {
+            stato.put("lastSuccess", toLocalDateTime(ultimoSuccesso));
+        }
+        stato.put("checkIntervalMs", intervalMs);
+        return stato;
+    }
+
+    /**
+     * UP, DOWN o UNKNOWN (nessun controllo ancora completato)
+     */
+    public String getStatus() {
+        if (APERTO.equals(circuito)) {
+            return "DOWN";
+        }
+        if (ultimoControllo == 0) {
+            return "UNKNOWN";
+        }
+        return ultimoControlloRiuscito ? "UP" : "DOWN";
+    }
+
+    public String getCircuito() {
+        return circuito;
+    }
+
+    /**
+     * Controllo periodico: valida una connessione del pool. Con il circuito aperto
+     * il database viene contattato solo quando e' il momento del tentativo di ripristino
+     */
+    private void controlla() {
+        long inizio = System.currentTimeMillis();
+        boolean tentativo;
+        try {
+            tentativo = autorizza();
+        } catch (DatabaseNonDisponibileException e) {
+            return;
+        }
+
+        try (Connection conn = dataSource.getConnection()) {
+            if (!conn.isValid(validationTimeoutS)) {
+                throw new Exception("Connessione non valida entro " + validationTimeoutS + " s");
+            }
+            latenzaMs = System.currentTimeMillis() - inizio;
+            ultimoSuccesso = System.currentTimeMillis();
+            ultimoControlloRiuscito = true;
+            registraSuccesso();
+        } catch (Exception e) {
+            latenzaMs = System.currentTimeMillis() - inizio;
+            ultimoControlloRiuscito = false;
+            logger.warn("Controllo del database non riuscito: {}", e.getMessage());
+            registraFallimento(e, tentativo);
+        } finally {
+            ultimoControllo = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Decide se il chiamante puo' contattare il database
+     *
+     * @return true se il chiamante e' il tentativo di ripristino del circuito semiaperto
+     */
+    private boolean autorizza() throws DatabaseNonDisponibileException {
+        if (CHIUSO.equals(circuito)) {
+            return false;
+        }
+        synchronized (this) {
+            if (CHIUSO.equals(circuito)) {
+                return false;
+            }
+            long ora = System.currentTimeMillis();
+            if (!tentativoInCorso && ora - apertoDal >= openMs) {
+                circuito = SEMIAPERTO;
+                tentativoInCorso = true;
+                logger.info("Circuit breaker del database semiaperto: verifica del ripristino");
+                return true;
+            }
+            throw new DatabaseNonDisponibileException("Database non disponibile (circuit breaker aperto dal "
+                    + toLocalDateTime(apertoDal) + "): " + ultimoErrore);
+        }
+    }
+
+    private void registraSuccesso() {
+        if (CHIUSO.equals(circuito) && fallimentiConsecutivi == 0) {
+            return;
+        }
+        synchronized (this) {
+            if (!CHIUSO.equals(circuito)) {
+                logger.info("Database di nuovo raggiungibile: circuit breaker chiuso");
+            }
+            circuito = CHIUSO;
+            fallimentiConsecutivi = 0;
+            tentativoInCorso = false;
+            ultimoErrore = null;
+        }
+    }
+
+    private void registraFallimento(Exception e, boolean tentativo) {
+        registraFallimento(e, tentativo, isErroreDatabase(e));
+    }
+
+    private synchronized void registraFallimento(Exception e, boolean tentativo, boolean erroreDatabase) {
+        if (tentativo) {
+            tentativoInCorso = false;
+        }
+        if (!erroreDatabase) {
+            if (tentativo) {
+                // Il tentativo non ha verificato il database (pool occupato): se ne autorizza subito un altro
+                circuito = APERTO;
+            }
+            return;
+        }
+        fallimentiConsecutivi++;
+        ultimoErrore = e.getMessage();
+        if (tentativo || (CHIUSO.equals(circuito) && fallimentiConsecutivi >= failureThreshold)) {
+            if (CHIUSO.equals(circuito)) {
+                logger.error("Circuit breaker del database aperto dopo {} errori consecutivi: {}",
+                        fallimentiConsecutivi, ultimoErrore);
+            }
+            circuito = APERTO;
+            apertoDal = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Un timeout del pool senza causa indica connessioni tutte occupate, non un database irraggiungibile:
+     * non deve aprire il circuito
+     */
+    private static boolean isErroreDatabase(Exception e) {
+        return !(e instanceof SQLTransientConnectionException && e.getCause() == null);
+    }
+
+    private static LocalDateTime toLocalDateTime(long millis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+    }
+}
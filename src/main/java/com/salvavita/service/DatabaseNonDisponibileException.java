@@ -0,0 +1,16 @@
+package com.salvavita.service;
+
+/**
+ * Connessione rifiutata senza contattare il database perche' il circuit breaker e' aperto,
+ * o, su un'istanza follower, perche' il leader da cui legge i dati non e' disponibile
+ */
+public class DatabaseNonDisponibileException extends Exception {
+
+    public DatabaseNonDisponibileException(String message) {
+        super(message);
+    }
+
+    public DatabaseNonDisponibileException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,21 @@
+package com.salvavita.service;
+
+/**
+ * Evento pubblicato quando una modifica confermata sul database rende obsoleto uno snapshot
+ */
+public class DatiModificatiEvent {
+    private final String snapshot;
+
+    public DatiModificatiEvent(String snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    public String getSnapshot() {
+        return snapshot;
+    }
+
+    @Override
+    public String toString() {
+        return "DatiModificatiEvent{snapshot='" + snapshot + "'}";
+    }
+}
@@ -0,0 +1,293 @@
+package com.salvavita.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.URL;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Elezione del leader tra piu' istanze della dashboard, senza servizi esterni: e' leader l'istanza che
+ * ottiene il lock esclusivo su un file (salvavita.leader.lock-file) in una directory condivisa tra le istanze.
+ * Il lock e' del sistema operativo: se il leader termina, anche in modo anomalo, il lock viene rilasciato
+ * e un'altra istanza lo prende al controllo successivo (salvavita.leader.check-interval-ms).
+ * Il leader scrive il proprio indirizzo (salvavita.leader.url) nel file accanto al lock con estensione .url,
+ * da cui i follower lo leggono per scaricare gli snapshot e inoltrare le operazioni transazionali.
+ * Solo il leader interroga Oracle per gli snapshot e per il monitor dello scheduler.
+ * Con salvavita.leader.enabled=false (una sola istanza) l'istanza e' sempre leader.
+ */
+@Service
+public class ElezioneLeaderService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ElezioneLeaderService.class);
+
+    // Header delle richieste tra istanze: una richiesta gia' inoltrata non viene inoltrata di nuovo
+    public static final String HEADER_INOLTRO = "X-Salvavita-Inoltro";
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private MetricheService metriche;
+
+    @Value("${salvavita.leader.enabled:false}")
+    private boolean abilitato;
+
+    @Value("${salvavita.leader.lock-file:./data/leader.lock}")
+    private String lockFile;
+
+    @Value("${salvavita.leader.url:}")
+    private String url;
+
+    @Value("${server.port:8080}")
+    private int porta;
+
+    @Value("${server.servlet.context-path:}")
+    private String contextPath;
+
+    @Value("${salvavita.leader.check-interval-ms:5000}")
+    private long intervalMs;
+
+    @Value("${salvavita.leader.timeout-ms:10000}")
+    private int timeoutMs;
+
+    private Path percorsoLock;
+    private Path percorsoUrl;
+
+    // Canale e lock tenuti aperti finche' l'istanza e' leader (usati solo dal thread di controllo e allo spegnimento)
+    private FileChannel canale;
+    private FileLock lock;
+
+    private volatile boolean leader;
+    private volatile LocalDateTime leaderDal;
+    private volatile String urlLeader;
+
+    private ScheduledExecutorService controllo;
+
+    @PostConstruct
+    public void init() {
+        metriche.registraLeader(this);
+        if (!abilitato) {
+            leader = true;
+            leaderDal = LocalDateTime.now();
+            return;
+        }
+        if (url == null || url.isEmpty()) {
+            url = "http://" + nomeHost() + ":" + porta + contextPath;
+        }
+        percorsoLock = Paths.get(lockFile).toAbsolutePath();
+        percorsoUrl = percorsoLock.resolveSibling(percorsoLock.getFileName() + ".url");
+        // Primo tentativo subito, cosi' il primo caricamento degli snapshot sa gia' da dove leggere
+        controlla();
+        controllo = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "leader-election");
+            t.setDaemon(true);
+            return t;
+        });
+        controllo.scheduleWithFixedDelay(this::controlla, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+        logger.info("Elezione del leader su {}: questa istanza ({}) e' {}", percorsoLock, url, leader ? "leader" : "follower");
+    }
+
+    @PreDestroy
+    public synchronized void shutdown() {
+        if (controllo != null) {
+            controllo.shutdownNow();
+        }
+        if (lock != null) {
+            try {
+                // Il follower che prende il lock riscrive il file con il proprio indirizzo
+                Files.deleteIfExists(percorsoUrl);
+            } catch (IOException e) {
+                logger.debug("File {} non rimosso: {}", percorsoUrl, e.getMessage());
+            }
+            rilascia();
+        }
+    }
+
+    public boolean isLeader() {
+        return leader;
+    }
+
+    /**
+     * Indirizzo del leader (es. http://host:8080/salvavita), null se sconosciuto o se questa istanza e' leader
+     */
+    public String getUrlLeader() {
+        return leader ? null : urlLeader;
+    }
+
+    public int getTimeoutMs() {
+        return timeoutMs;
+    }
+
+    /**
+     * Ruolo dell'istanza, indirizzi e file di lock
+     */
+    public Map<String, Object> getStato() {
+        Map<String, Object> stato = new LinkedHashMap<>();
+        stato.put("enabled", abilitato);
+        stato.put("role", leader ? "leader" : "follower");
+        stato.put("leaderSince", leaderDal);
+        if (abilitato) {
+            stato.put("instanceUrl", url);
+            stato.put("leaderUrl", leader ? url : urlLeader);
+            stato.put("lockFile", percorsoLock.toString());
+        }
+        return stato;
+    }
+
+    /**
+     * GET di un endpoint JSON del leader (percorso relativo al context path, es. /api/scheduled-tasks)
+     *
+     * @throws Exception se il leader e' sconosciuto, non raggiungibile o risponde con un errore
+     */
+    public JsonNode leggiDalLeader(String percorso) throws Exception {
+        String base = getUrlLeader();
+        if (base == null) {
+            throw new DatabaseNonDisponibileException("Leader non disponibile: nessuna istanza ha il lock " + percorsoLock);
+        }
+        HttpURLConnection conn = null;
+        try {
+            conn = (HttpURLConnection) new URL(base + percorso).openConnection();
+            conn.setRequestMethod("GET");
+            conn.setConnectTimeout(timeoutMs);
+            conn.setReadTimeout(timeoutMs);
+            conn.setRequestProperty("Accept", "application/json");
+            conn.setRequestProperty(HEADER_INOLTRO, url);
+            int responseCode = conn.getResponseCode();
+            if (responseCode >= 400) {
+                conn.disconnect();
+                throw new Exception("Il leader " + base + " ha risposto HTTP " + responseCode + " a " + percorso);
+            }
+            try (InputStream in = conn.getInputStream()) {
+                return objectMapper.readTree(in);
+            }
+        } catch (IOException e) {
+            if (conn != null) {
+                conn.disconnect();
+            }
+            throw new DatabaseNonDisponibileException("Leader " + base + " non raggiungibile: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Prova a prendere il lock se follower, verifica di averlo ancora se leader
+     */
+    private synchronized void controlla() {
+        try {
+            if (lock != null) {
+                if (!lock.isValid()) {
+                    logger.warn("Lock di leader su {} perso: questa istanza torna follower", percorsoLock);
+                    rilascia();
+                } else {
+                    scriviUrl();
+                    return;
+                }
+            }
+            if (prendiLock()) {
+                scriviUrl();
+                leader = true;
+                leaderDal = LocalDateTime.now();
+                logger.info("Questa istanza ({}) e' il nuovo leader", url);
+                return;
+            }
+            String letto = leggiUrl();
+            if (letto != null && !letto.equals(urlLeader)) {
+                logger.info("Leader: {}", letto);
+            }
+            urlLeader = letto != null && !letto.equals(url) ? letto : null;
+        } catch (Exception e) {
+            logger.warn("Controllo del leader non riuscito: {}", e.getMessage());
+        }
+    }
+
+    private boolean prendiLock() throws IOException {
+        Files.createDirectories(percorsoLock.getParent());
+        FileChannel nuovo = FileChannel.open(percorsoLock, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock preso;
+        try {
+            preso = nuovo.tryLock();
+        } catch (OverlappingFileLockException e) {
+            // Lock gia' tenuto da questa JVM (es. due contesti Spring nello stesso processo)
+            preso = null;
+        }
+        if (preso == null) {
+            nuovo.close();
+            return false;
+        }
+        canale = nuovo;
+        lock = preso;
+        return true;
+    }
+
+    private void rilascia() {
+        leader = false;
+        leaderDal = null;
+        try {
+            if (lock != null && lock.isValid()) {
+                lock.release();
+            }
+            if (canale != null) {
+                canale.close();
+            }
+        } catch (IOException e) {
+            logger.warn("Errore nel rilascio del lock {}: {}", percorsoLock, e.getMessage());
+        }
+        lock = null;
+        canale = null;
+    }
+
+    /**
+     * Scrive l'indirizzo del leader (sostituzione atomica, i follower non leggono mai un file a meta')
+     */
+    private void scriviUrl() throws IOException {
+        if (url.equals(leggiUrl())) {
+            return;
+        }
+        Path temporaneo = percorsoUrl.resolveSibling(percorsoUrl.getFileName() + ".tmp");
+        Files.write(temporaneo, url.getBytes(StandardCharsets.UTF_8));
+        Files.move(temporaneo, percorsoUrl, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private String leggiUrl() throws IOException {
+        try {
+            String letto = new String(Files.readAllBytes(percorsoUrl), StandardCharsets.UTF_8).trim();
+            return letto.isEmpty() ? null : letto;
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private static String nomeHost() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (IOException e) {
+            return "localhost";
+        }
+    }
+}
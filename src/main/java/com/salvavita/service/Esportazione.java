@@ -0,0 +1,35 @@
+package com.salvavita.service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * Scrittura in streaming di un'esportazione tabellare: le righe vanno sullo stream appena ricevute,
+ * senza essere accumulate, quindi la memoria usata non dipende dal numero di righe.
+ * Valori ammessi: String, Number, LocalDateTime, null.
+ * close() completa il formato ma non chiude lo stream di destinazione.
+ */
+public interface Esportazione extends Closeable {
+
+    void intestazione(List<String> colonne) throws IOException;
+
+    void riga(Object[] valori) throws IOException;
+
+    /**
+     * Esportazione nel formato richiesto
+     *
+     * @param formato csv o xlsx
+     * @param gzip    solo per csv: comprime lo stream
+     */
+    static Esportazione crea(String formato, boolean gzip, char separatore, OutputStream out) throws IOException {
+        if ("xlsx".equalsIgnoreCase(formato)) {
+            return new EsportazioneXlsx(out);
+        }
+        if ("csv".equalsIgnoreCase(formato)) {
+            return new EsportazioneCsv(out, gzip, separatore);
+        }
+        throw new IllegalArgumentException("Formato non valido: " + formato + " (csv, xlsx)");
+    }
+}
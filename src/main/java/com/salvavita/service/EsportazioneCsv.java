@@ -0,0 +1,91 @@
+package com.salvavita.service;
+
+import java.io.BufferedWriter;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Esportazione CSV (RFC 4180, UTF-8), facoltativamente compressa gzip.
+ * Le date sono in formato ISO (2025-11-29T10:30:45)
+ */
+class EsportazioneCsv implements Esportazione {
+
+    private static final int BUFFER = 64 * 1024;
+
+    private final GZIPOutputStream gzip;
+    private final Writer writer;
+    private final char separatore;
+
+    EsportazioneCsv(OutputStream out, boolean comprimi, char separatore) throws IOException {
+        // Lo stream di destinazione resta aperto: lo chiude chi lo ha fornito
+        OutputStream destinazione = new FilterOutputStream(out) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                flush();
+            }
+        };
+        this.gzip = comprimi ? new GZIPOutputStream(destinazione, BUFFER) : null;
+        this.writer = new BufferedWriter(new OutputStreamWriter(comprimi ? gzip : destinazione, StandardCharsets.UTF_8), BUFFER);
+        this.separatore = separatore;
+    }
+
+    @Override
+    public void intestazione(List<String> colonne) throws IOException {
+        riga(colonne.toArray());
+    }
+
+    @Override
+    public void riga(Object[] valori) throws IOException {
+        for (int i = 0; i < valori.length; i++) {
+            if (i > 0) {
+                writer.write(separatore);
+            }
+            Object valore = valori[i];
+            if (valore == null) {
+                continue;
+            }
+            if (valore instanceof Number || valore instanceof LocalDateTime) {
+                writer.write(valore.toString());
+            } else {
+                scriviTesto(valore.toString());
+            }
+        }
+        writer.write("\r\n");
+    }
+
+    private void scriviTesto(String testo) throws IOException {
+        boolean virgolette = false;
+        for (int i = 0; i < testo.length() && !virgolette; i++) {
+            char c = testo.charAt(i);
+            virgolette = c == separatore || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!virgolette) {
+            writer.write(testo);
+            return;
+        }
+        writer.write('"');
+        writer.write(testo.replace("\"", "\"\""));
+        writer.write('"');
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.flush();
+        if (gzip != null) {
+            gzip.finish();
+        }
+        writer.close();
+    }
+}
@@ -0,0 +1,220 @@
+package com.salvavita.service;
+
+import java.io.BufferedWriter;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Esportazione XLSX scritta in streaming senza librerie esterne: lo ZIP del workbook viene prodotto
+ * mentre arrivano le righe, con stringhe inline (nessuna tabella delle stringhe condivise da tenere in memoria).
+ * Oltre il limite di righe di un foglio Excel si prosegue su un nuovo foglio con la stessa intestazione;
+ * workbook, relazioni e content types sono scritti in coda, quando si conosce il numero dei fogli.
+ */
+class EsportazioneXlsx implements Esportazione {
+
+    // Righe di un foglio Excel, intestazione compresa
+    static final int MAX_RIGHE_FOGLIO = 1_048_576;
+    private static final int MAX_LUNGHEZZA_CELLA = 32_767;
+    private static final int BUFFER = 64 * 1024;
+
+    private static final String XML = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n";
+    private static final String NS_MAIN = "http://schemas.openxmlformats.org/spreadsheetml/2006/main";
+    private static final String NS_REL = "http://schemas.openxmlformats.org/officeDocument/2006/relationships";
+    private static final String NS_PKG_REL = "http://schemas.openxmlformats.org/package/2006/relationships";
+
+    // Stili (cellXfs): 0 normale, 1 data e ora, 2 intestazione in grassetto
+    private static final int STILE_DATA = 1;
+    private static final int STILE_INTESTAZIONE = 2;
+    private static final LocalDateTime EPOCA_EXCEL = LocalDateTime.of(1899, 12, 30, 0, 0);
+
+    private final ZipOutputStream zip;
+    private final Writer writer;
+    private List<String> colonne;
+    private int fogli;
+    private int righeFoglio;
+
+    EsportazioneXlsx(OutputStream out) {
+        // Lo stream di destinazione resta aperto: lo chiude chi lo ha fornito
+        this.zip = new ZipOutputStream(new FilterOutputStream(out) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                flush();
+            }
+        });
+        this.writer = new BufferedWriter(new OutputStreamWriter(zip, StandardCharsets.UTF_8), BUFFER);
+    }
+
+    @Override
+    public void intestazione(List<String> colonne) throws IOException {
+        this.colonne = colonne;
+        nuovoFoglio();
+    }
+
+    @Override
+    public void riga(Object[] valori) throws IOException {
+        if (fogli == 0 || righeFoglio >= MAX_RIGHE_FOGLIO) {
+            chiudiFoglio();
+            nuovoFoglio();
+        }
+        righeFoglio++;
+        writer.write("<row r=\"");
+        writer.write(Integer.toString(righeFoglio));
+        writer.write("\">");
+        for (Object valore : valori) {
+            scriviCella(valore, 0);
+        }
+        writer.write("</row>\n");
+    }
+
+    private void scriviCella(Object valore, int stile) throws IOException {
+        if (valore == null) {
+            writer.write("<c/>");
+        } else if (valore instanceof Number) {
+            writer.write("<c><v>");
+            writer.write(valore.toString());
+            writer.write("</v></c>");
+        } else if (valore instanceof LocalDateTime) {
+            // Data Excel: giorni (con frazione) dal 30/12/1899
+            double seriale = Duration.between(EPOCA_EXCEL, (LocalDateTime) valore).toMillis() / 86_400_000.0;
+            writer.write("<c s=\"" + STILE_DATA + "\"><v>");
+            writer.write(Double.toString(seriale));
+            writer.write("</v></c>");
+        } else {
+            String testo = valore.toString();
+            if (testo.length() > MAX_LUNGHEZZA_CELLA) {
+                testo = testo.substring(0, MAX_LUNGHEZZA_CELLA);
+            }
+            writer.write(stile != 0 ? "<c t=\"inlineStr\" s=\"" + stile + "\"><is><t" : "<c t=\"inlineStr\"><is><t");
+            if (!testo.isEmpty() && (Character.isWhitespace(testo.charAt(0)) || Character.isWhitespace(testo.charAt(testo.length() - 1)))) {
+                writer.write(" xml:space=\"preserve\"");
+            }
+            writer.write('>');
+            scriviEscape(testo);
+            writer.write("</t></is></c>");
+        }
+    }
+
+    /**
+     * Escape XML; i caratteri di controllo non ammessi in XML 1.0 vengono scartati
+     */
+    private void scriviEscape(String testo) throws IOException {
+        for (int i = 0; i < testo.length(); i++) {
+            char c = testo.charAt(i);
+            switch (c) {
+                case '&':
+                    writer.write("&amp;");
+                    break;
+                case '<':
+                    writer.write("&lt;");
+                    break;
+                case '>':
+                    writer.write("&gt;");
+                    break;
+                case '"':
+                    writer.write("&quot;");
+                    break;
+                default:
+                    if (c >= 0x20 || c == '\t' || c == '\n' || c == '\r') {
+                        writer.write(c);
+                    }
+            }
+        }
+    }
+
+    private void nuovoFoglio() throws IOException {
+        fogli++;
+        righeFoglio = 0;
+        zip.putNextEntry(new ZipEntry("xl/worksheets/sheet" + fogli + ".xml"));
+        writer.write(XML);
+        writer.write("<worksheet xmlns=\"" + NS_MAIN + "\"><sheetViews><sheetView workbookViewId=\"0\">"
+                + "<pane ySplit=\"1\" topLeftCell=\"A2\" activePane=\"bottomLeft\" state=\"frozen\"/></sheetView></sheetViews>"
+                + "<sheetData>\n");
+        if (colonne != null) {
+            righeFoglio++;
+            writer.write("<row r=\"1\">");
+            for (String colonna : colonne) {
+                scriviCella(colonna, STILE_INTESTAZIONE);
+            }
+            writer.write("</row>\n");
+        }
+    }
+
+    private void chiudiFoglio() throws IOException {
+        if (fogli == 0) {
+            return;
+        }
+        writer.write("</sheetData></worksheet>");
+        writer.flush();
+        zip.closeEntry();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (fogli == 0) {
+            nuovoFoglio();
+        }
+        chiudiFoglio();
+
+        StringBuilder sheets = new StringBuilder();
+        StringBuilder relazioni = new StringBuilder();
+        StringBuilder overrides = new StringBuilder();
+        for (int i = 1; i <= fogli; i++) {
+            sheets.append("<sheet name=\"Foglio").append(i).append("\" sheetId=\"").append(i)
+                    .append("\" r:id=\"rId").append(i).append("\"/>");
+            relazioni.append("<Relationship Id=\"rId").append(i)
+                    .append("\" Type=\"" + NS_REL + "/worksheet\" Target=\"worksheets/sheet").append(i).append(".xml\"/>");
+            overrides.append("<Override PartName=\"/xl/worksheets/sheet").append(i)
+                    .append(".xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.worksheet+xml\"/>");
+        }
+
+        voce("xl/workbook.xml", XML + "<workbook xmlns=\"" + NS_MAIN + "\" xmlns:r=\"" + NS_REL + "\"><sheets>"
+                + sheets + "</sheets></workbook>");
+        voce("xl/_rels/workbook.xml.rels", XML + "<Relationships xmlns=\"" + NS_PKG_REL + "\">" + relazioni
+                + "<Relationship Id=\"rId" + (fogli + 1) + "\" Type=\"" + NS_REL + "/styles\" Target=\"styles.xml\"/>"
+                + "</Relationships>");
+        voce("xl/styles.xml", XML + "<styleSheet xmlns=\"" + NS_MAIN + "\">"
+                + "<numFmts count=\"1\"><numFmt numFmtId=\"164\" formatCode=\"yyyy-mm-dd hh:mm:ss\"/></numFmts>"
+                + "<fonts count=\"2\"><font><sz val=\"11\"/><name val=\"Calibri\"/></font>"
+                + "<font><b/><sz val=\"11\"/><name val=\"Calibri\"/></font></fonts>"
+                + "<fills count=\"2\"><fill><patternFill patternType=\"none\"/></fill><fill><patternFill patternType=\"gray125\"/></fill></fills>"
+                + "<borders count=\"1\"><border><left/><right/><top/><bottom/><diagonal/></border></borders>"
+                + "<cellStyleXfs count=\"1\"><xf numFmtId=\"0\" fontId=\"0\" fillId=\"0\" borderId=\"0\"/></cellStyleXfs>"
+                + "<cellXfs count=\"3\"><xf numFmtId=\"0\" fontId=\"0\" fillId=\"0\" borderId=\"0\" xfId=\"0\"/>"
+                + "<xf numFmtId=\"164\" fontId=\"0\" fillId=\"0\" borderId=\"0\" xfId=\"0\" applyNumberFormat=\"1\"/>"
+                + "<xf numFmtId=\"0\" fontId=\"1\" fillId=\"0\" borderId=\"0\" xfId=\"0\" applyFont=\"1\"/></cellXfs>"
+                + "</styleSheet>");
+        voce("_rels/.rels", XML + "<Relationships xmlns=\"" + NS_PKG_REL + "\">"
+                + "<Relationship Id=\"rId1\" Type=\"" + NS_REL + "/officeDocument\" Target=\"xl/workbook.xml\"/>"
+                + "</Relationships>");
+        voce("[Content_Types].xml", XML + "<Types xmlns=\"http://schemas.openxmlformats.org/package/2006/content-types\">"
+                + "<Default Extension=\"rels\" ContentType=\"application/vnd.openxmlformats-package.relationships+xml\"/>"
+                + "<Default Extension=\"xml\" ContentType=\"application/xml\"/>"
+                + "<Override PartName=\"/xl/workbook.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.sheet.main+xml\"/>"
+                + "<Override PartName=\"/xl/styles.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.styles+xml\"/>"
+                + overrides + "</Types>");
+
+        zip.finish();
+        zip.close();
+    }
+
+    private void voce(String nome, String contenuto) throws IOException {
+        zip.putNextEntry(new ZipEntry(nome));
+        writer.write(contenuto);
+        writer.flush();
+        zip.closeEntry();
+    }
+}
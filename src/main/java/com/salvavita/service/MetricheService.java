@@ -0,0 +1,194 @@
+package com.salvavita.service;
+
+import com.salvavita.model.Ente;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Metriche applicative esposte su /actuator/prometheus (prefisso salvavita).
+ * La latenza per endpoint e' la metrica http.server.requests di Spring Boot,
+ * quella del pool le metriche hikaricp: qui solo cio' che Spring non misura da solo.
+ * I nomi delle metriche sono tutti in questa classe.
+ */
+@Service
+public class MetricheService {
+
+    // Ente dei tag quando la query o la cancellazione non riguarda un singolo schema
+    public static final String TUTTI_GLI_ENTI = "TUTTI";
+
+    @Autowired
+    private MeterRegistry registry;
+
+    /**
+     * Tempo di acquisizione di una connessione in OracleService.getConnection()
+     */
+    public void registraAcquisizioneConnessione(long nanos, boolean riuscita) {
+        Timer.builder("salvavita.db.connection.acquire")
+                .description("Tempo di acquisizione di una connessione dal pool")
+                .tag("outcome", riuscita ? "success" : "failure")
+                .register(registry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Durata e righe lette di una query su uno schema
+     *
+     * @param ente   null per le query su tutti gli schemi (UNION)
+     * @param query  tipo di query: completa, delta, id, pagina, stream
+     * @param inizio System.nanoTime() all'inizio della query
+     */
+    public void registraQuery(Ente ente, String query, long inizio, int righe, boolean riuscita) {
+        String nomeEnte = ente != null ? ente.getNome() : TUTTI_GLI_ENTI;
+        Timer.builder("salvavita.query")
+                .description("Durata delle query PROTOCOLLI_SOSPESI per ente")
+                .tag("ente", nomeEnte)
+                .tag("query", query)
+                .tag("outcome", riuscita ? "success" : "failure")
+                .register(registry)
+                .record(System.nanoTime() - inizio, TimeUnit.NANOSECONDS);
+        if (riuscita) {
+            DistributionSummary.builder("salvavita.query.rows")
+                    .description("Righe lette dalle query PROTOCOLLI_SOSPESI per ente")
+                    .baseUnit("rows")
+                    .tag("ente", nomeEnte)
+                    .tag("query", query)
+                    .register(registry)
+                    .record(righe);
+        }
+    }
+
+    /**
+     * Query in corso e in coda nel bulkhead di un ente, lette dall'executor a ogni raccolta
+     */
+    public void registraBulkhead(Ente ente, ThreadPoolExecutor esecutore) {
+        Gauge.builder("salvavita.bulkhead.active", esecutore, ThreadPoolExecutor::getActiveCount)
+                .description("Query in corso nel bulkhead dell'ente")
+                .tag("ente", ente.getNome())
+                .register(registry);
+        Gauge.builder("salvavita.bulkhead.queued", esecutore, e -> e.getQueue().size())
+                .description("Query in coda nel bulkhead dell'ente")
+                .tag("ente", ente.getNome())
+                .register(registry);
+    }
+
+    /**
+     * Lavoro di un ente non eseguito
+     *
+     * @param motivo rejected (bulkhead saturo) o timeout
+     */
+    public void registraScartoBulkhead(Ente ente, String motivo) {
+        Counter.builder("salvavita.bulkhead.discarded")
+                .description("Query di un ente rifiutate dal bulkhead o scadute")
+                .tag("ente", ente.getNome())
+                .tag("reason", motivo)
+                .register(registry)
+                .increment();
+    }
+
+    /**
+     * Query interrotta sul database prima di terminare
+     *
+     * @param motivo deadline (scadenza della richiesta o del bulkhead) o client (disconnessione)
+     */
+    public void registraQueryAnnullata(Ente ente, String query, String motivo) {
+        Counter.builder("salvavita.query.cancelled")
+                .description("Query annullate per scadenza o disconnessione del client")
+                .tag("ente", ente.getNome())
+                .tag("query", query)
+                .tag("reason", motivo)
+                .register(registry)
+                .increment();
+    }
+
+    /**
+     * Righe cancellate da un'operazione (in sospeso fino al commit)
+     *
+     * @param operazione proto-temporanei, scheduling, in-transizione
+     */
+    public void registraCancellazione(String operazione, String ente, int righe) {
+        Counter.builder("salvavita.delete.rows")
+                .description("Righe cancellate, confermate o meno dal commit")
+                .baseUnit("rows")
+                .tag("operation", operazione)
+                .tag("ente", ente)
+                .register(registry)
+                .increment(righe);
+    }
+
+    /**
+     * Chiusura di una transazione in sospeso
+     *
+     * @param esito commit, commit-failed, rollback, expired, forced, shutdown
+     */
+    public void registraChiusuraTransazione(String esito) {
+        Counter.builder("salvavita.transactions.closed")
+                .description("Transazioni in sospeso chiuse, per esito")
+                .tag("outcome", esito)
+                .register(registry)
+                .increment();
+    }
+
+    /**
+     * Stato del circuit breaker del database: 0 chiuso, 1 semiaperto, 2 aperto
+     */
+    public void registraCircuitoDatabase(DatabaseHealthService databaseHealth) {
+        Gauge.builder("salvavita.db.circuit.state", databaseHealth, h -> {
+                    String circuito = h.getCircuito();
+                    return DatabaseHealthService.APERTO.equals(circuito) ? 2
+                            : DatabaseHealthService.SEMIAPERTO.equals(circuito) ? 1 : 0;
+                })
+                .description("Circuit breaker del database: 0 chiuso, 1 semiaperto, 2 aperto")
+                .register(registry);
+    }
+
+    /**
+     * Task dello scheduler in ritardo e ritardo massimo, dall'ultimo campione del monitor
+     */
+    public void registraMonitorScheduler(MonitorSchedulerService monitor) {
+        Gauge.builder("salvavita.scheduler.overdue", monitor, MonitorSchedulerService::getTaskInRitardo)
+                .description("Task di sched_arcipelago_task con nextfiretime passato oltre la tolleranza")
+                .register(registry);
+        Gauge.builder("salvavita.scheduler.lag.max", monitor, MonitorSchedulerService::getRitardoMassimoMs)
+                .description("Ritardo massimo dei task dello scheduler in ritardo")
+                .baseUnit("milliseconds")
+                .register(registry);
+    }
+
+    /**
+     * Intervallo corrente dell'aggiornamento pianificato di uno snapshot
+     */
+    public void registraIntervalloAggiornamento(AggiornamentoSnapshotService aggiornamento, String snapshot) {
+        Gauge.builder("salvavita.snapshot.refresh.interval", aggiornamento, a -> a.getIntervalloMs(snapshot))
+                .description("Intervallo tra due aggiornamenti pianificati dello snapshot")
+                .tag("snapshot", snapshot)
+                .baseUnit("milliseconds")
+                .register(registry);
+    }
+
+    /**
+     * Ruolo dell'istanza nell'elezione del leader: 1 leader, 0 follower
+     */
+    public void registraLeader(ElezioneLeaderService elezione) {
+        Gauge.builder("salvavita.leader", elezione, e -> e.isLeader() ? 1 : 0)
+                .description("1 se l'istanza e' il leader che interroga Oracle, 0 se follower")
+                .register(registry);
+    }
+
+    /**
+     * Numero di transazioni in attesa di Commit/Rollback, letto dal registro a ogni raccolta
+     */
+    public void registraTransazioniInSospeso(Map<?, ?> transazioni) {
+        Gauge.builder("salvavita.transactions.pending", transazioni, Map::size)
+                .description("Transazioni in attesa di Commit/Rollback")
+                .register(registry);
+    }
+}
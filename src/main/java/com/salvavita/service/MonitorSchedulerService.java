@@ -0,0 +1,282 @@
+package com.salvavita.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Monitor del ritardo dei task dello scheduler (ejbsched_entr.sched_arcipelago_task).
+ * Un campionatore in background legge periodicamente nextfiretime di ogni task e il numero di righe
+ * delle tabelle di lease (sched_arcipelago_lmgr, sched_arcipelago_lmpr) e tiene per ogni task
+ * le ultime osservazioni in un buffer circolare (StoricoTask). Ritardo, esecuzioni per ora e task
+ * in ritardo sono calcolati a ogni campione e serviti dalla memoria, senza query sul database.
+ * Un task e' in ritardo se il suo nextfiretime e' passato da piu' di salvavita.scheduler-monitor.tolerance-ms.
+ * Con piu' istanze campiona solo il leader; sui follower l'endpoint viene inoltrato al leader.
+ */
+@Service
+public class MonitorSchedulerService {
+
+    private static final Logger logger = LoggerFactory.getLogger(MonitorSchedulerService.class);
+
+    private static final String QUERY_TASK = "SELECT name, nextfiretime FROM ejbsched_entr.sched_arcipelago_task";
+    private static final String QUERY_LEASE = "SELECT (SELECT COUNT(*) FROM ejbsched_entr.sched_arcipelago_lmgr), " +
+            "(SELECT COUNT(*) FROM ejbsched_entr.sched_arcipelago_lmpr) FROM dual";
+
+    @Autowired
+    private DatabaseHealthService databaseHealth;
+
+    @Autowired
+    private MetricheService metriche;
+
+    @Autowired
+    private ElezioneLeaderService elezioneLeader;
+
+    @Value("${salvavita.scheduler-monitor.enabled:true}")
+    private boolean abilitato;
+
+    @Value("${salvavita.scheduler-monitor.interval-ms:30000}")
+    private long intervalMs;
+
+    @Value("${salvavita.scheduler-monitor.samples:240}")
+    private int campioniPerTask;
+
+    @Value("${salvavita.scheduler-monitor.tolerance-ms:120000}")
+    private long tolleranzaMs;
+
+    // Usati solo dal thread del campionatore
+    private final Map<String, StoricoTask> storici = new HashMap<>();
+    private final Set<String> inRitardoPrecedenti = new HashSet<>();
+
+    // Ultimo stato calcolato, sostituito per intero a ogni campione
+    private volatile Stato stato;
+    private volatile String ultimoErrore;
+
+    private ScheduledExecutorService campionatore;
+
+    /**
+     * Stato calcolato dall'ultimo campione riuscito
+     */
+    private static final class Stato {
+        final LocalDateTime dataOra;
+        final long istante;
+        final List<Map<String, Object>> task;
+        final int inRitardo;
+        final long ritardoMassimoMs;
+        final Map<String, Object> lease;
+
+        Stato(long istante, List<Map<String, Object>> task, int inRitardo, long ritardoMassimoMs, Map<String, Object> lease) {
+            this.dataOra = toLocalDateTime(istante);
+            this.istante = istante;
+            this.task = task;
+            this.inRitardo = inRitardo;
+            this.ritardoMassimoMs = ritardoMassimoMs;
+            this.lease = lease;
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        campionatore = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "scheduler-monitor");
+            t.setDaemon(true);
+            return t;
+        });
+        metriche.registraMonitorScheduler(this);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        campionatore.shutdownNow();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void avvia() {
+        if (!abilitato) {
+            logger.info("Monitor dello scheduler disabilitato");
+            return;
+        }
+        campionatore.scheduleWithFixedDelay(this::campiona, 0, intervalMs, TimeUnit.MILLISECONDS);
+        logger.info("Monitor dello scheduler: un campione ogni {} ms, ultimi {} per task, tolleranza {} ms",
+                intervalMs, campioniPerTask, tolleranzaMs);
+    }
+
+    /**
+     * Numero di task in ritardo all'ultimo campione (0 se non ancora campionato)
+     */
+    public int getTaskInRitardo() {
+        Stato corrente = stato;
+        return corrente != null ? corrente.inRitardo : 0;
+    }
+
+    /**
+     * Ritardo massimo tra i task all'ultimo campione, in ms (0 se nessuno in ritardo)
+     */
+    public long getRitardoMassimoMs() {
+        Stato corrente = stato;
+        return corrente != null ? corrente.ritardoMassimoMs : 0;
+    }
+
+    /**
+     * Task in ritardo (o tutti) dall'ultimo campione, in ordine di ritardo decrescente,
+     * con istante ed eta' del campione, righe delle tabelle di lease e ultimo errore di campionamento.
+     *
+     * @return null se non c'e' ancora un campione riuscito
+     */
+    public Map<String, Object> getStato(boolean tutti) {
+        Stato corrente = stato;
+        if (corrente == null) {
+            return null;
+        }
+        List<Map<String, Object>> task = new ArrayList<>();
+        for (Map<String, Object> t : corrente.task) {
+            if (tutti || Boolean.TRUE.equals(t.get("overdue"))) {
+                task.add(t);
+            }
+        }
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("data", task);
+        result.put("totalRecords", task.size());
+        result.put("overdueTasks", corrente.inRitardo);
+        result.put("toleranceMs", tolleranzaMs);
+        result.put("sampleTime", corrente.dataOra);
+        result.put("sampleAgeMs", System.currentTimeMillis() - corrente.istante);
+        result.put("leases", corrente.lease);
+        if (ultimoErrore != null) {
+            result.put("lastError", ultimoErrore);
+        }
+        return result;
+    }
+
+    /**
+     * Legge un campione e ricalcola lo stato; un errore lascia lo stato del campione precedente
+     */
+    private void campiona() {
+        if (!elezioneLeader.isLeader()) {
+            // Le osservazioni di un periodo da follower non sarebbero contigue: si riparte da zero
+            storici.clear();
+            inRitardoPrecedenti.clear();
+            stato = null;
+            return;
+        }
+        Map<String, Long> nextFireTime = new HashMap<>();
+        Map<String, Object> lease = new LinkedHashMap<>();
+        Connection conn = null;
+        Statement stmt = null;
+        ResultSet rs = null;
+        long istante;
+
+        try {
+            conn = databaseHealth.getConnection();
+            stmt = conn.createStatement();
+            stmt.setFetchSize(500);
+            rs = stmt.executeQuery(QUERY_TASK);
+            while (rs.next()) {
+                long valore = rs.getLong(2);
+                nextFireTime.put(rs.getString(1), rs.wasNull() ? StoricoTask.NESSUNO : valore);
+            }
+            rs.close();
+            rs = stmt.executeQuery(QUERY_LEASE);
+            if (rs.next()) {
+                lease.put("lmgr", rs.getInt(1));
+                lease.put("lmpr", rs.getInt(2));
+            }
+            istante = System.currentTimeMillis();
+            ultimoErrore = null;
+        } catch (Exception e) {
+            ultimoErrore = e.getMessage();
+            logger.warn("Campione dello scheduler non riuscito: {}", e.getMessage());
+            return;
+        } finally {
+            closeResources(rs, stmt, conn);
+        }
+
+        // I task non piu' presenti nella tabella escono dal monitor
+        storici.keySet().retainAll(nextFireTime.keySet());
+        inRitardoPrecedenti.retainAll(nextFireTime.keySet());
+
+        List<Map<String, Object>> task = new ArrayList<>(nextFireTime.size());
+        int inRitardo = 0;
+        long ritardoMassimo = 0;
+        for (Map.Entry<String, Long> entry : nextFireTime.entrySet()) {
+            String nome = entry.getKey();
+            StoricoTask storico = storici.computeIfAbsent(nome, n -> new StoricoTask(Math.max(2, campioniPerTask)));
+            storico.aggiungi(istante, entry.getValue());
+
+            Map<String, Object> riga = riepilogo(nome, storico, istante);
+            long ritardo = (Long) riga.get("lagMs");
+            boolean overdue = (Boolean) riga.get("overdue");
+            if (overdue) {
+                inRitardo++;
+                ritardoMassimo = Math.max(ritardoMassimo, ritardo);
+                if (inRitardoPrecedenti.add(nome)) {
+                    logger.warn("Task {} in ritardo: doveva partire alle {} ({} ms fa)", nome, riga.get("prossimoRun"), ritardo);
+                }
+            } else if (inRitardoPrecedenti.remove(nome)) {
+                logger.info("Task {} di nuovo in orario: prossima esecuzione alle {}", nome, riga.get("prossimoRun"));
+            }
+            task.add(riga);
+        }
+        task.sort(Comparator.comparingLong((Map<String, Object> r) -> (Long) r.get("lagMs")).reversed()
+                .thenComparing(r -> (String) r.get("name")));
+
+        stato = new Stato(istante, Collections.unmodifiableList(task), inRitardo, ritardoMassimo,
+                Collections.unmodifiableMap(lease));
+        logger.debug("Campione dello scheduler: {} task, {} in ritardo", task.size(), inRitardo);
+    }
+
+    /**
+     * Ritardo, periodo ed esecuzioni per ora di un task calcolati dal suo buffer
+     */
+    private Map<String, Object> riepilogo(String nome, StoricoTask storico, long istante) {
+        long prossimo = storico.getUltimoNextFireTime();
+        long ritardo = prossimo != StoricoTask.NESSUNO ? Math.max(0, istante - prossimo) : 0;
+        long finestra = storico.getFinestraMs();
+        int esecuzioni = storico.getEsecuzioni();
+        long ultimaEsecuzione = storico.getUltimaEsecuzione();
+        long intervallo = storico.getIntervalloMs();
+
+        Map<String, Object> riga = new LinkedHashMap<>();
+        riga.put("name", nome);
+        riga.put("prossimoRun", prossimo != StoricoTask.NESSUNO ? toLocalDateTime(prossimo) : null);
+        riga.put("lagMs", ritardo);
+        riga.put("overdue", ritardo > tolleranzaMs);
+        riga.put("intervalMs", intervallo != StoricoTask.NESSUNO ? intervallo : null);
+        riga.put("firesPerHour", finestra > 0 ? Math.round(esecuzioni * 3_600_000.0 / finestra * 10) / 10.0 : null);
+        riga.put("lastFireSeen", ultimaEsecuzione != StoricoTask.NESSUNO ? toLocalDateTime(ultimaEsecuzione) : null);
+        riga.put("windowMs", finestra);
+        riga.put("samples", storico.getCampioni());
+        return riga;
+    }
+
+    private static LocalDateTime toLocalDateTime(long millis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+    }
+
+    private void closeResources(ResultSet rs, Statement stmt, Connection conn) {
+        try {
+            if (rs != null) rs.close();
+            if (stmt != null) stmt.close();
+            if (conn != null) conn.close();
+        } catch (SQLException e) {
+            logger.error("Errore nella chiusura delle risorse: {}", e.getMessage());
+        }
+    }
+}
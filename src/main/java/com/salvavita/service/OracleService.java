@@ -1,19 +1,40 @@
 package com.salvavita.service;
 
+import com.salvavita.config.EntiProperties;
+import com.salvavita.model.Ente;
+import com.salvavita.model.FiltroProtocolli;
 import com.salvavita.model.ProtocolliSospesi;
+import com.salvavita.model.ProtocolloTemporaneoRef;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
 
+import javax.sql.DataSource;
+import java.io.IOException;
 import java.sql.*;
 import java.time.LocalDateTime;
-import java.time.ZoneId;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Service
 public class OracleService {
@@ -23,110 +44,766 @@ public class OracleService {
     @Autowired
     private TransactionService transactionService;
 
-    @Value("${spring.datasource.url}")
-    private String dbUrl;
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Autowired
+    private AooUfficioService aooUfficioService;
+
+    @Autowired
+    private QueryProtocolliSospesi queryProtocolli;
+
+    @Autowired
+    private TaskDispatcherService taskDispatcherService;
 
-    @Value("${spring.datasource.username}")
-    private String dbUser;
+    @Autowired
+    private MetricheService metriche;
+
+    @Autowired
+    private DatabaseHealthService databaseHealth;
 
-    @Value("${spring.datasource.password}")
-    private String dbPassword;
+    @Autowired
+    private BulkheadService bulkhead;
 
-    @Value("${spring.datasource.driver-class-name}")
-    private String dbDriver;
+    @Autowired
+    private EntiProperties entiProperties;
+
+    @Value("${salvavita.pool.prewarm:true}")
+    private boolean prewarm;
+
+    @Value("${salvavita.query.fetch-size:500}")
+    private int fetchSize;
+
+    @Value("${salvavita.query.parallel:true}")
+    private boolean queryParallela;
+
+    @Value("${salvavita.delete.batch-size:500}")
+    private int deleteBatchSize;
+
+    // Tabelle di un protocollo temporaneo nell'ordine di cancellazione (tabella, colonna del protocollo)
+    private static final String[][] TABELLE_PROTO_TEMPORANEO = {
+            {"p2_proto_tmp_classif_all", "fk_protocollo_temporaneo"},
+            {"p2_proto_tmp_classificazione", "fk_protocollo_temporaneo"},
+            {"p2_proto_tmp_collegati", "fk_proto_tmp"},
+            {"p2_proto_tmp_dettagli", "fk_proto_tmp"},
+            {"p2_proto_tmp_documenti", "fk_protocollo_temporaneo"},
+            {"p2_proto_tmp_mittdest", "fk_proto_tmp"},
+            {"p2_proto_temporaneo", "sequ_long_id"}
+    };
+
+    // Tabelle bloccate dalla cancellazione dei dati di scheduling
+    private static final List<String> TABELLE_SCHEDULING = Collections.unmodifiableList(Arrays.asList(
+            "ejbsched_entr.sched_arcipelago_lmgr", "ejbsched_entr.sched_arcipelago_lmpr",
+            "ejbsched_entr.sched_arcipelago_task", "ejbsched_entr.sched_arcipelago_treg"));
+
+    // Consumatori in background con una connessione propria: controllo di salute, monitor dello scheduler,
+    // ricarica del dizionario AOO/uffici
+    private static final int CONNESSIONI_BACKGROUND = 3;
+
+    // Statistiche di acquisizione delle connessioni dal pool
+    private final AtomicLong acquisizioniTotali = new AtomicLong();
+    private final AtomicLong acquisizioniFallite = new AtomicLong();
+    private final AtomicLong tempoAcquisizioneTotaleNanos = new AtomicLong();
+    private final AtomicLong tempoAcquisizioneMaxNanos = new AtomicLong();
 
     /**
-     * Ottiene la connessione al database Oracle
+     * Ottiene una connessione dal pool verso il database Oracle.
+     * Con il circuit breaker aperto fallisce subito con DatabaseNonDisponibileException
      */
     public Connection getConnection() throws Exception {
+        long start = System.nanoTime();
         try {
-            Class.forName(dbDriver);
-            logger.debug("Connessione a Oracle: {}", dbUrl);
-            
-            // Aggiungi timeout alla connessione
-            java.util.Properties props = new java.util.Properties();
-            props.setProperty("user", dbUser);
-            props.setProperty("password", dbPassword);
-            props.setProperty("oracle.net.CONNECT_TIMEOUT", "10000"); // 10 secondi
-            props.setProperty("oracle.jdbc.ReadTimeout", "30000"); // 30 secondi
-            
-            Connection conn = DriverManager.getConnection(dbUrl, props);
-            logger.info("Connessione effettuata con successo");
+            Connection conn = databaseHealth.getConnection();
+            registraAcquisizione(System.nanoTime() - start);
+            metriche.registraAcquisizioneConnessione(System.nanoTime() - start, true);
+            logger.debug("Connessione acquisita dal pool");
             return conn;
+        } catch (DatabaseNonDisponibileException e) {
+            acquisizioniFallite.incrementAndGet();
+            metriche.registraAcquisizioneConnessione(System.nanoTime() - start, false);
+            logger.debug("Connessione non richiesta: {}", e.getMessage());
+            throw e;
         } catch (Exception e) {
+            acquisizioniFallite.incrementAndGet();
+            metriche.registraAcquisizioneConnessione(System.nanoTime() - start, false);
             logger.error("Errore nella connessione al database: {}", e.getMessage(), e);
             throw new Exception("Errore di connessione: " + e.getMessage(), e);
         }
     }
 
+    private void registraAcquisizione(long nanos) {
+        acquisizioniTotali.incrementAndGet();
+        tempoAcquisizioneTotaleNanos.addAndGet(nanos);
+        tempoAcquisizioneMaxNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    /**
+     * Avvisa se il pool non basta per i bulkhead degli enti abilitati, le transazioni in sospeso
+     * (ognuna tiene una connessione per tutto il lease) e i consumatori in background:
+     * le query degli snapshot attenderebbero connection-timeout e scadrebbero sul bulkhead
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void verificaDimensionePool() {
+        if (!(dataSource instanceof HikariDataSource)) {
+            return;
+        }
+        int bulkheads = bulkhead.getThreadPerEnte() * entiProperties.getAbilitati().size();
+        int transazioni = transactionService.getMaxInSospeso();
+        int necessarie = bulkheads + transazioni + CONNESSIONI_BACKGROUND;
+        int massimo = ((HikariDataSource) dataSource).getMaximumPoolSize();
+        if (massimo < necessarie) {
+            logger.warn("Pool di {} connessioni insufficiente: ne servono almeno {} ({} per i bulkhead, {} per le transazioni "
+                    + "in sospeso, {} in background) piu' una per ogni streaming/esportazione contemporanea",
+                    massimo, necessarie, bulkheads, transazioni, CONNESSIONI_BACKGROUND);
+        } else {
+            logger.info("Pool di {} connessioni: {} per i bulkhead, {} per le transazioni in sospeso, {} in background, "
+                    + "{} per streaming ed esportazioni", massimo, bulkheads, transazioni, CONNESSIONI_BACKGROUND,
+                    massimo - necessarie);
+        }
+    }
+
+    /**
+     * Pre-riscalda il pool all'avvio: apre subito minimum-idle connessioni
+     * cosi' la prima richiesta della dashboard non paga il logon Oracle
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void prewarmPool() {
+        if (!prewarm || !(dataSource instanceof HikariDataSource)) {
+            return;
+        }
+        HikariDataSource hikari = (HikariDataSource) dataSource;
+        int daAprire = Math.max(1, hikari.getMinimumIdle());
+
+        Thread t = new Thread(() -> {
+            List<Connection> connessioni = new ArrayList<>();
+            try {
+                for (int i = 0; i < daAprire; i++) {
+                    connessioni.add(getConnection());
+                }
+                logger.info("Pool pre-riscaldato con {} connessioni", connessioni.size());
+            } catch (Exception e) {
+                logger.warn("Pre-riscaldamento del pool non riuscito: {}", e.getMessage());
+            } finally {
+                for (Connection c : connessioni) {
+                    closeResources(null, null, c);
+                }
+            }
+        }, "pool-prewarm");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * Statistiche del pool: connessioni attive/inattive, thread in attesa
+     * e latenza di acquisizione misurata in getConnection()
+     */
+    public Map<String, Object> getPoolStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+
+        if (dataSource instanceof HikariDataSource) {
+            HikariDataSource hikari = (HikariDataSource) dataSource;
+            stats.put("poolName", hikari.getPoolName());
+            stats.put("minimumIdle", hikari.getMinimumIdle());
+            stats.put("maximumPoolSize", hikari.getMaximumPoolSize());
+
+            HikariPoolMXBean pool = hikari.getHikariPoolMXBean();
+            if (pool != null) {
+                stats.put("active", pool.getActiveConnections());
+                stats.put("idle", pool.getIdleConnections());
+                stats.put("total", pool.getTotalConnections());
+                stats.put("waiters", pool.getThreadsAwaitingConnection());
+            }
+        }
+
+        long totali = acquisizioniTotali.get();
+        stats.put("acquisitions", totali);
+        stats.put("acquisitionFailures", acquisizioniFallite.get());
+        stats.put("acquisitionAvgMs", totali == 0 ? 0.0 : tempoAcquisizioneTotaleNanos.get() / (double) totali / 1_000_000.0);
+        stats.put("acquisitionMaxMs", tempoAcquisizioneMaxNanos.get() / 1_000_000.0);
+        stats.put("bulkhead", bulkhead.getStatistiche());
+        return stats;
+    }
+
     /**
      * Esegue la query PROTOCOLLI_SOSPESI
      */
     public List<ProtocolliSospesi> getProtocolliSospesi() throws Exception {
+        return getProtocolliSospesi(null, null);
+    }
+
+    /**
+     * Esegue la query PROTOCOLLI_SOSPESI.
+     * In modalita' parallela esegue una query per ente sul bulkhead dell'ente
+     * e, se tempiPerEnte non e' null, vi registra i millisecondi impiegati da ogni schema.
+     * Se nonDisponibili non e' null gli enti falliti o in ritardo vi sono registrati con il motivo
+     * e il risultato contiene gli altri; altrimenti il primo errore fa fallire tutta la query
+     */
+    public List<ProtocolliSospesi> getProtocolliSospesi(Map<String, Long> tempiPerEnte,
+                                                        Map<String, String> nonDisponibili) throws Exception {
+        aooUfficioService.assicuraCaricati(queryProtocolli.getEnti());
+        if (queryParallela) {
+            return getProtocolliSospesiParallelo(tempiPerEnte, nonDisponibili);
+        }
+
         List<ProtocolliSospesi> result = new ArrayList<>();
         Connection conn = null;
-        Statement stmt = null;
+        PreparedStatement stmt = null;
         ResultSet rs = null;
+        long inizio = System.nanoTime();
+        boolean riuscita = false;
 
         try {
             conn = getConnection();
-            stmt = conn.createStatement();
-
-            String query = buildQueryProtocolliSospesi();
             logger.info("Esecuzione query PROTOCOLLI_SOSPESI");
-            
-            rs = stmt.executeQuery(query);
+            stmt = prepareStatement(conn, queryProtocolli.getQueryUnion(), queryProtocolli.getParametriUnion(), fetchSize);
+            rs = stmt.executeQuery();
 
             while (rs.next()) {
-                ProtocolliSospesi ps = new ProtocolliSospesi();
-                ps.setEnte(rs.getString("ENTE"));
-                ps.setSequLongId(rs.getLong("SEQU_LONG_ID"));
-                ps.setCountRecuperiEjb(rs.getInt("COUNT_RECUPERI_EJB"));
-                ps.setPresaVisione(rs.getInt("PRESA_VISIONE"));
-                ps.setIdTransizionePresente(rs.getInt("IDTRANSIZIONEPRESENTE"));
-                ps.setAooUfficio(rs.getString("AOO_UFFICIO"));
-                ps.setUtenteCreatore(rs.getString("UTENTE_CREATORE"));
-                
-                Timestamp ts = rs.getTimestamp("DATA_INSERIMENTO");
-                if (ts != null) {
-                    ps.setDataInserimento(ts.toLocalDateTime());
-                }
-                
-                ps.setStatoDocumento(rs.getInt("STATO_DOCUMENTO"));
-                ps.setEsitoDocumento(rs.getInt("ESITO_DOCUMENTO"));
-                ps.setIdAtmos(rs.getString("ID_ATMOS"));
-                ps.setEsitoDocumento(rs.getInt("ESITO_DOCUMENTO"));
-                ps.setErrore(rs.getString("ERRORE"));
-                ps.setNomeDocumento(rs.getString("NOME_DOCUMENTO"));
-                ps.setSeqDocumento(rs.getLong("SEQU_LONG_ID_DOC"));
-                
-                result.add(ps);
+                result.add(mapProtocolloSospeso(rs));
             }
 
             logger.info("Query eseguita: {} record trovati", result.size());
+            riuscita = true;
 
         } catch (Exception e) {
             logger.error("Errore nell'esecuzione della query PROTOCOLLI_SOSPESI: {}", e.getMessage(), e);
             throw new Exception("Errore nell'esecuzione della query: " + e.getMessage(), e);
         } finally {
             closeResources(rs, stmt, conn);
+            metriche.registraQuery(null, "completa", inizio, result.size(), riuscita);
+        }
+
+        return result;
+    }
+
+    /**
+     * Esegue la query PROTOCOLLI_SOSPESI di ogni ente in parallelo sui bulkhead
+     * e ricompone il risultato nello stesso ordine della UNION (ente, sequ_long_id)
+     */
+    private List<ProtocolliSospesi> getProtocolliSospesiParallelo(Map<String, Long> tempiPerEnte,
+                                                                 Map<String, String> nonDisponibili) throws Exception {
+        long start = System.currentTimeMillis();
+        Map<String, Long> tempi = tempiPerEnte != null ? tempiPerEnte : new LinkedHashMap<>();
+        logger.info("Esecuzione query PROTOCOLLI_SOSPESI in parallelo su {} schemi", queryProtocolli.getEnti().size());
+
+        try {
+            Map<Ente, List<ProtocolliSospesi>> perEnte = eseguiPerEnte(queryProtocolli.getEnti(), this::getProtocolliSospesiEnte,
+                    tempi, nonDisponibili);
+
+            List<ProtocolliSospesi> result = new ArrayList<>();
+            for (List<ProtocolliSospesi> righe : perEnte.values()) {
+                result.addAll(righe);
+            }
+
+            logger.info("Query parallela eseguita: {} record trovati in {} ms (tempi per ente: {})",
+                    result.size(), System.currentTimeMillis() - start, tempi);
+            return result;
+
+        } catch (Exception e) {
+            logger.error("Errore nell'esecuzione della query PROTOCOLLI_SOSPESI: {}", e.getMessage(), e);
+            throw new Exception("Errore nell'esecuzione della query: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Esegue la query incrementale PROTOCOLLI_SOSPESI: per ogni ente restituisce solo le righe
+     * dei protocolli inseriti dal watermark in poi (data_inserimento >= watermark) e riempie
+     * idSospesi con gli identificativi di tutti i protocolli ancora sospesi, cosi' il chiamante
+     * puo' ricavare quelli usciti dall'insieme senza rileggere l'intero dettaglio.
+     * Un ente senza watermark viene letto per intero.
+     * Gli enti falliti o in ritardo sono registrati in nonDisponibili (se non e' null) e non hanno righe
+     */
+    public List<ProtocolliSospesi> getProtocolliSospesiDelta(Map<Ente, LocalDateTime> watermarks,
+                                                             Map<Ente, Set<Long>> idSospesi,
+                                                             Map<String, String> nonDisponibili) throws Exception {
+        long start = System.currentTimeMillis();
+        Map<String, Long> tempiPerEnte = new LinkedHashMap<>();
+        aooUfficioService.assicuraCaricati(queryProtocolli.getEnti());
+
+        try {
+            Map<Ente, List<ProtocolliSospesi>> perEnte = eseguiPerEnte(queryProtocolli.getEnti(), (ente, contesto) -> {
+                Connection conn = null;
+                try {
+                    conn = getConnection();
+                    idSospesi.put(ente, getIdProtocolliSospesi(conn, ente, contesto));
+                    return getProtocolliSospesiEnte(conn, ente, watermarks.get(ente), contesto);
+                } finally {
+                    closeResources(null, null, conn);
+                }
+            }, tempiPerEnte, nonDisponibili);
+
+            List<ProtocolliSospesi> result = new ArrayList<>();
+            for (List<ProtocolliSospesi> righe : perEnte.values()) {
+                result.addAll(righe);
+            }
+
+            logger.info("Query incrementale eseguita: {} record nuovi in {} ms (tempi per ente: {})",
+                    result.size(), System.currentTimeMillis() - start, tempiPerEnte);
+            return result;
+
+        } catch (Exception e) {
+            logger.error("Errore nell'esecuzione della query incrementale PROTOCOLLI_SOSPESI: {}", e.getMessage(), e);
+            throw new Exception("Errore nell'esecuzione della query: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Lavoro da eseguire su un singolo schema, con le query nel contesto indicato
+     */
+    private interface LavoroEnte<T> {
+        T esegui(Ente ente, ContestoQuery contesto) throws Exception;
+    }
+
+    /**
+     * Esegue il lavoro su ogni ente in parallelo, ciascuno sul proprio bulkhead ed entro il suo timeout.
+     * Restituisce i risultati ordinati per nome ente e registra in tempiPerEnte i millisecondi per schema.
+     * Con nonDisponibili null il primo ente fallito fa fallire tutto; altrimenti gli enti falliti
+     * vi sono registrati con il motivo e mancano dal risultato (se falliscono tutti l'errore viene rilanciato)
+     */
+    private <T> Map<Ente, T> eseguiPerEnte(List<Ente> enti, LavoroEnte<T> lavoro, Map<String, Long> tempiPerEnte,
+                                           Map<String, String> nonDisponibili) throws Exception {
+        Map<Ente, CompletableFuture<T>> futures = new TreeMap<>(Comparator.comparing(Ente::getNome));
+        Map<Ente, Long> tempi = new ConcurrentHashMap<>();
+
+        for (Ente ente : enti) {
+            futures.put(ente, bulkhead.esegui(ente, contesto -> {
+                long t0 = System.currentTimeMillis();
+                try {
+                    return lavoro.esegui(ente, contesto);
+                } finally {
+                    tempi.put(ente, System.currentTimeMillis() - t0);
+                }
+            }, null));
+        }
+
+        Map<Ente, T> result = new TreeMap<>(Comparator.comparing(Ente::getNome));
+        Exception primoErrore = null;
+        for (Map.Entry<Ente, CompletableFuture<T>> entry : futures.entrySet()) {
+            try {
+                result.put(entry.getKey(), entry.getValue().get());
+            } catch (ExecutionException e) {
+                Throwable causa = e.getCause() != null ? e.getCause() : e;
+                Exception errore = new Exception("Schema " + entry.getKey().getSchema() + ": " + causa.getMessage(), causa);
+                if (nonDisponibili == null) {
+                    throw errore;
+                }
+                logger.warn("Ente {} escluso dal risultato: {}", entry.getKey().getNome(), causa.getMessage());
+                nonDisponibili.put(entry.getKey().getNome(), causa.getMessage());
+                if (primoErrore == null) {
+                    primoErrore = errore;
+                }
+            }
+        }
+        if (result.isEmpty() && primoErrore != null) {
+            throw primoErrore;
+        }
+
+        if (tempiPerEnte != null) {
+            for (Ente ente : result.keySet()) {
+                tempiPerEnte.put(ente.getNome(), tempi.get(ente));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Esegue la query PROTOCOLLI_SOSPESI per un singolo ente su una connessione dedicata
+     */
+    private List<ProtocolliSospesi> getProtocolliSospesiEnte(Ente ente, ContestoQuery contesto) throws Exception {
+        Connection conn = null;
+        try {
+            conn = getConnection();
+            return getProtocolliSospesiEnte(conn, ente, null, contesto);
+        } finally {
+            closeResources(null, null, conn);
+        }
+    }
+
+    /**
+     * Esegue la query PROTOCOLLI_SOSPESI per un singolo ente sulla connessione indicata,
+     * limitata ai protocolli inseriti da watermark in poi se non e' null
+     */
+    private List<ProtocolliSospesi> getProtocolliSospesiEnte(Connection conn, Ente ente, LocalDateTime watermark,
+                                                             ContestoQuery contesto) throws Exception {
+        List<ProtocolliSospesi> result = new ArrayList<>();
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        long inizio = System.nanoTime();
+        boolean riuscita = false;
+
+        try {
+            String query = queryProtocolli.getQueryDettaglio(ente);
+            List<Object> parametri = queryProtocolli.getParametri(ente);
+            if (watermark != null) {
+                // Il cast a DATE tronca i decimali di secondo: con >= il watermark resta incluso
+                query += " AND pt.data_inserimento >= CAST(? AS DATE)";
+                parametri.add(Timestamp.valueOf(watermark));
+            }
+            stmt = prepareStatement(conn, query + " ORDER BY 2", parametri, fetchSize, contesto);
+            rs = stmt.executeQuery();
+
+            while (rs.next()) {
+                result.add(mapProtocolloSospeso(rs));
+            }
+
+            logger.debug("Query PROTOCOLLI_SOSPESI {}: {} record trovati", ente.getSchema(), result.size());
+            riuscita = true;
+        } finally {
+            rilasciaEChiudi(rs, stmt, contesto);
+            registraQuery(ente, watermark != null ? "delta" : "completa", inizio, result.size(), riuscita, contesto);
+        }
+
+        return result;
+    }
+
+    /**
+     * Legge solo gli identificativi dei protocolli temporanei sospesi di un ente:
+     * stesse condizioni della query PROTOCOLLI_SOSPESI ma senza sottoquery e join di dettaglio
+     */
+    private Set<Long> getIdProtocolliSospesi(Connection conn, Ente ente, ContestoQuery contesto) throws Exception {
+        Set<Long> result = new HashSet<>();
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        long inizio = System.nanoTime();
+        boolean riuscita = false;
+
+        try {
+            stmt = prepareStatement(conn, queryProtocolli.getQueryId(ente), queryProtocolli.getParametri(ente), fetchSize, contesto);
+            rs = stmt.executeQuery();
+            while (rs.next()) {
+                result.add(rs.getLong(1));
+            }
+            riuscita = true;
+        } finally {
+            rilasciaEChiudi(rs, stmt, contesto);
+            registraQuery(ente, "id", inizio, result.size(), riuscita, contesto);
+        }
+
+        return result;
+    }
+
+    /**
+     * Esegue la query PROTOCOLLI_SOSPESI in streaming: ogni riga viene passata al consumer
+     * appena letta dal ResultSet, senza mai costruire la lista completa.
+     * Gli schemi vengono letti uno dopo l'altro in ordine di ente, quindi l'ordine
+     * delle righe e' lo stesso della UNION (ente, sequ_long_id).
+     * Le query rispettano la scadenza del contesto della richiesta; se la scrittura verso il client
+     * fallisce il contesto viene annullato e la connessione torna subito al pool
+     *
+     * @param filtro condizioni della lista paginata (enti, date, stato, esito, errore; pageSize e after
+     *               non sono considerati), null per tutti i protocolli sospesi
+     * @return numero di righe inviate al consumer
+     */
+    public int streamProtocolliSospesi(FiltroProtocolli filtro, RigaConsumer<ProtocolliSospesi> consumer,
+                                       ContestoQuery contesto) throws Exception {
+        Connection conn = null;
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        int righe = 0;
+
+        try {
+            List<Ente> enti = entiFiltro(filtro);
+            aooUfficioService.assicuraCaricati(enti);
+            conn = getConnection();
+            logger.info("Esecuzione query PROTOCOLLI_SOSPESI in streaming su {} (fetch size {})", enti, fetchSize);
+
+            for (Ente ente : enti) {
+                long inizio = System.nanoTime();
+                int righeEnte = 0;
+                boolean riuscita = false;
+                try {
+                    List<Object> parametri = queryProtocolli.getParametri(ente);
+                    StringBuilder query = new StringBuilder(queryProtocolli.getQueryDettaglio(ente));
+                    if (filtro != null) {
+                        applicaFiltro(query, parametri, filtro);
+                    }
+                    stmt = prepareStatement(conn, query + " ORDER BY 2", parametri, fetchSize, contesto);
+                    rs = stmt.executeQuery();
+
+                    while (rs.next()) {
+                        inviaRiga(consumer, mapProtocolloSospeso(rs), contesto);
+                        righeEnte++;
+                    }
+                    riuscita = true;
+                } finally {
+                    righe += righeEnte;
+                    rilasciaEChiudi(rs, stmt, contesto);
+                    rs = null;
+                    stmt = null;
+                    registraQuery(ente, "stream", inizio, righeEnte, riuscita, contesto);
+                }
+            }
+
+            logger.info("Query in streaming eseguita: {} record inviati", righe);
+            return righe;
+
+        } catch (Exception e) {
+            logger.error("Errore nell'esecuzione della query PROTOCOLLI_SOSPESI in streaming: {}", e.getMessage(), e);
+            throw new Exception("Errore nell'esecuzione della query: " + e.getMessage(), e);
+        } finally {
+            closeResources(rs, stmt, conn);
+        }
+    }
+
+    /**
+     * Passa una riga al consumer di una query in streaming. Oltre la scadenza del contesto la lettura
+     * si interrompe; se la scrittura verso il client fallisce il contesto viene annullato
+     * (con contesto null la riga passa e basta)
+     */
+    private <T> void inviaRiga(RigaConsumer<T> consumer, T riga, ContestoQuery contesto) throws Exception {
+        if (contesto == null) {
+            consumer.accept(riga);
+            return;
+        }
+        if (contesto.isScaduto()) {
+            throw new SQLTimeoutException("Scadenza della richiesta superata durante lo streaming");
+        }
+        try {
+            consumer.accept(riga);
+        } catch (IOException e) {
+            contesto.annulla(ContestoQuery.CLIENT);
+            throw e;
+        }
+    }
+
+    /**
+     * Esegue una pagina della query PROTOCOLLI_SOSPESI con filtri applicati in SQL e
+     * paginazione keyset su (ente, sequ_long_id, sequ_long_id del documento).
+     * Gli schemi degli enti esclusi dal filtro non vengono interrogati; ogni query
+     * e' limitata con ROWNUM alle righe che mancano per completare la pagina.
+     *
+     * La query di ogni ente gira sul suo bulkhead: un ente saturo o in ritardo viene saltato,
+     * registrato in nonDisponibili con il motivo, e la pagina prosegue con gli enti successivi.
+     * Nessun thread resta in attesa mentre le query sono in corso; le query rispettano la scadenza
+     * del contesto della richiesta e sono annullate sul database se il contesto viene annullato.
+     *
+     * @return fino a pageSize + 1 righe: la riga in piu' indica che esiste una pagina successiva
+     */
+    public CompletableFuture<List<ProtocolliSospesi>> getProtocolliSospesiPagina(FiltroProtocolli filtro, int pageSize,
+                                                                                Map<String, String> nonDisponibili,
+                                                                                ContestoQuery contesto) throws Exception {
+        String[] cursore = filtro.getAfter() != null && !filtro.getAfter().isEmpty()
+                ? filtro.getAfter().split(":") : null;
+        // Validato tutto qui: un errore dentro la query dell'ente lo farebbe saltare come ente non disponibile
+        if (cursore != null && (cursore.length != 3 || Ente.fromNome(cursore[0]) == null
+                || !numeroLong(cursore[1]) || !numeroLong(cursore[2]))) {
+            throw new IllegalArgumentException("Cursore non valido: " + filtro.getAfter());
+        }
+
+        List<Ente> enti = entiFiltro(filtro);
+        if (cursore != null) {
+            enti.removeIf(ente -> ente.getNome().compareTo(Ente.fromNome(cursore[0]).getNome()) < 0);
+        }
+
+        logger.info("Esecuzione query PROTOCOLLI_SOSPESI paginata su {} con {}", enti, filtro);
+        aooUfficioService.assicuraCaricati(enti);
+
+        List<ProtocolliSospesi> result = new ArrayList<>();
+        Map<Ente, Throwable> errori = new ConcurrentHashMap<>();
+        return paginaDaEnte(enti, 0, filtro, cursore, pageSize + 1, result, errori, contesto)
+                .thenApply(v -> {
+                    errori.forEach((ente, causa) -> nonDisponibili.put(ente.getNome(), causa.getMessage()));
+                    if (result.isEmpty() && !enti.isEmpty() && errori.size() == enti.size()) {
+                        throw new CompletionException(new Exception("Errore nell'esecuzione della query: nessuno schema disponibile "
+                                + nonDisponibili, errori.get(enti.get(0))));
+                    }
+                    logger.info("Query paginata eseguita: {} record trovati", result.size());
+                    return result;
+                });
+    }
+
+    private static boolean numeroLong(String valore) {
+        try {
+            Long.parseLong(valore);
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Aggiunge alla pagina le righe dell'ente di posizione indice, poi prosegue con il successivo
+     * finche' la pagina non e' completa; gli enti falliti finiscono in errori
+     */
+    private CompletableFuture<Void> paginaDaEnte(List<Ente> enti, int indice, FiltroProtocolli filtro, String[] cursore,
+                                                 int righe, List<ProtocolliSospesi> result, Map<Ente, Throwable> errori,
+                                                 ContestoQuery richiesta) {
+        int mancanti = righe - result.size();
+        if (indice >= enti.size() || mancanti <= 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+        Ente ente = enti.get(indice);
+        boolean enteCursore = cursore != null && ente == Ente.fromNome(cursore[0]);
+
+        return bulkhead.esegui(ente, contesto -> {
+            Connection conn = null;
+            try {
+                conn = getConnection();
+                return getPaginaEnte(conn, ente, filtro, enteCursore ? cursore : null, mancanti, contesto);
+            } finally {
+                closeResources(null, null, conn);
+            }
+        }, richiesta).handle((righeEnte, errore) -> {
+            if (errore != null) {
+                Throwable causa = errore instanceof CompletionException && errore.getCause() != null ? errore.getCause() : errore;
+                logger.warn("Ente {} saltato nella pagina: {}", ente.getNome(), causa.getMessage());
+                errori.put(ente, causa);
+            } else {
+                result.addAll(righeEnte);
+            }
+            return null;
+        }).thenCompose(v -> paginaDaEnte(enti, indice + 1, filtro, cursore, righe, result, errori, richiesta));
+    }
+
+    private List<ProtocolliSospesi> getPaginaEnte(Connection conn, Ente ente, FiltroProtocolli filtro,
+                                                  String[] cursore, int limite, ContestoQuery contesto) throws Exception {
+        List<ProtocolliSospesi> result = new ArrayList<>();
+        List<Object> parametri = queryProtocolli.getParametri(ente);
+        StringBuilder query = new StringBuilder(queryProtocolli.getQueryDettaglio(ente));
+        applicaFiltro(query, parametri, filtro);
+
+        if (cursore != null) {
+            long id = Long.parseLong(cursore[1]);
+            query.append(" AND (pt.sequ_long_id > ? OR (pt.sequ_long_id = ? AND NVL(doc.sequ_long_id,0) > ?))");
+            parametri.add(id);
+            parametri.add(id);
+            parametri.add(Long.parseLong(cursore[2]));
         }
 
+        String paginata = "SELECT * FROM (" + query + " ORDER BY pt.sequ_long_id, NVL(doc.sequ_long_id,0)) WHERE ROWNUM <= ?";
+        parametri.add(limite);
+
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        long inizio = System.nanoTime();
+        boolean riuscita = false;
+        try {
+            stmt = prepareStatement(conn, paginata, parametri, Math.min(limite, fetchSize), contesto);
+            rs = stmt.executeQuery();
+            while (rs.next()) {
+                result.add(mapProtocolloSospeso(rs));
+            }
+            riuscita = true;
+        } finally {
+            rilasciaEChiudi(rs, stmt, contesto);
+            registraQuery(ente, "pagina", inizio, result.size(), riuscita, contesto);
+        }
         return result;
     }
 
+    /**
+     * Aggiunge alla query di dettaglio di un ente le condizioni del filtro (date, stato, esito, errore)
+     */
+    private static void applicaFiltro(StringBuilder query, List<Object> parametri, FiltroProtocolli filtro) {
+        if (filtro.getDal() != null) {
+            query.append(" AND pt.data_inserimento >= CAST(? AS DATE)");
+            parametri.add(Timestamp.valueOf(filtro.getDal().atStartOfDay()));
+        }
+        if (filtro.getAl() != null) {
+            query.append(" AND pt.data_inserimento < CAST(? AS DATE)");
+            parametri.add(Timestamp.valueOf(filtro.getAl().plusDays(1).atStartOfDay()));
+        }
+        if (filtro.getStatoDocumento() != null) {
+            query.append(" AND doc.stato_documento = ?");
+            parametri.add(filtro.getStatoDocumento());
+        }
+        if (filtro.getEsitoDocumento() != null) {
+            query.append(" AND doc.esito_documento = ?");
+            parametri.add(filtro.getEsitoDocumento());
+        }
+        if (filtro.getConErrore() != null) {
+            query.append(filtro.getConErrore() ? " AND a2d.errore IS NOT NULL" : " AND a2d.errore IS NULL");
+        }
+    }
+
+    /**
+     * Enti del filtro (tutti gli enti interrogati se il filtro non ne indica)
+     */
+    private List<Ente> entiFiltro(FiltroProtocolli filtro) {
+        List<Ente> enti = new ArrayList<>();
+        for (Ente ente : queryProtocolli.getEnti()) {
+            if (filtro == null || filtro.getEnte() == null || filtro.getEnte().isEmpty()
+                    || filtro.getEnte().stream().anyMatch(e -> e.equalsIgnoreCase(ente.getNome()))) {
+                enti.add(ente);
+            }
+        }
+        return enti;
+    }
+
+    /**
+     * Riceve le righe di una query eseguita in streaming
+     */
+    public interface RigaConsumer<T> {
+        void accept(T riga) throws Exception;
+    }
+
+    /**
+     * Converte la riga corrente del ResultSet in un ProtocolliSospesi,
+     * risolvendo AOO/ufficio dal dizionario in memoria (package-private per i benchmark JMH)
+     */
+    ProtocolliSospesi mapProtocolloSospeso(ResultSet rs) throws SQLException {
+        ProtocolliSospesi ps = new ProtocolliSospesi();
+        ps.setEnte(rs.getString("ENTE"));
+        ps.setSequLongId(rs.getLong("SEQU_LONG_ID"));
+        ps.setCountRecuperiEjb(rs.getInt("COUNT_RECUPERI_EJB"));
+        ps.setPresaVisione(rs.getInt("PRESA_VISIONE"));
+        ps.setIdTransizionePresente(rs.getInt("IDTRANSIZIONEPRESENTE"));
+        ps.setAooUfficio(aooUfficioService.risolvi(Ente.fromNome(ps.getEnte()), rs.getString("CODICE_UFFICIO")));
+        ps.setUtenteCreatore(rs.getString("UTENTE_CREATORE"));
+
+        Timestamp ts = rs.getTimestamp("DATA_INSERIMENTO");
+        if (ts != null) {
+            ps.setDataInserimento(ts.toLocalDateTime());
+        }
+
+        ps.setStatoDocumento(rs.getInt("STATO_DOCUMENTO"));
+        ps.setEsitoDocumento(rs.getInt("ESITO_DOCUMENTO"));
+        ps.setIdAtmos(rs.getString("ID_ATMOS"));
+        ps.setErrore(rs.getString("ERRORE"));
+        ps.setNomeDocumento(rs.getString("NOME_DOCUMENTO"));
+        ps.setSeqDocumento(rs.getLong("SEQU_LONG_ID_DOC"));
+        return ps;
+    }
+
     /**
      * Esegue la query SCHED_ARCIPELAGO_TASK per prossimi run
      */
     public List<Map<String, Object>> getScheduledTasks() throws Exception {
         List<Map<String, Object>> result = new ArrayList<>();
+        streamScheduledTasks(result::add);
+        return result;
+    }
+
+    /**
+     * Esegue la query SCHED_ARCIPELAGO_TASK passando ogni riga al consumer appena letta
+     *
+     * @return numero di righe inviate al consumer
+     */
+    public int streamScheduledTasks(RigaConsumer<Map<String, Object>> consumer) throws Exception {
+        return streamScheduledTasks(consumer, null);
+    }
+
+    /**
+     * Come streamScheduledTasks(consumer), con la scadenza e l'annullamento del contesto della richiesta
+     *
+     * @param contesto null per nessuna scadenza (es. caricamento dello snapshot)
+     */
+    public int streamScheduledTasks(RigaConsumer<Map<String, Object>> consumer, ContestoQuery contesto) throws Exception {
         Connection conn = null;
         Statement stmt = null;
         ResultSet rs = null;
+        int righe = 0;
 
         try {
             conn = getConnection();
             stmt = conn.createStatement();
+            stmt.setFetchSize(fetchSize);
+            if (contesto != null) {
+                contesto.registra(stmt);
+            }
 
             String query = "SELECT aa.name, TO_DATE('01-01-1970', 'DD-MM-YYYY') + (aa.nextfiretime+3600000)/(1000*60*60*24) PROSSIMO_RUN " +
                            "FROM ejbsched_entr.sched_arcipelago_task aa " +
@@ -146,19 +823,22 @@ public class OracleService {
                     row.put("prossimoRun", null);
                 }
                 
-                result.add(row);
+                inviaRiga(consumer, row, contesto);
+                righe++;
             }
 
-            logger.info("Query eseguita: {} record trovati", result.size());
+            logger.info("Query eseguita: {} record trovati", righe);
+            return righe;
 
         } catch (Exception e) {
             logger.error("Errore nell'esecuzione della query sched_arcipelago_task: {}", e.getMessage(), e);
             throw new Exception("Errore nell'esecuzione della query: " + e.getMessage(), e);
         } finally {
+            if (contesto != null) {
+                contesto.rilascia(stmt);
+            }
             closeResources(rs, stmt, conn);
         }
-
-        return result;
     }
 
     /**
@@ -168,16 +848,23 @@ public class OracleService {
         Connection conn = null;
         Statement stmt = null;
         Map<String, Object> result = new HashMap<>();
+        TransazioneInSospeso tx = transactionService.riprendi();
+        Savepoint savepoint = null;
 
         try {
-            conn = getConnection();
+            if (tx != null) {
+                conn = tx.getConnection();
+                savepoint = conn.setSavepoint();
+            } else {
+                transactionService.verificaPosto();
+                conn = getConnection();
+                // Disabilita autocommit
+                conn.setAutoCommit(false);
+            }
             stmt = conn.createStatement();
 
             logger.info("Inizio cancellazione dati di scheduling");
 
-            // Disabilita autocommit
-            conn.setAutoCommit(false);
-
             int rows1 = stmt.executeUpdate("DELETE FROM ejbsched_entr.sched_arcipelago_lmgr");
             int rows2 = stmt.executeUpdate("DELETE FROM ejbsched_entr.sched_arcipelago_lmpr");
             int rows3 = stmt.executeUpdate("DELETE FROM ejbsched_entr.sched_arcipelago_task");
@@ -188,23 +875,19 @@ public class OracleService {
             logger.info("Cancellazione dati di scheduling completata - {} record interessati", total);
 
             // SALVA LA CONNESSIONE PER COMMIT/ROLLBACK
-            TransactionService.saveConnection(conn);
+            tx = transactionService.registra(tx, conn, "Cancellazione dati di scheduling (" + total + " record)",
+                    SnapshotService.SCHEDULED_TASKS, TABELLE_SCHEDULING);
+            metriche.registraCancellazione("scheduling", MetricheService.TUTTI_GLI_ENTI, total);
 
             result.put("success", true);
             result.put("message", "Cancellazione dati scheduling in sospeso - In attesa di Commit/Rollback");
             result.put("recordsAffected", total);
             result.put("queries", 4);
+            result.put("transactionId", tx.getId());
+            result.put("leaseExpiresMs", tx.getScadenza());
 
         } catch (Exception e) {
-            if (conn != null) {
-                try {
-                    conn.rollback();
-                    conn.setAutoCommit(true);
-                    conn.close();
-                } catch (Exception ex) {
-                    logger.error("Errore nel rollback: {}", ex.getMessage());
-                }
-            }
+            annullaOperazione(tx, conn, savepoint);
             logger.error("Errore nella cancellazione dei dati di scheduling: {}", e.getMessage(), e);
             result.put("success", false);
             result.put("message", "Errore: " + e.getMessage());
@@ -223,20 +906,21 @@ public class OracleService {
         Statement stmt = null;
 
         try {
-            com.salvavita.model.Ente ente = com.salvavita.model.Ente.fromNome(nomeEnte);
+            Ente ente = Ente.fromNome(nomeEnte);
             if (ente == null) {
                 throw new Exception("Ente non riconosciuto: " + nomeEnte);
             }
 
+            // Tutte le tabelle sono qualificate con lo schema: nessun ALTER SESSION, che resterebbe
+            // sulla sessione Oracle anche dopo la restituzione della connessione al pool
             String schema = ente.getSchema();
             conn = getConnection();
+            // Le cinque DELETE sono confermate o annullate insieme
+            conn.setAutoCommit(false);
             stmt = conn.createStatement();
 
             logger.info("Inizio cancellazione protocolli in transizione per ente: {}", nomeEnte);
 
-            // Impostare lo schema corrente
-            stmt.executeUpdate("ALTER SESSION SET CURRENT_SCHEMA=" + schema);
-
             // Query di selezione per identificare i record da eliminare
             String selectQuery = "SELECT pt.sequ_long_id FROM " + schema + ".p2_proto_temporaneo pt " +
                     "WHERE pt.flag_tipo_protocollo=3 AND pt.presa_visione NOT IN (1) " +
@@ -246,31 +930,34 @@ public class OracleService {
                     "WHERE p.id_transizione=to_char(pt.sequ_long_id))>0";
 
             // Delete statements
-            stmt.executeUpdate("DELETE FROM " + schema + ".p2_protocollo_collegati pc " +
+            int righe = 0;
+            righe += stmt.executeUpdate("DELETE FROM " + schema + ".p2_protocollo_collegati pc " +
                     "WHERE pc.fk_protocollo IN (SELECT sequ_long_id FROM " + schema + ".p2_protocollo p2 " +
                     "WHERE TO_NUMBER(p2.id_transizione) IN (" + selectQuery + ") " +
                     "AND p2.numero_protocollo IS NULL AND p2.data_ins>SYSDATE-10)");
 
-            stmt.executeUpdate("DELETE FROM " + schema + ".p2_protocollo_documenti " +
+            righe += stmt.executeUpdate("DELETE FROM " + schema + ".p2_protocollo_documenti " +
                     "WHERE fk_protocollo IN (SELECT sequ_long_id FROM " + schema + ".p2_protocollo p2 " +
                     "WHERE TO_NUMBER(p2.id_transizione) IN (" + selectQuery + ") " +
                     "AND p2.numero_protocollo IS NULL AND p2.data_ins>SYSDATE-10)");
 
-            stmt.executeUpdate("DELETE FROM " + schema + ".p2_protocollo_mitt_dest " +
+            righe += stmt.executeUpdate("DELETE FROM " + schema + ".p2_protocollo_mitt_dest " +
                     "WHERE fk_protocollo IN (SELECT sequ_long_id FROM " + schema + ".p2_protocollo p2 " +
                     "WHERE TO_NUMBER(p2.id_transizione) IN (" + selectQuery + ") " +
                     "AND p2.numero_protocollo IS NULL AND p2.data_ins>SYSDATE-10)");
 
-            stmt.executeUpdate("DELETE FROM " + schema + ".p2_chiusura_attivita_risposta " +
+            righe += stmt.executeUpdate("DELETE FROM " + schema + ".p2_chiusura_attivita_risposta " +
                     "WHERE fk_p2_proto IN (SELECT sequ_long_id FROM " + schema + ".p2_protocollo p2 " +
                     "WHERE TO_NUMBER(p2.id_transizione) IN (" + selectQuery + ") " +
                     "AND p2.numero_protocollo IS NULL AND p2.data_ins>SYSDATE-10)");
 
-            stmt.executeUpdate("DELETE FROM " + schema + ".p2_protocollo p2 " +
+            righe += stmt.executeUpdate("DELETE FROM " + schema + ".p2_protocollo p2 " +
                     "WHERE TO_NUMBER(p2.id_transizione) IN (" + selectQuery + ") " +
                     "AND p2.numero_protocollo IS NULL AND p2.data_ins>SYSDATE-10");
 
             conn.commit();
+            metriche.registraCancellazione("in-transizione", ente.getNome(), righe);
+            eventPublisher.publishEvent(new DatiModificatiEvent(SnapshotService.PROTOCOLLI_SOSPESI));
 
             logger.info("Cancellazione protocolli in transizione per ente {} completata", nomeEnte);
 
@@ -285,120 +972,70 @@ public class OracleService {
             logger.error("Errore nella cancellazione dei protocolli: {}", e.getMessage(), e);
             throw new Exception("Errore nella cancellazione: " + e.getMessage(), e);
         } finally {
+            if (conn != null) {
+                try {
+                    conn.setAutoCommit(true);
+                } catch (Exception ex) {
+                    logger.error("Errore nel ripristino dell'autocommit: {}", ex.getMessage());
+                }
+            }
             closeResources(null, stmt, conn);
         }
     }
 
     /**
-     * Costruisce la query PROTOCOLLI_SOSPESI con UNION di tutti gli schemi
-     * NOTA: Compatibile con Java 8 (senza triple virgolette)
-     */
-    private String buildQueryProtocolliSospesi() {
-        return "SELECT 'SOGEI' ENTE, pt.sequ_long_id, pt.count_recuperi_ejb, pt.presa_visione, " +
-               "(SELECT count(*) FROM sogei_asp.p2_protocollo p WHERE p.id_transizione=to_char(pt.sequ_long_id)) IDTRANSIZIONEPRESENTE, " +
-               "(SELECT dao.sequ_long_id||'-'||dao.codi_codice||'-'||dao.desc_nome||'-----'||duf.codi_ufficio||'-'||duf.desc_descrizione " +
-               "FROM sogei_asp.d_aree_organizzative dao, sogei_asp.d_uffici duf " +
-               "WHERE dao.sequ_long_id=duf.fk_aoo AND duf.codi_ufficio=pt.codice_ufficio) AOO_UFFICIO, " +
-               "pt.utente_creatore, pt.data_inserimento, doc.stato_documento, doc.esito_documento, " +
-               "doc.id_atmos, doc.esito_documento, a2d.errore, doc.nome_documento, doc.sequ_long_id SEQU_LONG_ID_DOC " +
-               "FROM sogei_asp.p2_proto_temporaneo pt, sogei_asp.p2_proto_tmp_documenti doc, sogei_asp.p2_callback_a2d a2d " +
-               "WHERE pt.sequ_long_id=doc.fk_protocollo_temporaneo AND a2d.id_richiesta(+)=doc.id_richiesta_a2d " +
-               "AND pt.flag_tipo_protocollo=3 AND pt.presa_visione NOT IN (1) " +
-               "AND (SELECT count(*) FROM sogei_asp.p2_proto_tmp_documenti doc2 " +
-               "WHERE doc2.fk_protocollo_temporaneo=pt.sequ_long_id AND doc2.esito_documento=2) = 0 " +
-               "AND NOT EXISTS (SELECT 1 FROM sogei_asp.p2_protocollo p WHERE p.id_transizione=to_char(pt.sequ_long_id) AND p.numero_protocollo IS NOT NULL) " +
-               "AND pt.data_inserimento > TO_DATE('06/05/2025 00:00:00', 'dd/mm/yyyy hh24:mi:ss') " +
-               "UNION " +
-               "SELECT 'CONSIP' ENTE, pt.sequ_long_id, pt.count_recuperi_ejb, pt.presa_visione, " +
-               "(SELECT count(*) FROM consip_asp.p2_protocollo p WHERE p.id_transizione=to_char(pt.sequ_long_id)) IDTRANSIZIONEPRESENTE, " +
-               "(SELECT dao.sequ_long_id||'-'||dao.codi_codice||'-'||dao.desc_nome||'-----'||duf.codi_ufficio||'-'||duf.desc_descrizione " +
-               "FROM consip_asp.d_aree_organizzative dao, consip_asp.d_uffici duf " +
-               "WHERE dao.sequ_long_id=duf.fk_aoo AND duf.codi_ufficio=pt.codice_ufficio) AOO_UFFICIO, " +
-               "pt.utente_creatore, pt.data_inserimento, doc.stato_documento, doc.esito_documento, " +
-               "doc.id_atmos, doc.esito_documento, a2d.errore, doc.nome_documento, doc.sequ_long_id SEQU_LONG_ID_DOC " +
-               "FROM consip_asp.p2_proto_temporaneo pt, consip_asp.p2_proto_tmp_documenti doc, consip_asp.p2_callback_a2d a2d " +
-               "WHERE pt.sequ_long_id=doc.fk_protocollo_temporaneo AND a2d.id_richiesta(+)=doc.id_richiesta_a2d " +
-               "AND pt.flag_tipo_protocollo=3 AND pt.presa_visione NOT IN (1) " +
-               "AND (SELECT count(*) FROM consip_asp.p2_proto_tmp_documenti doc2 " +
-               "WHERE doc2.fk_protocollo_temporaneo=pt.sequ_long_id AND doc2.esito_documento=2) = 0 " +
-               "AND NOT EXISTS (SELECT 1 FROM consip_asp.p2_protocollo p WHERE p.id_transizione=to_char(pt.sequ_long_id) AND p.numero_protocollo IS NOT NULL) " +
-               "AND pt.data_inserimento > TO_DATE('20/04/2025 00:00:00', 'dd/mm/yyyy hh24:mi:ss') " +
-               "UNION " +
-               "SELECT 'DEMANIO' ENTE, pt.sequ_long_id, pt.count_recuperi_ejb, pt.presa_visione, " +
-               "(SELECT count(*) FROM dem_asp.p2_protocollo p WHERE p.id_transizione=to_char(pt.sequ_long_id)) IDTRANSIZIONEPRESENTE, " +
-               "(SELECT dao.sequ_long_id||'-'||dao.codi_codice||'-'||dao.desc_nome||'-----'||duf.codi_ufficio||'-'||duf.desc_descrizione " +
-               "FROM dem_asp.d_aree_organizzative dao, dem_asp.d_uffici duf " +
-               "WHERE dao.sequ_long_id=duf.fk_aoo AND duf.codi_ufficio=pt.codice_ufficio) AOO_UFFICIO, " +
-               "pt.utente_creatore, pt.data_inserimento, doc.stato_documento, doc.esito_documento, " +
-               "doc.id_atmos, doc.esito_documento, a2d.errore, doc.nome_documento, doc.sequ_long_id SEQU_LONG_ID_DOC " +
-               "FROM dem_asp.p2_proto_temporaneo pt, dem_asp.p2_proto_tmp_documenti doc, dem_asp.p2_callback_a2d a2d " +
-               "WHERE pt.sequ_long_id=doc.fk_protocollo_temporaneo AND a2d.id_richiesta(+)=doc.id_richiesta_a2d " +
-               "AND pt.flag_tipo_protocollo=3 AND pt.presa_visione NOT IN (1) " +
-               "AND (SELECT count(*) FROM dem_asp.p2_proto_tmp_documenti doc2 " +
-               "WHERE doc2.fk_protocollo_temporaneo=pt.sequ_long_id AND doc2.esito_documento=2) = 0 " +
-               "AND NOT EXISTS (SELECT 1 FROM dem_asp.p2_protocollo p WHERE p.id_transizione=to_char(pt.sequ_long_id) AND p.numero_protocollo IS NOT NULL) " +
-               "AND pt.data_inserimento > TO_DATE('10/07/2025 00:00:00', 'dd/mm/yyyy hh24:mi:ss') " +
-               "UNION " +
-               "SELECT 'ACN' ENTE, pt.sequ_long_id, pt.count_recuperi_ejb, pt.presa_visione, " +
-               "(SELECT count(*) FROM acn_asp.p2_protocollo p WHERE p.id_transizione=to_char(pt.sequ_long_id)) IDTRANSIZIONEPRESENTE, " +
-               "(SELECT dao.sequ_long_id||'-'||dao.codi_codice||'-'||dao.desc_nome||'-----'||duf.codi_ufficio||'-'||duf.desc_descrizione " +
-               "FROM acn_asp.d_aree_organizzative dao, acn_asp.d_uffici duf " +
-               "WHERE dao.sequ_long_id=duf.fk_aoo AND duf.codi_ufficio=pt.codice_ufficio) AOO_UFFICIO, " +
-               "pt.utente_creatore, pt.data_inserimento, doc.stato_documento, doc.esito_documento, " +
-               "doc.id_atmos, doc.esito_documento, a2d.errore, doc.nome_documento, doc.sequ_long_id SEQU_LONG_ID_DOC " +
-               "FROM acn_asp.p2_proto_temporaneo pt, acn_asp.p2_proto_tmp_documenti doc, acn_asp.p2_callback_a2d a2d " +
-               "WHERE pt.sequ_long_id=doc.fk_protocollo_temporaneo(+) AND a2d.id_richiesta(+)=doc.id_richiesta_a2d " +
-               "AND pt.flag_tipo_protocollo=3 AND pt.presa_visione NOT IN (1) " +
-               "AND (SELECT count(*) FROM acn_asp.p2_proto_tmp_documenti doc2 " +
-               "WHERE doc2.fk_protocollo_temporaneo=pt.sequ_long_id AND doc2.esito_documento=2) = 0 " +
-               "AND NOT EXISTS (SELECT 1 FROM acn_asp.p2_protocollo p WHERE p.id_transizione=to_char(pt.sequ_long_id) AND p.numero_protocollo IS NOT NULL) " +
-               "AND pt.data_inserimento > TO_DATE('20/04/2025 00:00:00', 'dd/mm/yyyy hh24:mi:ss') " +
-               "UNION " +
-               "SELECT 'EQUI' ENTE, pt.sequ_long_id, pt.count_recuperi_ejb, pt.presa_visione, " +
-               "(SELECT count(*) FROM equi_asp.p2_protocollo p WHERE p.id_transizione=to_char(pt.sequ_long_id)) IDTRANSIZIONEPRESENTE, " +
-               "(SELECT dao.sequ_long_id||'-'||dao.codi_codice||'-'||dao.desc_nome||'-----'||duf.codi_ufficio||'-'||duf.desc_descrizione " +
-               "FROM equi_asp.d_aree_organizzative dao, equi_asp.d_uffici duf " +
-               "WHERE dao.sequ_long_id=duf.fk_aoo AND duf.codi_ufficio=pt.codice_ufficio) AOO_UFFICIO, " +
-               "pt.utente_creatore, pt.data_inserimento, doc.stato_documento, doc.esito_documento, " +
-               "doc.id_atmos, doc.esito_documento, a2d.errore, doc.nome_documento, doc.sequ_long_id SEQU_LONG_ID_DOC " +
-               "FROM equi_asp.p2_proto_temporaneo pt, equi_asp.p2_proto_tmp_documenti doc, equi_asp.p2_callback_a2d a2d " +
-               "WHERE pt.sequ_long_id=doc.fk_protocollo_temporaneo(+) AND a2d.id_richiesta(+)=doc.id_richiesta_a2d " +
-               "AND pt.flag_tipo_protocollo=3 AND pt.presa_visione NOT IN (1) " +
-               "AND (SELECT count(*) FROM equi_asp.p2_proto_tmp_documenti doc2 " +
-               "WHERE doc2.fk_protocollo_temporaneo=pt.sequ_long_id AND doc2.esito_documento=2) = 0 " +
-               "AND NOT EXISTS (SELECT 1 FROM equi_asp.p2_protocollo p WHERE p.id_transizione=to_char(pt.sequ_long_id) AND p.numero_protocollo IS NOT NULL) " +
-               "AND pt.data_inserimento > TO_DATE('25/06/2025 00:00:00', 'dd/mm/yyyy hh24:mi:ss') " +
-               "UNION " +
-               "SELECT 'AAMS' ENTE, pt.sequ_long_id, pt.count_recuperi_ejb, pt.presa_visione, " +
-               "(SELECT count(*) FROM aams_asp.p2_protocollo p WHERE p.id_transizione=to_char(pt.sequ_long_id)) IDTRANSIZIONEPRESENTE, " +
-               "(SELECT dao.sequ_long_id||'-'||dao.codi_codice||'-'||dao.desc_nome||'-----'||duf.codi_ufficio||'-'||duf.desc_descrizione " +
-               "FROM aams_asp.d_aree_organizzative dao, aams_asp.d_uffici duf " +
-               "WHERE dao.sequ_long_id=duf.fk_aoo AND duf.codi_ufficio=pt.codice_ufficio) AOO_UFFICIO, " +
-               "pt.utente_creatore, pt.data_inserimento, doc.stato_documento, doc.esito_documento, " +
-               "doc.id_atmos, doc.esito_documento, a2d.errore, doc.nome_documento, doc.sequ_long_id SEQU_LONG_ID_DOC " +
-               "FROM aams_asp.p2_proto_temporaneo pt, aams_asp.p2_proto_tmp_documenti doc, aams_asp.p2_callback_a2d a2d " +
-               "WHERE pt.sequ_long_id=doc.fk_protocollo_temporaneo(+) AND a2d.id_richiesta(+)=doc.id_richiesta_a2d " +
-               "AND pt.flag_tipo_protocollo=3 AND pt.presa_visione NOT IN (1) " +
-               "AND (SELECT count(*) FROM aams_asp.p2_proto_tmp_documenti doc2 " +
-               "WHERE doc2.fk_protocollo_temporaneo=pt.sequ_long_id AND doc2.esito_documento=2) = 0 " +
-               "AND NOT EXISTS (SELECT 1 FROM aams_asp.p2_protocollo p WHERE p.id_transizione=to_char(pt.sequ_long_id) AND p.numero_protocollo IS NOT NULL) " +
-               "AND pt.data_inserimento > TO_DATE('11/07/2025 00:00:00', 'dd/mm/yyyy hh24:mi:ss') " +
-               "UNION " +
-               "SELECT 'ENTRATE' ENTE, pt.sequ_long_id, NVL(pt.count_recuperi_ejb,0), pt.presa_visione, " +
-               "(SELECT count(*) FROM entr_asp.p2_protocollo p WHERE p.id_transizione=to_char(pt.sequ_long_id)) IDTRANSIZIONEPRESENTE, " +
-               "(SELECT dao.sequ_long_id||'-'||dao.codi_codice||'-'||dao.desc_nome||'-----'||duf.codi_ufficio||'-'||duf.desc_descrizione " +
-               "FROM entr_asp.d_aree_organizzative dao, entr_asp.d_uffici duf " +
-               "WHERE dao.sequ_long_id=duf.fk_aoo AND duf.codi_ufficio=pt.codice_ufficio) AOO_UFFICIO, " +
-               "pt.utente_creatore, pt.data_inserimento, doc.stato_documento, doc.esito_documento, " +
-               "doc.id_atmos, doc.esito_documento, a2d.errore, doc.nome_documento, doc.sequ_long_id SEQU_LONG_ID_DOC " +
-               "FROM entr_asp.p2_proto_temporaneo pt, entr_asp.p2_proto_tmp_documenti doc, entr_asp.p2_callback_a2d a2d " +
-               "WHERE pt.sequ_long_id=doc.fk_protocollo_temporaneo(+) AND a2d.id_richiesta(+)=doc.id_richiesta_a2d " +
-               "AND pt.flag_tipo_protocollo=3 AND pt.presa_visione NOT IN (1) " +
-               "AND (SELECT count(*) FROM entr_asp.p2_proto_tmp_documenti doc2 " +
-               "WHERE doc2.fk_protocollo_temporaneo=pt.sequ_long_id AND doc2.esito_documento=2) = 0 " +
-               "AND NOT EXISTS (SELECT 1 FROM entr_asp.p2_protocollo p WHERE p.id_transizione=to_char(pt.sequ_long_id) AND p.numero_protocollo IS NOT NULL) " +
-               "AND pt.data_inserimento > TO_DATE('27/02/2025 00:00:00', 'dd/mm/yyyy hh24:mi:ss') " +
-               "ORDER BY 1, 2";
+     * Prepara una query con bind variables; con lo stesso testo SQL il driver riusa
+     * lo statement dalla sua cache implicita (oracle.jdbc.implicitStatementCacheSize)
+     */
+    private PreparedStatement prepareStatement(Connection conn, String query, List<Object> parametri,
+                                               int righePerFetch) throws SQLException {
+        PreparedStatement stmt = conn.prepareStatement(query);
+        try {
+            stmt.setFetchSize(righePerFetch);
+            for (int i = 0; i < parametri.size(); i++) {
+                stmt.setObject(i + 1, parametri.get(i));
+            }
+            return stmt;
+        } catch (SQLException e) {
+            stmt.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Come prepareStatement, con il query timeout pari al tempo rimasto nel contesto
+     * e lo statement registrato per l'annullamento
+     */
+    private PreparedStatement prepareStatement(Connection conn, String query, List<Object> parametri,
+                                               int righePerFetch, ContestoQuery contesto) throws SQLException {
+        PreparedStatement stmt = prepareStatement(conn, query, parametri, righePerFetch);
+        try {
+            contesto.registra(stmt);
+            return stmt;
+        } catch (SQLException e) {
+            stmt.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Toglie lo statement dal contesto e chiude ResultSet e statement
+     */
+    private void rilasciaEChiudi(ResultSet rs, Statement stmt, ContestoQuery contesto) {
+        contesto.rilascia(stmt);
+        closeResources(rs, stmt, null);
+    }
+
+    /**
+     * Registra durata e righe della query e, se e' fallita perche' scaduta o annullata, l'annullamento
+     */
+    private void registraQuery(Ente ente, String query, long inizio, int righe, boolean riuscita, ContestoQuery contesto) {
+        metriche.registraQuery(ente, query, inizio, righe, riuscita);
+        String motivo = contesto.getMotivo();
+        if (!riuscita && motivo != null) {
+            logger.warn("Query {} su {} annullata ({})", query, ente.getSchema(), motivo);
+            metriche.registraQueryAnnullata(ente, query, motivo);
+        }
     }
 
     /**
@@ -418,116 +1055,170 @@ public class OracleService {
      * Elimina un protocollo temporaneo e i suoi dati correlati (SENZA AUTO-COMMIT)
      */
     public Map<String, Object> deleteProtoTemporaneo(String nomeEnte, long sequLongId) throws Exception {
-        Connection conn = null;
-        Statement stmt = null;
+        Map<String, Object> result = deleteProtiTemporanei(
+                Collections.singletonList(new ProtocolloTemporaneoRef(nomeEnte, sequLongId)));
+        if (Boolean.TRUE.equals(result.get("success"))) {
+            result.put("ente", nomeEnte);
+            result.put("sequLongId", sequLongId);
+        }
+        return result;
+    }
+
+    /**
+     * Elimina piu' protocolli temporanei e i loro dati correlati (SENZA AUTO-COMMIT).
+     * I protocolli sono raggruppati per schema; per ogni tabella figlia viene eseguito un solo
+     * DELETE in batch JDBC con tutti gli identificativi dello schema, quindi i round trip
+     * sono 7 per ente invece che 7 per protocollo.
+     * Le cancellazioni restano in sospeso nella transazione della sessione (Commit/Rollback);
+     * se la sessione ha gia' una transazione aperta vengono aggiunte a quella.
+     */
+    public Map<String, Object> deleteProtiTemporanei(List<ProtocolloTemporaneoRef> protocolli) throws Exception {
         Map<String, Object> result = new HashMap<>();
+        Connection conn = null;
+        TransazioneInSospeso tx = null;
+        Savepoint savepoint = null;
 
         try {
-            com.salvavita.model.Ente ente = com.salvavita.model.Ente.fromNome(nomeEnte);
-            if (ente == null) {
-                throw new Exception("Ente non riconosciuto: " + nomeEnte);
+            Map<Ente, Set<Long>> perEnte = new TreeMap<>(Comparator.comparing(Ente::getNome));
+            for (ProtocolloTemporaneoRef ref : protocolli) {
+                Ente ente = Ente.fromNome(ref.getEnte());
+                if (ente == null) {
+                    throw new Exception("Ente non riconosciuto: " + ref.getEnte());
+                }
+                if (ref.getSequLongId() == null) {
+                    throw new Exception("sequLongId mancante per l'ente " + ref.getEnte());
+                }
+                perEnte.computeIfAbsent(ente, k -> new LinkedHashSet<>()).add(ref.getSequLongId());
+            }
+            if (perEnte.isEmpty()) {
+                throw new Exception("Nessun protocollo da cancellare");
             }
 
-            String schema = ente.getSchema();
-            conn = getConnection();
-            stmt = conn.createStatement();
+            tx = transactionService.riprendi();
+            if (tx != null) {
+                conn = tx.getConnection();
+                savepoint = conn.setSavepoint();
+            } else {
+                transactionService.verificaPosto();
+                conn = getConnection();
+                conn.setAutoCommit(false);
+            }
 
-            logger.info("Inizio cancellazione protocollo temporaneo {} per ente: {}", sequLongId, nomeEnte);
+            logger.info("Inizio cancellazione di {} protocolli temporanei: {}", protocolli.size(), perEnte.keySet());
 
-            // Disabilita autocommit
-            conn.setAutoCommit(false);
+            Map<String, Integer> perTabella = new LinkedHashMap<>();
+            Map<String, Integer> recordPerEnte = new LinkedHashMap<>();
+            List<String> tabelleBloccate = new ArrayList<>();
+            int total = 0;
+            int queries = 0;
+
+            for (Map.Entry<Ente, Set<Long>> entry : perEnte.entrySet()) {
+                String schema = entry.getKey().getSchema();
+                int recordEnte = 0;
+
+                for (String[] tabella : TABELLE_PROTO_TEMPORANEO) {
+                    int righe = deleteBatch(conn, schema + "." + tabella[0], tabella[1], entry.getValue());
+                    if (righe > 0) {
+                        tabelleBloccate.add(schema + "." + tabella[0]);
+                    }
+                    perTabella.merge(tabella[0], righe, Integer::sum);
+                    recordEnte += righe;
+                    queries++;
+                }
 
-            // Impostare lo schema corrente
-            stmt.executeUpdate("ALTER SESSION SET CURRENT_SCHEMA=" + schema);
+                recordPerEnte.put(entry.getKey().getNome(), recordEnte);
+                total += recordEnte;
+            }
 
-            // Esegui i delete in ordine e conta i record
-            int total = 0;
-            
-            int rows1 = stmt.executeUpdate("DELETE FROM " + schema + ".p2_proto_tmp_classif_all a WHERE a.fk_protocollo_temporaneo IN (" + sequLongId + ")");
-            total += rows1;
-            
-            int rows2 = stmt.executeUpdate("DELETE FROM " + schema + ".p2_proto_tmp_classificazione a WHERE a.fk_protocollo_temporaneo IN (" + sequLongId + ")");
-            total += rows2;
-            
-            int rows3 = stmt.executeUpdate("DELETE FROM " + schema + ".p2_proto_tmp_collegati a WHERE a.fk_proto_tmp IN (" + sequLongId + ")");
-            total += rows3;
-            
-            int rows4 = stmt.executeUpdate("DELETE FROM " + schema + ".p2_proto_tmp_dettagli a WHERE a.fk_proto_tmp IN (" + sequLongId + ")");
-            total += rows4;
-            
-            int rows5 = stmt.executeUpdate("DELETE FROM " + schema + ".p2_proto_tmp_documenti a WHERE a.fk_protocollo_temporaneo IN (" + sequLongId + ")");
-            total += rows5;
-            
-            int rows6 = stmt.executeUpdate("DELETE FROM " + schema + ".p2_proto_tmp_mittdest a WHERE a.fk_proto_tmp IN (" + sequLongId + ")");
-            total += rows6;
-            
-            int rows7 = stmt.executeUpdate("DELETE FROM " + schema + ".p2_proto_temporaneo a WHERE a.sequ_long_id IN (" + sequLongId + ")");
-            total += rows7;
+            logger.info("Cancellazione di {} protocolli temporanei - {} record interessati ({})",
+                    protocolli.size(), total, perTabella);
 
-            logger.info("Cancellazione protocollo temporaneo {} - {} record interessati", sequLongId, total);
+            // SALVA LA CONNESSIONE PER COMMIT/ROLLBACK
+            int numeroProtocolli = perEnte.values().stream().mapToInt(Set::size).sum();
+            tx = transactionService.registra(tx, conn, "Cancellazione di " + numeroProtocolli
+                    + " protocolli temporanei " + recordPerEnte, SnapshotService.PROTOCOLLI_SOSPESI, tabelleBloccate);
+            for (Map.Entry<String, Integer> entry : recordPerEnte.entrySet()) {
+                metriche.registraCancellazione("proto-temporanei", entry.getKey(), entry.getValue());
+            }
 
             result.put("success", true);
             result.put("message", "Cancellazione in sospeso - In attesa di Commit/Rollback");
             result.put("recordsAffected", total);
-            result.put("queries", 7);
-            result.put("ente", nomeEnte);
-            result.put("sequLongId", sequLongId);
-
-            // NON fare commit, rimane in sospeso
-            conn.setAutoCommit(true);
+            result.put("queries", queries);
+            result.put("protocolli", numeroProtocolli);
+            result.put("recordsPerTable", perTabella);
+            result.put("recordsPerEnte", recordPerEnte);
+            result.put("transactionId", tx.getId());
+            result.put("leaseExpiresMs", tx.getScadenza());
 
         } catch (Exception e) {
-            if (conn != null) {
-                try {
-                    conn.rollback();
-                } catch (Exception ex) {
-                    logger.error("Errore nel rollback: {}", ex.getMessage());
-                }
-            }
-            logger.error("Errore nella cancellazione del protocollo temporaneo: {}", e.getMessage(), e);
+            annullaOperazione(tx, conn, savepoint);
+            logger.error("Errore nella cancellazione dei protocolli temporanei: {}", e.getMessage(), e);
             result.put("success", false);
             result.put("message", "Errore: " + e.getMessage());
-        } finally {
-            closeResources(null, stmt, conn);
         }
 
         return result;
     }
 
     /**
-     * Lancia le URL dei task in background
-     */
-    public void launchTaskUrls() {
-        String[] urls = {
-            "https://sd20.finanze.it/arcipelago20scheduler-sched/GestioneTaskSchedulati?op=START&taskName=CALLBACK_FLUSSI_EJB",
-            "https://sd20.finanze.it/arcipelago20scheduler-sched/GestioneTaskSchedulati?op=START&taskName=GESTIONE_DELEGHE_ENTRATE",
-            "https://sd20.finanze.it/arcipelago20scheduler-sched/GestioneTaskSchedulati?op=START&taskName=NOTIFICHE_WKF_AAMS",
-            "https://sd20.finanze.it/arcipelago20scheduler-sched/GestioneTaskSchedulati?op=START&taskName=NOTIFICHE_WKF_ENTRATE",
-            "https://sd20.finanze.it/arcipelago20scheduler-sched/GestioneTaskSchedulati?op=START&taskName=NOTIFICHE_WKF_SOGEI",
-            "https://sd20.finanze.it/arcipelago20scheduler-sched/GestioneTaskSchedulati?op=START&taskName=SOSPESI_ACN",
-            "https://sd20.finanze.it/arcipelago20scheduler-sched/GestioneTaskSchedulati?op=START&taskName=BUCHI_PROTOCOLLO_ACN"
-        };
-        
-        logger.info("Lancio {} URL di task in background", urls.length);
-        
-        // Esegui ogni URL in un thread separato (background)
-        for (String url : urls) {
-            new Thread(() -> {
-                try {
-                    logger.info("Richiamando URL in background: {}", url);
-                    java.net.URL urlObj = new java.net.URL(url);
-                    java.net.HttpURLConnection conn = (java.net.HttpURLConnection) urlObj.openConnection();
-                    conn.setRequestMethod("GET");
-                    conn.setConnectTimeout(5000);
-                    conn.setReadTimeout(5000);
-                    int responseCode = conn.getResponseCode();
-                    logger.info("Risposta da {}: {}", url, responseCode);
-                    conn.disconnect();
-                } catch (Exception e) {
-                    logger.error("Errore nel richiamare {}: {}", url, e.getMessage());
+     * Annulla un'operazione fallita: se era stata aggiunta a una transazione gia' aperta torna
+     * al savepoint e la transazione resta in sospeso, altrimenti rollback e chiusura della connessione
+     */
+    private void annullaOperazione(TransazioneInSospeso tx, Connection conn, Savepoint savepoint) {
+        if (conn == null) {
+            transactionService.rilascia(tx);
+            return;
+        }
+        try {
+            if (tx != null) {
+                if (savepoint != null) {
+                    conn.rollback(savepoint);
                 }
-            }).start();
+            } else {
+                conn.rollback();
+                conn.setAutoCommit(true);
+                conn.close();
+            }
+        } catch (Exception ex) {
+            logger.error("Errore nel rollback: {}", ex.getMessage());
+        } finally {
+            transactionService.rilascia(tx);
+        }
+    }
+
+    /**
+     * DELETE in batch JDBC: un'esecuzione per gruppo di identificativi
+     *
+     * @return righe cancellate
+     */
+    private int deleteBatch(Connection conn, String tabella, String colonna, Collection<Long> ids) throws SQLException {
+        int righe = 0;
+        try (PreparedStatement stmt = conn.prepareStatement("DELETE FROM " + tabella + " a WHERE a." + colonna + " = ?")) {
+            int inBatch = 0;
+            for (Long id : ids) {
+                stmt.setLong(1, id);
+                stmt.addBatch();
+                if (++inBatch == deleteBatchSize) {
+                    righe += contaRighe(stmt.executeBatch());
+                    inBatch = 0;
+                }
+            }
+            if (inBatch > 0) {
+                righe += contaRighe(stmt.executeBatch());
+            }
         }
+        return righe;
+    }
+
+    private int contaRighe(int[] conteggi) {
+        int righe = 0;
+        for (int c : conteggi) {
+            if (c > 0) {
+                righe += c;
+            }
+        }
+        return righe;
     }
 
     /**
@@ -536,32 +1227,48 @@ public class OracleService {
      */
     public Map<String, Object> commitTransaction() throws Exception {
         Map<String, Object> result = new HashMap<>();
-        Connection conn = TransactionService.getConnection();
-        
-        try {
-            if (conn == null || conn.isClosed()) {
-                result.put("success", false);
-                result.put("message", "Nessuna transazione in sospeso");
-                return result;
-            }
+        TransazioneInSospeso tx = transactionService.chiudi();
 
-            logger.info("COMMIT di tutte le operazioni");
+        if (tx == null) {
+            result.put("success", false);
+            result.put("message", "Nessuna transazione in sospeso (o annullata per lease scaduto)");
+            return result;
+        }
+
+        Connection conn = tx.getConnection();
+        try {
+            logger.info("COMMIT della transazione {}", tx.getId());
             conn.commit();
             conn.setAutoCommit(true);
-            conn.close();
-            
-            // LANCIA LE URL DOPO IL COMMIT
-            launchTaskUrls();
+
+            Set<String> snapshots = tx.getSnapshots();
+            for (String snapshot : snapshots) {
+                eventPublisher.publishEvent(new DatiModificatiEvent(snapshot));
+            }
             
-            TransactionService.removeConnection();
+            // LANCIA LE URL DOPO IL COMMIT (solo se la transazione ha cancellato i dati di scheduling)
+            boolean scheduling = snapshots.contains(SnapshotService.SCHEDULED_TASKS);
+            if (scheduling) {
+                result.put("taskLaunch", taskDispatcherService.lanciaTask());
+            }
 
+            metriche.registraChiusuraTransazione("commit");
             result.put("success", true);
-            result.put("message", "COMMIT eseguito con successo - Task lanciati in background");
+            result.put("message", scheduling
+                    ? "COMMIT eseguito con successo - Task lanciati in background"
+                    : "COMMIT eseguito con successo");
         } catch (Exception e) {
             logger.error("Errore nel commit: {}", e.getMessage());
+            metriche.registraChiusuraTransazione("commit-failed");
+            try {
+                conn.rollback();
+            } catch (Exception ex) {
+                logger.error("Errore nel rollback: {}", ex.getMessage());
+            }
             result.put("success", false);
             result.put("message", "Errore nel commit: " + e.getMessage());
-            TransactionService.removeConnection();
+        } finally {
+            closeResources(null, null, conn);
         }
         return result;
     }
@@ -571,20 +1278,20 @@ public class OracleService {
      */
     public Map<String, Object> rollbackTransaction() throws Exception {
         Map<String, Object> result = new HashMap<>();
-        Connection conn = TransactionService.getConnection();
-        
-        try {
-            if (conn == null || conn.isClosed()) {
-                result.put("success", false);
-                result.put("message", "Nessuna transazione in sospeso");
-                return result;
-            }
+        TransazioneInSospeso tx = transactionService.chiudi();
 
-            logger.info("ROLLBACK di tutte le operazioni");
+        if (tx == null) {
+            result.put("success", false);
+            result.put("message", "Nessuna transazione in sospeso (o annullata per lease scaduto)");
+            return result;
+        }
+
+        Connection conn = tx.getConnection();
+        try {
+            logger.info("ROLLBACK della transazione {}", tx.getId());
             conn.rollback();
             conn.setAutoCommit(true);
-            conn.close();
-            TransactionService.removeConnection();
+            metriche.registraChiusuraTransazione("rollback");
 
             result.put("success", true);
             result.put("message", "ROLLBACK eseguito con successo");
@@ -592,7 +1299,8 @@ public class OracleService {
             logger.error("Errore nel rollback: {}", e.getMessage());
             result.put("success", false);
             result.put("message", "Errore nel rollback: " + e.getMessage());
-            TransactionService.removeConnection();
+        } finally {
+            closeResources(null, null, conn);
         }
         return result;
     }
@@ -0,0 +1,156 @@
+package com.salvavita.service;
+
+import com.salvavita.config.EntiProperties;
+import com.salvavita.model.Ente;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Genera dall'enum Ente e dalla configurazione salvavita.enti le query PROTOCOLLI_SOSPESI.
+ * Il testo SQL di ogni ente e' costruito una sola volta e non contiene valori:
+ * la data di inizio monitoraggio e' una bind variable, cosi' Oracle riusa il cursore
+ * e la statement cache del driver trova sempre lo stesso testo.
+ * Ogni query ha come primo parametro la data di inizio dell'ente (getParametri).
+ */
+@Component
+public class QueryProtocolliSospesi {
+
+    private static final Logger logger = LoggerFactory.getLogger(QueryProtocolliSospesi.class);
+
+    @Autowired
+    private EntiProperties entiProperties;
+
+    private List<Ente> enti;
+    private final Map<Ente, String> queryDettaglio = new EnumMap<>(Ente.class);
+    private final Map<Ente, String> queryId = new EnumMap<>(Ente.class);
+    private String queryUnion;
+
+    @PostConstruct
+    public void init() {
+        enti = Collections.unmodifiableList(entiProperties.getAbilitati());
+
+        StringBuilder union = new StringBuilder();
+        for (Ente ente : enti) {
+            queryDettaglio.put(ente, buildQueryDettaglio(ente));
+            queryId.put(ente, buildQueryId(ente));
+            if (union.length() > 0) {
+                union.append(" UNION ALL ");
+            }
+            union.append(queryDettaglio.get(ente));
+        }
+        queryUnion = union.append(" ORDER BY 1, 2").toString();
+
+        if (enti.isEmpty()) {
+            logger.error("Nessun ente configurato per la query PROTOCOLLI_SOSPESI (salvavita.enti.data-inizio)");
+        }
+        for (Ente ente : enti) {
+            logger.info("Ente {} ({}): protocolli dal {}{}", ente.getNome(), ente.getSchema(),
+                    entiProperties.getDataInizio(ente),
+                    entiProperties.getOuterJoinDocumenti().contains(ente) ? ", anche senza documenti" : "");
+        }
+        if (!entiProperties.getNonAbilitati().isEmpty()) {
+            logger.warn("Enti non interrogati (senza salvavita.enti.data-inizio o disabilitati): {}",
+                    entiProperties.getNonAbilitati());
+        }
+    }
+
+    /**
+     * Enti interrogati, nell'ordine della UNION (ORDER BY ente)
+     */
+    public List<Ente> getEnti() {
+        return enti;
+    }
+
+    /**
+     * Ramo della query PROTOCOLLI_SOSPESI per un singolo ente (senza ORDER BY).
+     * La descrizione AOO/ufficio non e' in query: si legge solo codice_ufficio e la si risolve
+     * con il dizionario di AooUfficioService
+     */
+    public String getQueryDettaglio(Ente ente) {
+        return queryDettaglio.get(ente);
+    }
+
+    /**
+     * Query dei soli identificativi dei protocolli sospesi di un ente
+     */
+    public String getQueryId(Ente ente) {
+        return queryId.get(ente);
+    }
+
+    /**
+     * Query PROTOCOLLI_SOSPESI con UNION ALL di tutti gli enti; i parametri sono
+     * le date di inizio nell'ordine di getEnti()
+     */
+    public String getQueryUnion() {
+        return queryUnion;
+    }
+
+    /**
+     * Parametri iniziali delle query di un ente; il chiamante puo' aggiungere i propri in coda
+     */
+    public List<Object> getParametri(Ente ente) {
+        List<Object> parametri = new ArrayList<>();
+        parametri.add(Timestamp.valueOf(entiProperties.getDataInizio(ente)));
+        return parametri;
+    }
+
+    /**
+     * Parametri della query getQueryUnion()
+     */
+    public List<Object> getParametriUnion() {
+        List<Object> parametri = new ArrayList<>();
+        for (Ente ente : enti) {
+            parametri.addAll(getParametri(ente));
+        }
+        return parametri;
+    }
+
+    // Package-private per i benchmark JMH
+    String buildQueryDettaglio(Ente ente) {
+        String s = ente.getSchema().toLowerCase();
+        String joinDocumenti = entiProperties.getOuterJoinDocumenti().contains(ente) ? "LEFT JOIN " : "JOIN ";
+
+        return "SELECT '" + ente.getNome() + "' ENTE, pt.sequ_long_id, NVL(pt.count_recuperi_ejb,0) COUNT_RECUPERI_EJB, pt.presa_visione, " +
+               "(SELECT count(*) FROM " + s + ".p2_protocollo p WHERE p.id_transizione=to_char(pt.sequ_long_id)) IDTRANSIZIONEPRESENTE, " +
+               "pt.codice_ufficio CODICE_UFFICIO, " +
+               "pt.utente_creatore, pt.data_inserimento, doc.stato_documento, doc.esito_documento, " +
+               "doc.id_atmos, a2d.errore, doc.nome_documento, doc.sequ_long_id SEQU_LONG_ID_DOC " +
+               "FROM " + s + ".p2_proto_temporaneo pt " +
+               joinDocumenti + s + ".p2_proto_tmp_documenti doc ON doc.fk_protocollo_temporaneo=pt.sequ_long_id " +
+               "LEFT JOIN " + s + ".p2_callback_a2d a2d ON a2d.id_richiesta=doc.id_richiesta_a2d " +
+               "WHERE " + buildCondizioniSospeso(ente);
+    }
+
+    String buildQueryId(Ente ente) {
+        String s = ente.getSchema().toLowerCase();
+        String query = "SELECT pt.sequ_long_id FROM " + s + ".p2_proto_temporaneo pt WHERE " + buildCondizioniSospeso(ente);
+        if (!entiProperties.getOuterJoinDocumenti().contains(ente)) {
+            // Con la join interna i protocolli senza documenti non compaiono nella query di dettaglio
+            query += " AND EXISTS (SELECT 1 FROM " + s + ".p2_proto_tmp_documenti doc WHERE doc.fk_protocollo_temporaneo=pt.sequ_long_id)";
+        }
+        return query;
+    }
+
+    /**
+     * Condizioni che rendono sospeso un protocollo temporaneo (alias pt); l'unica bind variable
+     * e' la data di inizio monitoraggio, confrontata come DATE per non convertire la colonna
+     */
+    private String buildCondizioniSospeso(Ente ente) {
+        String s = ente.getSchema().toLowerCase();
+        return "pt.flag_tipo_protocollo=3 AND pt.presa_visione NOT IN (1) " +
+               "AND NOT EXISTS (SELECT 1 FROM " + s + ".p2_proto_tmp_documenti doc2 " +
+               "WHERE doc2.fk_protocollo_temporaneo=pt.sequ_long_id AND doc2.esito_documento=2) " +
+               "AND NOT EXISTS (SELECT 1 FROM " + s + ".p2_protocollo p WHERE p.id_transizione=to_char(pt.sequ_long_id) AND p.numero_protocollo IS NOT NULL) " +
+               "AND pt.data_inserimento > CAST(? AS DATE)";
+    }
+}
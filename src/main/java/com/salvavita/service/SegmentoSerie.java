@@ -0,0 +1,227 @@
+package com.salvavita.service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * File di segmento delle serie storiche: intestazione e record di lunghezza fissa, solo in aggiunta.
+ * Il segmento corrente e' mappato in memoria e cresce raddoppiando la mappatura;
+ * il numero di record e' scritto nell'intestazione dopo ogni record, quindi dopo un arresto
+ * improvviso il file si riapre dall'ultimo record completo.
+ *
+ * Intestazione (32 byte): magic, versione, inizio del segmento (ms), ampiezza del bucket (ms), record.
+ * Record (40 byte): inizio del bucket (ms), serie, campioni, minimo, massimo, ultimo, riservato, somma.
+ */
+final class SegmentoSerie implements Closeable {
+
+    static final int MAGIC = 0x53565453;
+    static final int VERSIONE = 1;
+    static final int INTESTAZIONE = 32;
+    static final int RECORD = 40;
+
+    private static final int POS_RECORD = 24;
+    private static final int CAPACITA_INIZIALE = 1024;
+    // Record letti per volta dai segmenti chiusi
+    private static final int RECORD_PER_BLOCCO = 1024;
+
+    /**
+     * Valore aggregato di una serie in un bucket
+     */
+    static final class Aggregato {
+        int campioni;
+        int minimo = Integer.MAX_VALUE;
+        int massimo = Integer.MIN_VALUE;
+        int ultimo;
+        long somma;
+
+        void aggiungi(int valore) {
+            campioni++;
+            minimo = Math.min(minimo, valore);
+            massimo = Math.max(massimo, valore);
+            ultimo = valore;
+            somma += valore;
+        }
+
+        /**
+         * Unisce un aggregato successivo dello stesso bucket (es. scritto prima di un riavvio)
+         */
+        void unisci(Aggregato altro) {
+            campioni += altro.campioni;
+            minimo = Math.min(minimo, altro.minimo);
+            massimo = Math.max(massimo, altro.massimo);
+            ultimo = altro.ultimo;
+            somma += altro.somma;
+        }
+
+        Aggregato copia() {
+            Aggregato copia = new Aggregato();
+            copia.unisci(this);
+            return copia;
+        }
+    }
+
+    interface Lettore {
+        void record(long bucket, int serie, Aggregato valore);
+    }
+
+    private final Path file;
+    private final long inizio;
+    private final FileChannel canale;
+    private volatile MappedByteBuffer buffer;
+    private volatile int record;
+
+    private SegmentoSerie(Path file, long inizio, FileChannel canale, MappedByteBuffer buffer, int record) {
+        this.file = file;
+        this.inizio = inizio;
+        this.canale = canale;
+        this.buffer = buffer;
+        this.record = record;
+    }
+
+    /**
+     * Apre in scrittura il segmento, creandolo se non esiste
+     */
+    static SegmentoSerie apri(Path file, long inizio, long bucketMs) throws IOException {
+        boolean esiste = Files.exists(file) && Files.size(file) >= INTESTAZIONE;
+        FileChannel canale = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            if (!esiste) {
+                MappedByteBuffer buffer = canale.map(FileChannel.MapMode.READ_WRITE, 0, INTESTAZIONE + (long) CAPACITA_INIZIALE * RECORD);
+                buffer.putInt(0, MAGIC);
+                buffer.putInt(4, VERSIONE);
+                buffer.putLong(8, inizio);
+                buffer.putLong(16, bucketMs);
+                buffer.putInt(POS_RECORD, 0);
+                return new SegmentoSerie(file, inizio, canale, buffer, 0);
+            }
+            long dimensione = Math.max(canale.size(), INTESTAZIONE + (long) CAPACITA_INIZIALE * RECORD);
+            MappedByteBuffer buffer = canale.map(FileChannel.MapMode.READ_WRITE, 0, dimensione);
+            verificaIntestazione(file, buffer);
+            int record = Math.min(buffer.getInt(POS_RECORD), (int) ((dimensione - INTESTAZIONE) / RECORD));
+            return new SegmentoSerie(file, buffer.getLong(8), canale, buffer, record);
+        } catch (IOException | RuntimeException e) {
+            canale.close();
+            throw e;
+        }
+    }
+
+    long getInizio() {
+        return inizio;
+    }
+
+    Path getFile() {
+        return file;
+    }
+
+    /**
+     * Aggiunge un record (un solo thread di scrittura)
+     */
+    void aggiungi(long bucket, int serie, Aggregato valore) throws IOException {
+        MappedByteBuffer b = buffer;
+        int posizione = INTESTAZIONE + record * RECORD;
+        if (posizione + RECORD > b.capacity()) {
+            b.force();
+            b = canale.map(FileChannel.MapMode.READ_WRITE, 0, INTESTAZIONE + (long) (b.capacity() - INTESTAZIONE) * 2);
+            buffer = b;
+        }
+        b.putLong(posizione, bucket);
+        b.putInt(posizione + 8, serie);
+        b.putInt(posizione + 12, valore.campioni);
+        b.putInt(posizione + 16, valore.minimo);
+        b.putInt(posizione + 20, valore.massimo);
+        b.putInt(posizione + 24, valore.ultimo);
+        b.putInt(posizione + 28, 0);
+        b.putLong(posizione + 32, valore.somma);
+        b.putInt(POS_RECORD, record + 1);
+        record++;
+    }
+
+    /**
+     * Scrive su disco le pagine modificate della mappatura
+     */
+    void forza() {
+        buffer.force();
+    }
+
+    /**
+     * Legge i record del segmento aperto (anche mentre il thread di scrittura aggiunge)
+     */
+    void leggi(long dal, long al, Lettore lettore) {
+        leggi(buffer.duplicate(), INTESTAZIONE, record, dal, al, lettore);
+    }
+
+    /**
+     * Legge i record di un segmento chiuso senza mapparlo (il file puo' essere cancellato dalla retention),
+     * a blocchi di RECORD_PER_BLOCCO record per non caricare in memoria l'intero file
+     */
+    static void leggi(Path file, long dal, long al, Lettore lettore) throws IOException {
+        try (FileChannel canale = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer intestazione = ByteBuffer.allocate(INTESTAZIONE);
+            leggiDa(canale, intestazione, 0);
+            if (intestazione.hasRemaining()) {
+                return;
+            }
+            verificaIntestazione(file, intestazione);
+            long record = Math.min(intestazione.getInt(POS_RECORD), (canale.size() - INTESTAZIONE) / RECORD);
+
+            ByteBuffer blocco = ByteBuffer.allocate(RECORD_PER_BLOCCO * RECORD);
+            for (long letti = 0; letti < record; letti += RECORD_PER_BLOCCO) {
+                blocco.clear();
+                blocco.limit((int) Math.min(RECORD_PER_BLOCCO, record - letti) * RECORD);
+                leggiDa(canale, blocco, INTESTAZIONE + letti * RECORD);
+                leggi(blocco, 0, blocco.position() / RECORD, dal, al, lettore);
+                if (blocco.hasRemaining()) {
+                    return;
+                }
+            }
+        } catch (NoSuchFileException e) {
+            // segmento cancellato dalla retention durante la lettura
+        }
+    }
+
+    private static void leggiDa(FileChannel canale, ByteBuffer buffer, long posizione) throws IOException {
+        while (buffer.hasRemaining()) {
+            int letti = canale.read(buffer, posizione);
+            if (letti < 0) {
+                return;
+            }
+            posizione += letti;
+        }
+    }
+
+    private static void leggi(ByteBuffer b, int inizio, int record, long dal, long al, Lettore lettore) {
+        for (int i = 0; i < record; i++) {
+            int posizione = inizio + i * RECORD;
+            long bucket = b.getLong(posizione);
+            if (bucket < dal || bucket > al) {
+                continue;
+            }
+            Aggregato valore = new Aggregato();
+            valore.campioni = b.getInt(posizione + 12);
+            valore.minimo = b.getInt(posizione + 16);
+            valore.massimo = b.getInt(posizione + 20);
+            valore.ultimo = b.getInt(posizione + 24);
+            valore.somma = b.getLong(posizione + 32);
+            lettore.record(bucket, b.getInt(posizione + 8), valore);
+        }
+    }
+
+    private static void verificaIntestazione(Path file, ByteBuffer buffer) throws IOException {
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSIONE) {
+            throw new IOException("File di segmento non valido: " + file);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        buffer.force();
+        canale.close();
+    }
+}
@@ -0,0 +1,572 @@
+package com.salvavita.service;
+
+import com.salvavita.model.ProtocolliSospesi;
+import com.salvavita.model.Snapshot;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Storico su disco dei conteggi dei protocolli sospesi e dei task schedulati, per i grafici di tendenza.
+ * A ogni aggiornamento degli snapshot si registra un campione (protocolli e documenti sospesi per ente,
+ * documenti per stato, esito ed errore, task schedulati e scaduti) senza rieseguire query.
+ * I campioni sono scritti da un solo thread in background, fuori dal percorso delle richieste:
+ * se la coda e' piena il campione viene scartato.
+ *
+ * Tre livelli di risoluzione in file di segmento mappati in memoria (SegmentoSerie), ciascuno con la
+ * propria retention: raw (ogni campione), 5m e 1h (minimo, massimo, media e ultimo valore del bucket).
+ * Una serie assente da un campione vale 0: lo 0 viene scritto solo quando il conteggio si azzera.
+ */
+@Service
+public class SerieStoricheService {
+
+    private static final Logger logger = LoggerFactory.getLogger(SerieStoricheService.class);
+
+    public static final String PROTOCOLLI = "protocolli";
+    public static final String DOCUMENTI = "documenti";
+    public static final String STATO_DOCUMENTO = "stato-documento";
+    public static final String ESITO_DOCUMENTO = "esito-documento";
+    public static final String ERRORI = "errori";
+    public static final String TASK_SCHEDULATI = "task-schedulati";
+    public static final String TASK_SCADUTI = "task-scaduti";
+
+    // Passo usato per stimare i punti del livello raw nella scelta automatica della risoluzione
+    private static final long PASSO_NOMINALE_RAW = 30_000;
+    private static final long GIORNO = 86_400_000L;
+    private static final int LUNGHEZZA_ETICHETTA = 80;
+    private static final String DIZIONARIO = "serie.txt";
+
+    @Value("${salvavita.serie.enabled:true}")
+    private boolean abilitato;
+
+    @Value("${salvavita.serie.directory:./data/serie}")
+    private String directory;
+
+    @Value("${salvavita.serie.retention-raw-days:2}")
+    private int retentionRawGiorni;
+
+    @Value("${salvavita.serie.retention-5m-days:35}")
+    private int retention5mGiorni;
+
+    @Value("${salvavita.serie.retention-1h-days:730}")
+    private int retention1hGiorni;
+
+    @Value("${salvavita.serie.max-series:5000}")
+    private int maxSerie;
+
+    @Value("${salvavita.serie.queue-size:100}")
+    private int dimensioneCoda;
+
+    @Value("${salvavita.serie.max-points:1000}")
+    private int maxPunti;
+
+    /**
+     * Livello di risoluzione: bucket di ampiezza fissa (0 = ogni campione), un file ogni segmentoMs
+     */
+    private static final class Livello {
+        final String nome;
+        final long bucketMs;
+        final long segmentoMs;
+        final long retentionMs;
+
+        // Stato di scrittura, protetto da lock
+        SegmentoSerie corrente;
+        long bucketAperto = -1;
+        final Map<Integer, SegmentoSerie.Aggregato> aperti = new HashMap<>();
+
+        Livello(String nome, long bucketMs, long segmentoMs, long retentionMs) {
+            this.nome = nome;
+            this.bucketMs = bucketMs;
+            this.segmentoMs = segmentoMs;
+            this.retentionMs = retentionMs;
+        }
+    }
+
+    private final Object lock = new Object();
+    private Path cartella;
+    private List<Livello> livelli;
+
+    // Dizionario delle serie: l'indice e' l'identificativo scritto nei record (protetto da lock)
+    private final List<String[]> serie = new ArrayList<>();
+    private final Map<String, Integer> idSerie = new HashMap<>();
+    private final Map<Integer, Integer> ultimoValore = new HashMap<>();
+    private boolean limiteSegnalato;
+
+    private final AtomicLong campioni = new AtomicLong();
+    private final AtomicLong scartati = new AtomicLong();
+
+    private ThreadPoolExecutor writer;
+
+    @PostConstruct
+    public void init() {
+        if (!abilitato) {
+            logger.info("Serie storiche disabilitate");
+            return;
+        }
+        livelli = Arrays.asList(
+                new Livello("raw", 0, GIORNO, retentionRawGiorni * GIORNO),
+                new Livello("5m", 300_000L, 7 * GIORNO, retention5mGiorni * GIORNO),
+                new Livello("1h", 3_600_000L, 30 * GIORNO, retention1hGiorni * GIORNO));
+        try {
+            cartella = Paths.get(directory);
+            Files.createDirectories(cartella);
+            caricaDizionario();
+            for (Livello livello : livelli) {
+                applicaRetention(livello, System.currentTimeMillis());
+            }
+        } catch (IOException e) {
+            logger.error("Serie storiche disabilitate, directory {} non utilizzabile: {}", directory, e.getMessage());
+            abilitato = false;
+            return;
+        }
+
+        writer = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(dimensioneCoda),
+                r -> {
+                    Thread t = new Thread(r, "serie-storiche");
+                    t.setDaemon(true);
+                    return t;
+                },
+                (r, executor) -> {
+                    if (scartati.incrementAndGet() % 100 == 1) {
+                        logger.warn("Coda delle serie storiche piena: {} campioni scartati", scartati.get());
+                    }
+                });
+        logger.info("Serie storiche in {} ({} serie note)", cartella.toAbsolutePath(), serie.size());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (writer == null) {
+            return;
+        }
+        writer.shutdown();
+        try {
+            writer.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (lock) {
+            for (Livello livello : livelli) {
+                try {
+                    chiudiBucket(livello);
+                    if (livello.corrente != null) {
+                        livello.corrente.close();
+                        livello.corrente = null;
+                    }
+                } catch (IOException e) {
+                    logger.warn("Chiusura del segmento {} non riuscita: {}", livello.nome, e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Accoda il campione di uno snapshot appena aggiornato (non blocca il chiamante)
+     *
+     * @param chiave SnapshotService.PROTOCOLLI_SOSPESI o SnapshotService.SCHEDULED_TASKS
+     */
+    public void registra(String chiave, Snapshot<?> snapshot) {
+        if (writer == null) {
+            return;
+        }
+        writer.execute(() -> {
+            try {
+                scrivi(chiave, snapshot);
+            } catch (Exception e) {
+                logger.error("Errore nella scrittura del campione {}: {}", chiave, e.getMessage(), e);
+            }
+        });
+    }
+
+    /**
+     * Punti delle serie richieste nell'intervallo [dal, al]
+     *
+     * @param nome        nome della serie (null = tutte)
+     * @param ente        ente (null = tutti)
+     * @param risoluzione raw, 5m, 1h o auto (null = auto)
+     */
+    public Map<String, Object> getSerie(String nome, String ente, long dal, long al, String risoluzione) throws Exception {
+        if (writer == null) {
+            throw new IllegalStateException("Serie storiche disabilitate");
+        }
+        if (al < dal) {
+            throw new IllegalArgumentException("Intervallo non valido: al precede dal");
+        }
+        Livello livello = scegliLivello(risoluzione, dal, al);
+
+        Map<Integer, TreeMap<Long, SegmentoSerie.Aggregato>> punti = new TreeMap<>();
+        List<String[]> dizionario;
+        Path fileCorrente = null;
+
+        SegmentoSerie.Lettore lettore = (bucket, id, valore) -> {
+            TreeMap<Long, SegmentoSerie.Aggregato> serieId = punti.get(id);
+            if (serieId != null) {
+                SegmentoSerie.Aggregato esistente = serieId.get(bucket);
+                if (esistente == null) {
+                    serieId.put(bucket, valore);
+                } else {
+                    esistente.unisci(valore);
+                }
+            }
+        };
+
+        synchronized (lock) {
+            dizionario = new ArrayList<>(serie);
+            for (int id = 0; id < dizionario.size(); id++) {
+                String[] s = dizionario.get(id);
+                if ((nome == null || nome.equals(s[0])) && (ente == null || ente.equalsIgnoreCase(s[1]))) {
+                    punti.put(id, new TreeMap<>());
+                }
+            }
+            if (livello.corrente != null) {
+                fileCorrente = livello.corrente.getFile();
+                livello.corrente.leggi(dal, al, lettore);
+            }
+            if (livello.bucketAperto >= dal && livello.bucketAperto <= al) {
+                for (Map.Entry<Integer, SegmentoSerie.Aggregato> entry : livello.aperti.entrySet()) {
+                    lettore.record(livello.bucketAperto, entry.getKey(), entry.getValue().copia());
+                }
+            }
+        }
+
+        for (Map.Entry<Long, Path> segmento : elencaSegmenti(livello).entrySet()) {
+            long inizio = segmento.getKey();
+            if (segmento.getValue().equals(fileCorrente) || inizio > al || inizio + livello.segmentoMs <= dal) {
+                continue;
+            }
+            SegmentoSerie.leggi(segmento.getValue(), dal, al, lettore);
+        }
+
+        List<Map<String, Object>> elenco = new ArrayList<>();
+        for (Map.Entry<Integer, TreeMap<Long, SegmentoSerie.Aggregato>> entry : punti.entrySet()) {
+            String[] s = dizionario.get(entry.getKey());
+            List<Map<String, Object>> puntiSerie = new ArrayList<>();
+            for (Map.Entry<Long, SegmentoSerie.Aggregato> punto : entry.getValue().entrySet()) {
+                SegmentoSerie.Aggregato a = punto.getValue();
+                Map<String, Object> p = new LinkedHashMap<>();
+                p.put("time", toLocalDateTime(punto.getKey()));
+                p.put("min", a.minimo);
+                p.put("max", a.massimo);
+                p.put("avg", a.campioni > 0 ? (double) a.somma / a.campioni : 0.0);
+                p.put("last", a.ultimo);
+                p.put("samples", a.campioni);
+                puntiSerie.add(p);
+            }
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("nome", s[0]);
+            m.put("ente", s[1]);
+            if (!s[2].isEmpty()) {
+                m.put("etichetta", s[2]);
+            }
+            m.put("punti", puntiSerie);
+            elenco.add(m);
+        }
+
+        Map<String, Object> risultato = new LinkedHashMap<>();
+        risultato.put("resolution", livello.nome);
+        risultato.put("from", toLocalDateTime(dal));
+        risultato.put("to", toLocalDateTime(al));
+        risultato.put("series", elenco);
+        return risultato;
+    }
+
+    /**
+     * Serie note e occupazione su disco per livello
+     */
+    public Map<String, Object> getElenco() throws IOException {
+        List<Map<String, Object>> elenco = new ArrayList<>();
+        Map<String, Object> risultato = new LinkedHashMap<>();
+        risultato.put("enabled", writer != null);
+        if (writer == null) {
+            return risultato;
+        }
+        synchronized (lock) {
+            for (String[] s : serie) {
+                Map<String, Object> m = new LinkedHashMap<>();
+                m.put("nome", s[0]);
+                m.put("ente", s[1]);
+                if (!s[2].isEmpty()) {
+                    m.put("etichetta", s[2]);
+                }
+                elenco.add(m);
+            }
+        }
+        List<Map<String, Object>> stato = new ArrayList<>();
+        for (Livello livello : livelli) {
+            Map<Long, Path> segmenti = elencaSegmenti(livello);
+            long byteTotali = 0;
+            for (Path file : segmenti.values()) {
+                byteTotali += Files.size(file);
+            }
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("resolution", livello.nome);
+            m.put("retentionDays", livello.retentionMs / GIORNO);
+            m.put("segments", segmenti.size());
+            m.put("bytes", byteTotali);
+            stato.add(m);
+        }
+        risultato.put("directory", cartella.toAbsolutePath().toString());
+        risultato.put("samples", campioni.get());
+        risultato.put("dropped", scartati.get());
+        risultato.put("queued", writer.getQueue().size());
+        risultato.put("levels", stato);
+        risultato.put("series", elenco);
+        return risultato;
+    }
+
+    /**
+     * Calcola i conteggi dello snapshot e li scrive in tutti i livelli (thread serie-storiche)
+     */
+    @SuppressWarnings("unchecked")
+    private void scrivi(String chiave, Snapshot<?> snapshot) throws IOException {
+        Map<String, Integer> conteggi = new HashMap<>();
+        boolean task = SnapshotService.SCHEDULED_TASKS.equals(chiave);
+
+        if (SnapshotService.PROTOCOLLI_SOSPESI.equals(chiave)) {
+            Map<String, Set<Long>> protocolli = new HashMap<>();
+            for (ProtocolliSospesi ps : (List<ProtocolliSospesi>) snapshot.getDati()) {
+                String ente = ps.getEnte();
+                protocolli.computeIfAbsent(ente, k -> new HashSet<>()).add(ps.getSequLongId());
+                conteggi.merge(chiaveSerie(DOCUMENTI, ente, ""), 1, Integer::sum);
+                if (ps.getStatoDocumento() != null) {
+                    conteggi.merge(chiaveSerie(STATO_DOCUMENTO, ente, ps.getStatoDocumento().toString()), 1, Integer::sum);
+                }
+                if (ps.getEsitoDocumento() != null) {
+                    conteggi.merge(chiaveSerie(ESITO_DOCUMENTO, ente, ps.getEsitoDocumento().toString()), 1, Integer::sum);
+                }
+                if (ps.getErrore() != null) {
+                    conteggi.merge(chiaveSerie(ERRORI, ente, etichettaErrore(ps.getErrore())), 1, Integer::sum);
+                }
+            }
+            protocolli.forEach((ente, ids) -> conteggi.put(chiaveSerie(PROTOCOLLI, ente, ""), ids.size()));
+        } else if (task) {
+            LocalDateTime quando = snapshot.getDataOra();
+            int scaduti = 0;
+            List<Map<String, Object>> righe = (List<Map<String, Object>>) snapshot.getDati();
+            for (Map<String, Object> riga : righe) {
+                Object prossimoRun = riga.get("prossimoRun");
+                if (prossimoRun instanceof LocalDateTime && ((LocalDateTime) prossimoRun).isBefore(quando)) {
+                    scaduti++;
+                }
+            }
+            conteggi.put(chiaveSerie(TASK_SCHEDULATI, MetricheService.TUTTI_GLI_ENTI, ""), righe.size());
+            conteggi.put(chiaveSerie(TASK_SCADUTI, MetricheService.TUTTI_GLI_ENTI, ""), scaduti);
+        } else {
+            return;
+        }
+
+        long ts = snapshot.getTimestamp();
+        synchronized (lock) {
+            Map<Integer, Integer> valori = new TreeMap<>();
+            for (Map.Entry<String, Integer> entry : conteggi.entrySet()) {
+                Integer id = id(entry.getKey());
+                if (id != null) {
+                    valori.put(id, entry.getValue());
+                }
+            }
+            // Serie della stessa fonte assenti dal campione valgono 0: nei livelli aggregati entrano sempre,
+            // cosi' media e minimo del bucket contano anche i campioni a zero; nei dati grezzi solo quando
+            // il conteggio si azzera (il valore resta 0 fino al campione successivo in cui compare)
+            Map<Integer, Integer> completi = new TreeMap<>(valori);
+            for (int id = 0; id < serie.size(); id++) {
+                if (!valori.containsKey(id) && serie.get(id)[0].startsWith("task-") == task) {
+                    completi.put(id, 0);
+                    Integer ultimo = ultimoValore.get(id);
+                    if (ultimo == null || ultimo != 0) {
+                        valori.put(id, 0);
+                    }
+                }
+            }
+
+            for (Livello livello : livelli) {
+                scrivi(livello, ts, livello.bucketMs == 0 ? valori : completi);
+            }
+            completi.forEach(ultimoValore::put);
+            livelli.get(0).corrente.forza();
+        }
+        campioni.incrementAndGet();
+    }
+
+    private void scrivi(Livello livello, long ts, Map<Integer, Integer> valori) throws IOException {
+        if (livello.bucketMs == 0) {
+            SegmentoSerie segmento = segmento(livello, ts);
+            for (Map.Entry<Integer, Integer> entry : valori.entrySet()) {
+                SegmentoSerie.Aggregato a = new SegmentoSerie.Aggregato();
+                a.aggiungi(entry.getValue());
+                segmento.aggiungi(ts, entry.getKey(), a);
+            }
+            return;
+        }
+        long bucket = ts - Math.floorMod(ts, livello.bucketMs);
+        if (bucket != livello.bucketAperto) {
+            chiudiBucket(livello);
+            livello.bucketAperto = bucket;
+        }
+        valori.forEach((id, valore) -> livello.aperti.computeIfAbsent(id, k -> new SegmentoSerie.Aggregato()).aggiungi(valore));
+    }
+
+    /**
+     * Scrive nel segmento gli aggregati del bucket aperto del livello
+     */
+    private void chiudiBucket(Livello livello) throws IOException {
+        if (livello.aperti.isEmpty()) {
+            return;
+        }
+        SegmentoSerie segmento = segmento(livello, livello.bucketAperto);
+        for (Map.Entry<Integer, SegmentoSerie.Aggregato> entry : livello.aperti.entrySet()) {
+            segmento.aggiungi(livello.bucketAperto, entry.getKey(), entry.getValue());
+        }
+        segmento.forza();
+        livello.aperti.clear();
+    }
+
+    /**
+     * Segmento del livello che contiene il bucket, aprendone uno nuovo al cambio di periodo
+     */
+    private SegmentoSerie segmento(Livello livello, long bucket) throws IOException {
+        long inizio = bucket - Math.floorMod(bucket, livello.segmentoMs);
+        if (livello.corrente != null && livello.corrente.getInizio() == inizio) {
+            return livello.corrente;
+        }
+        if (livello.corrente != null) {
+            livello.corrente.close();
+            livello.corrente = null;
+        }
+        livello.corrente = SegmentoSerie.apri(cartella.resolve(livello.nome + "-" + inizio + ".seg"), inizio, livello.bucketMs);
+        applicaRetention(livello, bucket);
+        return livello.corrente;
+    }
+
+    /**
+     * Cancella i segmenti del livello interamente precedenti alla retention
+     */
+    private void applicaRetention(Livello livello, long ora) throws IOException {
+        for (Map.Entry<Long, Path> segmento : elencaSegmenti(livello).entrySet()) {
+            if (segmento.getKey() + livello.segmentoMs < ora - livello.retentionMs
+                    && (livello.corrente == null || !segmento.getValue().equals(livello.corrente.getFile()))) {
+                Files.deleteIfExists(segmento.getValue());
+                logger.info("Segmento {} eliminato (retention {} giorni)", segmento.getValue().getFileName(), livello.retentionMs / GIORNO);
+            }
+        }
+    }
+
+    /**
+     * Segmenti del livello per inizio
+     */
+    private TreeMap<Long, Path> elencaSegmenti(Livello livello) throws IOException {
+        TreeMap<Long, Path> segmenti = new TreeMap<>();
+        String prefisso = livello.nome + "-";
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(cartella, prefisso + "*.seg")) {
+            for (Path file : stream) {
+                String nome = file.getFileName().toString();
+                try {
+                    segmenti.put(Long.parseLong(nome.substring(prefisso.length(), nome.length() - 4)), file);
+                } catch (NumberFormatException e) {
+                    logger.warn("File di segmento con nome non valido ignorato: {}", nome);
+                }
+            }
+        }
+        return segmenti;
+    }
+
+    private Livello scegliLivello(String risoluzione, long dal, long al) {
+        if (risoluzione != null && !"auto".equals(risoluzione)) {
+            for (Livello livello : livelli) {
+                if (livello.nome.equals(risoluzione)) {
+                    return livello;
+                }
+            }
+            throw new IllegalArgumentException("Risoluzione non valida: " + risoluzione + " (raw, 5m, 1h, auto)");
+        }
+        long ora = System.currentTimeMillis();
+        for (Livello livello : livelli) {
+            long passo = livello.bucketMs > 0 ? livello.bucketMs : PASSO_NOMINALE_RAW;
+            if (dal >= ora - livello.retentionMs && (al - dal) / passo <= maxPunti) {
+                return livello;
+            }
+        }
+        return livelli.get(livelli.size() - 1);
+    }
+
+    /**
+     * Identificativo della serie, registrandola nel dizionario se nuova (null oltre max-series)
+     */
+    private Integer id(String chiave) throws IOException {
+        Integer id = idSerie.get(chiave);
+        if (id != null) {
+            return id;
+        }
+        if (serie.size() >= maxSerie) {
+            if (!limiteSegnalato) {
+                limiteSegnalato = true;
+                logger.warn("Raggiunto il limite di {} serie storiche: le nuove serie non vengono registrate", maxSerie);
+            }
+            return null;
+        }
+        id = serie.size();
+        Files.write(cartella.resolve(DIZIONARIO), Collections.singletonList(id + "\t" + chiave),
+                StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        serie.add(chiave.split("\t", -1));
+        idSerie.put(chiave, id);
+        return id;
+    }
+
+    private void caricaDizionario() throws IOException {
+        Path file = cartella.resolve(DIZIONARIO);
+        if (!Files.exists(file)) {
+            return;
+        }
+        List<String> valide = new ArrayList<>();
+        List<String> righe = Files.readAllLines(file, StandardCharsets.UTF_8);
+        for (String riga : righe) {
+            String[] campi = riga.split("\t", -1);
+            // Una riga troncata (arresto durante la scrittura) o fuori sequenza chiude il dizionario
+            if (campi.length != 4 || !campi[0].equals(Integer.toString(serie.size()))) {
+                logger.warn("Dizionario delle serie storiche troncato alla riga: {}", riga);
+                break;
+            }
+            String chiave = campi[1] + "\t" + campi[2] + "\t" + campi[3];
+            idSerie.put(chiave, serie.size());
+            serie.add(new String[]{campi[1], campi[2], campi[3]});
+            valide.add(riga);
+        }
+        if (valide.size() < righe.size()) {
+            Files.write(file, valide, StandardCharsets.UTF_8);
+        }
+    }
+
+    private static String chiaveSerie(String nome, String ente, String etichetta) {
+        return nome + "\t" + ente + "\t" + etichetta;
+    }
+
+    /**
+     * Testo dell'errore senza numeri e spazi multipli, cosi' gli stessi errori finiscono nella stessa serie
+     */
+    static String etichettaErrore(String errore) {
+        String etichetta = errore.replaceAll("\\s+", " ").replaceAll("\\d+", "#").trim();
+        return etichetta.length() > LUNGHEZZA_ETICHETTA ? etichetta.substring(0, LUNGHEZZA_ETICHETTA) : etichetta;
+    }
+
+    private static LocalDateTime toLocalDateTime(long millis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+    }
+}
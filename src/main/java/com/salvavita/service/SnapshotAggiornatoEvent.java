@@ -0,0 +1,29 @@
+package com.salvavita.service;
+
+import com.salvavita.model.Snapshot;
+
+/**
+ * Evento pubblicato quando un nuovo snapshot sostituisce quello servito ai client
+ */
+public class SnapshotAggiornatoEvent {
+    private final String chiave;
+    private final Snapshot<?> snapshot;
+
+    public SnapshotAggiornatoEvent(String chiave, Snapshot<?> snapshot) {
+        this.chiave = chiave;
+        this.snapshot = snapshot;
+    }
+
+    public String getChiave() {
+        return chiave;
+    }
+
+    public Snapshot<?> getSnapshot() {
+        return snapshot;
+    }
+
+    @Override
+    public String toString() {
+        return "SnapshotAggiornatoEvent{chiave='" + chiave + "', versione=" + snapshot.getVersione() + "}";
+    }
+}
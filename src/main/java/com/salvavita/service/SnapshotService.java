@@ -0,0 +1,601 @@
+package com.salvavita.service;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.salvavita.config.ThreadVirtuali;
+import com.salvavita.model.Ente;
+import com.salvavita.model.ProtocolliSospesi;
+import com.salvavita.model.ProtocolliSospesiCompatti;
+import com.salvavita.model.ProtocolliSospesiDelta;
+import com.salvavita.model.Snapshot;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.net.URLEncoder;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache in memoria dei risultati delle query della dashboard.
+ * - richieste identiche concorrenti condividono un'unica query in corso (single-flight)
+ * - entro il TTL lo snapshot viene servito senza toccare il database
+ * - scaduto il TTL, per un ulteriore intervallo si serve lo snapshot vecchio
+ *   mentre la query viene rieseguita in background (stale-while-revalidate)
+ * - un commit che modifica i dati invalida lo snapshot interessato
+ * - i protocolli sospesi vengono aggiornati in modo incrementale (watermark per ente)
+ *   e i client possono chiedere solo le variazioni rispetto alla versione che hanno
+ * - le righe dei protocolli sono tenute in forma compatta (ProtocolliSospesiCompatti),
+ *   cosi' restano in memoria anche le ultime versioni dello snapshot
+ * - ogni aggiornamento viene registrato nelle serie storiche su disco (SerieStoricheService)
+ * - con l'aggiornamento pianificato (AggiornamentoSnapshotService) le letture non eseguono mai
+ *   la query: lo snapshot corrente viene servito qualunque sia la sua eta'
+ * - con piu' istanze solo il leader (ElezioneLeaderService) interroga il database: i follower
+ *   scaricano dal leader le variazioni, con gli stessi numeri di versione, e non scrivono le serie storiche
+ */
+@Service
+public class SnapshotService {
+
+    private static final Logger logger = LoggerFactory.getLogger(SnapshotService.class);
+
+    public static final String PROTOCOLLI_SOSPESI = "protocolli-sospesi";
+    public static final String SCHEDULED_TASKS = "scheduled-tasks";
+
+    @Autowired
+    private OracleService oracleService;
+
+    @Autowired
+    private SerieStoricheService serieStoriche;
+
+    @Autowired
+    private ThreadVirtuali threadVirtuali;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Autowired
+    private ElezioneLeaderService elezioneLeader;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${salvavita.snapshot.ttl-ms:30000}")
+    private long ttlMs;
+
+    @Value("${salvavita.snapshot.stale-ms:120000}")
+    private long staleMs;
+
+    @Value("${salvavita.snapshot.scheduler.enabled:true}")
+    private boolean pianificato;
+
+    private final ConcurrentHashMap<String, Snapshot<?>> snapshots = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, CompletableFuture<Snapshot<?>>> inCorso = new ConcurrentHashMap<>();
+
+    // Generazione per chiave: un caricamento partito prima di un'invalidazione non sovrascrive lo snapshot
+    private final ConcurrentHashMap<String, AtomicLong> generazioni = new ConcurrentHashMap<>();
+
+    @Value("${salvavita.delta.enabled:true}")
+    private boolean deltaAbilitato;
+
+    @Value("${salvavita.delta.full-refresh-every:20}")
+    private int refreshCompletoOgni;
+
+    @Value("${salvavita.delta.changelog-size:50}")
+    private int dimensioneChangelog;
+
+    @Value("${salvavita.delta.full-refresh-max-age-ms:600000}")
+    private long etaMassimaCompletoMs;
+
+    // Ordine della query PROTOCOLLI_SOSPESI (ORDER BY ente, sequ_long_id)
+    private static final Comparator<ProtocolliSospesi> ORDINE_UNION =
+            Comparator.comparing(ProtocolliSospesi::getEnte).thenComparing(ProtocolliSospesi::getSequLongId);
+
+    // Stato dell'aggiornamento incrementale dei protocolli sospesi (scritto solo sotto lockProtocolli)
+    private final Object lockProtocolli = new Object();
+    private ProtocolliSospesiCompatti righeCorrenti;
+    private final Map<Ente, LocalDateTime> watermarks = new EnumMap<>(Ente.class);
+    private final ConcurrentLinkedDeque<ProtocolliSospesiDelta> changelog = new ConcurrentLinkedDeque<>();
+    private long versioneProtocolli;
+    private int deltaDalCompleto;
+    // Istante dell'ultima query completa: le variazioni di righe gia' caricate si vedono solo con questa
+    private volatile long ultimoCompleto;
+    private volatile boolean forzaCompleto;
+    // Righe scaricate dal leader: se questa istanza diventa leader il primo caricamento e' completo
+    private boolean righeDalLeader;
+    // Epoca delle versioni: nuova all'avvio e quando l'istanza diventa leader, quella del leader sui follower
+    private volatile String epoca = UUID.randomUUID().toString();
+
+    @Value("${salvavita.snapshot.history-size:5}")
+    private int dimensioneStorico;
+
+    // Ultime versioni dello snapshot dei protocolli sospesi, dalla piu' vecchia alla piu' recente
+    private final ConcurrentLinkedDeque<Snapshot<List<ProtocolliSospesi>>> storicoProtocolli = new ConcurrentLinkedDeque<>();
+
+    private ExecutorService refreshExecutor;
+
+    @PostConstruct
+    public void init() {
+        refreshExecutor = Executors.newFixedThreadPool(2, threadVirtuali.fabbrica("snapshot-refresh-"));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        refreshExecutor.shutdownNow();
+    }
+
+    /**
+     * Snapshot dei protocolli sospesi
+     */
+    public Snapshot<List<ProtocolliSospesi>> getProtocolliSospesi() throws Exception {
+        return get(PROTOCOLLI_SOSPESI, this::caricaProtocolliSospesi);
+    }
+
+    /**
+     * Snapshot dei protocolli sospesi senza bloccare il chiamante: completato subito se in cache,
+     * altrimenti al termine del caricamento in corso
+     */
+    public CompletableFuture<Snapshot<List<ProtocolliSospesi>>> getProtocolliSospesiAsync() {
+        return getAsync(PROTOCOLLI_SOSPESI, this::caricaProtocolliSospesi);
+    }
+
+    /**
+     * Millisecondi che mancano alla prossima query completa dei protocolli sospesi
+     * (Long.MAX_VALUE se l'aggiornamento incrementale e' disabilitato e ogni caricamento e' completo)
+     */
+    public long getAttesaCompletoMs() {
+        if (!deltaAbilitato) {
+            return Long.MAX_VALUE;
+        }
+        return Math.max(0, ultimoCompleto + etaMassimaCompletoMs - System.currentTimeMillis());
+    }
+
+    /**
+     * Variazioni dei protocolli sospesi dalla versione indicata a quella dello snapshot passato
+     * (ottenuto da getProtocolliSospesi()).
+     * Se la versione non e' piu' nello storico delle variazioni, o appartiene a un'altra epoca,
+     * restituisce l'insieme completo
+     */
+    public ProtocolliSospesiDelta getProtocolliSospesiDelta(Snapshot<List<ProtocolliSospesi>> snapshot, long versioneClient,
+                                                            String epocaClient) {
+        long corrente = snapshot.getVersione();
+
+        // Il changelog contiene solo variazioni dell'epoca corrente
+        if ((epocaClient != null && !epocaClient.equals(snapshot.getEpoca())) || !Objects.equals(snapshot.getEpoca(), epoca)) {
+            return new ProtocolliSospesiDelta(versioneClient, corrente, true, snapshot.getDati(), null);
+        }
+
+        if (versioneClient == corrente) {
+            return new ProtocolliSospesiDelta(versioneClient, corrente, false, null, null);
+        }
+
+        List<ProtocolliSospesiDelta> catena = new ArrayList<>();
+        long versione = versioneClient;
+        for (ProtocolliSospesiDelta delta : changelog) {
+            if (delta.getVersioneDa() == versione && delta.getVersione() <= corrente) {
+                catena.add(delta);
+                versione = delta.getVersione();
+            }
+        }
+        if (versione != corrente) {
+            catena = null;
+        }
+
+        if (catena == null || catena.stream().anyMatch(ProtocolliSospesiDelta::isCompleto)) {
+            return new ProtocolliSospesiDelta(versioneClient, corrente, true, snapshot.getDati(), null);
+        }
+
+        Map<String, Set<Long>> rimossi = new TreeMap<>();
+        for (ProtocolliSospesiDelta delta : catena) {
+            delta.getRimossi().forEach((ente, ids) -> rimossi.computeIfAbsent(ente, k -> new TreeSet<>()).addAll(ids));
+        }
+        List<ProtocolliSospesi> aggiunti = new ArrayList<>();
+        for (ProtocolliSospesiDelta delta : catena) {
+            for (ProtocolliSospesi ps : delta.getAggiunti()) {
+                Set<Long> rimossiEnte = rimossi.get(ps.getEnte());
+                if (rimossiEnte == null || !rimossiEnte.contains(ps.getSequLongId())) {
+                    aggiunti.add(ps);
+                }
+            }
+        }
+        return new ProtocolliSospesiDelta(versioneClient, corrente, false, aggiunti, rimossi);
+    }
+
+    /**
+     * Carica lo snapshot dei protocolli sospesi: query completa la prima volta, dopo
+     * un'invalidazione, ogni refreshCompletoOgni aggiornamenti e comunque se l'ultima ha piu' di
+     * etaMassimaCompletoMs (il watermark non vede le modifiche alle righe gia' caricate); altrimenti query incrementale
+     * a partire dal watermark (data_inserimento massima vista) di ogni ente.
+     * Un ente che fallisce o non risponde entro il timeout del suo bulkhead non blocca gli altri:
+     * per quell'ente restano le righe dello snapshot precedente e lo snapshot lo segnala in entiNonDisponibili
+     */
+    private Snapshot<List<ProtocolliSospesi>> caricaProtocolliSospesi() throws Exception {
+        synchronized (lockProtocolli) {
+            if (!elezioneLeader.isLeader()) {
+                return caricaProtocolliDalLeader();
+            }
+            if (righeDalLeader) {
+                righeDalLeader = false;
+                forzaCompleto = true;
+                nuovaEpoca(UUID.randomUUID().toString());
+            }
+            long start = System.currentTimeMillis();
+            Map<String, Long> tempiPerEnte = new LinkedHashMap<>();
+            Map<String, String> nonDisponibili = new ConcurrentSkipListMap<>();
+
+            if (!deltaAbilitato || righeCorrenti == null || forzaCompleto || deltaDalCompleto >= refreshCompletoOgni
+                    || start - ultimoCompleto >= etaMassimaCompletoMs) {
+                forzaCompleto = false;
+                List<ProtocolliSospesi> dati;
+                try {
+                    dati = oracleService.getProtocolliSospesi(tempiPerEnte, nonDisponibili);
+                } catch (Exception e) {
+                    forzaCompleto = true;
+                    throw e;
+                }
+                if (!nonDisponibili.isEmpty() && righeCorrenti != null) {
+                    dati = new ArrayList<>(dati);
+                    for (ProtocolliSospesi ps : righeCorrenti) {
+                        if (nonDisponibili.containsKey(ps.getEnte())) {
+                            dati.add(ps);
+                        }
+                    }
+                    dati.sort(ORDINE_UNION);
+                }
+
+                long versioneDa = versioneProtocolli++;
+                righeCorrenti = ProtocolliSospesiCompatti.da(dati);
+                deltaDalCompleto = 0;
+                ultimoCompleto = start;
+                aggiornaWatermarks(dati);
+                registraDelta(new ProtocolliSospesiDelta(versioneDa, versioneProtocolli, true, null, null));
+
+                return registraStorico(new Snapshot<>(righeCorrenti, start, System.currentTimeMillis() - start, tempiPerEnte,
+                        versioneProtocolli, nonDisponibili, epoca));
+            }
+
+            // Gli enti non disponibili non hanno identificativi in idSospesi: le loro righe restano invariate
+            Map<Ente, Set<Long>> idSospesi = new ConcurrentHashMap<>();
+            List<ProtocolliSospesi> candidati = oracleService.getProtocolliSospesiDelta(new EnumMap<>(watermarks), idSospesi, nonDisponibili);
+            deltaDalCompleto++;
+
+            Set<String> presenti = new HashSet<>();
+            for (ProtocolliSospesi ps : righeCorrenti) {
+                presenti.add(chiaveRiga(ps));
+            }
+            List<ProtocolliSospesi> aggiunti = new ArrayList<>();
+            for (ProtocolliSospesi ps : candidati) {
+                if (!presenti.contains(chiaveRiga(ps))) {
+                    aggiunti.add(ps);
+                }
+            }
+
+            Map<String, Set<Long>> rimossi = new TreeMap<>();
+            List<ProtocolliSospesi> righe = new ArrayList<>(righeCorrenti.size() + aggiunti.size());
+            for (ProtocolliSospesi ps : righeCorrenti) {
+                Set<Long> ids = idSospesi.get(Ente.fromNome(ps.getEnte()));
+                if (ids != null && !ids.contains(ps.getSequLongId())) {
+                    rimossi.computeIfAbsent(ps.getEnte(), k -> new TreeSet<>()).add(ps.getSequLongId());
+                } else {
+                    righe.add(ps);
+                }
+            }
+
+            if (!aggiunti.isEmpty() || !rimossi.isEmpty()) {
+                righe.addAll(aggiunti);
+                righe.sort(ORDINE_UNION);
+
+                long versioneDa = versioneProtocolli++;
+                righeCorrenti = ProtocolliSospesiCompatti.da(righe);
+                aggiornaWatermarks(aggiunti);
+                registraDelta(new ProtocolliSospesiDelta(versioneDa, versioneProtocolli, false, aggiunti, rimossi));
+                logger.info("Aggiornamento incrementale protocolli sospesi: {} righe aggiunte, {} protocolli usciti",
+                        aggiunti.size(), rimossi.values().stream().mapToInt(Set::size).sum());
+                return registraStorico(new Snapshot<>(righeCorrenti, start, System.currentTimeMillis() - start, tempiPerEnte,
+                        versioneProtocolli, nonDisponibili, epoca));
+            }
+
+            return new Snapshot<>(righeCorrenti, start, System.currentTimeMillis() - start, tempiPerEnte,
+                    versioneProtocolli, nonDisponibili, epoca);
+        }
+    }
+
+    /**
+     * Follower: applica le variazioni del leader dalla versione corrente (tutte le righe la prima volta
+     * o se la versione non e' piu' nel changelog del leader). Versioni e changelog restano quelli del leader,
+     * cosi' un client puo' chiedere le variazioni indifferentemente al leader o a un follower.
+     * Le versioni ripartono da zero quando il leader riparte: se l'epoca del leader cambia
+     * le righe, il changelog e lo storico vengono scartati e ricaricati per intero
+     */
+    private Snapshot<List<ProtocolliSospesi>> caricaProtocolliDalLeader() throws Exception {
+        long start = System.currentTimeMillis();
+        long versioneDa = righeCorrenti != null ? versioneProtocolli : -1;
+        JsonNode risposta = elezioneLeader.leggiDalLeader("/api/protocolli-sospesi/delta?since=" + versioneDa
+                + "&epoch=" + URLEncoder.encode(epoca, "UTF-8"));
+        String epocaLeader = risposta.path("epoch").asText(null);
+        if (epocaLeader == null) {
+            throw new Exception("Risposta del leader senza epoca delle versioni");
+        }
+        if (!epocaLeader.equals(epoca)) {
+            if (righeCorrenti != null) {
+                logger.warn("Epoca del leader cambiata ({} -> {}): ricarico tutti i protocolli sospesi", epoca, epocaLeader);
+            }
+            nuovaEpoca(epocaLeader);
+            righeCorrenti = null;
+            versioneDa = -1;
+            if (!risposta.path("full").asBoolean()) {
+                risposta = elezioneLeader.leggiDalLeader("/api/protocolli-sospesi/delta?since=-1");
+                if (!epocaLeader.equals(risposta.path("epoch").asText(null))) {
+                    throw new Exception("Epoca del leader cambiata durante il caricamento dei protocolli sospesi");
+                }
+            }
+        }
+        long versione = risposta.path("version").asLong();
+        Map<String, String> nonDisponibili = risposta.hasNonNull("entiNonDisponibili")
+                ? objectMapper.convertValue(risposta.get("entiNonDisponibili"), new TypeReference<Map<String, String>>() { })
+                : null;
+        // Istante dello snapshot sul leader, per un'eta' coerente tra le istanze
+        long timestamp = System.currentTimeMillis() - risposta.path("snapshotAgeMs").asLong();
+        righeDalLeader = true;
+
+        if (righeCorrenti != null && versione == versioneProtocolli) {
+            return new Snapshot<>(righeCorrenti, timestamp, System.currentTimeMillis() - start, null,
+                    versioneProtocolli, nonDisponibili, epoca);
+        }
+
+        List<ProtocolliSospesi> aggiunti = risposta.hasNonNull("data")
+                ? objectMapper.convertValue(risposta.get("data"), new TypeReference<List<ProtocolliSospesi>>() { })
+                : Collections.<ProtocolliSospesi>emptyList();
+        if (risposta.path("full").asBoolean() || righeCorrenti == null) {
+            List<ProtocolliSospesi> righe = new ArrayList<>(aggiunti);
+            righe.sort(ORDINE_UNION);
+            righeCorrenti = ProtocolliSospesiCompatti.da(righe);
+            registraDelta(new ProtocolliSospesiDelta(versioneDa, versione, true, null, null));
+            logger.info("Protocolli sospesi versione {} scaricati dal leader: {} righe", versione, righe.size());
+        } else {
+            Map<String, Set<Long>> rimossi = risposta.hasNonNull("removed")
+                    ? objectMapper.convertValue(risposta.get("removed"), new TypeReference<Map<String, Set<Long>>>() { })
+                    : Collections.<String, Set<Long>>emptyMap();
+            List<ProtocolliSospesi> righe = new ArrayList<>(righeCorrenti.size() + aggiunti.size());
+            for (ProtocolliSospesi ps : righeCorrenti) {
+                Set<Long> ids = rimossi.get(ps.getEnte());
+                if (ids == null || !ids.contains(ps.getSequLongId())) {
+                    righe.add(ps);
+                }
+            }
+            righe.addAll(aggiunti);
+            righe.sort(ORDINE_UNION);
+            righeCorrenti = ProtocolliSospesiCompatti.da(righe);
+            registraDelta(new ProtocolliSospesiDelta(versioneDa, versione, false, aggiunti, rimossi));
+            logger.info("Variazioni dal leader alla versione {}: {} righe aggiunte, {} protocolli usciti",
+                    versione, aggiunti.size(), rimossi.values().stream().mapToInt(Set::size).sum());
+        }
+        versioneProtocolli = versione;
+        return registraStorico(new Snapshot<>(righeCorrenti, timestamp, System.currentTimeMillis() - start, null,
+                versioneProtocolli, nonDisponibili, epoca));
+    }
+
+    private void aggiornaWatermarks(List<ProtocolliSospesi> righe) {
+        for (ProtocolliSospesi ps : righe) {
+            Ente ente = Ente.fromNome(ps.getEnte());
+            if (ente != null && ps.getDataInserimento() != null) {
+                watermarks.merge(ente, ps.getDataInserimento(), (a, b) -> a.isAfter(b) ? a : b);
+            }
+        }
+    }
+
+    /**
+     * Cambia l'epoca delle versioni: le variazioni e le versioni dell'epoca precedente non sono piu' confrontabili
+     */
+    private void nuovaEpoca(String nuova) {
+        epoca = nuova;
+        changelog.clear();
+        storicoProtocolli.clear();
+    }
+
+    private void registraDelta(ProtocolliSospesiDelta delta) {
+        changelog.addLast(delta);
+        while (changelog.size() > dimensioneChangelog) {
+            changelog.removeFirst();
+        }
+    }
+
+    private Snapshot<List<ProtocolliSospesi>> registraStorico(Snapshot<List<ProtocolliSospesi>> snapshot) {
+        storicoProtocolli.addLast(snapshot);
+        while (storicoProtocolli.size() > Math.max(1, dimensioneStorico)) {
+            storicoProtocolli.removeFirst();
+        }
+        logger.info("Snapshot protocolli sospesi versione {}: {} righe, circa {} KB in memoria",
+                snapshot.getVersione(), righeCorrenti.size(), righeCorrenti.getByteStimati() / 1024);
+        return snapshot;
+    }
+
+    /**
+     * Ultime versioni dello snapshot dei protocolli sospesi tenute in memoria, dalla piu' recente
+     */
+    public List<Snapshot<List<ProtocolliSospesi>>> getStoricoProtocolli() {
+        List<Snapshot<List<ProtocolliSospesi>>> storico = new ArrayList<>(storicoProtocolli);
+        Collections.reverse(storico);
+        return storico;
+    }
+
+    /**
+     * Versione indicata dello snapshot dei protocolli sospesi, null se non e' piu' nello storico
+     */
+    public Snapshot<List<ProtocolliSospesi>> getProtocolliSospesi(long versione) {
+        for (Snapshot<List<ProtocolliSospesi>> snapshot : storicoProtocolli) {
+            if (snapshot.getVersione() == versione) {
+                return snapshot;
+            }
+        }
+        return null;
+    }
+
+    private static String chiaveRiga(ProtocolliSospesi ps) {
+        return ps.getEnte() + ':' + ps.getSequLongId() + ':' + ps.getSeqDocumento();
+    }
+
+    /**
+     * Snapshot dei task schedulati
+     */
+    public Snapshot<List<Map<String, Object>>> getScheduledTasks() throws Exception {
+        return get(SCHEDULED_TASKS, this::caricaScheduledTasks);
+    }
+
+    /**
+     * Snapshot dei task schedulati senza bloccare il chiamante
+     */
+    public CompletableFuture<Snapshot<List<Map<String, Object>>>> getScheduledTasksAsync() {
+        return getAsync(SCHEDULED_TASKS, this::caricaScheduledTasks);
+    }
+
+    private Snapshot<List<Map<String, Object>>> caricaScheduledTasks() throws Exception {
+        long start = System.currentTimeMillis();
+        if (!elezioneLeader.isLeader()) {
+            return caricaScheduledTasksDalLeader(start);
+        }
+        List<Map<String, Object>> dati = oracleService.getScheduledTasks();
+        return new Snapshot<>(dati, start, System.currentTimeMillis() - start, null);
+    }
+
+    /**
+     * Follower: task schedulati dello snapshot del leader, con prossimoRun riconvertito in data
+     */
+    private Snapshot<List<Map<String, Object>>> caricaScheduledTasksDalLeader(long start) throws Exception {
+        JsonNode risposta = elezioneLeader.leggiDalLeader("/api/scheduled-tasks");
+        List<Map<String, Object>> dati = new ArrayList<>();
+        for (JsonNode task : risposta.path("data")) {
+            Map<String, Object> row = new HashMap<>();
+            row.put("name", task.path("name").asText(null));
+            JsonNode prossimoRun = task.path("prossimoRun");
+            row.put("prossimoRun", prossimoRun.isTextual() ? LocalDateTime.parse(prossimoRun.asText()) : null);
+            dati.add(row);
+        }
+        long timestamp = System.currentTimeMillis() - risposta.path("snapshotAgeMs").asLong();
+        return new Snapshot<>(dati, timestamp, System.currentTimeMillis() - start, null);
+    }
+
+    /**
+     * Avvia subito il caricamento dello snapshot indicato, o restituisce quello gia' in corso
+     */
+    public CompletableFuture<Snapshot<?>> aggiorna(String chiave) {
+        if (PROTOCOLLI_SOSPESI.equals(chiave)) {
+            return refresh(chiave, this::caricaProtocolliSospesi);
+        }
+        if (SCHEDULED_TASKS.equals(chiave)) {
+            return refresh(chiave, this::caricaScheduledTasks);
+        }
+        throw new IllegalArgumentException("Snapshot sconosciuto: " + chiave);
+    }
+
+    public boolean isPianificato() {
+        return pianificato;
+    }
+
+    /**
+     * Invalida uno snapshot: la prossima richiesta riesegue la query.
+     * Con l'aggiornamento pianificato il caricamento parte subito e le richieste lo attendono
+     */
+    public void invalidate(String chiave) {
+        generazione(chiave).incrementAndGet();
+        if (PROTOCOLLI_SOSPESI.equals(chiave)) {
+            forzaCompleto = true;
+        }
+        snapshots.remove(chiave);
+        inCorso.remove(chiave);
+        logger.info("Snapshot {} invalidato", chiave);
+        if (pianificato && (PROTOCOLLI_SOSPESI.equals(chiave) || SCHEDULED_TASKS.equals(chiave))) {
+            aggiorna(chiave);
+        }
+    }
+
+    @EventListener
+    public void onDatiModificati(DatiModificatiEvent event) {
+        invalidate(event.getSnapshot());
+    }
+
+    private <T> Snapshot<T> get(String chiave, Callable<Snapshot<T>> loader) throws Exception {
+        try {
+            return getAsync(chiave, loader).get();
+        } catch (ExecutionException e) {
+            Throwable causa = e.getCause() != null ? e.getCause() : e;
+            if (causa instanceof Exception) {
+                throw (Exception) causa;
+            }
+            throw new Exception(causa.getMessage(), causa);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> CompletableFuture<Snapshot<T>> getAsync(String chiave, Callable<Snapshot<T>> loader) {
+        Snapshot<T> snapshot = (Snapshot<T>) snapshots.get(chiave);
+
+        if (snapshot != null) {
+            long eta = snapshot.getEtaMs();
+            if (pianificato || eta < ttlMs) {
+                logger.debug("Snapshot {} servito dalla cache (eta' {} ms)", chiave, eta);
+                return CompletableFuture.completedFuture(snapshot);
+            }
+            if (eta < ttlMs + staleMs) {
+                logger.debug("Snapshot {} scaduto (eta' {} ms): servito e aggiornato in background", chiave, eta);
+                refresh(chiave, loader);
+                return CompletableFuture.completedFuture(snapshot);
+            }
+        }
+
+        return refresh(chiave, loader).thenApply(s -> (Snapshot<T>) s);
+    }
+
+    /**
+     * Avvia il caricamento dello snapshot, o si aggancia a quello gia' in corso
+     */
+    private <T> CompletableFuture<Snapshot<?>> refresh(String chiave, Callable<Snapshot<T>> loader) {
+        CompletableFuture<Snapshot<?>> nuovo = new CompletableFuture<>();
+        CompletableFuture<Snapshot<?>> esistente = inCorso.putIfAbsent(chiave, nuovo);
+        if (esistente != null) {
+            return esistente;
+        }
+
+        long generazioneIniziale = generazione(chiave).get();
+        try {
+            refreshExecutor.execute(() -> {
+                try {
+                    Snapshot<T> snapshot = loader.call();
+                    boolean corrente = generazione(chiave).get() == generazioneIniziale;
+                    if (corrente) {
+                        snapshots.put(chiave, snapshot);
+                    }
+                    logger.info("Snapshot {} aggiornato in {} ms", chiave, snapshot.getDurataMs());
+                    if (elezioneLeader.isLeader()) {
+                        serieStoriche.registra(chiave, snapshot);
+                    }
+                    if (corrente) {
+                        eventPublisher.publishEvent(new SnapshotAggiornatoEvent(chiave, snapshot));
+                    }
+                    nuovo.complete(snapshot);
+                } catch (Throwable t) {
+                    logger.error("Errore nell'aggiornamento dello snapshot {}: {}", chiave, t.getMessage());
+                    nuovo.completeExceptionally(t);
+                } finally {
+                    inCorso.remove(chiave, nuovo);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            inCorso.remove(chiave, nuovo);
+            nuovo.completeExceptionally(e);
+        }
+        return nuovo;
+    }
+
+    private AtomicLong generazione(String chiave) {
+        return generazioni.computeIfAbsent(chiave, k -> new AtomicLong());
+    }
+}
@@ -0,0 +1,96 @@
+package com.salvavita.service;
+
+/**
+ * Ultime osservazioni di un task di sched_arcipelago_task in un buffer circolare di dimensione fissa:
+ * istante del campione e nextfiretime letto (ms epoch, Long.MIN_VALUE se null).
+ * Un cambio di nextfiretime tra due campioni consecutivi e' un'esecuzione del task.
+ * Usato solo dal thread del campionatore, quindi senza sincronizzazione.
+ */
+final class StoricoTask {
+
+    static final long NESSUNO = Long.MIN_VALUE;
+
+    private final long[] istanti;
+    private final long[] prossimi;
+    private int prossimo;
+    private int campioni;
+
+    StoricoTask(int capacita) {
+        istanti = new long[capacita];
+        prossimi = new long[capacita];
+    }
+
+    void aggiungi(long istante, long nextFireTime) {
+        istanti[prossimo] = istante;
+        prossimi[prossimo] = nextFireTime;
+        prossimo = (prossimo + 1) % istanti.length;
+        if (campioni < istanti.length) {
+            campioni++;
+        }
+    }
+
+    int getCampioni() {
+        return campioni;
+    }
+
+    /**
+     * Indice nel buffer dell'i-esimo campione, dal piu' vecchio (0) al piu' recente (campioni - 1)
+     */
+    private int indice(int i) {
+        return (prossimo - campioni + i + istanti.length) % istanti.length;
+    }
+
+    long getUltimoIstante() {
+        return istanti[indice(campioni - 1)];
+    }
+
+    long getUltimoNextFireTime() {
+        return prossimi[indice(campioni - 1)];
+    }
+
+    /**
+     * Millisecondi coperti dai campioni nel buffer
+     */
+    long getFinestraMs() {
+        return campioni < 2 ? 0 : getUltimoIstante() - istanti[indice(0)];
+    }
+
+    /**
+     * Esecuzioni osservate nella finestra (cambi di nextfiretime tra campioni consecutivi)
+     */
+    int getEsecuzioni() {
+        int esecuzioni = 0;
+        for (int i = 1; i < campioni; i++) {
+            if (prossimi[indice(i)] != prossimi[indice(i - 1)]) {
+                esecuzioni++;
+            }
+        }
+        return esecuzioni;
+    }
+
+    /**
+     * Istante del primo campione che ha visto l'ultima esecuzione, NESSUNO se non osservata nella finestra
+     */
+    long getUltimaEsecuzione() {
+        for (int i = campioni - 1; i > 0; i--) {
+            if (prossimi[indice(i)] != prossimi[indice(i - 1)]) {
+                return istanti[indice(i)];
+            }
+        }
+        return NESSUNO;
+    }
+
+    /**
+     * Ultimo intervallo tra due nextfiretime consecutivi (il periodo del task), NESSUNO se non osservato
+     */
+    long getIntervalloMs() {
+        for (int i = campioni - 1; i > 0; i--) {
+            long corrente = prossimi[indice(i)];
+            long precedente = prossimi[indice(i - 1)];
+            if (corrente != precedente && corrente != NESSUNO && precedente != NESSUNO) {
+                return corrente - precedente;
+            }
+        }
+        return NESSUNO;
+    }
+}
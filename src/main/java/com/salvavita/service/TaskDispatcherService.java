@@ -0,0 +1,280 @@
+package com.salvavita.service;
+
+import com.salvavita.config.TaskProperties;
+import com.salvavita.config.ThreadVirtuali;
+import com.salvavita.model.EsitoTask;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lancio dei task dello scheduler dopo il commit dei dati di scheduling.
+ * Le chiamate girano su un pool limitato a salvavita.tasks.max-concurrent thread.
+ * Gli URL avviano il task (op=START) e non sono idempotenti: sono riprovati, con backoff esponenziale
+ * pianificato su un thread separato, solo gli errori per cui il task non e' certamente partito
+ * (connessione non riuscita o HTTP 502/503/504 dal proxy). Un errore dopo l'invio della richiesta,
+ * es. il timeout di lettura, lascia il task INCERTO: lo scheduler potrebbe averlo avviato.
+ * L'esito di ogni task e' consultabile con GET /api/task-lanciati.
+ */
+@Service
+public class TaskDispatcherService {
+
+    private static final Logger logger = LoggerFactory.getLogger(TaskDispatcherService.class);
+
+    @Autowired
+    private TaskProperties taskProperties;
+
+    @Autowired
+    private ThreadVirtuali threadVirtuali;
+
+    private ThreadPoolExecutor esecutore;
+    private ScheduledExecutorService riprove;
+
+    // Ultimo esito per taskName e storico dei lanci (dal piu' recente)
+    private final ConcurrentHashMap<String, EsitoTask> ultimoEsito = new ConcurrentHashMap<>();
+    private final Deque<EsitoTask> storico = new ArrayDeque<>();
+
+    @PostConstruct
+    public void init() {
+        int thread = Math.max(1, taskProperties.getMaxConcurrent());
+        esecutore = new ThreadPoolExecutor(thread, thread, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                threadVirtuali.fabbrica("task-dispatcher-"));
+        esecutore.allowCoreThreadTimeOut(true);
+        riprove = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "task-dispatcher-retry");
+            t.setDaemon(true);
+            return t;
+        });
+        logger.info("Task dispatcher: {} URL configurate, max {} chiamate contemporanee, timeout {} ms, {} riprove",
+                taskProperties.getUrls().size(), thread, taskProperties.getTimeoutMs(), taskProperties.getMaxRetries());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        riprove.shutdownNow();
+        esecutore.shutdownNow();
+    }
+
+    /**
+     * Lancia in background tutti i task configurati
+     *
+     * @return ID del lancio, per filtrare GET /api/task-lanciati
+     */
+    public String lanciaTask() {
+        String lancio = UUID.randomUUID().toString();
+        List<String> urls = taskProperties.getUrls();
+        logger.info("Lancio {} URL di task in background (lancio {})", urls.size(), lancio);
+
+        for (String url : urls) {
+            EsitoTask esito = new EsitoTask(lancio, getTaskName(url), url);
+            ultimoEsito.put(esito.getTaskName(), esito);
+            aggiungiStorico(esito);
+            invia(esito);
+        }
+        return lancio;
+    }
+
+    /**
+     * Ultimo esito di ogni task, in ordine di nome
+     */
+    public List<EsitoTask> getUltimiEsiti() {
+        List<EsitoTask> result = new ArrayList<>(ultimoEsito.values());
+        result.sort((a, b) -> a.getTaskName().compareTo(b.getTaskName()));
+        return result;
+    }
+
+    /**
+     * Esiti dei task di un lancio (tutti i lanci conservati se lancio e' null), dal piu' recente
+     */
+    public List<EsitoTask> getStorico(String lancio) {
+        List<EsitoTask> result = new ArrayList<>();
+        synchronized (storico) {
+            for (EsitoTask esito : storico) {
+                if (lancio == null || lancio.equals(esito.getLancio())) {
+                    result.add(esito);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Stato del dispatcher per GET /api/task-lanciati
+     */
+    public Map<String, Object> getStatistiche() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("configuredUrls", taskProperties.getUrls().size());
+        stats.put("maxConcurrent", esecutore.getMaximumPoolSize());
+        stats.put("active", esecutore.getActiveCount());
+        stats.put("queued", esecutore.getQueue().size());
+        stats.put("timeoutMs", taskProperties.getTimeoutMs());
+        stats.put("maxRetries", taskProperties.getMaxRetries());
+        return stats;
+    }
+
+    private void invia(EsitoTask esito) {
+        try {
+            esecutore.execute(() -> esegui(esito));
+        } catch (RejectedExecutionException e) {
+            completa(esito, EsitoTask.ERRORE, "Dispatcher arrestato");
+        }
+    }
+
+    /**
+     * Un tentativo di chiamata; in caso di errore ripianifica il tentativo successivo
+     */
+    private void esegui(EsitoTask esito) {
+        int tentativo = esito.getTentativi() + 1;
+        esito.setTentativi(tentativo);
+        esito.setStato(EsitoTask.IN_CORSO);
+
+        long inizio = System.nanoTime();
+        HttpURLConnection conn;
+        boolean riprova;
+        String errore;
+        try {
+            logger.info("Richiamando URL in background: {} (tentativo {})", esito.getUrl(), tentativo);
+            conn = (HttpURLConnection) new URL(esito.getUrl()).openConnection();
+            conn.setRequestMethod("GET");
+            conn.setConnectTimeout(taskProperties.getTimeoutMs());
+            conn.setReadTimeout(taskProperties.getTimeoutMs());
+        } catch (IOException e) {
+            completa(esito, EsitoTask.ERRORE, e.getClass().getSimpleName() + ": " + e.getMessage());
+            return;
+        }
+        try {
+            // La richiesta non e' ancora stata inviata: un errore qui e' sicuro da riprovare
+            conn.connect();
+        } catch (IOException e) {
+            esito.setLatenzaMs(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - inizio));
+            logger.error("Connessione a {} non riuscita: {}", esito.getUrl(), e.getMessage());
+            conn.disconnect();
+            riprova(esito, tentativo, e.getClass().getSimpleName() + ": " + e.getMessage());
+            return;
+        }
+        try {
+            int responseCode = conn.getResponseCode();
+            svuota(conn, responseCode);
+
+            esito.setHttpCode(responseCode);
+            esito.setLatenzaMs(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - inizio));
+            logger.info("Risposta da {}: {} in {} ms", esito.getUrl(), responseCode, esito.getLatenzaMs());
+
+            if (responseCode < 400) {
+                completa(esito, EsitoTask.OK, null);
+                return;
+            }
+            // 502/503/504: scheduler o gateway non disponibili, la richiesta non e' stata eseguita;
+            // un 4xx non cambia riprovando, un altro 5xx puo' arrivare dopo l'avvio del task
+            riprova = responseCode == 502 || responseCode == 503 || responseCode == 504;
+            errore = "HTTP " + responseCode;
+        } catch (Exception e) {
+            // Richiesta gia' inviata (es. timeout di lettura): lo START potrebbe essere stato eseguito
+            esito.setLatenzaMs(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - inizio));
+            logger.error("Errore nel richiamare {} dopo l'invio della richiesta: {}", esito.getUrl(), e.getMessage());
+            // Dopo un errore la connessione non e' riusabile
+            conn.disconnect();
+            completa(esito, EsitoTask.INCERTO, e.getClass().getSimpleName() + ": " + e.getMessage());
+            return;
+        }
+
+        if (riprova) {
+            riprova(esito, tentativo, errore);
+        } else {
+            completa(esito, EsitoTask.ERRORE, errore);
+        }
+    }
+
+    /**
+     * Pianifica il tentativo successivo, o chiude il task in ERRORE se i tentativi sono esauriti
+     */
+    private void riprova(EsitoTask esito, int tentativo, String errore) {
+        if (tentativo > taskProperties.getMaxRetries()) {
+            completa(esito, EsitoTask.ERRORE, errore);
+            return;
+        }
+
+        long attesa = taskProperties.getBackoffMs() << Math.min(tentativo - 1, 16);
+        esito.setErrore(errore);
+        esito.setStato(EsitoTask.IN_ATTESA_RIPROVA);
+        logger.warn("Task {}: nuovo tentativo tra {} ms", esito.getTaskName(), attesa);
+        try {
+            riprove.schedule(() -> invia(esito), attesa, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            completa(esito, EsitoTask.ERRORE, errore);
+        }
+    }
+
+    private void completa(EsitoTask esito, String stato, String errore) {
+        esito.setErrore(errore);
+        esito.setCompletato(LocalDateTime.now());
+        esito.setStato(stato);
+        if (EsitoTask.ERRORE.equals(stato)) {
+            logger.error("Task {} fallito dopo {} tentativi: {}", esito.getTaskName(), esito.getTentativi(), errore);
+        } else if (EsitoTask.INCERTO.equals(stato)) {
+            logger.warn("Task {} non riprovato, avvio da verificare sullo scheduler: {}", esito.getTaskName(), errore);
+        }
+    }
+
+    /**
+     * Legge e scarta il corpo della risposta, per permettere il riuso della connessione keep-alive
+     */
+    private static void svuota(HttpURLConnection conn, int responseCode) {
+        try (InputStream in = responseCode < 400 ? conn.getInputStream() : conn.getErrorStream()) {
+            if (in != null) {
+                byte[] buffer = new byte[4096];
+                while (in.read(buffer) >= 0) {
+                    // scarta
+                }
+            }
+        } catch (Exception e) {
+            logger.debug("Errore nella lettura della risposta: {}", e.getMessage());
+        }
+    }
+
+    private void aggiungiStorico(EsitoTask esito) {
+        int max = Math.max(1, taskProperties.getHistorySize());
+        synchronized (storico) {
+            storico.addFirst(esito);
+            while (storico.size() > max) {
+                storico.removeLast();
+            }
+        }
+    }
+
+    /**
+     * Nome del task dal parametro taskName dell'URL (l'URL intero se manca)
+     */
+    static String getTaskName(String url) {
+        int idx = url.indexOf("taskName=");
+        if (idx < 0) {
+            return url;
+        }
+        String nome = url.substring(idx + "taskName=".length());
+        int fine = nome.indexOf('&');
+        return fine >= 0 ? nome.substring(0, fine) : nome;
+    }
+}
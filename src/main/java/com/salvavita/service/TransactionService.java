@@ -2,24 +2,83 @@ package com.salvavita.service;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.web.context.request.RequestContextHolder;
 import org.springframework.web.context.request.ServletRequestAttributes;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.sql.Connection;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 /**
- * Servizio Singleton per gestire le transazioni in sospeso
- * Mantiene la connessione attiva usando Session ID
+ * Registro delle transazioni in attesa di Commit/Rollback.
+ * Ogni sessione ha al massimo una transazione, identificata da un ID e con un lease:
+ * ogni operazione lo rinnova, il browser lo rinnova finche' il riepilogo e' aperto.
+ * Un reaper in background esegue il rollback delle transazioni con lease scaduto,
+ * cosi' un browser chiuso non lascia righe bloccate e sessioni Oracle aperte.
+ * Ogni transazione tiene una connessione del pool per tutto il lease: le transazioni aperte
+ * sono al massimo salvavita.transaction.max-pending, cosi' non tolgono connessioni ai bulkhead.
  */
 @Service
 public class TransactionService {
 
     private static final Logger logger = LoggerFactory.getLogger(TransactionService.class);
 
-    // Mappa di connessioni per sessione (usando Session ID come chiave)
-    private static final Map<String, Connection> activeTransactions = Collections.synchronizedMap(new HashMap<>());
+    @Autowired
+    private MetricheService metriche;
+
+    @Value("${salvavita.transaction.lease-ms:300000}")
+    private long leaseMs;
+
+    @Value("${salvavita.transaction.reaper-interval-ms:30000}")
+    private long reaperIntervalMs;
+
+    @Value("${salvavita.transaction.max-pending:3}")
+    private int maxInSospeso;
+
+    // Transazioni per ID e ID della transazione per sessione
+    private final ConcurrentHashMap<String, TransazioneInSospeso> transazioni = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, String> transazioniPerSessione = new ConcurrentHashMap<>();
+
+    // Posti liberi per nuove transazioni: preso in registra, restituito quando la transazione esce dal registro
+    private Semaphore posti;
+
+    private ScheduledExecutorService reaper;
+
+    @PostConstruct
+    public void init() {
+        posti = new Semaphore(Math.max(1, maxInSospeso));
+        metriche.registraTransazioniInSospeso(transazioni);
+        reaper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "transaction-reaper");
+            t.setDaemon(true);
+            return t;
+        });
+        reaper.scheduleWithFixedDelay(this::rimuoviAbbandonate, reaperIntervalMs, reaperIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        reaper.shutdownNow();
+        for (TransazioneInSospeso tx : new ArrayList<>(transazioni.values())) {
+            try {
+                if (rimuovi(tx)) {
+                    rollback(tx, "shutdown", "arresto dell'applicazione");
+                }
+            } catch (TransazioneInUsoException e) {
+                // La connessione viene chiusa con il pool: Oracle annulla le modifiche non confermate
+                logger.warn("Transazione {} in uso all'arresto, rollback lasciato alla chiusura del pool", tx.getId());
+            }
+        }
+    }
 
     /**
      * Ottieni il Session ID della richiesta corrente
@@ -37,51 +96,203 @@ public class TransactionService {
     }
 
     /**
-     * Salva una connessione per una transazione
+     * Transazione in sospeso della sessione corrente, segnata come in uso
+     * (il reaper non la tocca finche' non viene chiamato registra o rilascia).
+     *
+     * @return null se la sessione non ha transazioni aperte
+     */
+    public TransazioneInSospeso riprendi() {
+        TransazioneInSospeso tx = getTransazione();
+        return tx != null && tx.prendi() ? tx : null;
+    }
+
+    /**
+     * Numero massimo di transazioni aperte contemporaneamente
      */
-    public static void saveConnection(Connection conn) {
-        String sessionId = getSessionId();
-        activeTransactions.put(sessionId, conn);
-        logger.info("Transazione salvata per sessione: {}", sessionId);
+    public int getMaxInSospeso() {
+        return Math.max(1, maxInSospeso);
     }
 
     /**
-     * Ottieni la connessione di una transazione
+     * Controllo preliminare prima di prendere una connessione per una nuova transazione
+     * (il limite e' comunque garantito da registra)
+     *
+     * @throws Exception se sono gia' aperte salvavita.transaction.max-pending transazioni
      */
-    public static Connection getConnection() {
-        String sessionId = getSessionId();
-        Connection conn = activeTransactions.get(sessionId);
-        logger.info("Ricerca transazione per sessione: {}, trovato: {}", sessionId, conn != null);
-        return conn;
+    public void verificaPosto() throws Exception {
+        if (posti.availablePermits() == 0) {
+            throw new Exception(messaggioLimite());
+        }
     }
 
     /**
-     * Rimuovi la transazione
+     * Registra un'operazione non confermata: la aggiunge alla transazione tx (ottenuta da riprendi)
+     * o, se tx e' null, apre una nuova transazione sulla connessione indicata. Rinnova il lease.
+     *
+     * @param snapshot snapshot da invalidare al commit (puo' essere null)
+     * @param tabelle  tabelle bloccate dall'operazione
+     * @throws Exception se tx e' null e sono gia' aperte salvavita.transaction.max-pending transazioni
+     *                   (il chiamante annulla l'operazione e chiude la connessione)
      */
-    public static void removeConnection() {
-        String sessionId = getSessionId();
-        activeTransactions.remove(sessionId);
-        logger.info("Transazione rimossa per sessione: {}", sessionId);
+    public TransazioneInSospeso registra(TransazioneInSospeso tx, Connection conn, String operazione,
+                                         String snapshot, List<String> tabelle) throws Exception {
+        if (tx == null) {
+            if (!posti.tryAcquire()) {
+                throw new Exception(messaggioLimite());
+            }
+            String sessionId = getSessionId();
+            tx = new TransazioneInSospeso(UUID.randomUUID().toString(), sessionId, conn);
+            tx.prendi();
+            transazioni.put(tx.getId(), tx);
+            String precedente = transazioniPerSessione.put(sessionId, tx.getId());
+            if (precedente != null) {
+                // Non dovrebbe accadere: le operazioni riprendono la transazione della sessione
+                TransazioneInSospeso vecchia = transazioni.get(precedente);
+                try {
+                    if (vecchia != null && rimuovi(vecchia)) {
+                        rollback(vecchia, "replaced", "sostituita da una nuova transazione della stessa sessione");
+                    }
+                } catch (TransazioneInUsoException e) {
+                    // Resta nel registro: la chiudera' il reaper alla scadenza del lease
+                    logger.warn("Transazione {} in uso, non sostituita: {}", precedente, e.getMessage());
+                }
+            }
+            logger.info("Transazione {} aperta per sessione: {}", tx.getId(), sessionId);
+        }
+        tx.registra(operazione, snapshot, tabelle);
+        tx.rinnova(leaseMs);
+        tx.rilascia();
+        return tx;
+    }
+
+    /**
+     * Rilascia una transazione ottenuta da riprendi senza registrare operazioni
+     */
+    public void rilascia(TransazioneInSospeso tx) {
+        if (tx != null) {
+            tx.rilascia();
+        }
+    }
+
+    /**
+     * Transazione in sospeso della sessione corrente (null se assente)
+     */
+    public TransazioneInSospeso getTransazione() {
+        String id = transazioniPerSessione.get(getSessionId());
+        return id != null ? transazioni.get(id) : null;
+    }
+
+    /**
+     * Rinnova il lease della transazione della sessione corrente
+     *
+     * @return la transazione, null se la sessione non ne ha
+     */
+    public TransazioneInSospeso rinnova() {
+        TransazioneInSospeso tx = getTransazione();
+        if (tx != null) {
+            tx.rinnova(leaseMs);
+        }
+        return tx;
+    }
+
+    /**
+     * Toglie dal registro la transazione della sessione corrente per eseguirne Commit/Rollback.
+     * Solo un chiamante (richiesta o reaper) ottiene la transazione.
+     *
+     * @return null se la sessione non ha transazioni aperte
+     * @throws TransazioneInUsoException se un'operazione della sessione sta ancora usando la connessione
+     */
+    public TransazioneInSospeso chiudi() throws TransazioneInUsoException {
+        TransazioneInSospeso tx = getTransazione();
+        return tx != null && rimuovi(tx) ? tx : null;
+    }
+
+    /**
+     * Esegue il rollback della transazione indicata (es. abbandonata da un altro operatore)
+     *
+     * @return false se la transazione non esiste o e' gia' stata chiusa
+     * @throws TransazioneInUsoException se un'operazione sta ancora usando la connessione
+     */
+    public boolean rollback(String id) throws TransazioneInUsoException {
+        TransazioneInSospeso tx = transazioni.get(id);
+        if (tx == null || !rimuovi(tx)) {
+            return false;
+        }
+        rollback(tx, "forced", "richiesta esplicita");
+        return true;
+    }
+
+    /**
+     * Stato di tutte le transazioni aperte, dalla piu' vecchia
+     */
+    public List<Map<String, Object>> getTransazioni() {
+        List<Map<String, Object>> result = new ArrayList<>();
+        for (TransazioneInSospeso tx : transazioni.values()) {
+            result.add(tx.getInfo());
+        }
+        result.sort(Comparator.comparing(info -> -((Long) info.get("ageMs"))));
+        return result;
     }
 
     /**
      * Controlla se c'è una transazione attiva
      */
-    public static boolean hasActiveTransaction() {
-        return getConnection() != null;
+    public boolean hasActiveTransaction() {
+        return getTransazione() != null;
+    }
+
+    private boolean rimuovi(TransazioneInSospeso tx) throws TransazioneInUsoException {
+        if (!tx.chiudi()) {
+            return false;
+        }
+        transazioni.remove(tx.getId(), tx);
+        transazioniPerSessione.remove(tx.getSessionId(), tx.getId());
+        posti.release();
+        return true;
+    }
+
+    private String messaggioLimite() {
+        return "Raggiunto il limite di " + getMaxInSospeso() + " transazioni in attesa di Commit/Rollback: "
+                + "confermare o annullare una transazione aperta prima di avviarne un'altra";
+    }
+
+    /**
+     * Reaper: rollback delle transazioni con lease scaduto non in uso
+     */
+    private void rimuoviAbbandonate() {
+        long ora = System.currentTimeMillis();
+        for (TransazioneInSospeso tx : transazioni.values()) {
+            try {
+                if (tx.isAbbandonata(ora) && rimuovi(tx)) {
+                    rollback(tx, "expired", "lease scaduto");
+                }
+            } catch (TransazioneInUsoException e) {
+                // Ripresa da un'operazione dopo il controllo: il lease verra' rinnovato
+                logger.debug("Transazione {} ripresa prima della scadenza", tx.getId());
+            }
+        }
     }
 
     /**
-     * Debug: mostra tutte le transazioni attive
+     * @param esito tag della metrica salvavita.transactions.closed
      */
-    public static void debugTransactions() {
-        logger.info("Transazioni attive: {}", activeTransactions.size());
-        activeTransactions.forEach((k, v) -> {
+    private void rollback(TransazioneInSospeso tx, String esito, String motivo) {
+        metriche.registraChiusuraTransazione(esito);
+        Connection conn = tx.getConnection();
+        try {
+            if (!conn.isClosed()) {
+                conn.rollback();
+                conn.setAutoCommit(true);
+            }
+            logger.warn("ROLLBACK della transazione {} ({}): {}", tx.getId(), motivo, tx.getInfo().get("operations"));
+        } catch (Exception e) {
+            logger.error("Errore nel rollback della transazione {}: {}", tx.getId(), e.getMessage());
+        } finally {
             try {
-                logger.info("  Sessione: {}, Connessione chiusa: {}", k, v.isClosed());
+                conn.close();
             } catch (Exception e) {
-                logger.error("  Errore nel controllare la connessione", e);
+                logger.error("Errore nella chiusura della connessione: {}", e.getMessage());
             }
-        });
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,128 @@
+package com.salvavita.service;
+
+import java.sql.Connection;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Transazione in attesa di Commit/Rollback: la connessione con le modifiche non confermate,
+ * le operazioni eseguite, le tabelle bloccate e la scadenza del lease.
+ * Lo stato mutabile e' protetto dal lock dell'istanza.
+ */
+public class TransazioneInSospeso {
+
+    private final String id;
+    private final String sessionId;
+    private final Connection connection;
+    private final long creata;
+
+    private long scadenza;
+    private boolean inUso;
+    private boolean chiusa;
+    private final List<String> operazioni = new ArrayList<>();
+    private final Set<String> tabelle = new LinkedHashSet<>();
+    private final Set<String> snapshots = new LinkedHashSet<>();
+
+    TransazioneInSospeso(String id, String sessionId, Connection connection) {
+        this.id = id;
+        this.sessionId = sessionId;
+        this.connection = connection;
+        this.creata = System.currentTimeMillis();
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    public Connection getConnection() {
+        return connection;
+    }
+
+    public synchronized long getScadenza() {
+        return scadenza;
+    }
+
+    public synchronized Set<String> getSnapshots() {
+        return new LinkedHashSet<>(snapshots);
+    }
+
+    synchronized void rinnova(long leaseMs) {
+        scadenza = System.currentTimeMillis() + leaseMs;
+    }
+
+    /**
+     * Segna la transazione come in uso da un'operazione; false se e' gia' stata chiusa
+     */
+    synchronized boolean prendi() {
+        if (chiusa) {
+            return false;
+        }
+        inUso = true;
+        return true;
+    }
+
+    synchronized void rilascia() {
+        inUso = false;
+    }
+
+    synchronized void registra(String operazione, String snapshot, List<String> tabelleBloccate) {
+        operazioni.add(operazione);
+        if (snapshot != null) {
+            snapshots.add(snapshot);
+        }
+        tabelle.addAll(tabelleBloccate);
+    }
+
+    /**
+     * Chiude la transazione per Commit/Rollback; false se era gia' chiusa
+     *
+     * @throws TransazioneInUsoException se un'operazione sta ancora usando la connessione
+     */
+    synchronized boolean chiudi() throws TransazioneInUsoException {
+        if (chiusa) {
+            return false;
+        }
+        if (inUso) {
+            throw new TransazioneInUsoException("La transazione " + id
+                    + " e' in uso da un'operazione non ancora terminata, riprovare al suo termine");
+        }
+        chiusa = true;
+        return true;
+    }
+
+    /**
+     * True se il lease e' scaduto e nessuna operazione sta usando la connessione
+     */
+    synchronized boolean isAbbandonata(long ora) {
+        return !chiusa && !inUso && ora > scadenza;
+    }
+
+    /**
+     * Stato della transazione per GET /api/transazioni
+     */
+    public synchronized Map<String, Object> getInfo() {
+        long ora = System.currentTimeMillis();
+        Map<String, Object> info = new LinkedHashMap<>();
+        info.put("id", id);
+        info.put("session", sessionId.length() > 8 ? sessionId.substring(0, 8) + "..." : sessionId);
+        info.put("created", LocalDateTime.ofInstant(Instant.ofEpochMilli(creata), ZoneId.systemDefault()));
+        info.put("ageMs", ora - creata);
+        info.put("leaseExpires", LocalDateTime.ofInstant(Instant.ofEpochMilli(scadenza), ZoneId.systemDefault()));
+        info.put("leaseRemainingMs", Math.max(0, scadenza - ora));
+        info.put("inUse", inUso);
+        info.put("operations", new ArrayList<>(operazioni));
+        info.put("lockedTables", new ArrayList<>(tabelle));
+        return info;
+    }
+}
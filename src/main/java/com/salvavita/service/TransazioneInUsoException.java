@@ -0,0 +1,12 @@
+package com.salvavita.service;
+
+/**
+ * Commit/Rollback rifiutato perche' un'altra richiesta sta ancora eseguendo un'operazione
+ * sulla connessione della transazione (es. una cancellazione non ancora terminata)
+ */
+public class TransazioneInUsoException extends Exception {
+
+    public TransazioneInUsoException(String message) {
+        super(message);
+    }
+}
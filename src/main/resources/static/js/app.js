@@ -2,18 +2,21 @@
  * app.js - Logica comune per tutti i pannelli
  */
 
-// Funzione per controllare lo stato del DB
+// Funzione per controllare lo stato del DB (stato in cache sul server, nessuna connessione aperta)
 function checkDatabaseStatus() {
     fetch('/salvavita/api/health')
         .then(response => response.json())
-        .then(data => {
-            document.getElementById('dbStatus').classList.add('connected');
-            document.getElementById('dbStatusText').textContent = 'Connesso';
-        })
-        .catch(error => {
-            document.getElementById('dbStatus').classList.add('error');
-            document.getElementById('dbStatusText').textContent = 'Disconnesso';
-        });
+        .then(data => setDatabaseStatus(data.status, data.lastError))
+        .catch(error => setDatabaseStatus('DOWN', error.message));
+}
+
+function setDatabaseStatus(status, errore) {
+    const indicatore = document.getElementById('dbStatus');
+    const testo = document.getElementById('dbStatusText');
+    indicatore.classList.toggle('connected', status === 'UP');
+    indicatore.classList.toggle('error', status === 'DOWN');
+    testo.textContent = status === 'UP' ? 'Connesso' : status === 'DOWN' ? 'Disconnesso' : 'Verifica in corso...';
+    testo.title = status === 'DOWN' && errore ? errore : '';
 }
 
 /**
@@ -46,3 +49,47 @@ function formatDate(dateString) {
         return '-';
     }
 }
+
+/**
+ * Descrive l'eta' dello snapshot restituito dal server
+ */
+function formatSnapshotAge(ageMs) {
+    if (ageMs === undefined || ageMs === null) return '';
+    const secondi = Math.round(ageMs / 1000);
+    if (secondi < 60) return `aggiornati ${secondi}s fa`;
+    return `aggiornati ${Math.round(secondi / 60)} min fa`;
+}
+
+/**
+ * Si iscrive al canale SSE della dashboard: alle variazioni ricarica i pannelli gia' aperti.
+ * EventSource si riconnette da solo e invia Last-Event-ID, cosi' si ricevono solo gli eventi persi
+ */
+function subscribeDashboardEvents() {
+    if (!window.EventSource) return;
+
+    const source = new EventSource('/salvavita/api/eventi');
+    let protocolliTimer = null;
+    let tasksTimer = null;
+
+    const refreshProtocolli = () => {
+        clearTimeout(protocolliTimer);
+        protocolliTimer = setTimeout(() => {
+            if (protocolliCache && !protocolliPage) loadProtocolliSospesi();
+        }, 1000);
+    };
+    const refreshTasks = () => {
+        clearTimeout(tasksTimer);
+        tasksTimer = setTimeout(() => {
+            if (tasksLoaded) loadScheduledTasks();
+        }, 1000);
+    };
+
+    source.addEventListener('protocollo-nuovo', refreshProtocolli);
+    source.addEventListener('protocollo-risolto', refreshProtocolli);
+    source.addEventListener('task-riprogrammato', refreshTasks);
+    source.addEventListener('resync', () => {
+        refreshProtocolli();
+        refreshTasks();
+    });
+    source.onerror = () => console.warn('Canale eventi interrotto, riconnessione in corso...');
+}
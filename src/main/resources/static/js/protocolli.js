@@ -2,8 +2,32 @@
  * protocolli.js - Logica specifica per il pannello Protocolli Sospesi
  */
 
+// Ultimi dati ricevuti dal server: alle ricariche successive si chiedono solo le variazioni
+let protocolliCache = null;
+
+// Pagina corrente quando e' attivo un filtro (righe gia' caricate e cursore della successiva)
+let protocolliPage = null;
+
+// FILTRI SELEZIONATI NEL PANNELLO
+function buildProtocolliFilter() {
+    const params = new URLSearchParams();
+    const ente = document.getElementById('filtroEnte').value;
+    if (ente) params.append('ente', ente);
+    if (document.getElementById('filtroErrore').checked) params.append('conErrore', 'true');
+    return params;
+}
+
 // CARICA PROTOCOLLI SOSPESI
 function loadProtocolliSospesi() {
+    const filtro = buildProtocolliFilter();
+    document.getElementById('protocolliMore').style.display = 'none';
+    if (filtro.toString()) {
+        protocolliPage = { filtro: filtro, data: [] };
+        loadProtocolliPage(null);
+        return;
+    }
+    protocolliPage = null;
+
     const contentDiv = document.getElementById('protocolliContent');
     const loadingDiv = document.getElementById('protocolliLoading');
     const errorDiv = document.getElementById('protocolliError');
@@ -14,12 +38,17 @@ function loadProtocolliSospesi() {
     errorDiv.style.display = 'none';
     successDiv.style.display = 'none';
 
-    fetchAPI('/salvavita/api/protocolli-sospesi')
+    const request = protocolliCache
+        ? fetchAPI(`/salvavita/api/protocolli-sospesi/delta?since=${protocolliCache.version}&epoch=${encodeURIComponent(protocolliCache.epoch)}`).then(applyProtocolliDelta)
+        : fetchAPI('/salvavita/api/protocolli-sospesi');
+
+    request
         .then(data => {
             loadingDiv.style.display = 'none';
 
             if (data.success) {
-                successDiv.textContent = `✓ Caricati ${data.totalRecords} record`;
+                protocolliCache = { version: data.version, epoch: data.epoch, data: data.data };
+                successDiv.textContent = `✓ Caricati ${data.totalRecords} record (${formatSnapshotAge(data.snapshotAgeMs)})`;
                 successDiv.style.display = 'block';
 
                 if (data.data.length === 0) {
@@ -41,12 +70,79 @@ function loadProtocolliSospesi() {
         });
 }
 
+// CARICA LA PAGINA SUCCESSIVA DEL FILTRO CORRENTE
+function loadMoreProtocolli() {
+    if (protocolliPage && protocolliPage.nextCursor) {
+        loadProtocolliPage(protocolliPage.nextCursor);
+    }
+}
+
+// CARICA UNA PAGINA FILTRATA (la query viene eseguita solo sugli schemi richiesti)
+function loadProtocolliPage(cursor) {
+    const contentDiv = document.getElementById('protocolliContent');
+    const loadingDiv = document.getElementById('protocolliLoading');
+    const errorDiv = document.getElementById('protocolliError');
+    const successDiv = document.getElementById('protocolliSuccess');
+    const moreDiv = document.getElementById('protocolliMore');
+
+    const params = new URLSearchParams(protocolliPage.filtro);
+    params.append('pageSize', '500');
+    if (cursor) params.append('after', cursor);
+
+    loadingDiv.style.display = 'block';
+    errorDiv.style.display = 'none';
+    moreDiv.style.display = 'none';
+
+    fetchAPI(`/salvavita/api/protocolli-sospesi?${params}`)
+        .then(data => {
+            loadingDiv.style.display = 'none';
+
+            if (data.success) {
+                protocolliPage.data = protocolliPage.data.concat(data.data);
+                protocolliPage.nextCursor = data.nextCursor;
+                const rows = { totalRecords: protocolliPage.data.length, data: protocolliPage.data };
+
+                successDiv.textContent = `✓ Caricati ${rows.totalRecords} record${data.hasMore ? ' (altri disponibili)' : ''}`;
+                successDiv.style.display = 'block';
+                contentDiv.innerHTML = rows.data.length === 0
+                    ? '<div class="empty-state"><p>Nessun record trovato</p></div>'
+                    : buildProtocolliTable(rows);
+                contentDiv.style.display = 'block';
+                moreDiv.style.display = data.hasMore ? 'flex' : 'none';
+            } else {
+                errorDiv.textContent = '❌ Errore: ' + (data.message || 'Errore sconosciuto');
+                errorDiv.style.display = 'block';
+            }
+        })
+        .catch(error => {
+            loadingDiv.style.display = 'none';
+            errorDiv.textContent = '❌ Errore di comunicazione: ' + error.message;
+            errorDiv.style.display = 'block';
+        });
+}
+
+// APPLICA LE VARIAZIONI RICEVUTE AI DATI IN CACHE
+function applyProtocolliDelta(delta) {
+    if (!delta.success || delta.full) {
+        return delta;
+    }
+
+    const rimossi = delta.removed || {};
+    const rows = protocolliCache.data
+        .filter(row => !(rimossi[row.ente] && rimossi[row.ente].includes(row.sequLongId)))
+        .concat(delta.data);
+    rows.sort((a, b) => a.ente.localeCompare(b.ente) || a.sequLongId - b.sequLongId);
+
+    return Object.assign({}, delta, { data: rows, totalRecords: rows.length });
+}
+
 // COSTRUISCI TABELLA PROTOCOLLI
 function buildProtocolliTable(data) {
     let html = `<div class="record-count">📊 Totale: ${data.totalRecords} record</div>`;
     html += `<div class="table-wrapper"><table>
         <thead>
             <tr>
+                <th><input type="checkbox" title="Seleziona tutti" onchange="toggleSelezioneProtocolli(this.checked)"></th>
                 <th>Azione</th>
                 <th>ENTE</th>
                 <th>Seq ID</th>
@@ -77,6 +173,7 @@ function buildProtocolliTable(data) {
         }
         
         html += `<tr>
+            <td><input type="checkbox" class="protocollo-check" value="${row.ente}:${row.sequLongId}" onchange="aggiornaSelezioneProtocolli()"></td>
             <td><button class="btn-elimina" onclick="deleteProtoTemporaneo('${row.ente}', ${row.sequLongId})">🗑️ Elimina</button></td>
             <td><strong>${row.ente}</strong></td>
             <td>${row.sequLongId}</td>
@@ -93,9 +190,31 @@ function buildProtocolliTable(data) {
     });
 
     html += `</tbody></table></div>`;
+    setTimeout(aggiornaSelezioneProtocolli, 0);
     return html;
 }
 
+// PROTOCOLLI SELEZIONATI (un protocollo con piu' documenti compare su piu' righe)
+function getProtocolliSelezionati() {
+    const chiavi = new Set();
+    document.querySelectorAll('.protocollo-check:checked').forEach(cb => chiavi.add(cb.value));
+    return Array.from(chiavi).map(chiave => {
+        const [ente, sequLongId] = chiave.split(':');
+        return { ente: ente, sequLongId: Number(sequLongId) };
+    });
+}
+
+function toggleSelezioneProtocolli(selezionati) {
+    document.querySelectorAll('.protocollo-check').forEach(cb => cb.checked = selezionati);
+    aggiornaSelezioneProtocolli();
+}
+
+function aggiornaSelezioneProtocolli() {
+    const numero = getProtocolliSelezionati().length;
+    document.getElementById('numSelezionati').textContent = numero;
+    document.getElementById('btnEliminaSelezionati').disabled = numero === 0;
+}
+
 // AUTO-REFRESH FUNCTION
 function refreshProtocolliSospesi() {
     loadProtocolliSospesi();
@@ -163,11 +282,51 @@ function deleteProtoTemporaneo(ente, sequLongId) {
         });
 }
 
+// ELIMINA I PROTOCOLLI TEMPORANEI SELEZIONATI (una sola transazione, Commit/Rollback dal modal)
+function deleteProtiSelezionati() {
+    const protocolli = getProtocolliSelezionati();
+    if (protocolli.length === 0) {
+        return;
+    }
+    if (!confirm(`Eliminare ${protocolli.length} protocolli temporanei? Potrai confermare con COMMIT o annullare con ROLLBACK.`)) {
+        return;
+    }
+
+    const loadingDiv = document.getElementById('protocolliLoading');
+    const errorDiv = document.getElementById('protocolliError');
+
+    loadingDiv.style.display = 'block';
+    errorDiv.style.display = 'none';
+
+    fetchAPI('/salvavita/api/delete-proto-temporanei', 'POST', protocolli)
+        .then(data => {
+            loadingDiv.style.display = 'none';
+            if (data.success) {
+                const enti = Object.entries(data.recordsPerEnte)
+                    .map(([ente, record]) => `${ente}: ${record}`)
+                    .join(', ');
+                showTransactionModal(data.recordsAffected, data.queries, enti, `${data.protocolli} protocolli`);
+            } else {
+                errorDiv.style.display = 'block';
+                errorDiv.innerHTML = `❌ Errore: ${data.message}`;
+            }
+        })
+        .catch(error => {
+            loadingDiv.style.display = 'none';
+            errorDiv.style.display = 'block';
+            errorDiv.innerHTML = `❌ Errore nella comunicazione: ${error.message}`;
+            console.error('Errore:', error);
+        });
+}
+
 // MOSTRA IL MODAL CON IL RIEPILOGO
 function showTransactionModal(records, queries, ente, sequLongId) {
     document.getElementById('modalRecords').textContent = records;
     document.getElementById('modalQueries').textContent = queries;
-    document.getElementById('modalEnte').textContent = ente + ' (ID: ' + sequLongId + ')';
+    // Cancellazione multipla: sequLongId contiene il numero di protocolli selezionati
+    document.getElementById('modalEnte').textContent = typeof sequLongId === 'number'
+        ? ente + ' (ID: ' + sequLongId + ')'
+        : ente + ' (' + sequLongId + ')';
     
     // Salva i dati per il commit/rollback
     window.pendingTransaction = {
@@ -176,6 +335,21 @@ function showTransactionModal(records, queries, ente, sequLongId) {
         records: records
     };
     
+    // Finche' il riepilogo e' aperto rinnova il lease: chiudendo il browser la transazione
+    // scade e il server esegue il rollback da solo
+    clearInterval(window.leaseTimer);
+    window.leaseTimer = setInterval(() => {
+        fetchAPI('/salvavita/api/transazioni/rinnova', 'POST')
+            .then(data => {
+                if (!data.success) {
+                    clearInterval(window.leaseTimer);
+                    alert(`⚠️ ${data.message}`);
+                    closeTransactionModal();
+                }
+            })
+            .catch(error => console.error('Rinnovo lease non riuscito:', error));
+    }, 60000);
+
     // Mostra il modal
     document.getElementById('transactionModal').style.display = 'block';
 }
@@ -216,6 +390,7 @@ function doRollback() {
 
 // CHIUDI IL MODAL
 function closeTransactionModal() {
+    clearInterval(window.leaseTimer);
     document.getElementById('transactionModal').style.display = 'none';
     window.pendingTransaction = null;
 }
\ No newline at end of file
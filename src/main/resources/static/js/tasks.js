@@ -2,6 +2,9 @@
  * tasks.js - Logica specifica per il pannello Task Schedulati
  */
 
+// True dopo il primo caricamento: gli eventi SSE ricaricano solo un pannello gia' aperto
+let tasksLoaded = false;
+
 // CARICA SCHEDULED TASKS
 function loadScheduledTasks() {
     const contentDiv = document.getElementById('tasksContent');
@@ -19,7 +22,8 @@ function loadScheduledTasks() {
             loadingDiv.style.display = 'none';
 
             if (data.success) {
-                successDiv.textContent = `✓ Caricati ${data.totalRecords} record`;
+                tasksLoaded = true;
+                successDiv.textContent = `✓ Caricati ${data.totalRecords} record (${formatSnapshotAge(data.snapshotAgeMs)})`;
                 successDiv.style.display = 'block';
 
                 if (data.data.length === 0) {
@@ -0,0 +1,236 @@
+package com.salvavita.service;
+
+import com.salvavita.config.TaskProperties;
+import com.salvavita.config.ThreadVirtuali;
+import com.salvavita.model.EsitoTask;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Riprove, backoff, esito INCERTO e limite di chiamate contemporanee del dispatcher,
+ * contro uno scheduler simulato con l'HttpServer del JDK
+ */
+class TaskDispatcherServiceTest {
+
+    private HttpServer server;
+    private ExecutorService serverThread;
+    private TaskDispatcherService dispatcher;
+    // Sblocca le risposte trattenute dal server (timeout di lettura)
+    private final CountDownLatch rilascio = new CountDownLatch(1);
+
+    @AfterEach
+    void chiudi() {
+        rilascio.countDown();
+        if (dispatcher != null) {
+            dispatcher.shutdown();
+        }
+        if (server != null) {
+            server.stop(0);
+            serverThread.shutdownNow();
+        }
+    }
+
+    @Test
+    void riprovaSu502503504FinoAlSuccesso() throws Exception {
+        List<Integer> risposte = Arrays.asList(502, 503, 504, 200);
+        AtomicInteger richieste = new AtomicInteger();
+        avviaServer(scambio -> rispondi(scambio, risposte.get(Math.min(richieste.getAndIncrement(), risposte.size() - 1))));
+
+        dispatcher = dispatcher(Collections.singletonList(url("t1")), 4, 2000, 3, 10);
+        dispatcher.lanciaTask();
+
+        EsitoTask esito = attendiCompletati(1).get(0);
+        assertEquals(EsitoTask.OK, esito.getStato());
+        assertEquals(4, esito.getTentativi());
+        assertEquals(Integer.valueOf(200), esito.getHttpCode());
+        assertNull(esito.getErrore());
+        assertEquals(4, richieste.get());
+    }
+
+    @Test
+    void nonRiprovaAltriErrori() throws Exception {
+        AtomicInteger richieste = new AtomicInteger();
+        avviaServer(scambio -> {
+            richieste.incrementAndGet();
+            rispondi(scambio, 500);
+        });
+
+        dispatcher = dispatcher(Collections.singletonList(url("t1")), 4, 2000, 3, 10);
+        dispatcher.lanciaTask();
+
+        EsitoTask esito = attendiCompletati(1).get(0);
+        assertEquals(EsitoTask.ERRORE, esito.getStato());
+        assertEquals(1, esito.getTentativi());
+        assertEquals("HTTP 500", esito.getErrore());
+        assertEquals(1, richieste.get());
+    }
+
+    @Test
+    void riprovaSeLaConnessioneNonRiesce() throws Exception {
+        int porta;
+        try (ServerSocket libera = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            porta = libera.getLocalPort();
+        }
+
+        dispatcher = dispatcher(Collections.singletonList("http://127.0.0.1:" + porta + "/GestioneTaskSchedulati?op=START&taskName=t1"),
+                4, 2000, 2, 10);
+        dispatcher.lanciaTask();
+
+        EsitoTask esito = attendiCompletati(1).get(0);
+        assertEquals(EsitoTask.ERRORE, esito.getStato());
+        assertEquals(3, esito.getTentativi());
+        assertNull(esito.getHttpCode());
+        assertTrue(esito.getErrore().startsWith("ConnectException"), esito.getErrore());
+    }
+
+    @Test
+    void attesaTraITentativiRaddoppia() throws Exception {
+        List<Long> arrivi = Collections.synchronizedList(new ArrayList<>());
+        avviaServer(scambio -> {
+            arrivi.add(System.nanoTime());
+            rispondi(scambio, 503);
+        });
+
+        long backoffMs = 100;
+        dispatcher = dispatcher(Collections.singletonList(url("t1")), 4, 2000, 3, backoffMs);
+        dispatcher.lanciaTask();
+
+        EsitoTask esito = attendiCompletati(1).get(0);
+        assertEquals(EsitoTask.ERRORE, esito.getStato());
+        assertEquals(4, esito.getTentativi());
+        assertEquals(4, arrivi.size());
+        for (int i = 1; i < arrivi.size(); i++) {
+            long attesaMs = TimeUnit.NANOSECONDS.toMillis(arrivi.get(i) - arrivi.get(i - 1));
+            long prevista = backoffMs << (i - 1);
+            assertTrue(attesaMs >= prevista && attesaMs < prevista + 1000,
+                    "attesa prima del tentativo " + (i + 1) + ": " + attesaMs + " ms, prevista " + prevista + " ms");
+        }
+    }
+
+    @Test
+    void timeoutDiLetturaLasciaIlTaskIncerto() throws Exception {
+        AtomicInteger richieste = new AtomicInteger();
+        avviaServer(scambio -> {
+            richieste.incrementAndGet();
+            try {
+                rilascio.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            rispondi(scambio, 200);
+        });
+
+        dispatcher = dispatcher(Collections.singletonList(url("t1")), 4, 300, 3, 10);
+        dispatcher.lanciaTask();
+
+        EsitoTask esito = attendiCompletati(1).get(0);
+        assertEquals(EsitoTask.INCERTO, esito.getStato());
+        assertEquals(1, esito.getTentativi());
+        assertTrue(esito.getErrore().startsWith("SocketTimeoutException"), esito.getErrore());
+        // Nessuna riprova dopo l'invio della richiesta
+        Thread.sleep(200);
+        assertEquals(1, richieste.get());
+    }
+
+    @Test
+    void rispettaIlLimiteDiChiamateContemporanee() throws Exception {
+        AtomicInteger inCorso = new AtomicInteger();
+        AtomicInteger massimo = new AtomicInteger();
+        avviaServer(scambio -> {
+            int attive = inCorso.incrementAndGet();
+            massimo.accumulateAndGet(attive, Math::max);
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            inCorso.decrementAndGet();
+            rispondi(scambio, 200);
+        });
+
+        List<String> urls = new ArrayList<>();
+        for (int i = 1; i <= 8; i++) {
+            urls.add(url("t" + i));
+        }
+        dispatcher = dispatcher(urls, 2, 2000, 0, 10);
+        dispatcher.lanciaTask();
+
+        List<EsitoTask> esiti = attendiCompletati(8);
+        for (EsitoTask esito : esiti) {
+            assertEquals(EsitoTask.OK, esito.getStato(), esito.getTaskName());
+        }
+        assertEquals(2, massimo.get());
+    }
+
+    private void avviaServer(HttpHandler handler) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", handler);
+        // Un thread per richiesta, per osservare le chiamate contemporanee del dispatcher
+        serverThread = Executors.newCachedThreadPool();
+        server.setExecutor(serverThread);
+        server.start();
+    }
+
+    private String url(String taskName) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/GestioneTaskSchedulati?op=START&taskName=" + taskName;
+    }
+
+    private static void rispondi(HttpExchange scambio, int codice) throws IOException {
+        scambio.sendResponseHeaders(codice, -1);
+        scambio.close();
+    }
+
+    private static TaskDispatcherService dispatcher(List<String> urls, int maxConcurrent, int timeoutMs,
+                                                    int maxRetries, long backoffMs) {
+        TaskProperties properties = new TaskProperties();
+        properties.setUrls(urls);
+        properties.setMaxConcurrent(maxConcurrent);
+        properties.setTimeoutMs(timeoutMs);
+        properties.setMaxRetries(maxRetries);
+        properties.setBackoffMs(backoffMs);
+
+        TaskDispatcherService service = new TaskDispatcherService();
+        ReflectionTestUtils.setField(service, "taskProperties", properties);
+        // Non inizializzato: thread di piattaforma
+        ReflectionTestUtils.setField(service, "threadVirtuali", new ThreadVirtuali());
+        service.init();
+        return service;
+    }
+
+    /**
+     * Attende che tutti i task siano completati (OK, ERRORE o INCERTO)
+     */
+    private List<EsitoTask> attendiCompletati(int task) throws InterruptedException {
+        long limite = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (System.nanoTime() < limite) {
+            List<EsitoTask> esiti = dispatcher.getUltimiEsiti();
+            if (esiti.size() == task && esiti.stream().allMatch(e -> e.getCompletato() != null)) {
+                return esiti;
+            }
+            Thread.sleep(20);
+        }
+        throw new AssertionError("Task non completati: " + dispatcher.getUltimiEsiti().size() + " di " + task);
+    }
+}